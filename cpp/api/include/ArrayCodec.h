@@ -0,0 +1,224 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+#ifndef CAMEO_ARRAYCODEC_H_
+#define CAMEO_ARRAYCODEC_H_
+
+#include "Defines.h"
+#include "BadFormatException.h"
+#include "InvalidArgumentException.h"
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+#include <string>
+#include <type_traits>
+#include <vector>
+
+namespace cameo {
+namespace coms {
+
+/**
+ * Encoding of the primitive arrays sent as binary messages. The encoding is the one of the Java ArrayCodec class.
+ * The layout is a header of 8 bytes followed by the shape and the data:
+ * - byte 0: the magic byte 0xCA,
+ * - byte 1: the version of the encoding,
+ * - byte 2: the kind of the elements, 'i' for the signed integers and 'f' for the floating point numbers,
+ * - byte 3: the size of an element in bytes,
+ * - byte 4: the byte order of the shape and the data, '<' for little endian and '>' for big endian,
+ * - byte 5: the number of dimensions,
+ * - bytes 6 and 7: zero,
+ * - the dimensions as 64-bit integers,
+ * - the elements in row-major order.
+ * The arrays are encoded in the native byte order.
+ */
+class CAMEO_EXPORT ArrayCodec {
+
+public:
+	static constexpr char MAGIC = static_cast<char>(0xCA);
+	static constexpr int VERSION = 1;
+	static constexpr char INT = 'i';
+	static constexpr char FLOAT = 'f';
+	static constexpr int HEADER_SIZE = 8;
+
+	/**
+	 * Class giving access to a decoded array.
+	 * The data is not copied so that the message must live as long as the array.
+	 */
+	class CAMEO_EXPORT Array {
+
+		friend class ArrayCodec;
+
+	public:
+		/**
+		 * Gets the kind of the elements.
+		 * \return INT or FLOAT.
+		 */
+		char getKind() const;
+
+		/**
+		 * Gets the size of an element.
+		 * \return The size in bytes.
+		 */
+		int getItemSize() const;
+
+		/**
+		 * Gets the byte order.
+		 * \return '<' for little endian and '>' for big endian.
+		 */
+		char getByteOrder() const;
+
+		/**
+		 * Gets the shape.
+		 * \return The dimensions.
+		 */
+		const std::vector<int64_t>& getShape() const;
+
+		/**
+		 * Gets the number of elements.
+		 * \return The number of elements.
+		 */
+		int64_t getLength() const;
+
+		/**
+		 * Gets the offset of the data in the message.
+		 * \return The offset in bytes.
+		 */
+		int64_t getDataOffset() const;
+
+		/**
+		 * Returns true if the array has the native byte order.
+		 * \return True if the data can be read without swapping the bytes.
+		 */
+		bool hasNativeOrder() const;
+
+		/**
+		 * Gets the data without copy.
+		 * \return The pointer to the first element.
+		 * \throws BadFormatException if the elements are not of type T or if the array does not have the native byte order.
+		 */
+		template<typename T>
+		const T* getData() const {
+			check<T>();
+			if (!m_nativeOrder) {
+				throw BadFormatException("Array does not have the native byte order");
+			}
+			return reinterpret_cast<const T*>(m_data);
+		}
+
+		/**
+		 * Copies the data into a vector. The bytes are swapped if the orders differ.
+		 * \return The elements.
+		 * \throws BadFormatException if the elements are not of type T.
+		 */
+		template<typename T>
+		std::vector<T> toVector() const {
+			check<T>();
+			std::vector<T> result(static_cast<size_t>(m_length));
+			std::memcpy(result.data(), m_data, static_cast<size_t>(m_length) * sizeof(T));
+			if (!m_nativeOrder) {
+				for (T& value : result) {
+					char* bytes = reinterpret_cast<char*>(&value);
+					std::reverse(bytes, bytes + sizeof(T));
+				}
+			}
+			return result;
+		}
+
+	private:
+		Array(char kind, int itemSize, char byteOrder, const std::vector<int64_t>& shape, int64_t length, int64_t dataOffset, const char* data);
+
+		template<typename T>
+		void check() const {
+			if (m_kind != kindOf<T>() || m_itemSize != static_cast<int>(sizeof(T))) {
+				throw BadFormatException(std::string("Array of ") + m_kind + std::to_string(m_itemSize) + " is not an array of " + kindOf<T>() + std::to_string(sizeof(T)));
+			}
+		}
+
+		char m_kind;
+		int m_itemSize;
+		char m_byteOrder;
+		bool m_nativeOrder;
+		std::vector<int64_t> m_shape;
+		int64_t m_length;
+		int64_t m_dataOffset;
+		const char* m_data;
+	};
+
+	/**
+	 * Returns true if the message is an encoded array.
+	 * \param message The message.
+	 * \return True if the message starts with the magic byte.
+	 */
+	static bool isArray(const std::string& message);
+
+	/**
+	 * Decodes an array. The data is not copied.
+	 * \param message The message.
+	 * \return The array.
+	 * \throws BadFormatException if the message is not a valid array.
+	 */
+	static Array decode(const std::string& message);
+
+	/**
+	 * Encodes the header and the shape of an array in the native byte order. The data must be appended.
+	 * \param kind INT or FLOAT.
+	 * \param itemSize The size of an element.
+	 * \param length The number of elements.
+	 * \param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * \return The header.
+	 * \throws InvalidArgumentException if the shape does not match the length.
+	 */
+	static std::string encodeHeader(char kind, int itemSize, int64_t length, const std::vector<int64_t>& shape);
+
+	/**
+	 * Encodes an array.
+	 * \param data The elements.
+	 * \param length The number of elements.
+	 * \param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * \return The message.
+	 * \throws InvalidArgumentException if the shape does not match the length.
+	 */
+	template<typename T>
+	static std::string encode(const T* data, int64_t length, const std::vector<int64_t>& shape = {}) {
+		std::string message {encodeHeader(kindOf<T>(), sizeof(T), length, shape)};
+		message.append(reinterpret_cast<const char*>(data), static_cast<size_t>(length) * sizeof(T));
+		return message;
+	}
+
+	/**
+	 * Encodes an array.
+	 * \param data The elements.
+	 * \param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * \return The message.
+	 * \throws InvalidArgumentException if the shape does not match the length.
+	 */
+	template<typename T>
+	static std::string encode(const std::vector<T>& data, const std::vector<int64_t>& shape = {}) {
+		return encode(data.data(), static_cast<int64_t>(data.size()), shape);
+	}
+
+	/**
+	 * Returns the native byte order.
+	 * \return '<' for little endian and '>' for big endian.
+	 */
+	static char nativeByteOrder();
+
+private:
+	template<typename T>
+	static constexpr char kindOf() {
+		static_assert(std::is_floating_point<T>::value || (std::is_integral<T>::value && std::is_signed<T>::value), "Only the signed integers and the floating point numbers are encoded");
+		return (std::is_floating_point<T>::value ? FLOAT : INT);
+	}
+};
+
+}
+}
+
+#endif
@@ -0,0 +1,193 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+#include "ArrayCodec.h"
+#include <limits>
+
+namespace cameo {
+namespace coms {
+
+namespace {
+
+constexpr char LITTLE_ENDIAN_ORDER = '<';
+constexpr char BIG_ENDIAN_ORDER = '>';
+
+int64_t multiply(int64_t x, int64_t y) {
+
+	// The values are not negative.
+	if (y != 0 && x > std::numeric_limits<int64_t>::max() / y) {
+		throw BadFormatException("Array shape overflows");
+	}
+	return x * y;
+}
+
+int64_t readDimension(const std::string& message, size_t offset, bool nativeOrder) {
+
+	char bytes[sizeof(int64_t)];
+	std::memcpy(bytes, message.data() + offset, sizeof(int64_t));
+
+	if (!nativeOrder) {
+		std::reverse(bytes, bytes + sizeof(int64_t));
+	}
+
+	int64_t value;
+	std::memcpy(&value, bytes, sizeof(int64_t));
+
+	return value;
+}
+
+}
+
+ArrayCodec::Array::Array(char kind, int itemSize, char byteOrder, const std::vector<int64_t>& shape, int64_t length, int64_t dataOffset, const char* data) :
+	m_kind{kind},
+	m_itemSize{itemSize},
+	m_byteOrder{byteOrder},
+	m_nativeOrder{byteOrder == nativeByteOrder()},
+	m_shape{shape},
+	m_length{length},
+	m_dataOffset{dataOffset},
+	m_data{data} {
+}
+
+char ArrayCodec::Array::getKind() const {
+	return m_kind;
+}
+
+int ArrayCodec::Array::getItemSize() const {
+	return m_itemSize;
+}
+
+char ArrayCodec::Array::getByteOrder() const {
+	return m_byteOrder;
+}
+
+const std::vector<int64_t>& ArrayCodec::Array::getShape() const {
+	return m_shape;
+}
+
+int64_t ArrayCodec::Array::getLength() const {
+	return m_length;
+}
+
+int64_t ArrayCodec::Array::getDataOffset() const {
+	return m_dataOffset;
+}
+
+bool ArrayCodec::Array::hasNativeOrder() const {
+	return m_nativeOrder;
+}
+
+char ArrayCodec::nativeByteOrder() {
+	uint16_t value {1};
+	return (*reinterpret_cast<const char*>(&value) == 1 ? LITTLE_ENDIAN_ORDER : BIG_ENDIAN_ORDER);
+}
+
+bool ArrayCodec::isArray(const std::string& message) {
+	return (message.size() >= HEADER_SIZE && message[0] == MAGIC);
+}
+
+ArrayCodec::Array ArrayCodec::decode(const std::string& message) {
+
+	if (!isArray(message)) {
+		throw BadFormatException("Message is not an array");
+	}
+
+	if (message[1] > VERSION) {
+		throw BadFormatException("Unknown array version " + std::to_string(message[1]));
+	}
+
+	char kind {message[2]};
+	int itemSize {message[3]};
+
+	if ((kind != INT && kind != FLOAT) || (itemSize != 1 && itemSize != 2 && itemSize != 4 && itemSize != 8)) {
+		throw BadFormatException(std::string("Bad array type ") + kind + std::to_string(itemSize));
+	}
+
+	char byteOrder {message[4]};
+	if (byteOrder != LITTLE_ENDIAN_ORDER && byteOrder != BIG_ENDIAN_ORDER) {
+		throw BadFormatException("Bad array byte order");
+	}
+
+	bool nativeOrder {byteOrder == nativeByteOrder()};
+
+	int numberOfDimensions {static_cast<unsigned char>(message[5])};
+	size_t dataOffset {HEADER_SIZE + numberOfDimensions * sizeof(int64_t)};
+
+	if (message.size() < dataOffset) {
+		throw BadFormatException("Truncated array header");
+	}
+
+	std::vector<int64_t> shape;
+	int64_t length {1};
+
+	for (int i = 0; i < numberOfDimensions; ++i) {
+		int64_t dimension {readDimension(message, HEADER_SIZE + i * sizeof(int64_t), nativeOrder)};
+		if (dimension < 0) {
+			throw BadFormatException("Negative dimension " + std::to_string(dimension));
+		}
+		shape.push_back(dimension);
+		length = multiply(length, dimension);
+	}
+
+	if (multiply(length, itemSize) != static_cast<int64_t>(message.size() - dataOffset)) {
+		throw BadFormatException("Array of " + std::to_string(message.size() - dataOffset) + " bytes does not match its shape");
+	}
+
+	return Array(kind, itemSize, byteOrder, shape, length, dataOffset, message.data() + dataOffset);
+}
+
+std::string ArrayCodec::encodeHeader(char kind, int itemSize, int64_t length, const std::vector<int64_t>& shape) {
+
+	// The default shape has one dimension.
+	std::vector<int64_t> dimensions {shape};
+	if (dimensions.empty()) {
+		dimensions.push_back(length);
+	}
+	else {
+		int64_t product {1};
+		for (int64_t dimension : dimensions) {
+			if (dimension < 0) {
+				throw InvalidArgumentException("Negative dimension " + std::to_string(dimension));
+			}
+			if (dimension != 0 && product > std::numeric_limits<int64_t>::max() / dimension) {
+				throw InvalidArgumentException("Array shape overflows");
+			}
+			product *= dimension;
+		}
+		if (product != length) {
+			throw InvalidArgumentException("Shape of " + std::to_string(product) + " elements for an array of " + std::to_string(length) + " elements");
+		}
+	}
+
+	if (dimensions.size() > 255) {
+		throw InvalidArgumentException("Too many dimensions " + std::to_string(dimensions.size()));
+	}
+
+	std::string header;
+	header.reserve(HEADER_SIZE + dimensions.size() * sizeof(int64_t));
+
+	header.push_back(MAGIC);
+	header.push_back(static_cast<char>(VERSION));
+	header.push_back(kind);
+	header.push_back(static_cast<char>(itemSize));
+	header.push_back(nativeByteOrder());
+	header.push_back(static_cast<char>(dimensions.size()));
+	header.push_back(0);
+	header.push_back(0);
+
+	for (int64_t dimension : dimensions) {
+		header.append(reinterpret_cast<const char*>(&dimension), sizeof(int64_t));
+	}
+
+	return header;
+}
+
+}
+}
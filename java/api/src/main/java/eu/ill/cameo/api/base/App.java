@@ -105,7 +105,7 @@ public class App extends EventListener {
 				this.setName(name);
 				this.key = key;
 				
-				server.registerEventListener(this);
+				server.registerEventListener(this, id, true);
 			}
 			
 			/**
@@ -473,6 +473,7 @@ public class App extends EventListener {
 	
 	App(Server server) {
 		this.server = server;
+		setQueueCapacity(server.getEventQueueCapacity(), server.getEventQueuePolicy());
 	}
 	
 	void setId(int id) {
@@ -540,6 +541,18 @@ public class App extends EventListener {
 		return server.getStatusEndpoint();
 	}
 	
+	/**
+	 * Gets the topic of the status events of this remote application.
+	 * It is the topic of the instance if the server publishes it, otherwise the wildcard topic receiving the status of all the applications.
+	 * @return The topic.
+	 */
+	public String getStatusTopic() {
+		if (server.hasApplicationTopics()) {
+			return Messages.Event.applicationTopic(Messages.Event.STATUS, getName(), getId());
+		}
+		return Messages.Event.STATUS;
+	}
+	
 	/**
 	 * Gets the string concatenation of the name and the id.
 	 * @return the name id.
@@ -17,6 +17,7 @@ public class Event {
 	
 	protected int id;
 	protected String name;
+	protected long sequence = -1;
 	
 	/**
 	 * Constructor.
@@ -44,4 +45,20 @@ public class Event {
 	public String getName() {
 		return name;
 	}
+	
+	/**
+	 * Gets the sequence number given by the server to the event.
+	 * @return The sequence number, -1 if the server does not number the events.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Sets the sequence number.
+	 * @param sequence The sequence number.
+	 */
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
 }
\ No newline at end of file
@@ -11,17 +11,33 @@
 package eu.ill.cameo.api.base;
 
 
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
 /**
  * The EventListener class receives event messages.
  * The application name is not required, in that case all messages are received.
+ * The queue of events is unbounded by default. A capacity can be set with a policy applied when the queue is full:
+ * block the event thread, drop the oldest event or coalesce the events of the same application.
  */
 public class EventListener {
 
+	/**
+	 * Policy applied when the queue is full.
+	 * BLOCK blocks the event thread until an event is popped. As the event thread is shared, the other listeners do not receive events in the meantime.
+	 * DROP_OLDEST drops the oldest event.
+	 * COALESCE replaces an older status of the same application by the new one or an older value of the same key by the new one.
+	 * The terminal states and the results are never coalesced. If there is nothing to coalesce, the oldest status or key event is dropped.
+	 */
+	public enum OverflowPolicy {BLOCK, DROP_OLDEST, COALESCE};
+	
 	private String name = null;
-	private LinkedBlockingQueue<Event> eventQueue = new LinkedBlockingQueue<Event>();
+	private ArrayDeque<Event> eventQueue = new ArrayDeque<Event>();
+	private int capacity = Integer.MAX_VALUE;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private long droppedEvents = 0;
+	private long coalescedEvents = 0;
+	private int highWaterMark = 0;
 	
 	/**
 	 * Gets the application name.
@@ -40,16 +56,208 @@ public class EventListener {
 		this.name = name;
 	}
 	
+	/**
+	 * Sets the capacity of the queue and the policy applied when it is full.
+	 * The events already in the queue are kept.
+	 * @param capacity The capacity, Integer.MAX_VALUE for an unbounded queue.
+	 * @param overflowPolicy The policy.
+	 */
+	public synchronized void setQueueCapacity(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1) {
+			throw new InvalidArgumentException("The capacity of the event queue must be positive");
+		}
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		
+		// Unblock the event thread if the capacity is larger.
+		notifyAll();
+	}
+	
+	/**
+	 * Gets the capacity of the queue.
+	 * @return The capacity.
+	 */
+	public synchronized int getQueueCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Gets the policy applied when the queue is full.
+	 * @return The policy.
+	 */
+	public synchronized OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/**
+	 * Gets the number of events in the queue.
+	 * @return The number of events.
+	 */
+	public synchronized int getQueueSize() {
+		return eventQueue.size();
+	}
+	
+	/**
+	 * Gets the number of events dropped because the queue was full.
+	 * @return The number of events.
+	 */
+	public synchronized long getDroppedEvents() {
+		return droppedEvents;
+	}
+	
+	/**
+	 * Gets the number of events replaced by a newer event of the same application.
+	 * @return The number of events.
+	 */
+	public synchronized long getCoalescedEvents() {
+		return coalescedEvents;
+	}
+	
+	/**
+	 * Gets the maximum number of events that the queue contained.
+	 * @return The number of events.
+	 */
+	public synchronized int getHighWaterMark() {
+		return highWaterMark;
+	}
+	
+	private static boolean isTerminal(Event event) {
+		
+		if (!(event instanceof StatusEvent)) {
+			return false;
+		}
+		
+		int state = ((StatusEvent)event).getState();
+		return (state == State.SUCCESS || state == State.STOPPED || state == State.KILLED || state == State.FAILURE);
+	}
+	
+	/**
+	 * Returns true if the event can be dropped or replaced: the terminal states, the results and the cancel events are kept.
+	 */
+	private static boolean isDroppable(Event event) {
+		return ((event instanceof StatusEvent || event instanceof KeyEvent) && !isTerminal(event));
+	}
+	
+	/**
+	 * Removes an older event superseded by the new one.
+	 * @return The removed event or null.
+	 */
+	private Event removeSuperseded(Event event) {
+		
+		if (!isDroppable(event)) {
+			return null;
+		}
+		
+		Iterator<Event> it = eventQueue.iterator();
+		while (it.hasNext()) {
+			Event queued = it.next();
+			
+			if (queued.getId() != event.getId() || queued.getClass() != event.getClass() || !isDroppable(queued)) {
+				continue;
+			}
+			
+			if (event instanceof StatusEvent
+				|| ((KeyEvent)queued).getKey().equals(((KeyEvent)event).getKey())) {
+				it.remove();
+				return queued;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Removes the oldest event that can be dropped.
+	 * @return True if an event has been removed.
+	 */
+	private boolean removeOldest(boolean onlyDroppable) {
+		
+		Iterator<Event> it = eventQueue.iterator();
+		while (it.hasNext()) {
+			Event queued = it.next();
+			
+			if (!(queued instanceof CancelEvent) && (!onlyDroppable || isDroppable(queued))) {
+				it.remove();
+				droppedEvents++;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	/**
 	 * Pushes the event on the queue.
 	 * @param event The event.
 	 */
-	public void pushEvent(Event event) {
-		try {
-			eventQueue.put(event);
+	public synchronized void pushEvent(Event event) {
+		
+		if (eventQueue.size() >= capacity) {
+			
+			if (overflowPolicy == OverflowPolicy.BLOCK) {
+				try {
+					while (eventQueue.size() >= capacity && overflowPolicy == OverflowPolicy.BLOCK) {
+						wait();
+					}
+				}
+				catch (InterruptedException e) {
+					// The event is lost, restore the interrupt for the caller.
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			
+			if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+				removeOldest(false);
+			}
+			else if (overflowPolicy == OverflowPolicy.COALESCE) {
+				Event superseded = removeSuperseded(event);
+				
+				if (superseded != null) {
+					coalescedEvents++;
+					
+					// Keep the past states of the replaced status.
+					if (event instanceof StatusEvent) {
+						event = mergePastStates((StatusEvent)event, (StatusEvent)superseded);
+					}
+				}
+				else {
+					removeOldest(true);
+				}
+			}
 		}
-		catch (InterruptedException e) {
+		
+		add(event);
+	}
+	
+	private static StatusEvent mergePastStates(StatusEvent event, StatusEvent superseded) {
+		
+		int pastStates = event.getPastStates() | superseded.getPastStates();
+		if (pastStates == event.getPastStates()) {
+			return event;
+		}
+		
+		StatusEvent merged;
+		if (event.getExitCode() != null) {
+			merged = new StatusEvent(event.getId(), event.getName(), event.getState(), pastStates, event.getExitCode());
+		}
+		else {
+			merged = new StatusEvent(event.getId(), event.getName(), event.getState(), pastStates);
 		}
+		merged.setSequence(event.getSequence());
+		
+		return merged;
+	}
+	
+	private void add(Event event) {
+		
+		eventQueue.add(event);
+		
+		if (eventQueue.size() > highWaterMark) {
+			highWaterMark = eventQueue.size();
+		}
+		
+		notifyAll();
 	}
 	
 	/**
@@ -57,23 +265,35 @@ public class EventListener {
 	 * @param blocking True if the call is blocking.
 	 * @throws Timeout in case of timeout.
 	 */
-	public Event popEvent(boolean blocking, int timeout) {
+	public synchronized Event popEvent(boolean blocking, int timeout) {
 		try {
 			if (blocking) {
 				if (timeout == -1) {
-					return eventQueue.take();
+					while (eventQueue.isEmpty()) {
+						wait();
+					}
 				}
 				else {
-					Event event = eventQueue.poll(timeout, TimeUnit.MILLISECONDS);
+					long end = System.currentTimeMillis() + timeout;
 					
-					if (event != null) {
-						return event;
+					while (eventQueue.isEmpty()) {
+						long remaining = end - System.currentTimeMillis();
+						if (remaining <= 0) {
+							throw new Timeout();
+						}
+						wait(remaining);
 					}
-					
-					throw new Timeout();
 				}
 			}
-			return eventQueue.poll();
+			
+			Event event = eventQueue.poll();
+			
+			// Unblock the event thread.
+			if (event != null) {
+				notifyAll();
+			}
+			
+			return event;
 		}
 		catch (InterruptedException e) {
 			return null;
@@ -108,12 +328,9 @@ public class EventListener {
 	 * Pushes a CancelEvent with application id.
 	 * @param id The application id.
 	 */
-	public void cancel(int id) {
-		try {
-			eventQueue.put(new CancelEvent(id, name));
-		}
-		catch (InterruptedException e) {
-			System.out.println("interrupted EventListener while putting");
-		}
+	public synchronized void cancel(int id) {
+		
+		// The cancel event is pushed even if the queue is full so that the waiting call returns.
+		add(new CancelEvent(id, name));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.api.base;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Class indexing the event listeners of a server so that the dispatch of an event only visits the interested listeners.
+ * The filtered listeners are indexed by application name or by application id once the id is known.
+ * The listeners indexed by id still check the name because the ids are reused by the server.
+ * The index is locked during the short lookup and the events are pushed outside.
+ */
+class EventListenerIndex {
+
+	private static class Registration {
+
+		FilteredEventListener listener;
+		LinkedHashSet<FilteredEventListener> group;
+		Object key;
+
+		Registration(FilteredEventListener listener, LinkedHashSet<FilteredEventListener> group, Object key) {
+			this.listener = listener;
+			this.group = group;
+			this.key = key;
+		}
+	}
+
+	private LinkedHashSet<FilteredEventListener> unfilteredListeners = new LinkedHashSet<FilteredEventListener>();
+	private HashMap<String, LinkedHashSet<FilteredEventListener>> listenersByName = new HashMap<String, LinkedHashSet<FilteredEventListener>>();
+	private HashMap<Integer, LinkedHashSet<FilteredEventListener>> listenersById = new HashMap<Integer, LinkedHashSet<FilteredEventListener>>();
+	private IdentityHashMap<EventListener, Registration> registrations = new IdentityHashMap<EventListener, Registration>();
+
+	private static <K> LinkedHashSet<FilteredEventListener> group(HashMap<K, LinkedHashSet<FilteredEventListener>> map, K key) {
+
+		LinkedHashSet<FilteredEventListener> group = map.get(key);
+		if (group == null) {
+			group = new LinkedHashSet<FilteredEventListener>();
+			map.put(key, group);
+		}
+		return group;
+	}
+
+	private void add(FilteredEventListener filteredListener, LinkedHashSet<FilteredEventListener> group, Object key) {
+		group.add(filteredListener);
+		registrations.put(filteredListener.getListener(), new Registration(filteredListener, group, key));
+	}
+
+	/**
+	 * Adds a listener. A filtered listener is indexed by its name.
+	 * @param listener The listener.
+	 * @param filtered True if the listener only receives the events of the applications with its name.
+	 */
+	synchronized void add(EventListener listener, boolean filtered) {
+
+		// A listener is registered once.
+		remove(listener);
+
+		FilteredEventListener filteredListener = new FilteredEventListener(listener, filtered);
+
+		if (filtered) {
+			add(filteredListener, group(listenersByName, listener.getName()), listener.getName());
+		}
+		else {
+			add(filteredListener, unfilteredListeners, null);
+		}
+	}
+
+	/**
+	 * Adds a listener that only receives the events of an application id.
+	 * @param listener The listener.
+	 * @param id The application id.
+	 * @param filtered True if the listener also filters on its name.
+	 */
+	synchronized void add(EventListener listener, int id, boolean filtered) {
+		remove(listener);
+		add(new FilteredEventListener(listener, filtered), group(listenersById, id), id);
+	}
+
+	/**
+	 * Moves a registered listener to the index of the application id.
+	 * The move is atomic so that no event is lost or received twice.
+	 * @param listener The listener.
+	 * @param id The application id.
+	 */
+	synchronized void setId(EventListener listener, int id) {
+
+		Registration registration = registrations.get(listener);
+		if (registration == null) {
+			return;
+		}
+
+		add(listener, id, registration.listener.isFiltered());
+	}
+
+	/**
+	 * Removes a listener.
+	 * @param listener The listener.
+	 */
+	synchronized void remove(EventListener listener) {
+
+		Registration registration = registrations.remove(listener);
+		if (registration == null) {
+			return;
+		}
+
+		registration.group.remove(registration.listener);
+
+		// Remove the empty groups so that the maps do not grow with the applications.
+		if (registration.group.isEmpty() && registration.group != unfilteredListeners) {
+			if (registration.key instanceof Integer) {
+				listenersById.remove(registration.key);
+			}
+			else {
+				listenersByName.remove(registration.key);
+			}
+		}
+	}
+
+	/**
+	 * Collects the listeners interested in an event.
+	 * @param event The event.
+	 * @param result The list receiving the listeners.
+	 */
+	synchronized void collect(Event event, List<EventListener> result) {
+
+		for (FilteredEventListener filteredListener : unfilteredListeners) {
+			result.add(filteredListener.getListener());
+		}
+
+		LinkedHashSet<FilteredEventListener> group = listenersByName.get(event.getName());
+		if (group != null) {
+			for (FilteredEventListener filteredListener : group) {
+				result.add(filteredListener.getListener());
+			}
+		}
+
+		group = listenersById.get(event.getId());
+		if (group != null) {
+			for (FilteredEventListener filteredListener : group) {
+				if (!filteredListener.isFiltered() || filteredListener.getListener().getName().equals(event.getName())) {
+					result.add(filteredListener.getListener());
+				}
+			}
+		}
+	}
+}
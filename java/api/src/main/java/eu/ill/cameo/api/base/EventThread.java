@@ -10,7 +10,7 @@
 
 package eu.ill.cameo.api.base;
 
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.ArrayList;
 
 /**
  * Class defining an Event thread.
@@ -20,6 +20,7 @@ class EventThread extends Thread {
 
 	private Server server;
 	private EventStreamSocket socket;
+	private ArrayList<EventListener> listeners = new ArrayList<EventListener>();
 		
 	EventThread(Server server, EventStreamSocket socket) {
 		this.server = server;
@@ -38,17 +39,19 @@ class EventThread extends Thread {
 					return;
 				}
 				
-				// Forward the event to the listeners.
-				ConcurrentLinkedDeque<FilteredEventListener> eventListeners = server.getEventListeners();
-				for (FilteredEventListener listener : eventListeners) {
-					
-					// If the application name is null, all the status are pushed, otherwise, filter on the name.
-					// We filter on the name because the id is not known at the registration.
-					if (!listener.isFiltered()
-						|| listener.getListener().getName().equals(event.getName())) {
-						listener.getListener().pushEvent(event);
-					}
+				// Update the local copy of the states before the listeners so that they read the new state.
+				StateMirror stateMirror = server.getStateMirror();
+				if (stateMirror != null) {
+					stateMirror.processEvent(event);
 				}
+				
+				// Forward the event to the listeners indexed by the name or the id of the application.
+				// The listeners are collected first so that the index is not locked while pushing.
+				server.getEventListeners().collect(event, listeners);
+				for (EventListener listener : listeners) {
+					listener.pushEvent(event);
+				}
+				listeners.clear();
 			}
 		}
 		finally {
@@ -34,4 +34,9 @@ public class Option {
 	 * Constant for no proxy.
 	 */
 	public final static int USE_PROXY = (1 << 2);
+	
+	/**
+	 * Constant for the local copy of the states of the applications.
+	 */
+	public final static int MIRROR_STATES = (1 << 3);
 }
\ No newline at end of file
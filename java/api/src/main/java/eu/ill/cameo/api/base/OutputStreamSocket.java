@@ -113,6 +113,14 @@ public class OutputStreamSocket implements ICancelable {
 		impl.setApplicationId(id);
 	}
 
+	/**
+	 * Retrieves the recent output kept by the server so that it is returned by receive() before the live output.
+	 * Nothing is retrieved if the application does not keep its output.
+	 */
+	public void requestBacklog() {
+		impl.requestBacklog();
+	}
+	
 	/**
 	 * Cancels the socket.
 	 */
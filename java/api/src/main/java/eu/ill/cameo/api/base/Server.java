@@ -16,7 +16,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -39,6 +38,9 @@ public class Server extends PingableObject implements ITimeoutable {
 	private Endpoint serverEndpoint;
 	private boolean useProxy = false;
 	private int[] serverVersion = new int[3];
+	private boolean applicationTopics = false;
+	private boolean outputBacklog = false;
+	private boolean portRanges = false;
 	private int responderProxyPort;
 	private int publisherProxyPort;
 	private int subscriberProxyPort;
@@ -46,27 +48,42 @@ public class Server extends PingableObject implements ITimeoutable {
 	private int statusPort;
 	private Context context;
 	private int timeout = 0; // default value because of ZeroMQ design
+	private int eventQueueCapacity = Integer.MAX_VALUE;
+	private EventListener.OverflowPolicy eventQueuePolicy = EventListener.OverflowPolicy.BLOCK;
 	private RequestSocket requestSocket;
 	private JSON.Parser parser = new JSON.Parser();
-	private ConcurrentLinkedDeque<FilteredEventListener> eventListeners = new ConcurrentLinkedDeque<FilteredEventListener>(); 
+	private EventListenerIndex eventListeners = new EventListenerIndex();
 	private EventThread eventThread;
+	private StateMirror stateMirror;
 	
 	private Server(Endpoint endpoint, int options) {
 		
 		this.serverEndpoint = endpoint;
 		this.useProxy = ((options & Option.USE_PROXY) != 0);
+		
+		if ((options & Option.MIRROR_STATES) != 0) {
+			stateMirror = new StateMirror(this);
+		}
 	}
 
 	private Server(String endpoint, int options) {
 
 		this.serverEndpointString = endpoint;
 		this.useProxy = ((options & Option.USE_PROXY) != 0);
+		
+		if ((options & Option.MIRROR_STATES) != 0) {
+			stateMirror = new StateMirror(this);
+		}
 	}
 	
 	/**
 	 * Creates a server.
+	 * With MIRROR_STATES, the states, the application infos and the stored keys are read from a local copy kept current by the events of the server.
+	 * The local copy can be behind the server by the time the last events take to arrive.
+	 * The state of a terminated application is requested to the server.
+	 * The requests are sent to the server if it does not number its events.
 	 * @param endpoint The endpoint of the remote server.
-	 * @param options Uses the proxy with USE_PROXY.
+	 * @param options Uses the proxy with USE_PROXY and the local copy of the states with MIRROR_STATES.
 	 */	
 	public static Server create(Endpoint endpoint, int options) {
 		return new Server(endpoint, options);
@@ -83,7 +100,7 @@ public class Server extends PingableObject implements ITimeoutable {
 	/**
 	 * Creates a server.
 	 * @param endpoint The endpoint of the remote server.
-	 * @param options Uses the proxy with USE_PROXY.
+	 * @param options Uses the proxy with USE_PROXY and the local copy of the states with MIRROR_STATES.
 	 */
 	public static Server create(String endpoint, int options) {
 		return new Server(endpoint, options);
@@ -193,6 +210,30 @@ public class Server extends PingableObject implements ITimeoutable {
 		return timeout;
 	}
 	
+	/**
+	 * Sets the capacity of the event queue of the App objects created afterwards.
+	 * It bounds the memory used by the events of the App objects that are never waited for.
+	 * With the BLOCK policy, a single full queue stalls the event thread of the server and thus the events of all the listeners, including the other App objects.
+	 * The BLOCK policy must therefore only be used when all the App objects are waited for.
+	 * @param capacity The capacity, Integer.MAX_VALUE for an unbounded queue.
+	 * @param policy The policy applied when the queue is full.
+	 */
+	public void setEventQueueCapacity(int capacity, EventListener.OverflowPolicy policy) {
+		if (capacity < 1) {
+			throw new InvalidArgumentException("The capacity of the event queue must be positive");
+		}
+		this.eventQueueCapacity = capacity;
+		this.eventQueuePolicy = policy;
+	}
+	
+	int getEventQueueCapacity() {
+		return eventQueueCapacity;
+	}
+	
+	EventListener.OverflowPolicy getEventQueuePolicy() {
+		return eventQueuePolicy;
+	}
+	
 	/**
 	 * Gets the endpoint of the server running this remote application.
 	 * @return The endpoint.
@@ -225,6 +266,22 @@ public class Server extends PingableObject implements ITimeoutable {
 		return serverEndpoint.withPort(statusPort);
 	}
 	
+	/**
+	 * Returns true if the server also publishes the events on the topics of the applications.
+	 * @return True if the application topics are published.
+	 */
+	boolean hasApplicationTopics() {
+		return applicationTopics;
+	}
+	
+	/**
+	 * Returns true if the server reserves ranges of ports.
+	 * @return True if the ranges of ports are reserved.
+	 */
+	boolean hasPortRanges() {
+		return portRanges;
+	}
+	
 	Context getContext() {
 		return context;
 	}
@@ -272,6 +329,18 @@ public class Server extends PingableObject implements ITimeoutable {
 		serverVersion[0] = JSON.getInt(response, Messages.VersionResponse.MAJOR);
 		serverVersion[1] = JSON.getInt(response, Messages.VersionResponse.MINOR);
 		serverVersion[2] = JSON.getInt(response, Messages.VersionResponse.REVISION);
+		
+		// The old servers only publish the events on the wildcard topics.
+		applicationTopics = response.containsKey(Messages.VersionResponse.APPLICATION_TOPICS)
+				&& JSON.getBoolean(response, Messages.VersionResponse.APPLICATION_TOPICS);
+		
+		// The old servers do not keep the output of the applications.
+		outputBacklog = response.containsKey(Messages.VersionResponse.OUTPUT_BACKLOG)
+				&& JSON.getBoolean(response, Messages.VersionResponse.OUTPUT_BACKLOG);
+		
+		// The old servers reserve only one port whatever the count.
+		portRanges = response.containsKey(Messages.VersionResponse.PORT_RANGES)
+				&& JSON.getBoolean(response, Messages.VersionResponse.PORT_RANGES);
 	}
 	
 	RequestSocket createRequestSocket(String endpoint, String responderIdentity) throws SocketException {
@@ -355,7 +424,7 @@ public class Server extends PingableObject implements ITimeoutable {
 	 * @param filtered True if is filtered.
 	 */
 	public void registerEventListener(EventListener listener, boolean filtered) {
-		eventListeners.add(new FilteredEventListener(listener, filtered));
+		eventListeners.add(listener, filtered);
 	}
 
 	/**
@@ -363,7 +432,26 @@ public class Server extends PingableObject implements ITimeoutable {
 	 * @param listener The EventListener object.
 	 */
 	public void registerEventListener(EventListener listener) {
-		eventListeners.add(new FilteredEventListener(listener, true));
+		eventListeners.add(listener, true);
+	}
+	
+	/**
+	 * Registers an event listener that only receives the events of an application id.
+	 * @param listener The EventListener object.
+	 * @param id The application id.
+	 * @param filtered True if the listener also filters on its name.
+	 */
+	void registerEventListener(EventListener listener, int id, boolean filtered) {
+		eventListeners.add(listener, id, filtered);
+	}
+	
+	/**
+	 * Restricts a registered event listener to the events of an application id once it is known.
+	 * @param listener The EventListener object.
+	 * @param id The application id.
+	 */
+	void setEventListenerId(EventListener listener, int id) {
+		eventListeners.setId(listener, id);
 	}
 	
 	/**
@@ -371,15 +459,21 @@ public class Server extends PingableObject implements ITimeoutable {
 	 * @param listener The EventListener object.
 	 */
 	public void unregisterEventListener(EventListener listener) {
-		
-		for (FilteredEventListener filteredEventListener : eventListeners) {
-			if (filteredEventListener.getListener() == listener) {
-				eventListeners.remove(filteredEventListener);
-			}
+		eventListeners.remove(listener);
+	}
+	
+	/**
+	 * Gets the local copy of the states if it is used and fed by the event thread.
+	 * @return The local copy or null.
+	 */
+	StateMirror getStateMirror() {
+		if (eventThread == null) {
+			return null;
 		}
+		return stateMirror;
 	}
 	
-	ConcurrentLinkedDeque<FilteredEventListener> getEventListeners() {
+	EventListenerIndex getEventListeners() {
 		return eventListeners;
 	}
 
@@ -497,6 +591,7 @@ public class Server extends PingableObject implements ITimeoutable {
 			}
 			else {
 				instance.setId(response.getValue());
+				setEventListenerId(instance, response.getValue());
 				
 				if (outputStream) {
 					instance.setOutputStreamSocket(streamSocket);
@@ -592,11 +687,21 @@ public class Server extends PingableObject implements ITimeoutable {
 				if (isAlive(applicationId)) {
 					
 					instance.setId(applicationId);
+					setEventListenerId(instance, applicationId);
 					instance.setInitialState(JSON.getInt(applicationInfo, Messages.ApplicationInfo.APPLICATION_STATE));
 					instance.setPastStates(JSON.getInt(applicationInfo, Messages.ApplicationInfo.PAST_APPLICATION_STATES));
 					
 					if (outputStream) {
-						instance.setOutputStreamSocket(createOutputStreamSocket(name));
+						OutputStreamSocket streamSocket = createOutputStreamSocket(name);
+						instance.setOutputStreamSocket(streamSocket);
+						
+						// Retrieve the output printed before the connection if the server keeps it for the application.
+						boolean outputBuffer = applicationInfo.containsKey(Messages.ApplicationInfo.OUTPUT_BUFFER)
+								&& JSON.getBoolean(applicationInfo, Messages.ApplicationInfo.OUTPUT_BUFFER);
+						
+						if (streamSocket != null && outputBacklog && outputBuffer) {
+							streamSocket.requestBacklog();
+						}
 					}
 					
 					instances.add(instance);
@@ -733,8 +838,15 @@ public class Server extends PingableObject implements ITimeoutable {
 	 */
 	public List<App.Info> getApplicationInfos() {
 
-		JSONObject request = Messages.createAppsRequest();
-		JSONObject response = requestSocket.requestJSON(request);
+		StateMirror mirror = getStateMirror();
+		if (mirror != null) {
+			List<App.Info> infos = mirror.getApplicationInfos();
+			if (infos != null) {
+				return infos;
+			}
+		}
+		
+		JSONObject response = requestApplicationInfos();
 		
 		LinkedList<App.Info> applications = new LinkedList<App.Info>();
 		
@@ -757,6 +869,10 @@ public class Server extends PingableObject implements ITimeoutable {
 		return applications;
 	}
 	
+	JSONObject requestApplicationInfos() {
+		return requestSocket.requestJSON(Messages.createAppsRequest());
+	}
+	
 	/**
 	 * Gets the list of application infos for the applications with name.
 	 * @param name The name of the applications.
@@ -783,6 +899,14 @@ public class Server extends PingableObject implements ITimeoutable {
 	 */
 	public int getState(int id) {
 		
+		StateMirror mirror = getStateMirror();
+		if (mirror != null) {
+			Integer state = mirror.getState(id);
+			if (state != null) {
+				return state;
+			}
+		}
+		
 		JSONObject response = requestSocket.requestJSON(Messages.createGetStatusRequest(id));
 		
 		return JSON.getInt(response, Messages.StatusEvent.APPLICATION_STATE);
@@ -795,9 +919,17 @@ public class Server extends PingableObject implements ITimeoutable {
 	 */
 	public Set<Integer> getPastStates(int id) {
 		
-		JSONObject response = requestSocket.requestJSON(Messages.createGetStatusRequest(id));
+		Integer applicationStates = null;
+		
+		StateMirror mirror = getStateMirror();
+		if (mirror != null) {
+			applicationStates = mirror.getPastStates(id);
+		}
 		
-		int applicationStates = JSON.getInt(response, Messages.StatusEvent.PAST_APPLICATION_STATES);
+		if (applicationStates == null) {
+			JSONObject response = requestSocket.requestJSON(Messages.createGetStatusRequest(id));
+			applicationStates = JSON.getInt(response, Messages.StatusEvent.PAST_APPLICATION_STATES);
+		}
 		
 		Set<Integer> result = new HashSet<Integer>();
 		
@@ -862,6 +994,14 @@ public class Server extends PingableObject implements ITimeoutable {
 	
 	private boolean isAlive(int id) {
 
+		StateMirror mirror = getStateMirror();
+		if (mirror != null) {
+			Boolean alive = mirror.isAlive(id);
+			if (alive != null) {
+				return alive;
+			}
+		}
+		
 		JSONObject request = Messages.createIsAliveRequest(id);
 		JSONObject response = requestSocket.requestJSON(request);
 		
@@ -918,6 +1058,15 @@ public class Server extends PingableObject implements ITimeoutable {
 	
 	String getKeyValue(int applicationId, String key) throws UndefinedApplicationException, UndefinedKeyException {
 		
+		// Only the keys stored after the snapshot of the local copy are known.
+		StateMirror mirror = getStateMirror();
+		if (mirror != null) {
+			String value = mirror.getKeyValue(applicationId, key);
+			if (value != null) {
+				return value;
+			}
+		}
+		
 		JSONObject request = Messages.createGetKeyValueRequest(applicationId, key);
 		JSONObject response = requestSocket.requestJSON(request);
 		
@@ -961,6 +1110,22 @@ public class Server extends PingableObject implements ITimeoutable {
 		return value;
 	}
 	
+	int requestPorts(int applicationId, int count) throws UndefinedApplicationException {
+		
+		JSONObject request = Messages.createRequestPortRequest(applicationId, count);
+		JSONObject response = requestSocket.requestJSON(request);
+		
+		int value = JSON.getInt(response, Messages.RequestResponse.VALUE);
+		if (value == -1) {
+			throw new UndefinedApplicationException(JSON.getString(response, Messages.RequestResponse.MESSAGE));
+		}
+		else if (value == -2) {
+			// No range of ports is available.
+			return -1;
+		}
+		return value;
+	}
+	
 	void setPortUnavailable(int applicationId, int port) throws UndefinedApplicationException {
 		
 		JSONObject request = Messages.createPortUnavailableRequest(applicationId, port);
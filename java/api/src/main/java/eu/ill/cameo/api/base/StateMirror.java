@@ -0,0 +1,332 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.api.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.Messages;
+
+/**
+ * Class keeping a local copy of the states of the applications of a server.
+ * The copy is seeded by a snapshot of the application infos and kept current by the events received by the event thread.
+ * The server numbers the events so that a lost event invalidates the copy and the next read takes a new snapshot.
+ * The copy can be behind the server by the time the last events take to arrive.
+ * A terminated application is removed from the copy as it is removed from the server so that the requests are sent for it.
+ */
+class StateMirror {
+
+	private static class Entry {
+
+		String name;
+		long pid;
+		int state;
+		int pastStates;
+		String args;
+		boolean complete;
+		HashMap<String, String> keyValues = new HashMap<String, String>();
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	private Server server;
+	private Object snapshotLock = new Object();
+	private TreeMap<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+	private long sequence = -1;
+	private boolean valid = false;
+	private boolean supported = true;
+	private boolean snapshotting = false;
+	private ArrayList<Event> pendingEvents = new ArrayList<Event>();
+
+	StateMirror(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 * Processes an event received by the event thread.
+	 * @param event The event.
+	 */
+	synchronized void processEvent(Event event) {
+
+		if (valid) {
+			// The events are received in order, a lower number means that the server has been restarted.
+			if (event.getSequence() <= sequence) {
+				valid = false;
+				return;
+			}
+			apply(event);
+		}
+		else if (snapshotting) {
+			// Keep the event until the snapshot is received.
+			pendingEvents.add(event);
+		}
+	}
+
+	private static boolean isTerminal(int state) {
+		return (state == State.SUCCESS || state == State.STOPPED || state == State.KILLED || state == State.FAILURE);
+	}
+
+	private void apply(Event event) {
+
+		long eventSequence = event.getSequence();
+
+		// The event received during the snapshot request is already in the snapshot.
+		if (eventSequence <= sequence) {
+			return;
+		}
+
+		// An event has been lost.
+		if (eventSequence != sequence + 1) {
+			valid = false;
+			return;
+		}
+
+		sequence = eventSequence;
+
+		if (event instanceof StatusEvent) {
+
+			// The synchronization events have no application.
+			if (event.getId() < 0) {
+				return;
+			}
+
+			StatusEvent status = (StatusEvent)event;
+
+			// The server removes the terminated application with its keys.
+			if (isTerminal(status.getState())) {
+				entries.remove(event.getId());
+				return;
+			}
+
+			Entry entry = entries.get(event.getId());
+
+			// The pid and the args of a new application are not in the events.
+			if (entry == null || !entry.name.equals(event.getName())) {
+				entry = new Entry(event.getName());
+				entries.put(event.getId(), entry);
+			}
+
+			entry.state = status.getState();
+			entry.pastStates = status.getPastStates();
+		}
+		else if (event instanceof KeyEvent) {
+
+			KeyEvent keyEvent = (KeyEvent)event;
+			Entry entry = entries.get(event.getId());
+
+			if (entry != null) {
+				if (keyEvent.getStatus() == KeyEvent.Status.STORED) {
+					entry.keyValues.put(keyEvent.getKey(), keyEvent.getValue());
+				}
+				else {
+					entry.keyValues.remove(keyEvent.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot if the copy is not valid.
+	 * @return True if the copy can be read, false if the server does not number the events or an event was lost during the snapshot request.
+	 */
+	private boolean update() {
+
+		// Only one snapshot at a time.
+		synchronized (snapshotLock) {
+
+			synchronized (this) {
+				if (!supported) {
+					return false;
+				}
+				if (valid) {
+					return true;
+				}
+				snapshotting = true;
+				pendingEvents.clear();
+			}
+
+			JSONObject response = null;
+
+			try {
+				response = server.requestApplicationInfos();
+			}
+			finally {
+				synchronized (this) {
+					snapshotting = false;
+
+					if (response != null) {
+						install(response);
+					}
+					pendingEvents.clear();
+				}
+			}
+
+			synchronized (this) {
+				return (supported && valid);
+			}
+		}
+	}
+
+	private void install(JSONObject response) {
+
+		// The old servers do not number the events.
+		if (!response.containsKey(Messages.ApplicationInfoListResponse.SEQUENCE)) {
+			supported = false;
+			return;
+		}
+
+		entries.clear();
+
+		JSONArray list = JSON.getArray(response, Messages.ApplicationInfoListResponse.APPLICATION_INFO);
+
+		for (int i = 0; i < list.size(); ++i) {
+			JSONObject info = (JSONObject)list.get(i);
+
+			// The terminated application is being removed.
+			if (isTerminal(JSON.getInt(info, Messages.ApplicationInfo.APPLICATION_STATE))) {
+				continue;
+			}
+
+			Entry entry = new Entry(JSON.getString(info, Messages.ApplicationInfo.NAME));
+			entry.pid = JSON.getLong(info, Messages.ApplicationInfo.PID);
+			entry.state = JSON.getInt(info, Messages.ApplicationInfo.APPLICATION_STATE);
+			entry.pastStates = JSON.getInt(info, Messages.ApplicationInfo.PAST_APPLICATION_STATES);
+			entry.args = JSON.getString(info, Messages.ApplicationInfo.ARGS);
+			entry.complete = true;
+
+			entries.put(JSON.getInt(info, Messages.ApplicationInfo.ID), entry);
+		}
+
+		sequence = JSON.getLong(response, Messages.ApplicationInfoListResponse.SEQUENCE);
+		valid = true;
+
+		// Apply the events received during the request.
+		for (Event event : pendingEvents) {
+			apply(event);
+		}
+	}
+
+	/**
+	 * Gets the state of an application.
+	 * @param id The application id.
+	 * @return The state or null if the application is not in the copy.
+	 */
+	Integer getState(int id) {
+
+		if (!update()) {
+			return null;
+		}
+
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			return (entry != null ? entry.state : null);
+		}
+	}
+
+	/**
+	 * Gets the past states of an application.
+	 * @param id The application id.
+	 * @return The past states or null if the application is not in the copy.
+	 */
+	Integer getPastStates(int id) {
+
+		if (!update()) {
+			return null;
+		}
+
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			return (entry != null ? entry.pastStates : null);
+		}
+	}
+
+	/**
+	 * Returns true if the application is alive.
+	 * @param id The application id.
+	 * @return The result or null if the application is not in the copy.
+	 */
+	Boolean isAlive(int id) {
+
+		Integer state = getState(id);
+		if (state == null) {
+			return null;
+		}
+
+		return (state == State.STARTING || state == State.RUNNING || state == State.STOPPING);
+	}
+
+	/**
+	 * Gets the value of a key stored after the snapshot.
+	 * @param id The application id.
+	 * @param key The key.
+	 * @return The value or null if the key is not in the copy.
+	 */
+	String getKeyValue(int id, String key) {
+
+		if (!update()) {
+			return null;
+		}
+
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			return (entry != null ? entry.keyValues.get(key) : null);
+		}
+	}
+
+	/**
+	 * Gets the infos of the applications that are not terminated.
+	 * A new snapshot is taken if an application has been started after the last snapshot because its pid and args are not in the events.
+	 * @return The list of infos or null if the server does not number the events.
+	 */
+	List<App.Info> getApplicationInfos() {
+
+		if (!update()) {
+			return null;
+		}
+
+		synchronized (this) {
+			for (Entry entry : entries.values()) {
+				if (!entry.complete && !isTerminal(entry.state)) {
+					valid = false;
+					break;
+				}
+			}
+		}
+
+		if (!update()) {
+			return null;
+		}
+
+		LinkedList<App.Info> result = new LinkedList<App.Info>();
+
+		synchronized (this) {
+			for (Map.Entry<Integer, Entry> mapEntry : entries.entrySet()) {
+				Entry entry = mapEntry.getValue();
+
+				if (!isTerminal(entry.state)) {
+					result.add(new App.Info(entry.name, mapEntry.getKey(), entry.pid, entry.state, entry.pastStates, entry.args));
+				}
+			}
+		}
+
+		return result;
+	}
+}
@@ -22,6 +22,7 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.common.utils.Heartbeat;
@@ -187,6 +188,30 @@ public class This {
 			return -1;
 		}
 		
+		/**
+		 * Requests a range of consecutive ports from the Cameo server in one call.
+		 * @param count The number of ports.
+		 * @return The first port of the range or -1 if the count is not valid, if no range is available or if the server does not reserve ranges.
+		 */
+		public int requestPorts(int count) {
+			if (count < 1) {
+				return -1;
+			}
+			
+			// An old server would reserve only the first port of the range.
+			if (count > 1 && !server.hasPortRanges()) {
+				return -1;
+			}
+			try {
+				return server.requestPorts(applicationId, count);
+			}
+			catch (UndefinedApplicationException e) {
+				// Should not happen in This.
+				e.printStackTrace();
+			}
+			return -1;
+		}
+		
 		/**
 		 * Tells the Cameo server that the port is not availaible i.e. another application onws it.
 		 * @param port The port.
@@ -260,6 +285,26 @@ public class This {
 				throw new UnexpectedException("Cannot parse message");
 			}
 		}
+		
+		/**
+		 * Reads a JSON message without building a JSONObject. Only the values that are got are decoded.
+		 * The getters of the reader throw an IllegalArgumentException if the message is not valid.
+		 * @param message The message to read.
+		 * @return A JSONReader object.
+		 */
+		public JSONReader read(byte[] message) {
+			return new JSONReader(message);
+		}
+		
+		/**
+		 * Reads a JSON message without building a JSONObject. Only the values that are got are decoded.
+		 * The getters of the reader throw an IllegalArgumentException if the message is not valid.
+		 * @param message The message to read.
+		 * @return A JSONReader object.
+		 */
+		public JSONReader read(String message) {
+			return new JSONReader(Messages.serialize(message));
+		}
 	}
 	
 	private static Com com;
@@ -675,7 +720,7 @@ public class This {
 		
 		// Init listener.
 		eventListener.setName(name);
-		server.registerEventListener(eventListener);
+		server.registerEventListener(eventListener, id, true);
 		
 		// Init starter check.
 		if (starterLinked) {
@@ -864,7 +909,7 @@ public class This {
 		starterServer.init();
 
 		// Register this as event listener.
-		starterServer.registerEventListener(eventListener, false);
+		starterServer.registerEventListener(eventListener, starterId, false);
 		
 		// Get the actual state. It is necessary to get the actual state after the registration so that we do not miss any events.
 		int state = starterServer.getState(starterId);
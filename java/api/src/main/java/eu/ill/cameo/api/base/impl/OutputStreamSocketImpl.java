@@ -20,6 +20,7 @@ public interface OutputStreamSocketImpl {
 
 	void init(Context context, Endpoint endpoint, RequestSocket requestSocket, Parser parser);
 	void setApplicationId(int id);
+	void requestBacklog();
 	OutputStreamSocket.Output receive();
 	boolean hasEnded();
 	boolean isCanceled();
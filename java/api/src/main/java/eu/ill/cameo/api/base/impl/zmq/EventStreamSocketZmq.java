@@ -15,9 +15,6 @@ package eu.ill.cameo.api.base.impl.zmq;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
-
 import eu.ill.cameo.api.base.ConnectionTimeout;
 import eu.ill.cameo.api.base.Context;
 import eu.ill.cameo.api.base.Event;
@@ -29,15 +26,14 @@ import eu.ill.cameo.api.base.StatusEvent;
 import eu.ill.cameo.api.base.UnexpectedException;
 import eu.ill.cameo.api.base.impl.EventStreamSocketImpl;
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
 import eu.ill.cameo.common.messages.JSON.Parser;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public class EventStreamSocketZmq implements EventStreamSocketImpl {
 	
 	private Zmq.Context context;
-	private Parser parser;
 	private Zmq.Socket subscriberSocket;
 	private Zmq.Socket cancelSocket;
 	private AtomicBoolean canceled = new AtomicBoolean(false);
@@ -49,7 +45,6 @@ public class EventStreamSocketZmq implements EventStreamSocketImpl {
 	public void init(Context context, Endpoint endpoint, RequestSocket requestSocket, Parser parser) {
 		
 		this.context = ((ContextZmq)context).getContext();
-		this.parser = parser;
 				
 		// Prepare our subscriber.
 		Zmq.Socket subscriber = this.context.createSocket(Zmq.SUB);
@@ -93,6 +88,15 @@ public class EventStreamSocketZmq implements EventStreamSocketImpl {
 		this.cancelSocket = cancelPublisher;
 	}
 	
+	private static Event withSequence(Event event, JSONReader jsonObject, String key) {
+		
+		// The old servers do not number the events.
+		if (jsonObject.hasKey(key)) {
+			event.setSequence(jsonObject.getLong(key));
+		}
+		return event;
+	}
+	
 	public Event receive() {
 		
 		while (true) {
@@ -107,22 +111,22 @@ public class EventStreamSocketZmq implements EventStreamSocketImpl {
 				
 				try {
 					// Get the JSON object.
-					JSONObject jsonObject = parser.parse(Messages.parseString(statusMessage));
+					JSONReader jsonObject = new JSONReader(statusMessage);
 					
-					int id = JSON.getInt(jsonObject, Messages.StatusEvent.ID);
-					String name = JSON.getString(jsonObject, Messages.StatusEvent.NAME);
-					int state = JSON.getInt(jsonObject, Messages.StatusEvent.APPLICATION_STATE);
-					int pastStates = JSON.getInt(jsonObject, Messages.StatusEvent.PAST_APPLICATION_STATES);
+					int id = jsonObject.getInt(Messages.StatusEvent.ID);
+					String name = jsonObject.getString(Messages.StatusEvent.NAME);
+					int state = jsonObject.getInt(Messages.StatusEvent.APPLICATION_STATE);
+					int pastStates = jsonObject.getInt(Messages.StatusEvent.PAST_APPLICATION_STATES);
 									
-					if (jsonObject.containsKey(Messages.StatusEvent.EXIT_CODE)) {
-						int exitCode = JSON.getInt(jsonObject, Messages.StatusEvent.EXIT_CODE);
-						return new StatusEvent(id, name, state, pastStates, exitCode);
+					if (jsonObject.hasKey(Messages.StatusEvent.EXIT_CODE)) {
+						int exitCode = jsonObject.getInt(Messages.StatusEvent.EXIT_CODE);
+						return withSequence(new StatusEvent(id, name, state, pastStates, exitCode), jsonObject, Messages.StatusEvent.SEQUENCE);
 					}
 					else {
-						return new StatusEvent(id, name, state, pastStates);	
+						return withSequence(new StatusEvent(id, name, state, pastStates), jsonObject, Messages.StatusEvent.SEQUENCE);	
 					}
 				}
-				catch (ParseException e) {
+				catch (IllegalArgumentException e) {
 					throw new UnexpectedException("Cannot parse response");
 				}
 			}
@@ -132,17 +136,17 @@ public class EventStreamSocketZmq implements EventStreamSocketImpl {
 				
 				try {
 					// Get the JSON object.
-					JSONObject jsonObject = parser.parse(Messages.parseString(resultMessage));
+					JSONReader jsonObject = new JSONReader(resultMessage);
 					
-					int id = JSON.getInt(jsonObject, Messages.ResultEvent.ID);
-					String name = JSON.getString(jsonObject, Messages.ResultEvent.NAME);
+					int id = jsonObject.getInt(Messages.ResultEvent.ID);
+					String name = jsonObject.getString(Messages.ResultEvent.NAME);
 					
 					// Get the next message to get the data.
 					byte[] data = this.subscriberSocket.recv();
 					
-					return new ResultEvent(id, name, data);
+					return withSequence(new ResultEvent(id, name, data), jsonObject, Messages.ResultEvent.SEQUENCE);
 				}
-				catch (ParseException e) {
+				catch (IllegalArgumentException e) {
 					throw new UnexpectedException("Cannot parse response");
 				}
 			}
@@ -152,22 +156,22 @@ public class EventStreamSocketZmq implements EventStreamSocketImpl {
 				
 				try {
 					// Get the JSON object.
-					JSONObject jsonObject = parser.parse(Messages.parseString(keyValueMessage));
+					JSONReader jsonObject = new JSONReader(keyValueMessage);
 					
-					int id = JSON.getInt(jsonObject, Messages.KeyEvent.ID);
-					String name = JSON.getString(jsonObject, Messages.KeyEvent.NAME);
-					long status = JSON.getLong(jsonObject, Messages.KeyEvent.STATUS);
-					String key = JSON.getString(jsonObject, Messages.KeyEvent.KEY);
-					String value = JSON.getString(jsonObject, Messages.KeyEvent.VALUE);
+					int id = jsonObject.getInt(Messages.KeyEvent.ID);
+					String name = jsonObject.getString(Messages.KeyEvent.NAME);
+					long status = jsonObject.getLong(Messages.KeyEvent.STATUS);
+					String key = jsonObject.getString(Messages.KeyEvent.KEY);
+					String value = jsonObject.getString(Messages.KeyEvent.VALUE);
 					
 					if (status == Messages.STORE_KEY_VALUE) {
-						return new KeyEvent(id, name, KeyEvent.Status.STORED, key, value);
+						return withSequence(new KeyEvent(id, name, KeyEvent.Status.STORED, key, value), jsonObject, Messages.KeyEvent.SEQUENCE);
 					}
 					else {
-						return new KeyEvent(id, name, KeyEvent.Status.REMOVED, key, value);
+						return withSequence(new KeyEvent(id, name, KeyEvent.Status.REMOVED, key, value), jsonObject, Messages.KeyEvent.SEQUENCE);
 					}
 				}
-				catch (ParseException e) {
+				catch (IllegalArgumentException e) {
 					throw new UnexpectedException("Cannot parse response");
 				}
 			}
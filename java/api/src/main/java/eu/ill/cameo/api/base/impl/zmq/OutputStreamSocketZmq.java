@@ -13,10 +13,12 @@ package eu.ill.cameo.api.base.impl.zmq;
 
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
 
 import eu.ill.cameo.api.base.ConnectionTimeout;
 import eu.ill.cameo.api.base.Context;
@@ -28,6 +30,7 @@ import eu.ill.cameo.api.base.impl.OutputStreamSocketImpl;
 import eu.ill.cameo.com.Zmq;
 import eu.ill.cameo.common.messages.JSON;
 import eu.ill.cameo.common.messages.JSON.Parser;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.common.strings.StringId;
@@ -36,12 +39,14 @@ public class OutputStreamSocketZmq implements OutputStreamSocketImpl {
 	
 	private String name;
 	private Zmq.Context context;
-	private Parser parser;
 	private Zmq.Socket subscriberSocket;
 	private Zmq.Socket cancelSocket;
+	private RequestSocket requestSocket;
 	private int applicationId = -1;
 	private AtomicBoolean ended = new AtomicBoolean(false);
 	private AtomicBoolean canceled = new AtomicBoolean(false);
+	private ArrayDeque<OutputStreamSocket.Output> pendingOutputs = new ArrayDeque<OutputStreamSocket.Output>();
+	private long lastSequence = -1;
 
 	public OutputStreamSocketZmq(String name) {
 		super();
@@ -51,7 +56,6 @@ public class OutputStreamSocketZmq implements OutputStreamSocketImpl {
 	public void init(Context context, Endpoint endpoint, RequestSocket requestSocket, Parser parser) {
 		
 		this.context = ((ContextZmq)context).getContext();
-		this.parser = parser;
 		
 		// Prepare our context and subscriber
 		Zmq.Socket subscriber = this.context.createSocket(Zmq.SUB);
@@ -92,6 +96,7 @@ public class OutputStreamSocketZmq implements OutputStreamSocketImpl {
 		
 		this.subscriberSocket = subscriber;
 		this.cancelSocket = cancelPublisher;
+		this.requestSocket = requestSocket;
 	}
 	
 	/**
@@ -102,8 +107,39 @@ public class OutputStreamSocketZmq implements OutputStreamSocketImpl {
 		this.applicationId = id;
 	}
 	
+	/**
+	 * Retrieves the recent output kept by the server.
+	 * The lines are returned first by receive() and the live lines already retrieved are skipped using their sequence number.
+	 */
+	public void requestBacklog() {
+		
+		JSONObject response = requestSocket.requestJSON(Messages.createOutputBacklogRequest(applicationId));
+		
+		// The application may not exist anymore.
+		if (JSON.getInt(response, Messages.RequestResponse.VALUE) != 0) {
+			return;
+		}
+		
+		JSONArray outputs = JSON.getArray(response, Messages.OutputBacklogResponse.MESSAGES);
+		
+		for (int i = 0; i < outputs.size(); ++i) {
+			JSONObject output = (JSONObject)outputs.get(i);
+			String line = JSON.getString(output, Messages.ApplicationStream.MESSAGE);
+			boolean endOfLine = JSON.getBoolean(output, Messages.ApplicationStream.EOL);
+			
+			pendingOutputs.add(new OutputStreamSocket.Output(applicationId, line, endOfLine));
+		}
+		
+		lastSequence = JSON.getLong(response, Messages.OutputBacklogResponse.SEQUENCE);
+	}
+	
 	public OutputStreamSocket.Output receive()	{
 		
+		// Return the outputs remaining from the last batch.
+		if (!pendingOutputs.isEmpty()) {
+			return pendingOutputs.poll();
+		}
+		
 		// Loop on recvStr() because in case of configuration multiple=yes, messages can come from different instances.
 		while (true) {
 			String messageType = this.subscriberSocket.recvStr();
@@ -123,37 +159,73 @@ public class OutputStreamSocketZmq implements OutputStreamSocketImpl {
 
 			try {
 				// Get the JSON object.
-				JSONObject jsonMessage = parser.parse(Messages.parseString(messageValue));
+				JSONReader jsonMessage = new JSONReader(messageValue);
 				
-				int type = JSON.getInt(jsonMessage, Messages.TYPE);
+				int type = jsonMessage.getInt(Messages.TYPE);
 				
 				// Continue if type of message is SYNC_STREAM. Theses messages are only used for the poller.
 				if (type == Messages.SYNC_STREAM) {
 					continue;
 				}
 				
-				int id = JSON.getInt(jsonMessage, Messages.ApplicationStream.ID);
+				int id = jsonMessage.getInt(Messages.ApplicationStream.ID);
 				
 				// Filter on the application id so that only the messages concerning the instance applicationId are processed.
 				// Others are ignored.
 				if (applicationId == -1 || applicationId == id) {
 					
+					// The sequence number is only present if the server keeps the recent output.
+					long sequence = -1;
+					if (jsonMessage.hasKey(Messages.ApplicationStream.SEQUENCE)) {
+						sequence = jsonMessage.getLong(Messages.ApplicationStream.SEQUENCE);
+					}
+					
 					// Terminate the stream if type of message is STREAM_END.
 					if (type == Messages.STREAM_END) {
 						ended.set(true);
 						return null;
 					}
 					
+					// Unpack the lines if type of message is STREAM_BATCH.
+					if (type == Messages.STREAM_BATCH) {
+						ArrayList<JSONReader> outputs = jsonMessage.getObjectArray(Messages.ApplicationStream.MESSAGES);
+						
+						for (int i = 0; i < outputs.size(); ++i) {
+							
+							// Skip the lines already retrieved with the backlog.
+							if (sequence != -1 && sequence + i <= lastSequence) {
+								continue;
+							}
+							
+							JSONReader output = outputs.get(i);
+							String line = output.getString(Messages.ApplicationStream.MESSAGE);
+							boolean endOfLine = output.getBoolean(Messages.ApplicationStream.EOL);
+							
+							pendingOutputs.add(new OutputStreamSocket.Output(id, line, endOfLine));
+						}
+						
+						// An empty batch is not sent by the server but re-iterate in that case.
+						if (!pendingOutputs.isEmpty()) {
+							return pendingOutputs.poll();
+						}
+						continue;
+					}
+					
 					// Here the type of message is STREAM.
-					String line = JSON.getString(jsonMessage, Messages.ApplicationStream.MESSAGE);
-					boolean endOfLine = JSON.getBoolean(jsonMessage, Messages.ApplicationStream.EOL);
+					// Skip the line if it was already retrieved with the backlog.
+					if (sequence != -1 && sequence <= lastSequence) {
+						continue;
+					}
+					
+					String line = jsonMessage.getString(Messages.ApplicationStream.MESSAGE);
+					boolean endOfLine = jsonMessage.getBoolean(Messages.ApplicationStream.EOL);
 					
 					return new OutputStreamSocket.Output(id, line, endOfLine);
 				}
 				
 				// Here, the application id is different from id, then re-iterate.
 			}
-			catch (ParseException e) {
+			catch (IllegalArgumentException e) {
 				throw new UnexpectedException("Cannot parse response: " + messageValue);
 			}
 		}
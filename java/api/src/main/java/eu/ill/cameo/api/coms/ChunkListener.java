@@ -0,0 +1,27 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.api.coms;
+
+/**
+ * Interface receiving the chunks of the large messages instead of the reassembled messages.
+ * The chunks of a transfer are received in order. A gap in the offsets means that a chunk was lost.
+ */
+public interface ChunkListener {
+
+	/**
+	 * Called in the receiving thread for each chunk.
+	 * @param transferId The transfer id, unique for the sender.
+	 * @param offset The offset of the chunk in the message.
+	 * @param size The size of the whole message. The chunk is the last one if offset + chunk.length equals size.
+	 * @param chunk The data of the chunk.
+	 */
+	void onChunk(long transferId, long offset, long size, byte[] chunk);
+}
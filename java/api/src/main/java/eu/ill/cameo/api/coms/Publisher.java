@@ -10,8 +10,14 @@
 
 package eu.ill.cameo.api.coms;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -19,6 +25,7 @@ import org.json.simple.JSONObject;
 
 import eu.ill.cameo.api.base.ICancelable;
 import eu.ill.cameo.api.base.InitException;
+import eu.ill.cameo.api.base.InvalidArgumentException;
 import eu.ill.cameo.api.base.KeyAlreadyExistsException;
 import eu.ill.cameo.api.base.PingableObject;
 import eu.ill.cameo.api.base.This;
@@ -27,7 +34,9 @@ import eu.ill.cameo.api.coms.basic.Request;
 import eu.ill.cameo.api.coms.basic.Responder;
 import eu.ill.cameo.api.coms.impl.PublisherImpl;
 import eu.ill.cameo.api.factory.ImplFactory;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.ArrayCodec;
+import eu.ill.cameo.common.messages.Compression;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.ServerIdentity;
@@ -49,7 +58,11 @@ public class Publisher extends PingableObject implements ICancelable {
 	private Thread responderThread = null;
 	private LinkedBlockingQueue<Long> responderQueue = new LinkedBlockingQueue<>();
 	private AtomicBoolean canceled = new AtomicBoolean(false);
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private AtomicLong transferIds = new AtomicLong(0);
+	private Compression compression = null;
 	
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
 	public static final String KEY = "publisher-55845880-56e9-4ad6-bea1-e84395c90b32";
 	public static final String PUBLISHER_PORT = "publisher_port";
 	public static final String NUMBER_OF_SUBSCRIBERS = "n_subscribers";
@@ -81,6 +94,34 @@ public class Publisher extends PingableObject implements ICancelable {
 		this.numberOfSubscribers = numberOfSubscribers;
 	}
 	
+	/**
+	 * Enables the compression of the messages with Deflater. The subscribers decompress the messages transparently.
+	 * Only the messages sent as a single byte array or string are compressed, if the compression reduces their size.
+	 * The subscribers of the previous versions ignore the compressed messages.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @param threshold The size in bytes under which the messages are not compressed.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level, int threshold) {
+		
+		try {
+			compression = new Compression(level, threshold);
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidArgumentException(e.getMessage());
+		}
+		impl.setCompression(compression);
+	}
+	
+	/**
+	 * Enables the compression of the messages larger than Compression.DEFAULT_THRESHOLD.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level) {
+		setCompression(level, Compression.DEFAULT_THRESHOLD);
+	}
+	
 	/**
 	 * Initializes the publisher.
 	 * @throws InitException if the publisher cannot be initialized.
@@ -95,6 +136,7 @@ public class Publisher extends PingableObject implements ICancelable {
 		
 		// Replace the implementation if sync.
 		this.impl = ImplFactory.createPublisher(syncSubscribers);
+		impl.setCompression(compression);
 		
 		// Set the key.
 		key = KEY + "-" + name;
@@ -136,11 +178,8 @@ public class Publisher extends PingableObject implements ICancelable {
 								return;
 							}
 							
-							// Get the JSON request object.
-							JSONObject jsonRequest = This.getCom().parse(request.get());
-							
-							// Get the type.
-							long type = JSON.getLong(jsonRequest, Messages.TYPE);
+							// Get the type without parsing the other members.
+							long type = JSONReader.readType(request.get());
 							
 							if (type == SUBSCRIBE_PUBLISHER) {
 								try {
@@ -265,6 +304,61 @@ public class Publisher extends PingableObject implements ICancelable {
 		impl.send(data);
 	}
 	
+	/**
+	 * Sends a message in one binary part from the remaining bytes of a buffer.
+	 * A direct buffer is sent without being copied into an array. The position of the buffer is not changed.
+	 * The content of a direct buffer must not be modified after the call because it can be sent later.
+	 * @param data The buffer.
+	 */
+	public void send(ByteBuffer data) {
+		impl.send(data);
+	}
+	
+	/**
+	 * Sends an array of doubles with its shape. See ArrayCodec for the layout.
+	 * @param data The data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void sendDoubles(double[] data, int... shape) {
+		impl.send(ArrayCodec.encode(data, shape));
+	}
+	
+	/**
+	 * Sends an array of floats with its shape. See ArrayCodec for the layout.
+	 * @param data The data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void sendFloats(float[] data, int... shape) {
+		impl.send(ArrayCodec.encode(data, shape));
+	}
+	
+	/**
+	 * Sends an array of longs with its shape. See ArrayCodec for the layout.
+	 * @param data The data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void sendLongs(long[] data, int... shape) {
+		impl.send(ArrayCodec.encode(data, shape));
+	}
+	
+	/**
+	 * Sends an array of ints with its shape. See ArrayCodec for the layout.
+	 * @param data The data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void sendInts(int[] data, int... shape) {
+		impl.send(ArrayCodec.encode(data, shape));
+	}
+	
+	/**
+	 * Sends an array of shorts with its shape. See ArrayCodec for the layout.
+	 * @param data The data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void sendShorts(short[] data, int... shape) {
+		impl.send(ArrayCodec.encode(data, shape));
+	}
+	
 	/**
 	 * Sends a message in two binary parts.
 	 * \param data1 The first part.
@@ -311,6 +405,22 @@ public class Publisher extends PingableObject implements ICancelable {
 		}
 	}
 	
+	/**
+	 * Publishes a message in one binary part from the remaining bytes of a buffer.
+	 * The content of a direct buffer must not be modified after the call because it can be sent later.
+	 * @param message The buffer.
+	 */
+	public void publish(ByteBuffer message) {
+		
+		lock.lock();
+		try {
+			impl.send(message);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
 	/**
 	 * Publishes a message in two binary parts.
 	 * \param messagePart1 The first part.
@@ -327,6 +437,130 @@ public class Publisher extends PingableObject implements ICancelable {
 		}
 	}
 	
+	/**
+	 * Publishes a message in one or two binary parts.
+	 * More parts are rejected as the subscribers of all the languages read two parts at most.
+	 * @param parts The parts.
+	 * @throws InvalidArgumentException if there is no part or more than two parts.
+	 */
+	public void publish(byte[][] parts) {
+		
+		if (parts.length == 0 || parts.length > 2) {
+			throw new InvalidArgumentException("A message must have one or two parts");
+		}
+		
+		lock.lock();
+		try {
+			if (parts.length == 1) {
+				impl.send(parts[0]);
+			}
+			else {
+				impl.sendTwoParts(parts[0], parts[1]);
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Publishes a list of messages in one binary part.
+	 * The lock is taken once for the list so that the messages are not interleaved with the messages of other threads.
+	 * @param messages The messages.
+	 */
+	public void publishBatch(List<byte[]> messages) {
+		
+		lock.lock();
+		try {
+			impl.sendBatch(messages);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Sets the size of the chunks of the messages published with publishChunked().
+	 * @param size The size in bytes.
+	 * @throws InvalidArgumentException if the size is not positive.
+	 */
+	public void setChunkSize(int size) {
+		
+		if (size <= 0) {
+			throw new InvalidArgumentException("Chunk size must be positive");
+		}
+		chunkSize = size;
+	}
+	
+	/**
+	 * Gets the size of the chunks.
+	 * @return The size in bytes.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	private void publishChunk(long transferId, long offset, long size, ByteBuffer chunk) {
+		
+		// The lock is taken for each chunk so that the messages of the other threads are interleaved.
+		lock.lock();
+		try {
+			impl.sendChunk(transferId, offset, size, chunk);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Publishes a large message in chunks that the subscribers reassemble.
+	 * The chunks are not copied so the data must not be modified during the call.
+	 * The subscribers of the previous versions ignore the chunks.
+	 * @param message The data to send.
+	 */
+	public void publishChunked(byte[] message) {
+		
+		long transferId = transferIds.getAndIncrement();
+		int offset = 0;
+		
+		do {
+			int length = Math.min(chunkSize, message.length - offset);
+			publishChunk(transferId, offset, message.length, ByteBuffer.wrap(message, offset, length));
+			offset += length;
+		}
+		while (offset < message.length);
+	}
+	
+	/**
+	 * Publishes a large message read from a stream in chunks so that the whole message is never in memory.
+	 * @param input The input stream.
+	 * @param size The number of bytes to read from the stream.
+	 * @throws IOException if the stream cannot be read or ends before size bytes.
+	 */
+	public void publishChunked(InputStream input, long size) throws IOException {
+		
+		long transferId = transferIds.getAndIncrement();
+		long offset = 0;
+		
+		do {
+			// A new array for each chunk because the sockets keep the array until it is sent.
+			byte[] chunk = new byte[(int)Math.min(chunkSize, size - offset)];
+			
+			int length = 0;
+			while (length < chunk.length) {
+				int read = input.read(chunk, length, chunk.length - length);
+				if (read == -1) {
+					throw new EOFException("Stream ended after " + (offset + length) + " of " + size + " bytes");
+				}
+				length += read;
+			}
+			
+			publishChunk(transferId, offset, size, ByteBuffer.wrap(chunk));
+			offset += length;
+		}
+		while (offset < size);
+	}
+	
 	/**
 	 * Publishes the end of the stream.
 	 */
@@ -10,7 +10,14 @@
 
 package eu.ill.cameo.api.coms;
 
-import java.util.concurrent.locks.Lock;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.json.simple.JSONObject;
@@ -21,6 +28,7 @@ import eu.ill.cameo.api.base.ConnectionTimeout;
 import eu.ill.cameo.api.base.ICancelable;
 import eu.ill.cameo.api.base.ITimeoutable;
 import eu.ill.cameo.api.base.InitException;
+import eu.ill.cameo.api.base.InvalidArgumentException;
 import eu.ill.cameo.api.base.PingableObject;
 import eu.ill.cameo.api.base.State;
 import eu.ill.cameo.api.base.SynchronizationTimeout;
@@ -30,14 +38,19 @@ import eu.ill.cameo.api.base.TimeoutCounter;
 import eu.ill.cameo.api.coms.basic.Responder;
 import eu.ill.cameo.api.coms.impl.RequesterImpl;
 import eu.ill.cameo.api.factory.ImplFactory;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.ArrayCodec;
+import eu.ill.cameo.common.messages.Compression;
+import eu.ill.cameo.common.messages.JSONReader;
+import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.common.strings.ServerIdentity;
 import eu.ill.cameo.common.strings.StringId;
 
 /**
- * Class defining a requester. The request and response must be sent and received sequentially.
+ * Class defining a requester. A synchronous request is sent and its response received before another request.
+ * The asynchronous requests are pipelined: several requests can be in flight and their responses can arrive in any order.
+ * A synchronous call waits for the asynchronous requests in flight and the pipeline does not send new requests in the meantime.
  */
 public class Requester extends PingableObject implements ITimeoutable, ICancelable {
 
@@ -85,6 +98,263 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 			}
 		}
 	}
+
+
+	static class Pipeline {
+		
+		private static class Call {
+			
+			long correlationId;
+			byte[] request;
+			CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+			
+			Call(long correlationId, byte[] request) {
+				this.correlationId = correlationId;
+				this.request = request;
+			}
+		}
+		
+		private Requester requester;
+		private Semaphore window;
+		private ArrayDeque<Call> calls = new ArrayDeque<Call>();
+		private LinkedHashMap<Long, Call> inFlight = new LinkedHashMap<Long, Call>();
+		private long nextCorrelationId = 0;
+		private boolean terminated = false;
+		private Thread thread = null;
+		private ExecutorService completions;
+		
+		Pipeline(Requester requester, int window) {
+			this.requester = requester;
+			this.window = new Semaphore(window);
+			
+			// The threads do not prevent the JVM from exiting if the requester is not terminated.
+			this.completions = Executors.newSingleThreadExecutor(runnable -> {
+				Thread completionThread = new Thread(runnable, getThreadName("completions"));
+				completionThread.setDaemon(true);
+				return completionThread;
+			});
+		}
+		
+		private String getThreadName(String role) {
+			return "cameo.requester." + requester.responderName + "." + role;
+		}
+		
+		CompletableFuture<byte[]> request(byte[] request) {
+			
+			// Wait for a place in the window.
+			try {
+				window.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return CompletableFuture.completedFuture(null);
+			}
+			
+			Call call;
+			
+			synchronized (this) {
+				if (terminated) {
+					window.release();
+					return CompletableFuture.completedFuture(null);
+				}
+				
+				call = new Call(nextCorrelationId++, request);
+				calls.add(call);
+				
+				if (thread == null) {
+					thread = new Thread(new Runnable() {
+						public void run() {
+							Pipeline.this.run();
+						}
+					}, getThreadName("pipeline"));
+					thread.setDaemon(true);
+					thread.start();
+				}
+				
+				notifyAll();
+			}
+			
+			// Unblock the receive so that the call is sent.
+			requester.impl.wakeup();
+			
+			return call.future;
+		}
+		
+		private void complete(Call call, byte[] response) {
+			
+			// The place is released by the pipeline thread so that a dependent stage waiting for the window cannot block it.
+			window.release();
+			
+			// The dependent stages must not run in the pipeline thread that holds the requester.
+			completions.execute(() -> call.future.complete(response));
+		}
+		
+		private synchronized boolean waitForCalls() {
+			
+			while (calls.isEmpty() && !terminated) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+				}
+			}
+			
+			return !terminated;
+		}
+		
+		private synchronized Call nextCall(int maxInFlight) {
+			
+			if (inFlight.size() >= maxInFlight) {
+				return null;
+			}
+			return calls.poll();
+		}
+		
+		private void failAll() {
+			
+			for (Call call : inFlight.values()) {
+				complete(call, null);
+			}
+			inFlight.clear();
+		}
+		
+		private void run() {
+			
+			RequesterImpl impl = requester.impl;
+			
+			while (waitForCalls()) {
+				
+				// The socket is owned by the pipeline until there is no more call or a synchronous call is waiting.
+				requester.lock.lock();
+				
+				try {
+					long lastResponseTime = System.currentTimeMillis();
+					
+					while (true) {
+						
+						// A synchronous call waiting for the requester stops the sending so that the requester is released once the calls in flight are completed.
+						boolean yielding = requester.lock.hasQueuedThreads();
+						
+						// Send the calls in the window. Only one call is in flight if the responder does not echo the correlation ids.
+						while (!yielding) {
+							Call call = nextCall(impl.hasCorrelation() ? Integer.MAX_VALUE : 1);
+							if (call == null) {
+								break;
+							}
+							
+							if (inFlight.isEmpty()) {
+								lastResponseTime = System.currentTimeMillis();
+							}
+							
+							impl.send(call.request, call.correlationId);
+							inFlight.put(call.correlationId, call);
+							
+							// The synchronization failed.
+							if (impl.hasTimedout() || impl.isCanceled()) {
+								failAll();
+							}
+						}
+						
+						synchronized (this) {
+							if (inFlight.isEmpty() && (calls.isEmpty() || terminated || yielding)) {
+								break;
+							}
+						}
+						
+						// Wait for a response, a new call, a cancel or the timeout.
+						int waitingTime = -1;
+						if (requester.timeout > 0) {
+							waitingTime = (int)Math.max(0, lastResponseTime + requester.timeout - System.currentTimeMillis());
+						}
+						
+						byte[] response = impl.receive(waitingTime);
+						
+						if (response == RequesterImpl.INCOMPLETE) {
+							// A chunk shows that the responder is alive.
+							lastResponseTime = System.currentTimeMillis();
+						}
+						else if (response != null) {
+							lastResponseTime = System.currentTimeMillis();
+							
+							Call call;
+							if (impl.hasCorrelation()) {
+								call = inFlight.remove(impl.getCorrelationId());
+							}
+							else {
+								// The responses come in the order of the requests.
+								Iterator<Call> it = inFlight.values().iterator();
+								call = null;
+								if (it.hasNext()) {
+									call = it.next();
+									it.remove();
+								}
+							}
+							
+							if (call != null) {
+								complete(call, response);
+							}
+						}
+						else if (impl.isCanceled() || isTerminated()) {
+							failAll();
+						}
+						else if (requester.timeout > 0 && System.currentTimeMillis() - lastResponseTime >= requester.timeout) {
+							// The socket is reset so that the late responses are not received.
+							impl.reset();
+							failAll();
+						}
+					}
+				}
+				finally {
+					requester.lock.unlock();
+				}
+			}
+			
+			// Complete the calls that were not sent.
+			synchronized (this) {
+				for (Call call : calls) {
+					complete(call, null);
+				}
+				calls.clear();
+			}
+		}
+		
+		private synchronized boolean isTerminated() {
+			return terminated;
+		}
+		
+		void terminate() {
+			
+			Thread joinedThread;
+			
+			synchronized (this) {
+				terminated = true;
+				notifyAll();
+				joinedThread = thread;
+			}
+			
+			// Unblock the receive.
+			requester.impl.wakeup();
+			
+			if (joinedThread != null) {
+				try {
+					joinedThread.join();
+				}
+				catch (InterruptedException e) {
+				}
+			}
+			else {
+				synchronized (this) {
+					for (Call call : calls) {
+						complete(call, null);
+					}
+					calls.clear();
+				}
+			}
+			
+			// The futures already completed are still passed to their dependent stages.
+			completions.shutdown();
+		}
+	}
 	
 	
 	private App app;
@@ -95,12 +365,14 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 	private String appName;
 	private int appId;
 	private Endpoint appEndpoint;
-	private final Lock lock = new ReentrantLock();
+	private final ReentrantLock lock = new ReentrantLock(true);
 	private RequesterImpl impl;
 	private RequesterWaiting waiting = new RequesterWaiting(this);
 	private String key;
 	private KeyValueGetter keyValueGetter;
 	private Checker checker;
+	private int window = 16;
+	private Pipeline pipeline;
 	
 	private Requester(App app, String responderName) {
 		
@@ -151,6 +423,53 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 		}
 	}
 
+	/**
+	 * Sets the maximum number of asynchronous requests in flight. Must be called before the first asynchronous request.
+	 * The window is 1 if the responder does not echo the correlation ids.
+	 * @param value The value.
+	 */
+	public void setWindow(int value) {
+		if (value < 1) {
+			throw new InvalidArgumentException("The window must be positive");
+		}
+		window = value;
+	}
+	
+	/**
+	 * Gets the maximum number of asynchronous requests in flight.
+	 * @return The value.
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	/**
+	 * Enables the compression of the requests with Deflater. The responses are also compressed if the compression is enabled on the responder.
+	 * The requests are compressed only if the responder decompresses them, which is not the case of the old responders and the multi responders.
+	 * Only the requests sent as byte arrays or strings are compressed, if the compression reduces their size.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @param threshold The size in bytes under which the requests are not compressed.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level, int threshold) {
+		
+		try {
+			impl.setCompression(new Compression(level, threshold));
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidArgumentException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Enables the compression of the requests larger than Compression.DEFAULT_THRESHOLD.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level) {
+		setCompression(level, Compression.DEFAULT_THRESHOLD);
+	}
+	
 	/**
 	 * Sets the polling time.
 	 * @param value The value.
@@ -182,7 +501,7 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 				return;
 			}
 			
-			JSONObject jsonData = This.getCom().parse(jsonString);
+			JSONReader jsonData = This.getCom().read(jsonString);
 					
 			Endpoint endpoint;
 			
@@ -192,7 +511,7 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 				endpoint = app.getEndpoint().withPort(responderPort);
 			}
 			else {
-				int responderPort = JSON.getInt(jsonData, Responder.PORT);
+				int responderPort = jsonData.getInt(Responder.PORT);
 				endpoint = app.getEndpoint().withPort(responderPort);
 			}
 			
@@ -270,6 +589,16 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 		impl.send(request);
 	}
 	
+	/**
+	 * Sends a binary request in one part from the remaining bytes of a buffer.
+	 * A direct buffer is sent without being copied into an array. The position of the buffer is not changed.
+	 * The content of a direct buffer must not be modified after the call because it can be sent later.
+	 * @param request The buffer.
+	 */
+	public void send(ByteBuffer request) {
+		impl.send(request);
+	}
+	
 	/**
 	 * Sends a string request in one part.
 	 * If the requester timed out in the last request, then it is reinitialized and can time out during the synchronization.
@@ -313,6 +642,15 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 		return impl.receive();
 	}
 	
+	/**
+	 * Receives the response into a buffer from its position so that a large response is not copied into a new array.
+	 * @param response The buffer. The response is truncated if it is larger than the remaining space.
+	 * @return The size of the response or -1 if the requester is canceled or a timeout occurred.
+	 */
+	public int receive(ByteBuffer response) {
+		return impl.receive(response);
+	}
+	
 	/**
 	 * Returns a string or nothing if the requester is canceled or a timeout occurred.
 	 * @return The response or null.
@@ -339,6 +677,44 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 		}
 	}
 	
+	/**
+	 * Requests a binary request in one part from the remaining bytes of a buffer.
+	 * The content of a direct buffer must not be modified until the response is received.
+	 * @param request The buffer.
+	 * @return The response or null.
+	 */
+	public byte[] request(ByteBuffer request) {
+		
+		lock.lock();
+		try {
+			impl.send(request);
+			return impl.receive();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests a binary request in one part and receives the response into a buffer.
+	 * Neither the request nor the response is copied into an intermediate array with the direct buffers.
+	 * The content of a direct request buffer must not be modified until the response is received.
+	 * @param request The request buffer.
+	 * @param response The response buffer. The response is truncated if it is larger than the remaining space.
+	 * @return The size of the response or -1 if the requester is canceled or a timeout occurred.
+	 */
+	public int request(ByteBuffer request, ByteBuffer response) {
+		
+		lock.lock();
+		try {
+			impl.send(request);
+			return impl.receive(response);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
 	/**
 	 * Requests a string request in one part.
 	 * If the requester timed out in the last request, then it is reinitialized and can time out during the synchronization.
@@ -376,6 +752,157 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 		}
 	}
 	
+	/**
+	 * Returns the array response with its shape or nothing if the requester is canceled or a timeout occurred.
+	 * @return The array or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array receiveArray() {
+		
+		byte[] response = impl.receive();
+		
+		if (response == null) {
+			return null;
+		}
+		
+		return ArrayCodec.decode(response);
+	}
+	
+	/**
+	 * Requests an array of doubles with its shape. The response must be an array.
+	 * @param request The request data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 * @return The array response or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array requestDoubles(double[] request, int... shape) {
+		
+		byte[] encodedRequest = ArrayCodec.encode(request, shape);
+		
+		lock.lock();
+		try {
+			impl.send(encodedRequest);
+			return receiveArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests an array of floats with its shape. The response must be an array.
+	 * @param request The request data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 * @return The array response or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array requestFloats(float[] request, int... shape) {
+		
+		byte[] encodedRequest = ArrayCodec.encode(request, shape);
+		
+		lock.lock();
+		try {
+			impl.send(encodedRequest);
+			return receiveArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests an array of longs with its shape. The response must be an array.
+	 * @param request The request data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 * @return The array response or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array requestLongs(long[] request, int... shape) {
+		
+		byte[] encodedRequest = ArrayCodec.encode(request, shape);
+		
+		lock.lock();
+		try {
+			impl.send(encodedRequest);
+			return receiveArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests an array of ints with its shape. The response must be an array.
+	 * @param request The request data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 * @return The array response or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array requestInts(int[] request, int... shape) {
+		
+		byte[] encodedRequest = ArrayCodec.encode(request, shape);
+		
+		lock.lock();
+		try {
+			impl.send(encodedRequest);
+			return receiveArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests an array of shorts with its shape. The response must be an array.
+	 * @param request The request data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 * @return The array response or null.
+	 * @throws IllegalArgumentException if the response is not an array.
+	 */
+	public ArrayCodec.Array requestShorts(short[] request, int... shape) {
+		
+		byte[] encodedRequest = ArrayCodec.encode(request, shape);
+		
+		lock.lock();
+		try {
+			impl.send(encodedRequest);
+			return receiveArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	private synchronized Pipeline getPipeline() {
+		if (pipeline == null) {
+			pipeline = new Pipeline(this, window);
+		}
+		return pipeline;
+	}
+	
+	/**
+	 * Sends a binary request in one part without waiting for the response.
+	 * The call blocks if the window of requests in flight is full.
+	 * The requests are sent by a thread that holds the requester while requests are in flight so that the synchronous calls wait for them.
+	 * The thread gives the requester to a waiting synchronous call once the requests in flight are completed.
+	 * The futures are completed in another thread so that their dependent stages can use the requester.
+	 * @param request The binary request.
+	 * @return The future response. It is completed with null if the requester is canceled or a timeout occurred.
+	 */
+	public CompletableFuture<byte[]> requestAsync(byte[] request) {
+		return getPipeline().request(request);
+	}
+	
+	/**
+	 * Sends a string request in one part without waiting for the response.
+	 * The call blocks if the window of requests in flight is full.
+	 * @param request The string request.
+	 * @return The future response. It is completed with null if the requester is canceled or a timeout occurred.
+	 */
+	public CompletableFuture<String> requestAsync(String request) {
+		return requestAsync(Messages.serialize(request)).thenApply(response -> (response != null ? Messages.parseString(response) : null));
+	}
+	
 	/**
 	 * Cancels the requester. Unblocks the receive() call in another thread.
 	 */
@@ -454,6 +981,13 @@ public class Requester extends PingableObject implements ITimeoutable, ICancelab
 			checker.terminate();
 			checker = null;
 		}
+		
+		// Complete the asynchronous requests before the socket is destroyed.
+		synchronized (this) {
+			if (pipeline != null) {
+				pipeline.terminate();
+			}
+		}
 
 		impl.terminate();
 		setTerminated();
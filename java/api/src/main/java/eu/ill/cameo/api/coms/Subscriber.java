@@ -10,6 +10,10 @@
 
 package eu.ill.cameo.api.coms;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.json.simple.JSONObject;
 
 import eu.ill.cameo.api.base.App;
@@ -23,9 +27,11 @@ import eu.ill.cameo.api.base.SynchronizationTimeout;
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.base.Timeout;
 import eu.ill.cameo.api.base.TimeoutCounter;
+import eu.ill.cameo.api.base.UnexpectedException;
 import eu.ill.cameo.api.coms.impl.SubscriberImpl;
 import eu.ill.cameo.api.factory.ImplFactory;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.ArrayCodec;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.Endpoint;
@@ -174,9 +180,9 @@ public class Subscriber extends StateObject implements ITimeoutable, ICancelable
 				return;
 			}
 			
-			JSONObject jsonData = This.getCom().parse(jsonString);
-			int numberOfSubscribers = JSON.getInt(jsonData, Publisher.NUMBER_OF_SUBSCRIBERS);
-			boolean syncSubscribers = JSON.getBoolean(jsonData, Publisher.SYNC_SUBSCRIBERS);
+			JSONReader jsonData = This.getCom().read(jsonString);
+			int numberOfSubscribers = jsonData.getInt(Publisher.NUMBER_OF_SUBSCRIBERS);
+			boolean syncSubscribers = jsonData.getBoolean(Publisher.SYNC_SUBSCRIBERS);
 			
 			Endpoint endpoint;
 			
@@ -186,11 +192,11 @@ public class Subscriber extends StateObject implements ITimeoutable, ICancelable
 				endpoint = app.getEndpoint().withPort(publisherPort);
 			}
 			else {
-				int publisherPort = JSON.getInt(jsonData, Publisher.PUBLISHER_PORT);
+				int publisherPort = jsonData.getInt(Publisher.PUBLISHER_PORT);
 				endpoint = app.getEndpoint().withPort(publisherPort);
 			}
 			
-			impl.init(appId, endpoint, app.getStatusEndpoint(), StringId.from(key, appId), checkApp);
+			impl.init(appId, endpoint, app.getStatusEndpoint(), app.getStatusTopic(), StringId.from(key, appId), checkApp);
 	
 			// Synchronize the subscriber only if the number of subscribers > 0.
 			if (numberOfSubscribers > 0 || syncSubscribers) {
@@ -264,6 +270,15 @@ public class Subscriber extends StateObject implements ITimeoutable, ICancelable
 		return impl.receive();
 	}
 	
+	/**
+	 * Receives the binary data into a buffer from its position so that a large message is not copied into a new array.
+	 * @param buffer The buffer. The data is truncated if it is larger than the remaining space.
+	 * @return The size of the data or -1 if the stream has finished.
+	 */
+	public int receive(ByteBuffer buffer) {
+		return impl.receive(buffer);
+	}
+	
 	/**
 	 * Returns the string data nothing if the stream has finished.
 	 * @return The string data or null.
@@ -273,18 +288,169 @@ public class Subscriber extends StateObject implements ITimeoutable, ICancelable
 	}
 	
 	/**
-	 * Returns an array of bytes or nothing if the stream has finished.
-	 * @return The array of bytes or null.
+	 * Returns the array with its shape or nothing if the stream has finished.
+	 * @return The array or null.
+	 * @throws IllegalArgumentException if the message is not an array.
+	 */
+	public ArrayCodec.Array receiveArray() {
+		
+		byte[] data = impl.receive();
+		
+		if (data == null) {
+			return null;
+		}
+		
+		return ArrayCodec.decode(data);
+	}
+	
+	/**
+	 * Returns the array of doubles or nothing if the stream has finished.
+	 * @return The flattened array or null.
+	 * @throws IllegalArgumentException if the message is not an array of doubles.
+	 */
+	public double[] receiveDoubles() {
+		
+		ArrayCodec.Array array = receiveArray();
+		return (array != null ? array.toDoubles() : null);
+	}
+	
+	/**
+	 * Returns the array of floats or nothing if the stream has finished.
+	 * @return The flattened array or null.
+	 * @throws IllegalArgumentException if the message is not an array of floats.
+	 */
+	public float[] receiveFloats() {
+		
+		ArrayCodec.Array array = receiveArray();
+		return (array != null ? array.toFloats() : null);
+	}
+	
+	/**
+	 * Returns the array of longs or nothing if the stream has finished.
+	 * @return The flattened array or null.
+	 * @throws IllegalArgumentException if the message is not an array of longs.
+	 */
+	public long[] receiveLongs() {
+		
+		ArrayCodec.Array array = receiveArray();
+		return (array != null ? array.toLongs() : null);
+	}
+	
+	/**
+	 * Returns the array of ints or nothing if the stream has finished.
+	 * @return The flattened array or null.
+	 * @throws IllegalArgumentException if the message is not an array of ints.
+	 */
+	public int[] receiveInts() {
+		
+		ArrayCodec.Array array = receiveArray();
+		return (array != null ? array.toInts() : null);
+	}
+	
+	/**
+	 * Returns the array of shorts or nothing if the stream has finished.
+	 * @return The flattened array or null.
+	 * @throws IllegalArgumentException if the message is not an array of shorts.
+	 */
+	public short[] receiveShorts() {
+		
+		ArrayCodec.Array array = receiveArray();
+		return (array != null ? array.toShorts() : null);
+	}
+	
+	/**
+	 * Returns the two parts or nothing if the stream has finished.
+	 * The second part of a message with one part is null.
+	 * @return The array of parts or null.
 	 */
 	public byte[][] receiveTwoParts() {
 		return impl.receiveTwoParts();
 	}
+	
+	/**
+	 * Receives the messages already queued in one call, waiting for the first one up to the timeout.
+	 * The messages must have one part, use receiveTwoPartsBatch() for the messages with two parts.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The list of binary data, empty if no message arrived or null if the stream has finished.
+	 * @throws UnexpectedException if a message has two parts.
+	 */
+	public List<byte[]> receiveBatch(int max, int timeout) {
+		
+		ArrayList<byte[]> messages = new ArrayList<byte[]>();
+		
+		if (impl.receiveBatch(messages, max, timeout) == -1) {
+			return null;
+		}
+		return messages;
+	}
+	
+	/**
+	 * Receives the messages already queued into a list, waiting for the first one up to the timeout.
+	 * The list can be reused by the caller so that no list is created per call.
+	 * @param messages The list receiving the binary data.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The number of messages added or -1 if the stream has finished.
+	 * @throws UnexpectedException if a message has two parts.
+	 */
+	public int receiveBatch(List<byte[]> messages, int max, int timeout) {
+		return impl.receiveBatch(messages, max, timeout);
+	}
+	
+	/**
+	 * Receives the messages already queued with their two parts in one call, waiting for the first one up to the timeout.
+	 * The second part of a message with one part is null.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The list of parts, empty if no message arrived or null if the stream has finished.
+	 */
+	public List<byte[][]> receiveTwoPartsBatch(int max, int timeout) {
+		
+		ArrayList<byte[][]> messages = new ArrayList<byte[][]>();
+		
+		if (impl.receiveTwoPartsBatch(messages, max, timeout) == -1) {
+			return null;
+		}
+		return messages;
+	}
+	
+	/**
+	 * Receives the messages already queued with their two parts into a list, waiting for the first one up to the timeout.
+	 * @param messages The list receiving the parts.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The number of messages added or -1 if the stream has finished.
+	 */
+	public int receiveTwoPartsBatch(List<byte[][]> messages, int max, int timeout) {
+		return impl.receiveTwoPartsBatch(messages, max, timeout);
+	}
+	
+	/**
+	 * Drains all the messages already queued into a list without waiting.
+	 * @param messages The list receiving the binary data.
+	 * @return The number of messages added or -1 if the stream has finished.
+	 * @throws UnexpectedException if a message has two parts.
+	 */
+	public int drain(List<byte[]> messages) {
+		return impl.receiveBatch(messages, Integer.MAX_VALUE, 0);
+	}
 
 	@Override
 	public void setTimeout(int value) {
 		timeout = value;
 		impl.setTimeout(value);
 	}
+	
+	/**
+	 * Sets the listener receiving the chunks of the large messages published with Publisher.publishChunked().
+	 * Without a listener, the chunks are reassembled and the whole message is returned by receive().
+	 * With a listener, the chunks are passed to it in the thread calling receive() and are not kept.
+	 * @param listener The listener or null.
+	 */
+	public void setChunkListener(ChunkListener listener) {
+		impl.setChunkListener(listener);
+	}
 
 	/**
 	 * Sets the polling time.
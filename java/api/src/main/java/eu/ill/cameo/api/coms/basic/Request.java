@@ -10,6 +10,9 @@
 
 package eu.ill.cameo.api.coms.basic;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.json.simple.JSONObject;
@@ -19,6 +22,7 @@ import eu.ill.cameo.api.base.ConnectionTimeout;
 import eu.ill.cameo.api.base.Option;
 import eu.ill.cameo.api.base.Server;
 import eu.ill.cameo.api.base.ServerAndApp;
+import eu.ill.cameo.common.messages.ArrayCodec;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.Endpoint;
@@ -37,6 +41,7 @@ public class Request {
 	private int requesterApplicationId;
 	private Endpoint requesterServerEndpoint;
 	private int requesterServerProxyPort;
+	private Object envelope;
 	
 	/**
 	 * Constructor.
@@ -46,10 +51,9 @@ public class Request {
 	 * @param serverProxyPort The server proxy port.
 	 * @param messagePart1 The message part 1.
 	 * @param messagePart2 The message part 2.
-	 * @param messagePart22 
-	 * @param messagePart12 
+	 * @param envelope The envelope of the message used by the implementation to reply.
 	 */
-	public Request(String requesterApplicationName, int requesterApplicationId, String serverEndpoint, int serverProxyPort, byte[] messagePart1, byte[] messagePart2) {
+	public Request(String requesterApplicationName, int requesterApplicationId, String serverEndpoint, int serverProxyPort, byte[] messagePart1, byte[] messagePart2, Object envelope) {
 		
 		this.messagePart1 = messagePart1;
 		this.messagePart2 = messagePart2;
@@ -59,6 +63,8 @@ public class Request {
 		
 		this.requesterServerEndpoint = Endpoint.parse(serverEndpoint);
 		this.requesterServerProxyPort = serverProxyPort;
+		
+		this.envelope = envelope;
 	}
 	
 	void setResponder(Responder responder) {
@@ -95,15 +101,49 @@ public class Request {
 	}
 	
 	/**
-	 * Replies to the requester.
+	 * Gets the message as an array with its shape.
+	 * @return The array.
+	 * @throws IllegalArgumentException if the message is not an array.
+	 */
+	public ArrayCodec.Array getArray() {
+		return ArrayCodec.decode(messagePart1);
+	}
+	
+	/**
+	 * Replies to the requester. The requests can be replied in any order and from any thread.
 	 * @param response The response.
 	 */
 	public void reply(byte[] response) {
-		
-		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.RESPONSE);
-
-		responder.reply(jsonRequest, response);
+		responder.reply(envelope, response);
+	}
+	
+	/**
+	 * Replies the remaining bytes of a buffer to the requester.
+	 * A direct buffer is sent without being copied into an array. The position of the buffer is not changed.
+	 * The content of a direct buffer must not be modified after the call because it can be sent later.
+	 * @param response The response buffer.
+	 */
+	public void reply(ByteBuffer response) {
+		responder.reply(envelope, response);
+	}
+	
+	/**
+	 * Replies a large response in chunks that the requester reassembles so that the replies to the other requests are not delayed.
+	 * The requesters of the previous versions cannot reassemble the chunks so that reply() must be used for them.
+	 * @param response The response.
+	 */
+	public void replyChunked(byte[] response) {
+		responder.replyChunked(envelope, response);
+	}
+	
+	/**
+	 * Replies a large response read from a stream in chunks so that the whole response is never in memory.
+	 * @param input The input stream.
+	 * @param size The number of bytes to read from the stream.
+	 * @throws IOException if the stream cannot be read or ends before size bytes.
+	 */
+	public void replyChunked(InputStream input, long size) throws IOException {
+		responder.replyChunked(envelope, input, size);
 	}
 	
 	/**
@@ -114,6 +154,51 @@ public class Request {
 		reply(Messages.serialize(response));
 	}
 	
+	/**
+	 * Replies an array of doubles with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyDoubles(double[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of floats with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyFloats(float[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of longs with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyLongs(long[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of ints with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyInts(int[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of shorts with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyShorts(short[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
 	/**
 	 * Connects to the requester.
 	 * @param options Options of connection.
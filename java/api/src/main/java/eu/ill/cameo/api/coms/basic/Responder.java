@@ -10,23 +10,31 @@
 
 package eu.ill.cameo.api.coms.basic;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.json.simple.JSONObject;
 
 import eu.ill.cameo.api.base.ICancelable;
 import eu.ill.cameo.api.base.InitException;
+import eu.ill.cameo.api.base.InvalidArgumentException;
 import eu.ill.cameo.api.base.KeyAlreadyExistsException;
 import eu.ill.cameo.api.base.StateObject;
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.base.UndefinedKeyException;
 import eu.ill.cameo.api.coms.basic.impl.ResponderImpl;
 import eu.ill.cameo.api.factory.ImplFactory;
-import eu.ill.cameo.common.messages.Messages;
+import eu.ill.cameo.common.messages.Compression;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.ServerIdentity;
 import eu.ill.cameo.common.strings.StringId;
 
 /**
- * Class defining a basic responder. Requests are processed sequentially.
+ * Class defining a basic responder. Requests are received sequentially.
+ * Each Request object keeps the envelope of its message so that the requests can be replied in any order and from any thread.
  */
 public class Responder extends StateObject implements ICancelable {
 	
@@ -34,7 +42,10 @@ public class Responder extends StateObject implements ICancelable {
 	private ResponderImpl impl;
 	private ResponderWaiting waiting = new ResponderWaiting(this);
 	private String key;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private AtomicLong transferIds = new AtomicLong(0);
 	
+	public final static int DEFAULT_CHUNK_SIZE = 1 << 20;
 	public final static String KEY = "responder-676e576d-6102-42d8-ae24-222a7000dfa0";
 	public final static String PORT = "port";
 	
@@ -113,8 +124,98 @@ public class Responder extends StateObject implements ICancelable {
 		return request;
 	}
 	
-	void reply(JSONObject request, byte[] response) {
-		impl.reply(Messages.serialize(request), response);
+	void reply(Object envelope, byte[] response) {
+		impl.reply(envelope, response);
+	}
+	
+	void reply(Object envelope, ByteBuffer response) {
+		impl.reply(envelope, response);
+	}
+	
+	/**
+	 * Enables the compression of the responses with Deflater.
+	 * A response is compressed only if the requester enabled the compression, which is told by its compressed request.
+	 * Only the responses replied as byte arrays or strings are compressed, if the compression reduces their size.
+	 * The compressed requests are decompressed whether the compression is enabled or not.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @param threshold The size in bytes under which the responses are not compressed.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level, int threshold) {
+		
+		try {
+			impl.setCompression(new Compression(level, threshold));
+		}
+		catch (IllegalArgumentException e) {
+			throw new InvalidArgumentException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Enables the compression of the responses larger than Compression.DEFAULT_THRESHOLD.
+	 * @param level The level from 0 to 9 or -1 for the default level.
+	 * @throws InvalidArgumentException if the level is not valid.
+	 */
+	public void setCompression(int level) {
+		setCompression(level, Compression.DEFAULT_THRESHOLD);
+	}
+	
+	/**
+	 * Sets the size of the chunks of the responses replied with Request.replyChunked().
+	 * @param size The size in bytes.
+	 * @throws InvalidArgumentException if the size is not positive.
+	 */
+	public void setChunkSize(int size) {
+		
+		if (size <= 0) {
+			throw new InvalidArgumentException("Chunk size must be positive");
+		}
+		chunkSize = size;
+	}
+	
+	/**
+	 * Gets the size of the chunks.
+	 * @return The size in bytes.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	void replyChunked(Object envelope, byte[] response) {
+		
+		long transferId = transferIds.getAndIncrement();
+		int offset = 0;
+		
+		do {
+			int length = Math.min(chunkSize, response.length - offset);
+			impl.replyChunk(envelope, transferId, offset, response.length, ByteBuffer.wrap(response, offset, length));
+			offset += length;
+		}
+		while (offset < response.length);
+	}
+	
+	void replyChunked(Object envelope, InputStream input, long size) throws IOException {
+		
+		long transferId = transferIds.getAndIncrement();
+		long offset = 0;
+		
+		do {
+			// A new array for each chunk because the socket keeps the array until it is sent.
+			byte[] chunk = new byte[(int)Math.min(chunkSize, size - offset)];
+			
+			int length = 0;
+			while (length < chunk.length) {
+				int read = input.read(chunk, length, chunk.length - length);
+				if (read == -1) {
+					throw new EOFException("Stream ended after " + (offset + length) + " of " + size + " bytes");
+				}
+				length += read;
+			}
+			
+			impl.replyChunk(envelope, transferId, offset, size, ByteBuffer.wrap(chunk));
+			offset += length;
+		}
+		while (offset < size);
 	}
 
 	/**
@@ -10,14 +10,20 @@
 
 package eu.ill.cameo.api.coms.basic.impl;
 
+import java.nio.ByteBuffer;
+
 import eu.ill.cameo.api.coms.basic.Request;
+import eu.ill.cameo.common.messages.Compression;
 
 public interface ResponderImpl {
 
 	void init(String responderIdentity);
+	void setCompression(Compression compression);
 	int getResponderPort();
 	Request receive();
-	void reply(byte[] part1, byte[] part2);
+	void reply(Object envelope, byte[] response);
+	void reply(Object envelope, ByteBuffer response);
+	void replyChunk(Object envelope, long transferId, long offset, long size, ByteBuffer chunk);
 	void cancel();
 	boolean isCanceled();
 	void terminate();
@@ -10,17 +10,23 @@
 
 package eu.ill.cameo.api.coms.basic.impl.zmq;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.json.simple.JSONObject;
 
+import eu.ill.cameo.api.base.IdGenerator;
 import eu.ill.cameo.api.base.RequestSocket;
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.base.impl.zmq.ContextZmq;
 import eu.ill.cameo.api.coms.basic.Request;
 import eu.ill.cameo.api.coms.basic.impl.ResponderImpl;
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.BinaryHeader;
+import eu.ill.cameo.common.messages.Compression;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 
@@ -33,9 +39,57 @@ public class ResponderZmq implements ResponderImpl {
 	private String responderIdentity;
 	
 	private final static int HEADER_SIZE = 4;
-	private byte[][] requestHeader = new byte[HEADER_SIZE][];
 	
-	private AtomicBoolean canceled = new AtomicBoolean(false);	
+	private final static byte[] RESPONSE_HEADER = Messages.serializeType(Messages.RESPONSE);
+	private final static byte[] BINARY_RESPONSE_HEADER = BinaryHeader.encodeType(Messages.RESPONSE);
+	private final static byte[] RESPONSE_COMPRESSED_HEADER = Messages.serializeType(Messages.RESPONSE_COMPRESSED);
+	private final static byte[] BINARY_RESPONSE_COMPRESSED_HEADER = BinaryHeader.encodeType(Messages.RESPONSE_COMPRESSED);
+	
+	private AtomicBoolean canceled = new AtomicBoolean(false);
+	
+	// While a thread is receiving, it is the only one to write to the socket and the replying threads push their replies that it forwards.
+	// Otherwise the replying threads write to the socket directly. The lock protects the receiving state and the socket.
+	private ReentrantLock socketLock = new ReentrantLock();
+	private Condition receivingEnded = socketLock.newCondition();
+	private boolean receiving = false;
+	private Zmq.Socket replyPusher;
+	private Zmq.Socket replyPuller;
+	private Zmq.Poller poller;
+	private Compression compression = null;
+	
+	/**
+	 * Routing envelope of a request kept by the Request object so that the requests can be replied in any order.
+	 */
+	private static class Envelope {
+		
+		byte[][] header = new byte[HEADER_SIZE][];
+		boolean binary = false;
+		boolean compressed = false;
+		long correlationId = -1;
+		
+		Envelope(byte[][] data) {
+			for (int i = 0; i < HEADER_SIZE; ++i) {
+				if (i < data.length) {
+					header[i] = data[i];
+				}
+				else {
+					header[i] = new byte[0];
+				}
+			}
+		}
+		
+		Zmq.Msg createMessage() {
+			
+			Zmq.Msg message = new Zmq.Msg();
+			
+			for (int i = 0; i < HEADER_SIZE; ++i) {
+				message.add(header[i]);
+			}
+			
+			return message;
+		}
+	}
+	
 	
 	public void init(String responderIdentity) {
 		
@@ -69,39 +123,73 @@ public class ResponderZmq implements ResponderImpl {
 				This.getCom().setPortUnavailable(port);
 			}
 		}
+		
+		// The replies pushed by the other threads while receiving are forwarded by the receiving thread.
+		// There is no limit so that a replying thread never blocks while holding the lock.
+		String replyEndpoint = "inproc://" + IdGenerator.newStringId();
+		
+		replyPuller = context.createSocket(Zmq.PULL);
+		replyPuller.setHighWaterMark(0);
+		replyPuller.bind(replyEndpoint);
+		
+		replyPusher = context.createSocket(Zmq.PUSH);
+		replyPusher.setHighWaterMark(0);
+		replyPusher.connect(replyEndpoint);
+		
+		poller = context.createPoller(2);
+		poller.register(responder);
+		poller.register(replyPuller);
+	}
+	
+	public void setCompression(Compression compression) {
+		this.compression = compression;
 	}
 	
 	public int getResponderPort() {
 		return responderPort;
 	}
 
-	private void copyHeader(byte[][] data) {
-		for (int i = 0; i < HEADER_SIZE; ++i) {
-			
-			if (i < data.length) {
-				requestHeader[i] = data[i];
-			}
-			else {
-				requestHeader[i] = new byte[0];
-			}
-		}
-	}
-	
-	private Request processCancel() {
+	private Request processCancel(Envelope envelope) {
 		canceled.set(true);
 		
 		// Reply immediately.
-		replyOK();
+		replyOK(envelope);
 		
 		return null;
 	}
 	
-	private Request processRequest(JSONObject request, byte[][] data) {
+	private Request processRequest(JSONReader request, Envelope envelope, byte[][] data) {
 		
-		String name = JSON.getString(request, Messages.Request.APPLICATION_NAME);
-		int id = JSON.getInt(request, Messages.Request.APPLICATION_ID);
-		String serverEndpoint = JSON.getString(request, Messages.Request.SERVER_ENDPOINT);
-		int serverProxyPort = JSON.getInt(request, Messages.Request.SERVER_PROXY_PORT);
+		String name = request.getString(Messages.Request.APPLICATION_NAME);
+		int id = request.getInt(Messages.Request.APPLICATION_ID);
+		String serverEndpoint = request.getString(Messages.Request.SERVER_ENDPOINT);
+		int serverProxyPort = request.getInt(Messages.Request.SERVER_PROXY_PORT);
+		
+		// The correlation id is sent by the requesters that pipeline their requests.
+		if (request.hasKey(Messages.Request.CORRELATION_ID)) {
+			envelope.correlationId = request.getLong(Messages.Request.CORRELATION_ID);
+		}
+		
+		return createRequest(name, id, serverEndpoint, serverProxyPort, envelope, data);
+	}
+	
+	private Request processRequest(BinaryHeader.Reader reader, Envelope envelope, byte[][] data) {
+		
+		// The fields are read in the order of BinaryHeader.encodeRequest().
+		String name = reader.readString();
+		int id = reader.readInt();
+		String serverEndpoint = reader.readString();
+		int serverProxyPort = reader.readInt();
+		
+		// The correlation id is appended by the requesters that pipeline their requests.
+		if (reader.hasMore()) {
+			envelope.correlationId = reader.readLong();
+		}
+		
+		return createRequest(name, id, serverEndpoint, serverProxyPort, envelope, data);
+	}
+	
+	private Request createRequest(String name, int id, String serverEndpoint, int serverProxyPort, Envelope envelope, byte[][] data) {
 		
 		byte[] messagePart1 = data[HEADER_SIZE + 1];
 		byte[] messagePart2 = null;
@@ -109,18 +197,82 @@ public class ResponderZmq implements ResponderImpl {
 			messagePart2 = data[HEADER_SIZE + 2];
 		}
 		
-		// Return the request but do not reply to the client now. This will be done by the Request.			
-		return new Request(name, id, serverEndpoint, serverProxyPort, messagePart1, messagePart2);
+		// All the parts of a compressed request are compressed.
+		if (envelope.compressed) {
+			messagePart1 = Compression.decompress(messagePart1);
+			if (messagePart2 != null) {
+				messagePart2 = Compression.decompress(messagePart2);
+			}
+		}
+		
+		// Return the request but do not reply to the client now. This will be done by the Request with its envelope.
+		return new Request(name, id, serverEndpoint, serverProxyPort, messagePart1, messagePart2, envelope);
+	}
+	
+	/**
+	 * Forwards the replies pushed by the other threads to the requesters.
+	 */
+	private void forwardReplies() {
+		
+		while (true) {
+			poller.poll(0);
+			if (!poller.pollin(1)) {
+				return;
+			}
+			
+			Zmq.Msg reply = Zmq.Msg.recvMsg(replyPuller);
+			if (reply == null) {
+				return;
+			}
+			
+			reply.send(responder);
+			reply.destroy();
+		}
 	}
 	
 	public Request receive() {
 		
+		socketLock.lock();
+		receiving = true;
+		socketLock.unlock();
+		
+		try {
+			return receiveRequest();
+		}
+		finally {
+			// The replies pushed before the end of the receiving are forwarded so that none is left.
+			socketLock.lock();
+			
+			try {
+				forwardReplies();
+				receiving = false;
+				receivingEnded.signalAll();
+			}
+			finally {
+				socketLock.unlock();
+			}
+		}
+	}
+	
+	private Request receiveRequest() {
+		
 		// Loop on the SYNC messages because they are not requests.
 		while (true) {
 		
 			Zmq.Msg message = null;
 			
 			try {
+				// Block until a request or a reply pushed by another thread.
+				poller.poll(-1);
+				
+				if (poller.pollin(1)) {
+					forwardReplies();
+				}
+				
+				if (!poller.pollin(0)) {
+					continue;
+				}
+				
 				message = Zmq.Msg.recvMsg(responder);
 	
 				if (message == null) {
@@ -130,32 +282,52 @@ public class ResponderZmq implements ResponderImpl {
 				// Get all the parts. 
 				byte[][] data = message.getAllData();
 				
-				// Memorize the header to reuse when replying.
-				copyHeader(data);
+				// Keep the envelope to reply.
+				Envelope envelope = new Envelope(data);
 				
-				// Get the JSON request object.
-				JSONObject request = This.getCom().parse(data[HEADER_SIZE]);
+				// The header is binary if the requester negotiated it during the sync.
+				envelope.binary = BinaryHeader.isBinary(data[HEADER_SIZE]);
 				
-				// Get the type.
-				long type = JSON.getLong(request, Messages.TYPE);
+				JSONReader request = null;
+				BinaryHeader.Reader reader = null;
+				long type;
 				
-				if (type == Messages.REQUEST) {
-					return processRequest(request, data);
+				if (envelope.binary) {
+					reader = new BinaryHeader.Reader(data[HEADER_SIZE]);
+					type = reader.getType();
+				}
+				else {
+					// Get the JSON request object.
+					request = new JSONReader(data[HEADER_SIZE]);
+					
+					// Get the type.
+					type = request.getLong(Messages.TYPE);
+				}
+				
+				if (type == Messages.REQUEST || type == Messages.REQUEST_COMPRESSED) {
+					
+					// The requester of a compressed request also decompresses the response.
+					envelope.compressed = (type == Messages.REQUEST_COMPRESSED);
+					
+					if (envelope.binary) {
+						return processRequest(reader, envelope, data);
+					}
+					return processRequest(request, envelope, data);
 				}
 				else if (type == Messages.CANCEL) {
-					return processCancel();
+					return processCancel(envelope);
 				}
 				else if (type == Messages.SYNC) {
 					
-					// Reply immediately.
-					replyOK();
+					// Reply immediately with the version of the binary header.
+					replySync(envelope);
 					
 					// Do not return, continue the loop.
 				}
 				else if (type == Messages.PING) {
 					
 					// Reply immediately.
-					replyPong();
+					replyPong(envelope);
 					
 					// Do not return, continue the loop.
 				}
@@ -168,41 +340,118 @@ public class ResponderZmq implements ResponderImpl {
 		}
 	}
 	
-	public void reply(byte[] part1, byte[] part2) {
+	private static byte[] createResponseHeader(Envelope envelope) {
 		
-		Zmq.Msg reply = new Zmq.Msg();
+		// Reply with the encoding of the request and echo its correlation id.
+		if (envelope.correlationId != -1) {
+			return (envelope.binary ? BinaryHeader.append(BINARY_RESPONSE_HEADER, envelope.correlationId) : Messages.serializeResponse(envelope.correlationId));
+		}
+		return (envelope.binary ? BINARY_RESPONSE_HEADER : RESPONSE_HEADER);
+	}
+	
+	private static byte[] createCompressedResponseHeader(Envelope envelope) {
 		
-		for (int i = 0; i < HEADER_SIZE; ++i) {
-			reply.add(requestHeader[i]);
+		if (envelope.correlationId != -1) {
+			return (envelope.binary ? BinaryHeader.append(BINARY_RESPONSE_COMPRESSED_HEADER, envelope.correlationId) : Messages.serializeResponse(Messages.RESPONSE_COMPRESSED, envelope.correlationId));
 		}
-				
-		reply.add(part1);
-		reply.add(part2);
+		return (envelope.binary ? BINARY_RESPONSE_COMPRESSED_HEADER : RESPONSE_COMPRESSED_HEADER);
+	}
+	
+	public void reply(Object requestEnvelope, byte[] response) {
 		
-		reply.send(responder);
+		Envelope envelope = (Envelope)requestEnvelope;
+		Zmq.Msg reply = envelope.createMessage();
+		
+		// The response is compressed outside the lock and only if the requester decompresses it.
+		byte[] payload = null;
+		if (envelope.compressed && compression != null) {
+			payload = compression.compress(response);
+		}
+		
+		if (payload != null) {
+			reply.add(createCompressedResponseHeader(envelope));
+			reply.add(payload);
+		}
+		else {
+			reply.add(createResponseHeader(envelope));
+			reply.add(response);
+		}
+		
+		socketLock.lock();
+		
+		try {
+			reply.send(receiving ? replyPusher : responder);
+		}
+		finally {
+			socketLock.unlock();
+		}
+	}
+	
+	public void reply(Object requestEnvelope, ByteBuffer response) {
+		
+		Envelope envelope = (Envelope)requestEnvelope;
+		byte[] responseHeader = createResponseHeader(envelope);
+		
+		socketLock.lock();
+		
+		try {
+			// The frames are sent one by one so that the buffer is not copied into a message.
+			Zmq.Socket socket = (receiving ? replyPusher : responder);
+			for (int i = 0; i < HEADER_SIZE; ++i) {
+				socket.sendMore(envelope.header[i]);
+			}
+			socket.sendMore(responseHeader);
+			socket.send(response, 0);
+		}
+		finally {
+			socketLock.unlock();
+		}
 	}
 
-	private void replyOK() {
+	public void replyChunk(Object requestEnvelope, long transferId, long offset, long size, ByteBuffer chunk) {
 		
-		Zmq.Msg reply = new Zmq.Msg();
+		Envelope envelope = (Envelope)requestEnvelope;
+		byte[] chunkHeader = Messages.serializeChunk(Messages.RESPONSE_CHUNK, transferId, offset, size, envelope.correlationId);
+
+		// The lock is taken for each chunk so that the other replies are interleaved.
+		socketLock.lock();
 		
-		for (int i = 0; i < HEADER_SIZE; ++i) {
-			reply.add(requestHeader[i]);
+		try {
+			Zmq.Socket socket = (receiving ? replyPusher : responder);
+			for (int i = 0; i < HEADER_SIZE; ++i) {
+				socket.sendMore(envelope.header[i]);
+			}
+			socket.sendMore(chunkHeader);
+			socket.send(chunk, 0);
 		}
+		finally {
+			socketLock.unlock();
+		}
+	}
+
+	private void replyOK(Envelope envelope) {
 		
+		Zmq.Msg reply = envelope.createMessage();
 		reply.add(Messages.serialize(Messages.createRequestResponse(0, "OK")));
 		
 		reply.send(responder);
 	}
 	
-	private void replyPong() {
+	private void replySync(Envelope envelope) {
 		
-		Zmq.Msg reply = new Zmq.Msg();
+		Zmq.Msg reply = envelope.createMessage();
 		
-		for (int i = 0; i < HEADER_SIZE; ++i) {
-			reply.add(requestHeader[i]);
-		}
+		// The requesters can send compressed requests.
+		JSONObject response = Messages.createSyncResponse();
+		response.put(Messages.VersionResponse.COMPRESSION, true);
+		reply.add(Messages.serialize(response));
+		
+		reply.send(responder);
+	}
+	
+	private void replyPong(Envelope envelope) {
 		
+		Zmq.Msg reply = envelope.createMessage();
 		reply.add(Messages.serialize(Messages.createPongResponse()));
 		
 		reply.send(responder);
@@ -230,7 +479,22 @@ public class ResponderZmq implements ResponderImpl {
 	}
 	
 	public void terminate() {
-		context.destroySocket(responder);
+		
+		// Wait for the replying threads and the end of the receiving.
+		socketLock.lock();
+		
+		try {
+			while (receiving) {
+				receivingEnded.awaitUninterruptibly();
+			}
+			
+			context.destroySocket(responder);
+			context.destroySocket(replyPusher);
+			context.destroySocket(replyPuller);
+		}
+		finally {
+			socketLock.unlock();
+		}
 		
 		// Release the responder port.
 		This.getCom().releasePort(responderPort);
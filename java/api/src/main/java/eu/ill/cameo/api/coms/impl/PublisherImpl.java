@@ -10,16 +10,25 @@
 
 package eu.ill.cameo.api.coms.impl;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import eu.ill.cameo.common.messages.Compression;
+
 public interface PublisherImpl {
 	
 	void init(String publisherIdentity);
+	void setCompression(Compression compression);
 	
 	int getPublisherPort();
 	
 	void sendSync();
 	void send(byte[] data);
 	void send(String data);
+	void send(ByteBuffer data);
 	void sendTwoParts(byte[] data1, byte[] data2);
+	void sendBatch(List<byte[]> messages);
+	void sendChunk(long transferId, long offset, long size, ByteBuffer chunk);
 	void sendEnd();
 	boolean hasEnded();
 	void ping();
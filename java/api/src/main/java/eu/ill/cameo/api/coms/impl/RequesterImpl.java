@@ -10,24 +10,41 @@
 
 package eu.ill.cameo.api.coms.impl;
 
+import java.nio.ByteBuffer;
+
 import eu.ill.cameo.api.base.TimeoutCounter;
+import eu.ill.cameo.common.messages.Compression;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public interface RequesterImpl {
 
+	// Returned by receive(int) when a chunk of a response is received but the response is not complete.
+	byte[] INCOMPLETE = new byte[0];
+	
+
 	void setPollingTime(int value);
 	void setTimeout(int value);
+	void setCompression(Compression compression);
 	
 	void init(Endpoint endpoint, String responderIdentity, TimeoutCounter timeoutCounter);
 	
 	void send(byte[] requestData);
 	void send(String request);
 	void sendTwoParts(byte[] requestData1, byte[] requestData2);
+	void send(byte[] requestData, long correlationId);
+	void send(ByteBuffer requestData);
 	void ping();
 	
 	byte[] receive();
 	String receiveString();
+	byte[] receive(int pollingTime);
+	int receive(ByteBuffer response);
+	
+	boolean hasCorrelation();
+	long getCorrelationId();
+	void reset();
 	
+	void wakeup();
 	void cancel();
 	boolean isCanceled();
 	
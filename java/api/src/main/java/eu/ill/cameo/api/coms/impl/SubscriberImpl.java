@@ -10,22 +10,30 @@
 
 package eu.ill.cameo.api.coms.impl;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import eu.ill.cameo.api.base.ConnectionTimeout;
+import eu.ill.cameo.api.coms.ChunkListener;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public interface SubscriberImpl {
 	
 	void setPollingTime(int value);
 	void setTimeout(int value);
+	void setChunkListener(ChunkListener listener);
 	
-	void init(int appId, Endpoint endpoint, Endpoint appStatusEndpoint, String publisherIdentity, boolean checkApp) throws ConnectionTimeout;
+	void init(int appId, Endpoint endpoint, Endpoint appStatusEndpoint, String appStatusTopic, String publisherIdentity, boolean checkApp) throws ConnectionTimeout;
 	boolean sync(int timeout);
 	boolean hasEnded();
 	boolean isCanceled();
 	boolean hasTimedout();
 	byte[] receive();
 	byte[][] receiveTwoParts();
+	int receive(ByteBuffer buffer);
 	String receiveString();
+	int receiveBatch(List<byte[]> messages, int max, int timeout);
+	int receiveTwoPartsBatch(List<byte[][]> messages, int max, int timeout);
 	void cancel();
 	void terminate();
 }
\ No newline at end of file
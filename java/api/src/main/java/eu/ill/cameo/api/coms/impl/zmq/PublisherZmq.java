@@ -10,28 +10,38 @@
 
 package eu.ill.cameo.api.coms.impl.zmq;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.json.simple.JSONObject;
-
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.base.impl.zmq.ContextZmq;
 import eu.ill.cameo.api.coms.impl.PublisherImpl;
 import eu.ill.cameo.com.Zmq;
+import eu.ill.cameo.common.messages.Compression;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public class PublisherZmq implements PublisherImpl {
 
 	private int publisherPort;
-	private String publisherIdentity;
+	private byte[] publisherIdentity;
 	private Zmq.Context context;
 	private Zmq.Socket publisher = null;
 	private AtomicBoolean ended = new AtomicBoolean(false);
+	private Compression compression = null;
+	
+	// The headers are serialized once. They stay in JSON because the subscribers cannot negotiate the encoding with a PUB socket.
+	private final static byte[] SYNC_STREAM_HEADER = Messages.serializeType(Messages.SYNC_STREAM);
+	private final static byte[] STREAM_HEADER = Messages.serializeType(Messages.STREAM);
+	private final static byte[] STREAM_COMPRESSED_HEADER = Messages.serializeType(Messages.STREAM_COMPRESSED);
+	private final static byte[] STREAM_END_HEADER = Messages.serializeType(Messages.STREAM_END);
+	private final static byte[] PING_HEADER = Messages.serializeType(Messages.PING);
 	
 	public void init(String publisherIdentity) {
 		
-		this.publisherIdentity = publisherIdentity;
+		// The identity frame is also serialized once.
+		this.publisherIdentity = Messages.serialize(publisherIdentity);
 		
 		this.context = ((ContextZmq)This.getCom().getContext()).getContext();
 		publisher = context.createSocket(Zmq.PUB);
@@ -59,6 +69,10 @@ public class PublisherZmq implements PublisherImpl {
 		}
 	}
 	
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+	
 	public int getPublisherPort() {
 		return publisherPort;
 	}
@@ -67,54 +81,82 @@ public class PublisherZmq implements PublisherImpl {
 		
 		publisher.sendMore(publisherIdentity);
 		
-		JSONObject messageType = new JSONObject();
-		messageType.put(Messages.TYPE, Messages.SYNC_STREAM);
-		publisher.send(Messages.serialize(messageType), 0);
+		publisher.send(SYNC_STREAM_HEADER, 0);
+	}
+	
+	/**
+	 * Sends the header and the data that is compressed if the compression is enabled and reduces its size.
+	 */
+	private void sendStream(byte[] data) {
+		
+		byte[] payload = (compression != null ? compression.compress(data) : null);
+		
+		if (payload != null) {
+			publisher.sendMore(STREAM_COMPRESSED_HEADER);
+			publisher.send(payload, 0);
+		}
+		else {
+			publisher.sendMore(STREAM_HEADER);
+			publisher.send(data, 0);
+		}
 	}
 	
 	public void send(byte[] data) {
 		
 		publisher.sendMore(publisherIdentity);
 		
-		JSONObject messageType = new JSONObject();
-		messageType.put(Messages.TYPE, Messages.STREAM);
-		publisher.sendMore(Messages.serialize(messageType));
-		
-		publisher.send(data, 0);
+		sendStream(data);
 	}
 	
 	public void send(String data) {
 		
 		publisher.sendMore(publisherIdentity);
 		
-		JSONObject messageType = new JSONObject();
-		messageType.put(Messages.TYPE, Messages.STREAM);
-		publisher.sendMore(Messages.serialize(messageType));
-				
-		byte[] result = Messages.serialize(data);
-		publisher.send(result, 0);
+		sendStream(Messages.serialize(data));
+	}
+	
+	public void send(ByteBuffer data) {
+		
+		publisher.sendMore(publisherIdentity);
+		
+		publisher.sendMore(STREAM_HEADER);
+		
+		publisher.send(data, 0);
 	}
 	
 	public void sendTwoParts(byte[] data1, byte[] data2) {
 	
 		publisher.sendMore(publisherIdentity);
 	
-		JSONObject messageType = new JSONObject();
-		messageType.put(Messages.TYPE, Messages.STREAM);
-		publisher.sendMore(Messages.serialize(messageType));
+		publisher.sendMore(STREAM_HEADER);
 		
 		publisher.sendMore(data1);
 		publisher.send(data2, 0);
 	}
 	
+	public void sendBatch(List<byte[]> messages) {
+		
+		for (byte[] data : messages) {
+			publisher.sendMore(publisherIdentity);
+			sendStream(data);
+		}
+	}
+	
+	public void sendChunk(long transferId, long offset, long size, ByteBuffer chunk) {
+		
+		publisher.sendMore(publisherIdentity);
+		
+		publisher.sendMore(Messages.serializeChunk(Messages.STREAM_CHUNK, transferId, offset, size, -1));
+		
+		publisher.send(chunk, 0);
+	}
+	
 	public void sendEnd() {
 		
 		if (!ended.get()) {
 			publisher.sendMore(publisherIdentity);
 	
-			JSONObject messageType = new JSONObject();
-			messageType.put(Messages.TYPE, Messages.STREAM_END);
-			publisher.send(Messages.serialize(messageType), 0);
+			publisher.send(STREAM_END_HEADER, 0);
 			
 			ended.set(true);
 		}
@@ -128,9 +170,7 @@ public class PublisherZmq implements PublisherImpl {
 		
 		publisher.sendMore(publisherIdentity);
 		
-		JSONObject messageType = new JSONObject();
-		messageType.put(Messages.TYPE, Messages.PING);
-		publisher.send(Messages.serialize(messageType), 0);
+		publisher.send(PING_HEADER, 0);
 	}
 	
 	public void terminate() {
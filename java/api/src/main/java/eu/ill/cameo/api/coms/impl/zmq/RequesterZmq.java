@@ -10,50 +10,79 @@
 
 package eu.ill.cameo.api.coms.impl.zmq;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.simple.JSONObject;
 
+import eu.ill.cameo.api.base.IdGenerator;
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.base.Timeout;
 import eu.ill.cameo.api.base.TimeoutCounter;
 import eu.ill.cameo.api.base.impl.zmq.ContextZmq;
 import eu.ill.cameo.api.coms.impl.RequesterImpl;
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.BinaryHeader;
+import eu.ill.cameo.common.messages.ChunkAssembler;
+import eu.ill.cameo.common.messages.Compression;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public class RequesterZmq implements RequesterImpl {
 
-	private int pollingTime = 100;
 	private int timeout = 0;
 	
 	private Zmq.Context context;
 	private Zmq.Socket requester;
+	private Zmq.Poller poller;
+	private Zmq.Socket cancelPublisher;
+	private Zmq.Socket cancelSubscriber;
 	private Endpoint endpoint;
 	private String responderIdentity;
 	
 	private AtomicBoolean canceled = new AtomicBoolean(false);
 	private AtomicBoolean timedout = new AtomicBoolean(false);
 	
+	private boolean binaryHeader = false;
+	private boolean correlation = false;
+	private boolean responderCompression = false;
+	private Compression compression = null;
+	private long correlationId = -1;
+	private byte[] requestHeader = null;
+	private byte[] compressedRequestHeader = null;
+	private ChunkAssembler assembler = new ChunkAssembler(MAX_TRANSFERS);
+	
 	private final static int SYNC_TIMEOUT = 200;
+	private final static int MAX_TRANSFERS = 16;
+	private final static byte[] SYNC_HEADER = Messages.serializeType(Messages.SYNC);
+	private final static byte[] PING_HEADER = Messages.serializeType(Messages.PING);
+	private final static String WAKEUP = "wakeup";
 	
 	public void setPollingTime(int value) {
-		pollingTime = value;
+		// The receive is unblocked by the cancel socket so that there is no polling.
 	}
 
 	public void setTimeout(int value) {
 		timeout = value;
 	}
 	
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+	
 	private void resetSocket() {
 
 		// Destroy socket.
 		if (requester != null) {
 			context.destroySocket(requester);
 			requester = null;
+			poller = null;
 		}
+		
+		// The transfers cannot continue on a new socket.
+		assembler.clear();
 	}
 	
 	private void createSocket() {
@@ -66,6 +95,27 @@ public class RequesterZmq implements RequesterImpl {
 		requester.connect(endpoint.toString());
 		
 		//TODO Shall we set linger to 0?
+		
+		// Create the poller once for the socket. The cancel socket is polled so that a receive is unblocked immediately.
+		poller = context.createPoller(2);
+		poller.register(requester);
+		poller.register(cancelSubscriber);
+	}
+	
+	private void createCancelSockets() {
+		
+		// Create an endpoint that should be unique.
+		String cancelEndpoint = "inproc://" + IdGenerator.newStringId();
+		
+		// The cancel publisher sends the CANCEL message to the cancel subscriber polled with the requester.
+		// It also sends the WAKEUP message that only unblocks a receive.
+		cancelPublisher = context.createSocket(Zmq.PUB);
+		cancelPublisher.bind(cancelEndpoint);
+		
+		cancelSubscriber = context.createSocket(Zmq.SUB);
+		cancelSubscriber.connect(cancelEndpoint);
+		cancelSubscriber.subscribe(Messages.Event.CANCEL);
+		cancelSubscriber.subscribe(WAKEUP);
 	}
 	
 	private void createAndSyncSocket(TimeoutCounter timeoutCounter) {
@@ -138,12 +188,37 @@ public class RequesterZmq implements RequesterImpl {
 	
 	private boolean sendSync() {
 		
-		// Create the request.
-		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.SYNC);
-	
-		sendRequest(Messages.serialize(jsonRequest));
-		if (receiveMessage() != null) {
+		sendRequest(SYNC_HEADER);
+		
+		Zmq.Msg message = receiveMessage();
+		if (message != null) {
+			try {
+				// The responder gives the version of the binary header that it decodes. The old responders do not give it.
+				JSONReader response = new JSONReader(message.getAllData()[3]);
+				binaryHeader = response.hasKey(Messages.VersionResponse.BINARY_HEADER)
+						&& response.getInt(Messages.VersionResponse.BINARY_HEADER) >= BinaryHeader.VERSION;
+				
+				// The responder echoes the correlation ids. The old responders do not.
+				correlation = response.hasKey(Messages.VersionResponse.CORRELATION)
+						&& response.getBoolean(Messages.VersionResponse.CORRELATION);
+				
+				// The responder decompresses the requests. The old responders and the multi responders do not.
+				responderCompression = response.hasKey(Messages.VersionResponse.COMPRESSION)
+						&& response.getBoolean(Messages.VersionResponse.COMPRESSION);
+			}
+			catch (Exception e) {
+				binaryHeader = false;
+				correlation = false;
+				responderCompression = false;
+			}
+			finally {
+				message.destroy();
+			}
+			
+			// The headers are created again for the negotiated encoding.
+			requestHeader = null;
+			compressedRequestHeader = null;
+			
 			// Had a response we can exit the loop.
 			return true;
 		}
@@ -160,6 +235,8 @@ public class RequesterZmq implements RequesterImpl {
 		// Get the context.
 		this.context = ((ContextZmq)This.getCom().getContext()).getContext();
 		
+		createCancelSockets();
+		
 		initSocket(timeoutCounter);
 	}
 	
@@ -217,16 +294,60 @@ public class RequesterZmq implements RequesterImpl {
 		}
 	}
 	
-	public void send(byte[] requestData) {
+	/**
+	 * Gets the request header in the encoding negotiated with the responder. The header does not change so it is serialized once.
+	 * @return The header.
+	 */
+	private byte[] createRequestHeader(long type) {
+		
+		if (binaryHeader) {
+			return BinaryHeader.encodeRequest(type, This.getName(), This.getId(), This.getEndpoint().toString(), This.getCom().getResponderProxyPort());
+		}
 		
 		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.REQUEST);
+		jsonRequest.put(Messages.TYPE, type);
 		jsonRequest.put(Messages.Request.APPLICATION_NAME, This.getName());
 		jsonRequest.put(Messages.Request.APPLICATION_ID, This.getId());
 		jsonRequest.put(Messages.Request.SERVER_ENDPOINT, This.getEndpoint().toString());
 		jsonRequest.put(Messages.Request.SERVER_PROXY_PORT, This.getCom().getResponderProxyPort());
 		
-		sendRequest(Messages.serialize(jsonRequest), requestData);
+		return Messages.serialize(jsonRequest);
+	}
+	
+	private byte[] getRequestHeader(boolean compressed) {
+		
+		// The headers are created once after the sync.
+		if (compressed) {
+			if (compressedRequestHeader == null) {
+				compressedRequestHeader = createRequestHeader(Messages.REQUEST_COMPRESSED);
+			}
+			return compressedRequestHeader;
+		}
+		
+		if (requestHeader == null) {
+			requestHeader = createRequestHeader(Messages.REQUEST);
+		}
+		return requestHeader;
+	}
+	
+	/**
+	 * Returns true if the requests are compressed. A compressed request also tells the responder that the response can be compressed.
+	 */
+	private boolean isCompressing() {
+		return (compression != null && responderCompression);
+	}
+	
+	public void send(byte[] requestData) {
+		
+		// Init the socket first because the encoding of the header is negotiated during the sync.
+		if (initSocketForSend()) {
+			if (isCompressing()) {
+				sendRequest(getRequestHeader(true), compression.encode(requestData));
+			}
+			else {
+				sendRequest(getRequestHeader(false), requestData);
+			}
+		}
 	}
 	
 	public void send(String request) {
@@ -235,53 +356,137 @@ public class RequesterZmq implements RequesterImpl {
 	
 	public void sendTwoParts(byte[] requestData1, byte[] requestData2) {
 		
-		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.REQUEST);
-		jsonRequest.put(Messages.Request.APPLICATION_NAME, This.getName());
-		jsonRequest.put(Messages.Request.APPLICATION_ID, This.getId());
-		jsonRequest.put(Messages.Request.SERVER_ENDPOINT, This.getEndpoint().toString());
-		jsonRequest.put(Messages.Request.SERVER_PROXY_PORT, This.getCom().getResponderProxyPort());
+		// Init the socket first because the encoding of the header is negotiated during the sync.
+		if (initSocketForSend()) {
+			if (isCompressing()) {
+				sendRequest(getRequestHeader(true), compression.encode(requestData1), compression.encode(requestData2));
+			}
+			else {
+				sendRequest(getRequestHeader(false), requestData1, requestData2);
+			}
+		}
+	}
+	
+	public void send(byte[] requestData, long correlationId) {
 		
-		sendRequest(Messages.serialize(jsonRequest), requestData1, requestData2);
+		// Init the socket first because the encoding of the header and the correlation are negotiated during the sync.
+		if (initSocketForSend()) {
+			
+			boolean compressed = isCompressing();
+			byte[] header = getRequestHeader(compressed);
+			
+			// The correlation id is only sent to the responders that echo it.
+			if (correlation) {
+				if (binaryHeader) {
+					header = BinaryHeader.append(header, correlationId);
+				}
+				else {
+					// Insert the field before the closing brace of the serialized header.
+					byte[] field = Messages.serialize(",\"" + Messages.Request.CORRELATION_ID + "\":" + correlationId + "}");
+					byte[] jsonHeader = Arrays.copyOf(header, header.length - 1 + field.length);
+					System.arraycopy(field, 0, jsonHeader, header.length - 1, field.length);
+					header = jsonHeader;
+				}
+			}
+			
+			sendRequest(header, (compressed ? compression.encode(requestData) : requestData));
+		}
+	}
+	
+	public void send(ByteBuffer requestData) {
+		
+		// Init the socket first because the encoding of the header is negotiated during the sync.
+		if (initSocketForSend()) {
+			
+			// The frames are sent one by one so that the buffer is not copied into a message.
+			requester.sendMore(new byte[0]);
+			requester.sendMore(responderIdentity);
+			requester.sendMore(new byte[0]);
+			requester.sendMore(getRequestHeader(false));
+			requester.send(requestData, 0);
+		}
+	}
+	
+	public boolean hasCorrelation() {
+		return correlation;
+	}
+	
+	public long getCorrelationId() {
+		return correlationId;
 	}
 
 	@Override
 	public void ping() {
+		sendRequest(PING_HEADER);
+	}
 	
-		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.PING);
+	/**
+	 * Polls the requester and the cancel socket.
+	 * @param time The polling time, -1 for no limit.
+	 * @return True if a message can be received, false if the time elapsed or the requester has been canceled.
+	 */
+	private boolean poll(long time) {
+		
+		// Check if the requester has been canceled.
+		if (canceled.get()) {
+			return false;
+		}
+		
+		poller.poll(time);
+		
+		if (poller.pollin(0)) {
+			return true;
+		}
+		
+		// The cancel or wakeup message is received only to empty the socket. The canceled flag is already set for a cancel.
+		if (poller.pollin(1)) {
+			Zmq.Msg.recvMsg(cancelSubscriber).destroy();
+		}
 		
-		sendRequest(Messages.serialize(jsonRequest));
+		return false;
 	}
 	
-	private Zmq.Msg receiveMessage() {
+	private Zmq.Msg pollMessage(long time) {
 		
-		// Define the number of iterations.
-		int n = 0;
-		if (pollingTime > 0) {
-			n = timeout / pollingTime + 1;
+		if (poll(time)) {
+			return Zmq.Msg.recvMsg(requester);
 		}
-
-		// Create the poller.
-		Zmq.Poller poller = this.context.createPoller(1);
-		poller.register(requester);
 		
-		// Infinite loop if timeout is 0 or finite loop if timeout is defined.
-		int i = 0;
-		while (i < n || timeout == 0) {
-
-			// Check if the requester has been canceled.
-			if (canceled.get()) {
-				return null;
+		return null;
+	}
+	
+	/**
+	 * Waits for a message, a cancel or the timeout.
+	 * @return True if a message can be received.
+	 */
+	private boolean waitForMessage() {
+		
+		// A timeout of 0 or -1 means no timeout.
+		if (timeout <= 0) {
+			while (!canceled.get()) {
+				if (poll(-1)) {
+					return true;
+				}
 			}
-
-			// Poll the requester.
-			poller.poll(pollingTime);
-			if (poller.pollin(0)) {
-				return Zmq.Msg.recvMsg(requester);
+			return false;
+		}
+		
+		long deadline = System.currentTimeMillis() + timeout;
+		
+		while (!canceled.get()) {
+			
+			long remainingTime = deadline - System.currentTimeMillis();
+			if (remainingTime <= 0) {
+				break;
+			}
+			
+			if (poll(remainingTime)) {
+				return true;
 			}
-
-			i++;
+		}
+		
+		if (canceled.get()) {
+			return false;
 		}
 
 		// Timeout occurred.
@@ -290,9 +495,84 @@ public class RequesterZmq implements RequesterImpl {
 		// Reset the socket because it cannot be reused after a timeout.
 		resetSocket();
 		
+		return false;
+	}
+	
+	private Zmq.Msg receiveMessage() {
+		
+		if (waitForMessage()) {
+			return Zmq.Msg.recvMsg(requester);
+		}
+		
 		return null;
 	}
 	
+	/**
+	 * Gets the type and the correlation id from the binary or JSON header.
+	 * @param header The header.
+	 * @return The type.
+	 */
+	private long processHeader(byte[] header) {
+		
+		long type;
+		correlationId = -1;
+		
+		if (BinaryHeader.isBinary(header)) {
+			BinaryHeader.Reader reader = new BinaryHeader.Reader(header);
+			type = reader.getType();
+			
+			if ((type == Messages.RESPONSE || type == Messages.RESPONSE_COMPRESSED) && reader.hasMore()) {
+				correlationId = reader.readLong();
+			}
+		}
+		else {
+			JSONReader reader = new JSONReader(header);
+			type = reader.getLong(Messages.TYPE);
+			
+			if ((type == Messages.RESPONSE || type == Messages.RESPONSE_COMPRESSED || type == Messages.RESPONSE_CHUNK) && reader.hasKey(Messages.Response.CORRELATION_ID)) {
+				correlationId = reader.getLong(Messages.Response.CORRELATION_ID);
+			}
+		}
+		
+		return type;
+	}
+	
+	/**
+	 * Adds a chunk of a response.
+	 * @return The whole response if the chunk is the last one, otherwise INCOMPLETE.
+	 */
+	private byte[] processChunk(byte[] header, byte[] chunk) {
+		
+		JSONReader reader = new JSONReader(header);
+		byte[] response = assembler.add(reader.getLong(Messages.Chunk.TRANSFER_ID), reader.getLong(Messages.Chunk.OFFSET), reader.getLong(Messages.Chunk.SIZE), chunk);
+		
+		return (response != null ? response : INCOMPLETE);
+	}
+	
+	private byte[] processResponse(Zmq.Msg message) {
+		
+		// Get the data.
+		byte[][] data = message.getAllData();
+		
+		long type = processHeader(data[3]);
+					
+		if (type == Messages.RESPONSE) {
+			return data[4];
+		}
+		else if (type == Messages.RESPONSE_COMPRESSED) {
+			return Compression.decompress(data[4]);
+		}
+		else if (type == Messages.RESPONSE_CHUNK) {
+			return processChunk(data[3], data[4]);
+		}
+		else if (type == Messages.PONG) {
+			return "Pong".getBytes();
+		}
+		else {
+			return null;
+		}
+	}
+	
 	public byte[] receive() {
 		
 		// Do not receive if canceled or the requester is not alive.
@@ -300,41 +580,103 @@ public class RequesterZmq implements RequesterImpl {
 			return null;
 		}
 		
-		Zmq.Msg message = null;
+		byte[] response;
 		
-		try {
-			message = receiveMessage();
-
+		// Receive the chunks until the response is complete.
+		do {
+			Zmq.Msg message = receiveMessage();
+			
 			if (message == null) {
 				return null;
 			}
+			
+			try {
+				response = processResponse(message);
+			}
+			finally {
+				message.destroy();
+			}
+		}
+		while (response == INCOMPLETE);
+		
+		return response;
+	}
+	
+	/**
+	 * Receives a response if it arrives within the polling time. Unlike receive(), no timeout occurs.
+	 * A chunk that does not complete a response is kept and INCOMPLETE is returned. The call is unblocked by wakeup() and cancel().
+	 * @param pollingTime The polling time, -1 for no limit.
+	 * @return The response, INCOMPLETE or null.
+	 */
+	public byte[] receive(int pollingTime) {
+		
+		// Do not receive if canceled or the requester is not alive.
+		if (canceled.get() || requester == null) {
+			return null;
+		}
+		
+		Zmq.Msg message = pollMessage(pollingTime);
+		if (message == null) {
+			return null;
+		}
+		
+		try {
+			return processResponse(message);
+		}
+		finally {
+			message.destroy();
+		}
+	}
 
-			// Get the data.
-			byte[][] data = message.getAllData();
+	public int receive(ByteBuffer response) {
+		
+		// Do not receive if canceled or the requester is not alive.
+		if (canceled.get() || requester == null) {
+			return -1;
+		}
+		
+		while (true) {
+			if (!waitForMessage()) {
+				return -1;
+			}
 			
-			// Get the JSON request object.
-			JSONObject request = This.getCom().parse(data[3]);
+			// Receive the routing frames and the header then the response directly into the buffer.
+			byte[] header = null;
+			for (int i = 0; i < 4; ++i) {
+				header = requester.recv();
+			}
+			
+			long type = processHeader(header);
+			int size = -1;
+			byte[] data = null;
 			
-			// Get the type.
-			long type = JSON.getLong(request, Messages.TYPE);
-						
-			if (type == Messages.RESPONSE) {
-				return data[4];
+			if (type == Messages.RESPONSE && requester.hasMore()) {
+				size = requester.recv(response);
 			}
-			else if (type == Messages.PONG) {
-				return "Pong".getBytes();
+			else if (type == Messages.RESPONSE_COMPRESSED && requester.hasMore()) {
+				data = Compression.decompress(requester.recv());
 			}
-			else {
-				return null;
+			else if (type == Messages.RESPONSE_CHUNK && requester.hasMore()) {
+				data = processChunk(header, requester.recv());
 			}
-		}
-		finally {
-			if (message != null) {
-				message.destroy();
+			
+			while (requester.hasMore()) {
+				requester.recv();
+			}
+			
+			// The compressed responses and the chunks are decoded before being copied into the buffer.
+			if (data == INCOMPLETE) {
+				continue;
+			}
+			else if (data != null) {
+				size = data.length;
+				response.put(data, 0, Math.min(data.length, response.remaining()));
 			}
+			
+			return size;
 		}
 	}
-
+	
 	public String receiveString() {
 		
 		byte[] response = receive();
@@ -346,8 +688,28 @@ public class RequesterZmq implements RequesterImpl {
 		return null;
 	}
 	
-	public void cancel() {
-		canceled.set(true);		
+	/**
+	 * Unblocks the receive(int) call in another thread without canceling the requester.
+	 */
+	public synchronized void wakeup() {
+		
+		if (cancelPublisher != null) {
+			cancelPublisher.sendMore(WAKEUP);
+			cancelPublisher.send(WAKEUP);
+		}
+	}
+	
+	public synchronized void cancel() {
+		
+		if (canceled.getAndSet(true)) {
+			return;
+		}
+		
+		// Unblock the receive.
+		if (cancelPublisher != null) {
+			cancelPublisher.sendMore(Messages.Event.CANCEL);
+			cancelPublisher.send(Messages.Event.CANCEL);
+		}
 	}
 
 	public boolean isCanceled() {
@@ -359,8 +721,23 @@ public class RequesterZmq implements RequesterImpl {
 		return timedout.get();
 	}
 	
-	public void terminate() {
+	/**
+	 * Resets the socket after a timeout. The socket is recreated and synchronized by the next send.
+	 */
+	public void reset() {
+		timedout.set(true);
+		resetSocket();
+	}
+	
+	public synchronized void terminate() {
 		resetSocket();
+		
+		if (cancelPublisher != null) {
+			context.destroySocket(cancelPublisher);
+			context.destroySocket(cancelSubscriber);
+			cancelPublisher = null;
+			cancelSubscriber = null;
+		}
 	}
 	
 }
\ No newline at end of file
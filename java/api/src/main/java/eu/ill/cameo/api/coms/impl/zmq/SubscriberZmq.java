@@ -10,28 +10,31 @@
 
 package eu.ill.cameo.api.coms.impl.zmq;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.json.simple.JSONObject;
-
 import eu.ill.cameo.api.base.IdGenerator;
 import eu.ill.cameo.api.base.State;
 import eu.ill.cameo.api.base.This;
+import eu.ill.cameo.api.base.UnexpectedException;
 import eu.ill.cameo.api.base.impl.zmq.ContextZmq;
+import eu.ill.cameo.api.coms.ChunkListener;
 import eu.ill.cameo.api.coms.impl.SubscriberImpl;
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.ChunkAssembler;
+import eu.ill.cameo.common.messages.Compression;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 
 public class SubscriberZmq implements SubscriberImpl {
 	
-	private int pollingTime = 100;
 	private int timeout = 0;
 	
 	private Zmq.Context context;
 	private Zmq.Socket subscriber;
-	private String publisherIdentity;
 	private String cancelEndpoint;
 	private Zmq.Socket cancelPublisher;
 	private int appId;
@@ -39,19 +42,39 @@ public class SubscriberZmq implements SubscriberImpl {
 	private AtomicBoolean canceled = new AtomicBoolean(false);
 	private AtomicBoolean timedout = new AtomicBoolean(false);
 	private Zmq.Poller poller;
+	private byte[] publisherIdentityBytes;
+	private byte[] appStatusTopicBytes;
+	private volatile boolean finished = false;
+	private int receivedSize;
+	private volatile ChunkListener chunkListener = null;
+	private ChunkAssembler assembler = new ChunkAssembler(MAX_TRANSFERS);
+	
+	private final static byte[] STREAM_HEADER = Messages.serializeType(Messages.STREAM);
+	private final static byte[] CANCEL_BYTES = Messages.serialize(Messages.Event.CANCEL);
+	
+	private final static int MAX_TRANSFERS = 16;
+	
+	private final static int DATA = 0;
+	private final static int CONTROL = 1;
+	private final static int FINISHED = 2;
 	
 	public void setPollingTime(int value) {
-		pollingTime = value;
+		// The receive is unblocked by the CANCEL message so that there is no polling.
 	}
 	
 	public void setTimeout(int value) {
 		timeout = value;
 	}
 	
-	public void init(int appId, Endpoint endpoint, Endpoint appStatusEndpoint, String publisherIdentity, boolean checkApp) {
+	public void setChunkListener(ChunkListener listener) {
+		chunkListener = listener;
+	}
+	
+	public void init(int appId, Endpoint endpoint, Endpoint appStatusEndpoint, String appStatusTopic, String publisherIdentity, boolean checkApp) {
 
 		this.appId = appId;
-		this.publisherIdentity = publisherIdentity;
+		this.publisherIdentityBytes = Messages.serialize(publisherIdentity);
+		this.appStatusTopicBytes = Messages.serialize(appStatusTopic);
 		
 		this.context = ((ContextZmq)This.getCom().getContext()).getContext();
 		
@@ -73,10 +96,11 @@ public class SubscriberZmq implements SubscriberImpl {
 		subscriber.connect(cancelEndpoint);
 		subscriber.subscribe(Messages.Event.CANCEL);
 		
-		// Subscribe to STATUS if the app is checked.
+		// Subscribe to the status of the app if it is checked.
+		// With the topic of the instance, the status of the other applications are filtered by ZeroMQ.
 		if (checkApp) {
 			subscriber.connect(appStatusEndpoint.toString());
-			subscriber.subscribe(Messages.Event.STATUS);
+			subscriber.subscribe(appStatusTopic);
 		}
 		
 		// Create the poller.
@@ -108,201 +132,333 @@ public class SubscriberZmq implements SubscriberImpl {
 		// Reset timeout.
 		timedout.set(false);
 		
-		// Define the number of iterations.
-		int n = 0;
-		if (pollingTime > 0) {
-			n = timeout / pollingTime + 1;
+		// Check if the subscriber has been canceled.
+		if (canceled.get()) {
+			return null;
 		}
-
-		// Create the poller.
-		Zmq.Poller poller = this.context.createPoller(1);
-		poller.register(subscriber);
 		
-		// Infinite loop if timeout is 0 or finite loop if timeout is defined.
-		int i = 0;
-		while (i < n || timeout == 0) {
-
-			// Check if the requester has been canceled.
-			if (canceled.get()) {
+		// The CANCEL message is received by the subscriber socket so that the receive can block until a message or the timeout.
+		if (timeout > 0) {
+			poller.poll(timeout);
+			
+			if (!poller.pollin(0)) {
+				// Timeout occurred.
+				timedout.set(true);
 				return null;
 			}
-
-			// Poll the requester.
-			poller.poll(pollingTime);
-			if (poller.pollin(0)) {
-				//return Zmq.Msg.recvMsg(subscriber);
-				return subscriber.recv();
-			}
-
-			i++;
 		}
-
-		// Timeout occurred.
-		timedout.set(true);
-
-		// Reset the socket because it cannot be reused after a timeout.
-		//resetSocket();
 		
-		return null;
+		return subscriber.recv();
 	}
 	
-	private String receiveStringMessage() {
+	private static boolean startsWith(byte[] data, byte[] prefix) {
 		
-		byte[] response = receiveMessage();
-		
-		if (response != null) {
-			return Messages.parseString(response);
+		if (data.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; ++i) {
+			if (data[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void skipRemainingFrames() {
+		while (subscriber.hasMore()) {
+			subscriber.recv();
 		}
-		
-		return null;
 	}
 	
 	/**
-	 * 
-	 * @return the byte[] data. If the return value is null, then the stream is finished. 
+	 * Processes a message whose first frame is received. The control messages are handled here.
+	 * The identity and the type are compared on the bytes and the type is only parsed if it is not a STREAM message.
+	 * @param first The first frame.
+	 * @param data The array receiving the data frames of a STREAM message. The missing frames are set to null.
+	 * @param buffer The buffer receiving the first data frame instead of the array if it is not null.
+	 * @return DATA if the data frames are received, CONTROL if the message is consumed or FINISHED if the stream is finished.
 	 */
-	public byte[] receive() {
-
-		while (true) {
-			String message = receiveStringMessage();
-			if (message == null) {
-				return null;
-			}
+	private int processMessage(byte[] first, byte[][] data, ByteBuffer buffer) {
+		
+		if (Arrays.equals(first, publisherIdentityBytes)) {
 			
-			if (message.equals(publisherIdentity)) {
-				
-				String messageTypePart = receiveStringMessage();
-				if (messageTypePart == null) {
-					return null;
-				}
-				
-				// Get the JSON object.
-				JSONObject messageType = This.getCom().parse(messageTypePart);
-				
-				// Get the type.
-				long type = JSON.getLong(messageType, Messages.TYPE);
-				
-				if (type == Messages.STREAM) {
-					return receiveMessage();
+			byte[] messageTypePart = subscriber.recv();
+			
+			// The header of the Java publishers is compared first but the other publishers can format it differently.
+			long type = (Arrays.equals(messageTypePart, STREAM_HEADER) ? Messages.STREAM : JSONReader.readType(messageTypePart));
+			
+			if (type == Messages.STREAM) {
+				if (buffer != null) {
+					receivedSize = subscriber.recv(buffer);
 				}
-				else if (type == Messages.SYNC_STREAM) {
-					// Do nothing.
+				else {
+					for (int i = 0; i < data.length; ++i) {
+						data[i] = (i == 0 || subscriber.hasMore()) ? subscriber.recv() : null;
+					}
 				}
-				else if (type == Messages.PING) {
-					// Do nothing.
+				skipRemainingFrames();
+				return DATA;
+			}
+			
+			if (type == Messages.STREAM_COMPRESSED) {
+				if (buffer != null) {
+					byte[] message = Compression.decompress(subscriber.recv());
+					receivedSize = message.length;
+					buffer.put(message, 0, Math.min(message.length, buffer.remaining()));
 				}
-				else if (type == Messages.STREAM_END) {
-					ended.set(true);
-					return null;	
+				else {
+					// All the parts of a compressed message are compressed.
+					for (int i = 0; i < data.length; ++i) {
+						data[i] = (i == 0 || subscriber.hasMore()) ? Compression.decompress(subscriber.recv()) : null;
+					}
 				}
+				skipRemainingFrames();
+				return DATA;
 			}
-			else if (message.equals(Messages.Event.CANCEL)) {
-				return null;
+			
+			if (type == Messages.STREAM_CHUNK) {
+				return processChunk(messageTypePart, data, buffer);
 			}
-			else if (message.equals(Messages.Event.STATUS)) {
-				byte[] statusMessage = receiveMessage();
-				if (statusMessage == null) {
-					return null;
-				}
+			
+			skipRemainingFrames();
+			
+			if (type == Messages.STREAM_END) {
+				ended.set(true);
+				finished = true;
+				return FINISHED;
+			}
+			
+			// The SYNC_STREAM and PING messages are ignored.
+			return CONTROL;
+		}
+		else if (Arrays.equals(first, CANCEL_BYTES)) {
+			skipRemainingFrames();
+			finished = true;
+			return FINISHED;
+		}
+		else if (startsWith(first, appStatusTopicBytes)) {
+			byte[] statusMessage = subscriber.recv();
+			skipRemainingFrames();
+			
+			// Get the JSON object.
+			JSONReader status = new JSONReader(statusMessage);
+			
+			// Get the id.
+			int id = status.getInt(Messages.StatusEvent.ID);
+			
+			if (appId == id) {
 				
-				// Get the JSON object.
-				JSONObject status = This.getCom().parse(statusMessage);
+				// Get the state.
+				int state = status.getInt(Messages.StatusEvent.APPLICATION_STATE);
 				
-				// Get the id.
-				int id = JSON.getInt(status, Messages.StatusEvent.ID);
-									
-				if (appId == id) {
-					
-					// Get the state.
-					int state = JSON.getInt(status, Messages.StatusEvent.APPLICATION_STATE);
-					
-					// Test if the state is terminal
-					if (state == State.SUCCESS 
-							|| state == State.STOPPED
-							|| state == State.KILLED
-							|| state == State.FAILURE) {
-						// Exit because the remote application has terminated.
-						return null;
-					}
+				// Test if the state is terminal
+				if (state == State.SUCCESS 
+						|| state == State.STOPPED
+						|| state == State.KILLED
+						|| state == State.FAILURE) {
+					// Exit because the remote application has terminated.
+					finished = true;
+					return FINISHED;
 				}
 			}
+			return CONTROL;
+		}
+		
+		// Unknown frame.
+		skipRemainingFrames();
+		return CONTROL;
+	}
+	
+	/**
+	 * Processes a chunk of a large message. The chunk is passed to the listener or reassembled.
+	 * @return DATA if the message is reassembled, otherwise CONTROL.
+	 */
+	private int processChunk(byte[] header, byte[][] data, ByteBuffer buffer) {
+		
+		JSONReader reader = new JSONReader(header);
+		long transferId = reader.getLong(Messages.Chunk.TRANSFER_ID);
+		long offset = reader.getLong(Messages.Chunk.OFFSET);
+		long size = reader.getLong(Messages.Chunk.SIZE);
+		
+		byte[] chunk = subscriber.recv();
+		skipRemainingFrames();
+		
+		ChunkListener listener = chunkListener;
+		if (listener != null) {
+			listener.onChunk(transferId, offset, size, chunk);
+			return CONTROL;
+		}
+		
+		byte[] message = assembler.add(transferId, offset, size, chunk);
+		if (message == null) {
+			return CONTROL;
+		}
+		
+		if (buffer != null) {
+			receivedSize = message.length;
+			buffer.put(message, 0, Math.min(message.length, buffer.remaining()));
+		}
+		else {
+			// A reassembled message has one part.
+			data[0] = message;
+			for (int i = 1; i < data.length; ++i) {
+				data[i] = null;
+			}
+		}
+		
+		return DATA;
+	}
+	
+	private byte[][] receiveParts(int numberOfParts) {
+		
+		byte[][] data = new byte[numberOfParts][];
+		
+		while (true) {
+			byte[] first = receiveMessage();
+			if (first == null) {
+				return null;
+			}
+			
+			int result = processMessage(first, data, null);
+			
+			if (result == DATA) {
+				return data;
+			}
+			else if (result == FINISHED) {
+				return null;
+			}
 		}
 	}
 	
+	/**
+	 * 
+	 * @return the byte[] data. If the return value is null, then the stream is finished. 
+	 */
+	public byte[] receive() {
+		
+		byte[][] data = receiveParts(1);
+		
+		if (data == null) {
+			return null;
+		}
+		
+		return data[0];
+	}
+	
 	/**
 	 * 
 	 * @return the byte[] data. If the return value is null, then the stream is finished. 
 	 */
 	public byte[][] receiveTwoParts() {
-
+		return receiveParts(2);
+	}
+	
+	/**
+	 * Receives the data into the buffer without creating an array.
+	 * @return The size of the data or -1 if the stream is finished.
+	 */
+	public int receive(ByteBuffer buffer) {
+		
 		while (true) {
-			String message = receiveStringMessage();
-			if (message == null) {
-				return null;
+			byte[] first = receiveMessage();
+			if (first == null) {
+				return -1;
 			}
 			
-			if (message.equals(publisherIdentity)) {
-				
-				String messageTypePart = receiveStringMessage();
-				if (messageTypePart == null) {
-					return null;
+			int result = processMessage(first, null, buffer);
+			
+			if (result == DATA) {
+				return receivedSize;
+			}
+			else if (result == FINISHED) {
+				return -1;
+			}
+		}
+	}
+	
+	/**
+	 * Receives the messages queued on the socket in one call.
+	 * @param messages The list receiving the data.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The number of messages added or -1 if the stream is finished and no message was added.
+	 * @throws UnexpectedException if a message has two parts.
+	 */
+	public int receiveBatch(List<byte[]> messages, int max, int timeout) {
+		return receiveBatch(messages, null, max, timeout);
+	}
+	
+	/**
+	 * Receives the messages queued on the socket in one call with their two parts.
+	 * @param messages The list receiving the parts. The second part of a message with one part is null.
+	 * @param max The maximum number of messages.
+	 * @param timeout The time in ms to wait for the first message, 0 to not wait and -1 to wait without limit.
+	 * @return The number of messages added or -1 if the stream is finished and no message was added.
+	 */
+	public int receiveTwoPartsBatch(List<byte[][]> messages, int max, int timeout) {
+		return receiveBatch(null, messages, max, timeout);
+	}
+	
+	private int receiveBatch(List<byte[]> messages, List<byte[][]> partMessages, int max, int timeout) {
+		
+		// Reset timeout.
+		timedout.set(false);
+		
+		if (canceled.get() || finished) {
+			return -1;
+		}
+		
+		long deadline = System.currentTimeMillis() + timeout;
+		byte[][] data = new byte[2][];
+		int count = 0;
+		
+		while (count < max) {
+			
+			// Only the first message is waited for.
+			long time = 0;
+			if (count == 0) {
+				if (timeout < 0) {
+					time = -1;
 				}
-				
-				// Get the JSON object.
-				JSONObject messageType = This.getCom().parse(messageTypePart);
-				
-				// Get the type.
-				long type = JSON.getLong(messageType, Messages.TYPE);
-				
-				if (type == Messages.STREAM) {
-					byte[][] result = new byte[2][];
-					result[0] = receiveMessage();
-					result[1] = receiveMessage();
-					
-					return result;
+				else {
+					time = Math.max(deadline - System.currentTimeMillis(), 0);
 				}
-				else if (type == Messages.SYNC_STREAM) {
-					// Do nothing.
+			}
+			
+			poller.poll(time);
+			
+			if (!poller.pollin(0)) {
+				if (count == 0 && timeout != 0) {
+					timedout.set(true);
+				}
+				break;
+			}
+			
+			int result = processMessage(subscriber.recv(), data, null);
+			
+			if (result == DATA) {
+				if (partMessages != null) {
+					partMessages.add(data);
+					data = new byte[2][];
 				}
-				else if (type == Messages.PING) {
-					// Do nothing.
+				else if (data[1] != null) {
+					// The second part is not silently dropped.
+					throw new UnexpectedException("A message with two parts cannot be received in a batch of one-part messages");
 				}
-				else if (type == Messages.STREAM_END) {
-					ended.set(true);
-					return null;	
+				else {
+					messages.add(data[0]);
 				}
+				++count;
 			}
-			else if (message.equals(Messages.Event.CANCEL)) {
-				return null;
-			}
-			else if (message.equals(Messages.Event.STATUS)) {
-				byte[] statusMessage = receiveMessage();
-				if (statusMessage == null) {
-					return null;
-				}
-				
-				// Get the JSON request object.
-				JSONObject request =  This.getCom().parse(statusMessage);
-				
-				// Get the id.
-				int id = JSON.getInt(request, Messages.StatusEvent.ID);
-				
-				if (appId == id) {
-					
-					// Get the state.
-					int state = JSON.getInt(request, Messages.StatusEvent.APPLICATION_STATE);
-					
-					// Test if the state is terminal
-					if (state == State.SUCCESS 
-							|| state == State.STOPPED
-							|| state == State.KILLED
-							|| state == State.FAILURE) {
-						// Exit because the remote application has terminated.
-						return null;
-					}
+			else if (result == FINISHED) {
+				if (count == 0) {
+					return -1;
 				}
+				break;
 			}
 		}
+		
+		return count;
 	}
 	
 	/**
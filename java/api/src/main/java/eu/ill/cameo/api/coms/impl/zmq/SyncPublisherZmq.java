@@ -10,6 +10,9 @@
 
 package eu.ill.cameo.api.coms.impl.zmq;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 public class SyncPublisherZmq extends PublisherZmq {
 
 	public synchronized void sendSync() {
@@ -24,10 +27,22 @@ public class SyncPublisherZmq extends PublisherZmq {
 		super.send(data);
 	}
 	
+	public synchronized void send(ByteBuffer data) {
+		super.send(data);
+	}
+	
 	public synchronized void sendTwoParts(byte[] data1, byte[] data2) {
 		super.sendTwoParts(data1, data2);
 	}
 	
+	public synchronized void sendBatch(List<byte[]> messages) {
+		super.sendBatch(messages);
+	}
+	
+	public synchronized void sendChunk(long transferId, long offset, long size, ByteBuffer chunk) {
+		super.sendChunk(transferId, offset, size, chunk);
+	}
+	
 	public synchronized void sendEnd() {
 		super.sendEnd();
 	}
@@ -19,6 +19,7 @@ import eu.ill.cameo.api.base.ConnectionTimeout;
 import eu.ill.cameo.api.base.Option;
 import eu.ill.cameo.api.base.Server;
 import eu.ill.cameo.api.base.ServerAndApp;
+import eu.ill.cameo.common.messages.ArrayCodec;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.Endpoint;
@@ -91,16 +92,21 @@ public class Request {
 		return result;
 	}
 	
+	/**
+	 * Gets the message as an array with its shape.
+	 * @return The array.
+	 * @throws IllegalArgumentException if the message is not an array.
+	 */
+	public ArrayCodec.Array getArray() {
+		return ArrayCodec.decode(messagePart1);
+	}
+	
 	/**
 	 * Replies to the requester.
 	 * @param response The response.
 	 */
 	public void reply(byte[] response) {
-		
-		JSONObject jsonRequest = new JSONObject();
-		jsonRequest.put(Messages.TYPE, Messages.RESPONSE);
-
-		responder.reply(jsonRequest, response);
+		responder.reply(response);
 	}
 	
 	/**
@@ -111,6 +117,51 @@ public class Request {
 		reply(Messages.serialize(response));
 	}
 	
+	/**
+	 * Replies an array of doubles with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyDoubles(double[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of floats with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyFloats(float[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of longs with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyLongs(long[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of ints with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyInts(int[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
+	/**
+	 * Replies an array of shorts with its shape to the requester.
+	 * @param response The response data.
+	 * @param shape The dimensions. No dimension means a one-dimension array.
+	 */
+	public void replyShorts(short[] response, int... shape) {
+		reply(ArrayCodec.encode(response, shape));
+	}
+	
 	/**
 	 * Connects to the requester.
 	 * @param options Options of connection.
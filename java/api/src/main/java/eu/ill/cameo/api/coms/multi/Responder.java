@@ -17,7 +17,6 @@ import eu.ill.cameo.api.base.StateObject;
 import eu.ill.cameo.api.base.This;
 import eu.ill.cameo.api.coms.multi.impl.ResponderImpl;
 import eu.ill.cameo.api.factory.ImplFactory;
-import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.AppIdentity;
 import eu.ill.cameo.common.strings.ServerIdentity;
 
@@ -78,8 +77,8 @@ public class Responder extends StateObject implements ICancelable {
 		return request;
 	}
 	
-	void reply(JSONObject request, byte[] response) {
-		impl.reply(Messages.serialize(request), response);
+	void reply(byte[] response) {
+		impl.reply(response);
 	}
 
 	/**
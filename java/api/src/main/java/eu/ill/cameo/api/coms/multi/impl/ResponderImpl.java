@@ -16,7 +16,7 @@ public interface ResponderImpl {
 
 	void init(String endpoint);
 	Request receive();
-	void reply(byte[] part1, byte[] part2);
+	void reply(byte[] response);
 	void cancel();
 	boolean isCanceled();
 	void terminate();
@@ -21,7 +21,8 @@ import eu.ill.cameo.api.base.impl.zmq.ContextZmq;
 import eu.ill.cameo.api.coms.multi.Request;
 import eu.ill.cameo.api.coms.multi.impl.ResponderImpl;
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.BinaryHeader;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 
 public class ResponderZmq implements ResponderImpl {
@@ -32,6 +33,11 @@ public class ResponderZmq implements ResponderImpl {
 	
 	private final static int HEADER_SIZE = 5;
 	private byte[][] requestHeader = new byte[HEADER_SIZE][];
+	private boolean binaryRequest = false;
+	private long correlationId = -1;
+	
+	private final static byte[] RESPONSE_HEADER = Messages.serializeType(Messages.RESPONSE);
+	private final static byte[] BINARY_RESPONSE_HEADER = BinaryHeader.encodeType(Messages.RESPONSE);
 	
 	private AtomicBoolean canceled = new AtomicBoolean(false);
 	
@@ -69,12 +75,38 @@ public class ResponderZmq implements ResponderImpl {
 		return null;
 	}
 	
-	private Request processRequest(JSONObject request, byte[][] data) {
+	private Request processRequest(JSONReader request, byte[][] data) {
+		
+		String name = request.getString(Messages.Request.APPLICATION_NAME);
+		int id = request.getInt(Messages.Request.APPLICATION_ID);
+		String serverEndpoint = request.getString(Messages.Request.SERVER_ENDPOINT);
+		int serverProxyPort = request.getInt(Messages.Request.SERVER_PROXY_PORT);
 		
-		String name = JSON.getString(request, Messages.Request.APPLICATION_NAME);
-		int id = JSON.getInt(request, Messages.Request.APPLICATION_ID);
-		String serverEndpoint = JSON.getString(request, Messages.Request.SERVER_ENDPOINT);
-		int serverProxyPort = JSON.getInt(request, Messages.Request.SERVER_PROXY_PORT);
+		// The correlation id is sent by the requesters that pipeline their requests.
+		if (request.hasKey(Messages.Request.CORRELATION_ID)) {
+			correlationId = request.getLong(Messages.Request.CORRELATION_ID);
+		}
+		
+		return createRequest(name, id, serverEndpoint, serverProxyPort, data);
+	}
+	
+	private Request processRequest(BinaryHeader.Reader reader, byte[][] data) {
+		
+		// The fields are read in the order of BinaryHeader.encodeRequest().
+		String name = reader.readString();
+		int id = reader.readInt();
+		String serverEndpoint = reader.readString();
+		int serverProxyPort = reader.readInt();
+		
+		// The correlation id is appended by the requesters that pipeline their requests.
+		if (reader.hasMore()) {
+			correlationId = reader.readLong();
+		}
+		
+		return createRequest(name, id, serverEndpoint, serverProxyPort, data);
+	}
+	
+	private Request createRequest(String name, int id, String serverEndpoint, int serverProxyPort, byte[][] data) {
 		
 		byte[] messagePart1 = data[HEADER_SIZE + 1];
 		byte[] messagePart2 = null;
@@ -105,29 +137,45 @@ public class ResponderZmq implements ResponderImpl {
 
 				// Memorize the header to reuse when replying.
 				copyHeader(data);
+				correlationId = -1;
 				
 				// Special case for cancel messages which are shorter.
 				if (data.length < HEADER_SIZE + 1) {
 					return processCancel();
 				}
 				
-				// Get the JSON request object.
-				JSONObject request = This.getCom().parse(data[HEADER_SIZE]);
+				// The header is binary if the requester negotiated it during the sync.
+				binaryRequest = BinaryHeader.isBinary(data[HEADER_SIZE]);
 				
-				// Get the type.
-				long type = JSON.getLong(request, Messages.TYPE);
+				JSONReader request = null;
+				BinaryHeader.Reader reader = null;
+				long type;
 				
-				if (type == Messages.REQUEST) {
-					return processRequest(request, data); 
+				if (binaryRequest) {
+					reader = new BinaryHeader.Reader(data[HEADER_SIZE]);
+					type = reader.getType();
+				}
+				else {
+					// Get the JSON request object.
+					request = new JSONReader(data[HEADER_SIZE]);
 					
+					// Get the type.
+					type = request.getLong(Messages.TYPE);
+				}
+				
+				if (type == Messages.REQUEST) {
+					if (binaryRequest) {
+						return processRequest(reader, data);
+					}
+					return processRequest(request, data);
 				}
 				else if (type == Messages.CANCEL) {
 					return processCancel();
 				}
 				else if (type == Messages.SYNC) {
 					
-					// Reply immediately.
-					replyOK();
+					// Reply immediately with the version of the binary header.
+					replySync();
 					
 					// Do not return, continue the loop.
 				}
@@ -147,16 +195,22 @@ public class ResponderZmq implements ResponderImpl {
 		}
 	}
 	
-	public void reply(byte[] part1, byte[] part2) {
+	public void reply(byte[] response) {
 		
 		Zmq.Msg reply = new Zmq.Msg();
 		
 		for (int i = 0; i < HEADER_SIZE; ++i) {
 			reply.add(requestHeader[i]);
 		}
-				
-		reply.add(part1);
-		reply.add(part2);
+		
+		// Reply with the encoding of the request and echo its correlation id.
+		if (correlationId != -1) {
+			reply.add(binaryRequest ? BinaryHeader.append(BINARY_RESPONSE_HEADER, correlationId) : Messages.serializeResponse(correlationId));
+		}
+		else {
+			reply.add(binaryRequest ? BINARY_RESPONSE_HEADER : RESPONSE_HEADER);
+		}
+		reply.add(response);
 		
 		reply.send(responder);
 	}
@@ -174,6 +228,19 @@ public class ResponderZmq implements ResponderImpl {
 		reply.send(responder);
 	}
 	
+	private void replySync() {
+		
+		Zmq.Msg reply = new Zmq.Msg();
+		
+		for (int i = 0; i < HEADER_SIZE; ++i) {
+			reply.add(requestHeader[i]);
+		}
+		
+		reply.add(Messages.serialize(Messages.createSyncResponse()));
+		
+		reply.send(responder);
+	}
+	
 	private void replyPong() {
 		
 		Zmq.Msg reply = new Zmq.Msg();
@@ -0,0 +1,203 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import eu.ill.cameo.api.base.CancelEvent;
+import eu.ill.cameo.api.base.Event;
+import eu.ill.cameo.api.base.EventListener;
+import eu.ill.cameo.api.base.InvalidArgumentException;
+import eu.ill.cameo.api.base.KeyEvent;
+import eu.ill.cameo.api.base.ResultEvent;
+import eu.ill.cameo.api.base.State;
+import eu.ill.cameo.api.base.StatusEvent;
+
+public class TestEventListener {
+
+	private static StatusEvent status(int id, int state) {
+		return new StatusEvent(id, "app", state, state);
+	}
+	
+	private static KeyEvent key(int id, String key, String value) {
+		return new KeyEvent(id, "app", KeyEvent.Status.STORED, key, value);
+	}
+	
+	@Test
+	public void testBlock() throws Exception {
+		
+		EventListener listener = new EventListener();
+		listener.setQueueCapacity(2, EventListener.OverflowPolicy.BLOCK);
+		
+		StatusEvent first = status(1, State.STARTING);
+		listener.pushEvent(first);
+		listener.pushEvent(status(1, State.RUNNING));
+		
+		// The event thread is blocked until an event is popped.
+		StatusEvent third = status(1, State.SUCCESS);
+		Thread thread = new Thread(() -> listener.pushEvent(third));
+		thread.start();
+		thread.join(200);
+		
+		assertTrue(thread.isAlive());
+		assertEquals(2, listener.getQueueSize());
+		
+		assertSame(first, listener.popEvent(false));
+		thread.join(1000);
+		
+		assertFalse(thread.isAlive());
+		assertEquals(2, listener.getQueueSize());
+		assertEquals(0, listener.getDroppedEvents());
+		assertEquals(2, listener.getHighWaterMark());
+	}
+	
+	@Test
+	public void testDropOldest() {
+		
+		EventListener listener = new EventListener();
+		listener.setQueueCapacity(2, EventListener.OverflowPolicy.DROP_OLDEST);
+		
+		StatusEvent second = status(2, State.RUNNING);
+		StatusEvent third = status(1, State.SUCCESS);
+		
+		listener.pushEvent(status(1, State.RUNNING));
+		listener.pushEvent(second);
+		listener.pushEvent(third);
+		
+		assertEquals(1, listener.getDroppedEvents());
+		assertEquals(0, listener.getCoalescedEvents());
+		assertSame(second, listener.popEvent(false));
+		assertSame(third, listener.popEvent(false));
+	}
+	
+	@Test
+	public void testCoalesce() {
+		
+		EventListener listener = new EventListener();
+		listener.setQueueCapacity(3, EventListener.OverflowPolicy.COALESCE);
+		
+		KeyEvent key1 = key(1, "a", "1");
+		KeyEvent key2 = key(2, "a", "x");
+		
+		listener.pushEvent(status(1, State.STARTING));
+		listener.pushEvent(key1);
+		listener.pushEvent(key2);
+		
+		// The status of the same application is replaced and its past states are kept.
+		listener.pushEvent(status(1, State.RUNNING));
+		assertEquals(1, listener.getCoalescedEvents());
+		assertEquals(3, listener.getQueueSize());
+		
+		// The value of the same key of the same application is replaced.
+		KeyEvent newKey1 = key(1, "a", "2");
+		listener.pushEvent(newKey1);
+		assertEquals(2, listener.getCoalescedEvents());
+		
+		// Nothing to coalesce so that the oldest event is dropped.
+		KeyEvent otherKey = key(1, "b", "3");
+		listener.pushEvent(otherKey);
+		assertEquals(2, listener.getCoalescedEvents());
+		assertEquals(1, listener.getDroppedEvents());
+		
+		StatusEvent running = (StatusEvent)listener.popEvent(false);
+		assertEquals(State.RUNNING, running.getState());
+		assertEquals(State.STARTING | State.RUNNING, running.getPastStates());
+		assertSame(newKey1, listener.popEvent(false));
+		assertSame(otherKey, listener.popEvent(false));
+		assertEquals(0, listener.getQueueSize());
+		assertEquals(3, listener.getHighWaterMark());
+	}
+	
+	@Test
+	public void testCoalesceKeepsTerminalAndResult() {
+		
+		EventListener listener = new EventListener();
+		listener.setQueueCapacity(2, EventListener.OverflowPolicy.COALESCE);
+		
+		ResultEvent result = new ResultEvent(1, "app", new byte[] {1});
+		StatusEvent success = status(1, State.SUCCESS);
+		
+		listener.pushEvent(result);
+		listener.pushEvent(success);
+		
+		// The terminal states and the results are neither coalesced nor dropped.
+		StatusEvent failure = status(1, State.FAILURE);
+		listener.pushEvent(failure);
+		
+		assertEquals(0, listener.getCoalescedEvents());
+		assertEquals(0, listener.getDroppedEvents());
+		assertEquals(3, listener.getQueueSize());
+		
+		assertSame(result, listener.popEvent(false));
+		assertSame(success, listener.popEvent(false));
+		assertSame(failure, listener.popEvent(false));
+	}
+	
+	@Test
+	public void testCancel() {
+		
+		// The cancel event is pushed even if the queue is full.
+		EventListener listener = new EventListener();
+		listener.setQueueCapacity(1, EventListener.OverflowPolicy.BLOCK);
+		
+		listener.pushEvent(status(1, State.RUNNING));
+		listener.cancel(1);
+		assertEquals(2, listener.getQueueSize());
+		
+		listener.popEvent(false);
+		assertTrue(listener.popEvent(false) instanceof CancelEvent);
+		
+		// The cancel event is never dropped.
+		listener.setQueueCapacity(1, EventListener.OverflowPolicy.DROP_OLDEST);
+		listener.cancel(1);
+		
+		StatusEvent running = status(1, State.RUNNING);
+		listener.pushEvent(running);
+		
+		assertEquals(0, listener.getDroppedEvents());
+		Event event = listener.popEvent(false);
+		assertTrue(event instanceof CancelEvent);
+		assertSame(running, listener.popEvent(false));
+	}
+	
+	@Test
+	public void testCapacity() {
+		
+		EventListener listener = new EventListener();
+		assertEquals(Integer.MAX_VALUE, listener.getQueueCapacity());
+		assertEquals(EventListener.OverflowPolicy.BLOCK, listener.getOverflowPolicy());
+		
+		try {
+			listener.setQueueCapacity(0, EventListener.OverflowPolicy.DROP_OLDEST);
+			fail("Bad capacity not detected");
+		}
+		catch (InvalidArgumentException e) {
+		}
+		
+		// The events already in the queue are kept when the capacity is reduced.
+		for (int i = 0; i < 5; ++i) {
+			listener.pushEvent(status(i, State.RUNNING));
+		}
+		listener.setQueueCapacity(2, EventListener.OverflowPolicy.DROP_OLDEST);
+		assertEquals(5, listener.getQueueSize());
+		
+		listener.pushEvent(status(5, State.RUNNING));
+		assertEquals(5, listener.getQueueSize());
+		assertEquals(1, listener.getDroppedEvents());
+		assertEquals(5, listener.getHighWaterMark());
+	}
+}
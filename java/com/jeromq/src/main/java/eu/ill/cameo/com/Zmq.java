@@ -10,6 +10,7 @@
 
 package eu.ill.cameo.com;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import org.zeromq.ZContext;
@@ -26,6 +27,8 @@ public class Zmq {
 	public static final int SUB = 4;
 	public static final int ROUTER = 5;
 	public static final int DEALER = 6;
+	public static final int PUSH = 7;
+	public static final int PULL = 8;
 	
 	public static class Msg {
 		
@@ -106,6 +109,14 @@ public class Zmq {
 			socket.bind(endpoint);
 		}
 
+		/**
+		 * Sets the send and receive high water marks. A value of 0 means no limit.
+		 */
+		public void setHighWaterMark(int value) {
+			socket.setSndHWM(value);
+			socket.setRcvHWM(value);
+		}
+
 		public void sendMore(String data) {
 			socket.send(data, 2);
 		}
@@ -118,6 +129,28 @@ public class Zmq {
 			socket.send(data, flags);
 		}
 
+		/**
+		 * Sends the remaining bytes of the buffer. Only the direct buffers are sent without copy.
+		 * The message of jeromq wraps a direct buffer that is sent later by the I/O thread so that it must not be modified after the call.
+		 * The position of the buffer is not changed.
+		 */
+		public void sendMore(ByteBuffer data) {
+			send(data, 2);
+		}
+		
+		public void send(ByteBuffer data, int flags) {
+			
+			if (data.isDirect()) {
+				// A slice starting at the position because the messages of jeromq do not keep the position of a shared buffer.
+				socket.sendByteBuffer(data.slice(), flags);
+			}
+			else {
+				byte[] bytes = new byte[data.remaining()];
+				data.duplicate().get(bytes);
+				socket.send(bytes, flags);
+			}
+		}
+
 		public boolean connect(String address) {
 			return socket.connect(address);
 		}
@@ -138,6 +171,26 @@ public class Zmq {
 			return socket.recv();
 		}
 		
+		/**
+		 * Receives a frame into the buffer from its position. The frame is truncated if the buffer is too small.
+		 * @return The size of the frame or -1 if no frame is received.
+		 */
+		public int recv(ByteBuffer buffer) {
+			
+			zmq.Msg message = socket.base().recv(0);
+			if (message == null) {
+				return -1;
+			}
+			
+			// Copy the data of the frame directly from the message.
+			ByteBuffer data = message.buf();
+			int length = Math.min(message.size(), buffer.remaining());
+			data.limit(data.position() + length);
+			buffer.put(data);
+			
+			return message.size();
+		}
+		
 		public boolean hasMore() {
 			return socket.hasReceiveMore();
 		}
@@ -187,6 +240,10 @@ public class Zmq {
 				return new Socket(context.createSocket(ZMQ.ROUTER));
 			case DEALER:
 				return new Socket(context.createSocket(ZMQ.DEALER));
+			case PUSH:
+				return new Socket(context.createSocket(ZMQ.PUSH));
+			case PULL:
+				return new Socket(context.createSocket(ZMQ.PULL));
 			}
 						
 			return null;
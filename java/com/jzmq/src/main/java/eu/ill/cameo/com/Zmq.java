@@ -10,6 +10,7 @@
 
 package eu.ill.cameo.com;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 import org.zeromq.ZContext;
@@ -27,6 +28,8 @@ public class Zmq {
 	public static final int SUB = 4;
 	public static final int ROUTER = 5;
 	public static final int DEALER = 6;
+	public static final int PUSH = 7;
+	public static final int PULL = 8;
 	
 	public static class Msg {
 		
@@ -107,6 +110,14 @@ public class Zmq {
 			socket.bind(endpoint);
 		}
 
+		/**
+		 * Sets the send and receive high water marks. A value of 0 means no limit.
+		 */
+		public void setHighWaterMark(int value) {
+			socket.setSndHWM(value);
+			socket.setRcvHWM(value);
+		}
+
 		public void sendMore(String data) {
 			socket.send(data, 2);
 		}
@@ -119,6 +130,26 @@ public class Zmq {
 			socket.send(data, flags);
 		}
 
+		/**
+		 * Sends the remaining bytes of the buffer. Only the direct buffers are sent without copy.
+		 * The position of the buffer is not changed.
+		 */
+		public void sendMore(ByteBuffer data) {
+			send(data, 2);
+		}
+		
+		public void send(ByteBuffer data, int flags) {
+			
+			if (data.isDirect()) {
+				socket.sendByteBuffer(data, flags);
+			}
+			else {
+				byte[] bytes = new byte[data.remaining()];
+				data.duplicate().get(bytes);
+				socket.send(bytes, flags);
+			}
+		}
+
 		public boolean connect(String address) {
 			socket.connect(address);
 			return true;
@@ -140,6 +171,24 @@ public class Zmq {
 			return socket.recv();
 		}
 		
+		/**
+		 * Receives a frame into the buffer from its position. The frame is truncated if the buffer is too small.
+		 * @return The size of the frame or -1 if no frame is received.
+		 */
+		public int recv(ByteBuffer buffer) {
+			
+			if (buffer.isDirect()) {
+				return socket.recvByteBuffer(buffer, 0);
+			}
+			
+			int size = socket.recv(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), 0);
+			if (size > 0) {
+				buffer.position(buffer.position() + Math.min(size, buffer.remaining()));
+			}
+			
+			return size;
+		}
+		
 		public boolean hasMore() {
 			return socket.hasReceiveMore();
 		}
@@ -191,6 +240,10 @@ public class Zmq {
 				return new Socket(context.createSocket(ZMQ.ROUTER));
 			case DEALER:
 				return new Socket(context.createSocket(ZMQ.DEALER));
+			case PUSH:
+				return new Socket(context.createSocket(ZMQ.PUSH));
+			case PULL:
+				return new Socket(context.createSocket(ZMQ.PULL));
 			}
 						
 			return null;
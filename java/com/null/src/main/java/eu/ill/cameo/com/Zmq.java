@@ -10,6 +10,8 @@
 
 package eu.ill.cameo.com;
 
+import java.nio.ByteBuffer;
+
 public class Zmq {
 
 	public static final int REP = 1;
@@ -18,6 +20,8 @@ public class Zmq {
 	public static final int SUB = 4;
 	public static final int ROUTER = 5;
 	public static final int DEALER = 6;
+	public static final int PUSH = 7;
+	public static final int PULL = 8;
 	
 	public static class Msg {
 		
@@ -69,6 +73,9 @@ public class Zmq {
 		public void bind(String endpoint) {
 		}
 
+		public void setHighWaterMark(int value) {
+		}
+
 		public void sendMore(String data) {
 		}
 		
@@ -78,6 +85,12 @@ public class Zmq {
 		public void send(byte[] data, int flags) {
 		}
 
+		public void sendMore(ByteBuffer data) {
+		}
+		
+		public void send(ByteBuffer data, int flags) {
+		}
+
 		public boolean connect(String address) {
 			return false;
 		}
@@ -96,6 +109,10 @@ public class Zmq {
 			return null;
 		}
 		
+		public int recv(ByteBuffer buffer) {
+			return -1;
+		}
+		
 		public boolean hasMore() {
 			return false;
 		}
@@ -0,0 +1,344 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encoding of the primitive arrays sent as binary messages.
+ * The layout is a header of 8 bytes followed by the shape and the data so that the data can be mapped without copy by numpy or a std::vector:
+ * <ul>
+ * <li>byte 0: the magic byte 0xCA,</li>
+ * <li>byte 1: the version of the encoding,</li>
+ * <li>byte 2: the kind of the elements, 'i' for the signed integers and 'f' for the floating point numbers,</li>
+ * <li>byte 3: the size of an element in bytes,</li>
+ * <li>byte 4: the byte order of the shape and the data, '&lt;' for little endian and '&gt;' for big endian,</li>
+ * <li>byte 5: the number of dimensions,</li>
+ * <li>bytes 6 and 7: zero,</li>
+ * <li>the dimensions as 64-bit integers,</li>
+ * <li>the elements in row-major order.</li>
+ * </ul>
+ * The data starts at an offset multiple of 8 and the numpy dtype is made of the bytes 4, 2 and 3, e.g. "&lt;f8".
+ * The arrays are encoded in the native byte order and the decoding swaps the bytes only if the orders differ.
+ */
+public class ArrayCodec {
+
+	public static final byte MAGIC = (byte)0xCA;
+	public static final int VERSION = 1;
+	public static final byte INT = 'i';
+	public static final byte FLOAT = 'f';
+
+	private static final int HEADER_SIZE = 8;
+	private static final byte LITTLE_ENDIAN = '<';
+	private static final byte BIG_ENDIAN = '>';
+
+	/**
+	 * Class giving access to a decoded array.
+	 */
+	public static class Array {
+
+		private byte kind;
+		private int itemSize;
+		private long[] shape;
+		private ByteBuffer data;
+
+		Array(byte kind, int itemSize, long[] shape, ByteBuffer data) {
+			this.kind = kind;
+			this.itemSize = itemSize;
+			this.shape = shape;
+			this.data = data;
+		}
+
+		/**
+		 * Gets the kind of the elements.
+		 * @return INT or FLOAT.
+		 */
+		public byte getKind() {
+			return kind;
+		}
+
+		/**
+		 * Gets the size of an element.
+		 * @return The size in bytes.
+		 */
+		public int getItemSize() {
+			return itemSize;
+		}
+
+		/**
+		 * Gets the shape.
+		 * @return The dimensions.
+		 */
+		public long[] getShape() {
+			return shape.clone();
+		}
+
+		/**
+		 * Gets the number of elements.
+		 * @return The number of elements.
+		 */
+		public int getLength() {
+			return data.remaining() / itemSize;
+		}
+
+		/**
+		 * Gets the data without copy. The buffer has the byte order of the message.
+		 * @return The read-only buffer of the data.
+		 */
+		public ByteBuffer getData() {
+			return data.asReadOnlyBuffer().order(data.order());
+		}
+
+		private void check(byte expectedKind, int expectedItemSize) {
+			if (kind != expectedKind || itemSize != expectedItemSize) {
+				throw new IllegalArgumentException("Array of " + (char)kind + itemSize + " is not an array of " + (char)expectedKind + expectedItemSize);
+			}
+		}
+
+		public double[] toDoubles() {
+			check(FLOAT, Double.BYTES);
+			double[] result = new double[getLength()];
+			data.duplicate().order(data.order()).asDoubleBuffer().get(result);
+			return result;
+		}
+
+		public float[] toFloats() {
+			check(FLOAT, Float.BYTES);
+			float[] result = new float[getLength()];
+			data.duplicate().order(data.order()).asFloatBuffer().get(result);
+			return result;
+		}
+
+		public long[] toLongs() {
+			check(INT, Long.BYTES);
+			long[] result = new long[getLength()];
+			data.duplicate().order(data.order()).asLongBuffer().get(result);
+			return result;
+		}
+
+		public int[] toInts() {
+			check(INT, Integer.BYTES);
+			int[] result = new int[getLength()];
+			data.duplicate().order(data.order()).asIntBuffer().get(result);
+			return result;
+		}
+
+		public short[] toShorts() {
+			check(INT, Short.BYTES);
+			short[] result = new short[getLength()];
+			data.duplicate().order(data.order()).asShortBuffer().get(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Returns true if the data is an encoded array.
+	 * @param data The data.
+	 * @return True if the data starts with the magic byte.
+	 */
+	public static boolean isArray(byte[] data) {
+		return (data != null && data.length >= HEADER_SIZE && data[0] == MAGIC);
+	}
+
+	/**
+	 * Multiplies the dimensions.
+	 * @throws IllegalArgumentException if the product overflows.
+	 */
+	private static long multiply(long x, long y) {
+		try {
+			return Math.multiplyExact(x, y);
+		}
+		catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Array shape overflows");
+		}
+	}
+	
+	/**
+	 * Creates the message and writes the header and the shape.
+	 * @return The buffer in native order positioned at the data.
+	 */
+	private static ByteBuffer allocate(byte kind, int itemSize, int length, int[] shape) {
+
+		// The default shape has one dimension.
+		long[] dimensions;
+		if (shape.length == 0) {
+			dimensions = new long[] {length};
+		}
+		else {
+			dimensions = new long[shape.length];
+			long product = 1;
+			for (int i = 0; i < shape.length; ++i) {
+				if (shape[i] < 0) {
+					throw new IllegalArgumentException("Negative dimension " + shape[i]);
+				}
+				dimensions[i] = shape[i];
+				product = multiply(product, shape[i]);
+			}
+			if (product != length) {
+				throw new IllegalArgumentException("Shape of " + product + " elements for an array of " + length + " elements");
+			}
+		}
+
+		if (dimensions.length > 255) {
+			throw new IllegalArgumentException("Too many dimensions " + dimensions.length);
+		}
+
+		// The size is computed in long as the data of a large array can exceed the size of a byte array.
+		long size = HEADER_SIZE + (long)dimensions.length * Long.BYTES + (long)length * itemSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Array of " + size + " bytes is too large for a message");
+		}
+		
+		ByteOrder order = ByteOrder.nativeOrder();
+		ByteBuffer buffer = ByteBuffer.allocate((int)size).order(order);
+
+		buffer.put(MAGIC);
+		buffer.put((byte)VERSION);
+		buffer.put(kind);
+		buffer.put((byte)itemSize);
+		buffer.put(order == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN);
+		buffer.put((byte)dimensions.length);
+		buffer.putShort((short)0);
+
+		for (long dimension : dimensions) {
+			buffer.putLong(dimension);
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Encodes an array of doubles.
+	 * @param data The data.
+	 * @param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * @return The message.
+	 * @throws IllegalArgumentException if the shape does not match the length of the data.
+	 */
+	public static byte[] encode(double[] data, int... shape) {
+		ByteBuffer buffer = allocate(FLOAT, Double.BYTES, data.length, shape);
+		buffer.asDoubleBuffer().put(data);
+		return buffer.array();
+	}
+
+	/**
+	 * Encodes an array of floats.
+	 * @param data The data.
+	 * @param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * @return The message.
+	 * @throws IllegalArgumentException if the shape does not match the length of the data.
+	 */
+	public static byte[] encode(float[] data, int... shape) {
+		ByteBuffer buffer = allocate(FLOAT, Float.BYTES, data.length, shape);
+		buffer.asFloatBuffer().put(data);
+		return buffer.array();
+	}
+
+	/**
+	 * Encodes an array of longs.
+	 * @param data The data.
+	 * @param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * @return The message.
+	 * @throws IllegalArgumentException if the shape does not match the length of the data.
+	 */
+	public static byte[] encode(long[] data, int... shape) {
+		ByteBuffer buffer = allocate(INT, Long.BYTES, data.length, shape);
+		buffer.asLongBuffer().put(data);
+		return buffer.array();
+	}
+
+	/**
+	 * Encodes an array of ints.
+	 * @param data The data.
+	 * @param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * @return The message.
+	 * @throws IllegalArgumentException if the shape does not match the length of the data.
+	 */
+	public static byte[] encode(int[] data, int... shape) {
+		ByteBuffer buffer = allocate(INT, Integer.BYTES, data.length, shape);
+		buffer.asIntBuffer().put(data);
+		return buffer.array();
+	}
+
+	/**
+	 * Encodes an array of shorts.
+	 * @param data The data.
+	 * @param shape The dimensions in row-major order. No dimension means a one-dimension array.
+	 * @return The message.
+	 * @throws IllegalArgumentException if the shape does not match the length of the data.
+	 */
+	public static byte[] encode(short[] data, int... shape) {
+		ByteBuffer buffer = allocate(INT, Short.BYTES, data.length, shape);
+		buffer.asShortBuffer().put(data);
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes an array. The data is not copied.
+	 * @param message The message.
+	 * @return The array.
+	 * @throws IllegalArgumentException if the message is not a valid array.
+	 */
+	public static Array decode(byte[] message) {
+
+		if (!isArray(message)) {
+			throw new IllegalArgumentException("Message is not an array");
+		}
+
+		if (message[1] > VERSION) {
+			throw new IllegalArgumentException("Unknown array version " + message[1]);
+		}
+
+		byte kind = message[2];
+		int itemSize = message[3];
+
+		if ((kind != INT && kind != FLOAT) || (itemSize != 1 && itemSize != 2 && itemSize != 4 && itemSize != 8)) {
+			throw new IllegalArgumentException("Bad array type " + (char)kind + itemSize);
+		}
+
+		ByteOrder order;
+		if (message[4] == LITTLE_ENDIAN) {
+			order = ByteOrder.LITTLE_ENDIAN;
+		}
+		else if (message[4] == BIG_ENDIAN) {
+			order = ByteOrder.BIG_ENDIAN;
+		}
+		else {
+			throw new IllegalArgumentException("Bad array byte order");
+		}
+
+		int numberOfDimensions = message[5] & 0xFF;
+		int dataOffset = HEADER_SIZE + numberOfDimensions * Long.BYTES;
+
+		if (message.length < dataOffset) {
+			throw new IllegalArgumentException("Truncated array header");
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(message).order(order);
+		buffer.position(HEADER_SIZE);
+
+		long[] shape = new long[numberOfDimensions];
+		long length = 1;
+		for (int i = 0; i < numberOfDimensions; ++i) {
+			shape[i] = buffer.getLong();
+			if (shape[i] < 0) {
+				throw new IllegalArgumentException("Negative dimension " + shape[i]);
+			}
+			length = multiply(length, shape[i]);
+		}
+
+		if (multiply(length, itemSize) != message.length - dataOffset) {
+			throw new IllegalArgumentException("Array of " + (message.length - dataOffset) + " bytes does not match its shape");
+		}
+
+		return new Array(kind, itemSize, shape, buffer.slice().order(order));
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of the message headers, alternative to the JSON encoding.
+ * A header starts with a magic byte that cannot start a JSON object, the version of the encoding and the message type as a varint.
+ * The fields follow in a fixed order defined by the type: the ints are zigzag varints and the strings are UTF-8 bytes prefixed by their length.
+ * A peer sends binary headers only if the other peer announced the version it decodes, so that the old peers keep receiving JSON headers.
+ */
+public class BinaryHeader {
+
+	public static final byte MAGIC = (byte)0xCB;
+	public static final int VERSION = 1;
+
+	/**
+	 * Returns true if the data is a binary header.
+	 * @param data The data.
+	 * @return True if the data starts with the magic byte.
+	 */
+	public static boolean isBinary(byte[] data) {
+		return (data != null && data.length > 0 && data[0] == MAGIC);
+	}
+
+	/**
+	 * Encodes a header containing only the type.
+	 * @param type The type.
+	 * @return The header.
+	 */
+	public static byte[] encodeType(long type) {
+		return new Writer(type).toByteArray();
+	}
+
+	/**
+	 * Encodes a REQUEST header.
+	 * @param applicationName The requester application name.
+	 * @param applicationId The requester application id.
+	 * @param serverEndpoint The requester server endpoint.
+	 * @param serverProxyPort The requester server proxy port.
+	 * @return The header.
+	 */
+	public static byte[] encodeRequest(String applicationName, int applicationId, String serverEndpoint, int serverProxyPort) {
+		return encodeRequest(Messages.REQUEST, applicationName, applicationId, serverEndpoint, serverProxyPort);
+	}
+	
+	/**
+	 * Encodes a request header.
+	 * @param type REQUEST or REQUEST_COMPRESSED.
+	 * @param applicationName The requester application name.
+	 * @param applicationId The requester application id.
+	 * @param serverEndpoint The requester server endpoint.
+	 * @param serverProxyPort The requester server proxy port.
+	 * @return The header.
+	 */
+	public static byte[] encodeRequest(long type, String applicationName, int applicationId, String serverEndpoint, int serverProxyPort) {
+
+		Writer writer = new Writer(type);
+		writer.writeString(applicationName);
+		writer.writeInt(applicationId);
+		writer.writeString(serverEndpoint);
+		writer.writeInt(serverProxyPort);
+
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Appends an optional int field to a header. The readers that do not know the field ignore it.
+	 * @param header The header.
+	 * @param value The value.
+	 * @return The new header.
+	 */
+	public static byte[] append(byte[] header, long value) {
+		
+		long zigzag = (value << 1) ^ (value >> 63);
+		
+		int length = 1;
+		for (long v = zigzag >>> 7; v != 0; v >>>= 7) {
+			length++;
+		}
+		
+		byte[] result = Arrays.copyOf(header, header.length + length);
+		int position = header.length;
+		
+		while ((zigzag & ~0x7FL) != 0) {
+			result[position++] = (byte)((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		result[position] = (byte)zigzag;
+		
+		return result;
+	}
+	
+	/**
+	 * Class writing a binary header.
+	 */
+	public static class Writer {
+
+		private byte[] buffer = new byte[32];
+		private int size = 0;
+
+		/**
+		 * Constructor.
+		 * @param type The message type.
+		 */
+		public Writer(long type) {
+			writeByte(MAGIC);
+			writeByte((byte)VERSION);
+			writeVarLong(type);
+		}
+
+		private void writeByte(byte value) {
+			if (size == buffer.length) {
+				buffer = Arrays.copyOf(buffer, size * 2);
+			}
+			buffer[size++] = value;
+		}
+
+		private void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((byte)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((byte)value);
+		}
+
+		public Writer writeLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+			return this;
+		}
+
+		public Writer writeInt(int value) {
+			return writeLong(value);
+		}
+
+		public Writer writeString(String value) {
+			byte[] bytes = Messages.serialize(value);
+			writeVarLong(bytes.length);
+
+			if (size + bytes.length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes.length));
+			}
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+
+			return this;
+		}
+
+		public byte[] toByteArray() {
+			return Arrays.copyOf(buffer, size);
+		}
+	}
+
+	/**
+	 * Class reading a binary header.
+	 */
+	public static class Reader {
+
+		private byte[] data;
+		private int position = 0;
+		private long type;
+
+		/**
+		 * Constructor. Reads the magic byte, the version and the type.
+		 * @param data The header.
+		 * @throws IllegalArgumentException if the data is not a binary header of a supported version.
+		 */
+		public Reader(byte[] data) {
+			this.data = data;
+
+			if (!isBinary(data)) {
+				throw new IllegalArgumentException("Not a binary header");
+			}
+			position = 1;
+
+			int version = readByte();
+			if (version > VERSION) {
+				throw new IllegalArgumentException("Unsupported binary header version " + version);
+			}
+
+			type = readVarLong();
+		}
+
+		private int readByte() {
+			if (position >= data.length) {
+				throw new IllegalArgumentException("Truncated binary header");
+			}
+			return data[position++] & 0xFF;
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			int shift = 0;
+
+			while (true) {
+				int b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+
+				shift += 7;
+				if (shift > 63) {
+					throw new IllegalArgumentException("Bad varint in binary header");
+				}
+			}
+		}
+
+		public long getType() {
+			return type;
+		}
+		
+		/**
+		 * Returns true if there are fields left, i.e. optional fields appended by a newer peer.
+		 * @return True if there are fields left.
+		 */
+		public boolean hasMore() {
+			return (position < data.length);
+		}
+
+		public long readLong() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public int readInt() {
+			return (int)readLong();
+		}
+
+		public String readString() {
+			int length = (int)readVarLong();
+			if (length < 0 || position + length > data.length) {
+				throw new IllegalArgumentException("Truncated binary header");
+			}
+
+			String value = new String(data, position, length, Messages.CHARSET);
+			position += length;
+
+			return value;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Class reassembling the large messages sent in chunks.
+ * The chunks of a transfer are received in order so that a chunk with an unexpected offset means that a chunk was lost and the transfer is dropped.
+ * Several transfers can be interleaved. The oldest transfer is dropped when the maximum number of transfers is reached.
+ * The declared size of a message is not trusted: the buffer of a transfer grows with the received chunks.
+ * The total size of the buffers is bounded so that the oldest transfers are dropped to make room for the new chunks.
+ */
+public class ChunkAssembler {
+
+	/**
+	 * The maximum size of a reassembled message.
+	 */
+	public static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	private static class Transfer {
+
+		int size;
+		byte[] data = new byte[0];
+		int received = 0;
+
+		Transfer(int size) {
+			this.size = size;
+		}
+	}
+
+	private LinkedHashMap<Long, Transfer> transfers = new LinkedHashMap<Long, Transfer>();
+	private int maxTransfers;
+	private long maxPendingSize;
+	private long pendingSize = 0;
+	private long droppedTransfers = 0;
+
+	/**
+	 * Constructor.
+	 * @param maxTransfers The maximum number of transfers in progress.
+	 * @param maxPendingSize The maximum total size in bytes of the transfers in progress. It is also the maximum size of a message.
+	 */
+	public ChunkAssembler(int maxTransfers, long maxPendingSize) {
+		this.maxTransfers = Math.max(maxTransfers, 1);
+		this.maxPendingSize = Math.min(Math.max(maxPendingSize, 0), MAX_SIZE);
+	}
+
+	/**
+	 * Constructor. The maximum total size of the transfers in progress is MAX_SIZE.
+	 * @param maxTransfers The maximum number of transfers in progress.
+	 */
+	public ChunkAssembler(int maxTransfers) {
+		this(maxTransfers, MAX_SIZE);
+	}
+
+	private void remove(long transferId) {
+		Transfer transfer = transfers.remove(transferId);
+		if (transfer != null) {
+			pendingSize -= transfer.data.length;
+		}
+	}
+
+	private void drop(long transferId) {
+		if (transfers.containsKey(transferId)) {
+			remove(transferId);
+			droppedTransfers++;
+		}
+	}
+
+	private void dropOldest(long transferId) {
+		Iterator<Long> oldest = transfers.keySet().iterator();
+		while (oldest.hasNext()) {
+			long id = oldest.next();
+			if (id != transferId) {
+				pendingSize -= transfers.get(id).data.length;
+				oldest.remove();
+				droppedTransfers++;
+				return;
+			}
+		}
+	}
+
+	private void grow(long transferId, Transfer transfer, int capacity) {
+
+		// Drop the oldest transfers to make room for the new buffer.
+		int increase = Math.max(INITIAL_CAPACITY, transfer.data.length);
+		int newCapacity = (int)Math.min(transfer.size, Math.max(capacity, (long)transfer.data.length + increase));
+
+		while (pendingSize - transfer.data.length + newCapacity > maxPendingSize && transfers.size() > 1) {
+			dropOldest(transferId);
+		}
+
+		pendingSize += newCapacity - transfer.data.length;
+		transfer.data = Arrays.copyOf(transfer.data, newCapacity);
+	}
+
+	/**
+	 * Adds a chunk.
+	 * @param transferId The transfer id.
+	 * @param offset The offset of the chunk.
+	 * @param size The size of the whole message.
+	 * @param chunk The data of the chunk.
+	 * @return The whole message if the chunk is the last one, otherwise null.
+	 * @throws IllegalArgumentException if the message is larger than the maximum total size.
+	 */
+	public byte[] add(long transferId, long offset, long size, byte[] chunk) {
+
+		Transfer transfer;
+
+		if (offset == 0) {
+			if (size < 0 || size > maxPendingSize) {
+				throw new IllegalArgumentException("Message of " + size + " bytes cannot be reassembled");
+			}
+
+			// A new transfer replaces a transfer with the same id.
+			drop(transferId);
+
+			if (transfers.size() == maxTransfers) {
+				dropOldest(transferId);
+			}
+
+			transfer = new Transfer((int)size);
+			transfers.put(transferId, transfer);
+		}
+		else {
+			transfer = transfers.get(transferId);
+
+			// The first chunks were lost.
+			if (transfer == null) {
+				return null;
+			}
+		}
+
+		// A chunk was lost or the chunk is too large.
+		if (transfer.received != offset || transfer.received + chunk.length > transfer.size) {
+			drop(transferId);
+			return null;
+		}
+
+		if (transfer.received + chunk.length > transfer.data.length) {
+			grow(transferId, transfer, transfer.received + chunk.length);
+		}
+
+		System.arraycopy(chunk, 0, transfer.data, transfer.received, chunk.length);
+		transfer.received += chunk.length;
+
+		if (transfer.received == transfer.size) {
+			remove(transferId);
+			return transfer.data;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the number of transfers in progress.
+	 * @return The number of transfers.
+	 */
+	public int getPendingTransfers() {
+		return transfers.size();
+	}
+
+	/**
+	 * Gets the total size of the buffers of the transfers in progress.
+	 * @return The size in bytes.
+	 */
+	public long getPendingSize() {
+		return pendingSize;
+	}
+
+	/**
+	 * Gets the number of transfers dropped because a chunk was lost or too many transfers were in progress.
+	 * @return The number of transfers.
+	 */
+	public long getDroppedTransfers() {
+		return droppedTransfers;
+	}
+
+	/**
+	 * Drops the transfers in progress.
+	 */
+	public void clear() {
+		transfers.clear();
+		pendingSize = 0;
+	}
+}
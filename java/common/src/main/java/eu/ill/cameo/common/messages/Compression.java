@@ -0,0 +1,214 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the message payloads.
+ * A compressed payload starts with the byte of its codec:
+ * <ul>
+ * <li>STORED: the data follows uncompressed,</li>
+ * <li>DEFLATE: the size of the data follows as a 32-bit big endian integer, then the zlib stream.</li>
+ * </ul>
+ * The payloads are sent with the COMPRESSED message types so that the receivers decompress them transparently and the old receivers ignore them.
+ * The deflaters and inflaters are kept per thread so that they are not allocated for each message.
+ */
+public class Compression {
+
+	public static final byte STORED = 0;
+	public static final byte DEFLATE = 1;
+
+	/**
+	 * The default size under which the messages are not compressed.
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	/**
+	 * The maximum size of a decompressed message.
+	 */
+	public static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final int DEFLATE_HEADER_SIZE = 5;
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+	private int level;
+	private int threshold;
+	private ThreadLocal<Deflater> deflaters;
+
+	/**
+	 * Constructor.
+	 * @param level The level from 0 to 9 or -1 for the default level of Deflater.
+	 * @param threshold The size in bytes under which the messages are not compressed.
+	 * @throws IllegalArgumentException if the level is not valid.
+	 */
+	public Compression(int level, int threshold) {
+
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Bad compression level " + level);
+		}
+
+		this.level = level;
+		this.threshold = Math.max(threshold, 0);
+		this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Compresses the data with the DEFLATE codec.
+	 * @param data The data.
+	 * @return The compressed payload or null if the data is smaller than the threshold or the compression does not reduce its size.
+	 */
+	public byte[] compress(byte[] data) {
+
+		if (data.length < threshold || data.length <= DEFLATE_HEADER_SIZE) {
+			return null;
+		}
+
+		// The payload must be smaller than the data.
+		byte[] payload = new byte[data.length - 1];
+		payload[0] = DEFLATE;
+		payload[1] = (byte)(data.length >>> 24);
+		payload[2] = (byte)(data.length >>> 16);
+		payload[3] = (byte)(data.length >>> 8);
+		payload[4] = (byte)data.length;
+
+		Deflater deflater = deflaters.get();
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			int size = DEFLATE_HEADER_SIZE;
+			while (!deflater.finished() && size < payload.length) {
+				size += deflater.deflate(payload, size, payload.length - size);
+			}
+
+			if (!deflater.finished()) {
+				return null;
+			}
+
+			return Arrays.copyOf(payload, size);
+		}
+		finally {
+			// Release the data.
+			deflater.reset();
+		}
+	}
+
+	/**
+	 * Encodes the data with the STORED codec.
+	 * @param data The data.
+	 * @return The payload.
+	 */
+	public static byte[] store(byte[] data) {
+
+		byte[] payload = new byte[data.length + 1];
+		payload[0] = STORED;
+		System.arraycopy(data, 0, payload, 1, data.length);
+
+		return payload;
+	}
+
+	/**
+	 * Compresses the data or stores it if the compression does not apply.
+	 * @param data The data.
+	 * @return The payload.
+	 */
+	public byte[] encode(byte[] data) {
+
+		byte[] payload = compress(data);
+		if (payload != null) {
+			return payload;
+		}
+
+		return store(data);
+	}
+
+	/**
+	 * Decompresses a payload.
+	 * @param payload The payload.
+	 * @return The data.
+	 * @throws IllegalArgumentException if the payload is not valid.
+	 */
+	public static byte[] decompress(byte[] payload) {
+
+		if (payload == null || payload.length == 0) {
+			throw new IllegalArgumentException("Empty compressed payload");
+		}
+
+		if (payload[0] == STORED) {
+			return Arrays.copyOfRange(payload, 1, payload.length);
+		}
+		else if (payload[0] != DEFLATE) {
+			throw new IllegalArgumentException("Unknown compression codec " + payload[0]);
+		}
+
+		if (payload.length < DEFLATE_HEADER_SIZE) {
+			throw new IllegalArgumentException("Truncated compressed payload");
+		}
+
+		int size = ((payload[1] & 0xFF) << 24) | ((payload[2] & 0xFF) << 16) | ((payload[3] & 0xFF) << 8) | (payload[4] & 0xFF);
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Bad decompressed size " + size);
+		}
+
+		// The declared size is not trusted: the buffer grows only when the stream fills it.
+		byte[] data = new byte[(int)Math.min(size, Math.max(INITIAL_CAPACITY, (long)payload.length * 4))];
+		Inflater inflater = inflaters.get();
+
+		try {
+			inflater.setInput(payload, DEFLATE_HEADER_SIZE, payload.length - DEFLATE_HEADER_SIZE);
+
+			int length = 0;
+			while (length < size) {
+				if (length == data.length) {
+					data = Arrays.copyOf(data, (int)Math.min(size, (long)data.length * 2));
+				}
+				int inflated = inflater.inflate(data, length, data.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) {
+					break;
+				}
+				length += inflated;
+			}
+
+			// Process the end of the stream to verify its checksum.
+			if (length == size && !inflater.finished()) {
+				inflater.inflate(data, size, 0);
+			}
+
+			if (length != size || !inflater.finished()) {
+				throw new IllegalArgumentException("Truncated or corrupted compressed payload");
+			}
+
+			return data;
+		}
+		catch (DataFormatException e) {
+			throw new IllegalArgumentException("Bad compressed payload", e);
+		}
+		finally {
+			// Release the payload.
+			inflater.reset();
+		}
+	}
+}
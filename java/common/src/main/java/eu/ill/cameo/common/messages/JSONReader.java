@@ -0,0 +1,491 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Class reading the fields of a JSON object directly from its UTF-8 bytes without building a JSONObject.
+ * The members of the object are indexed in a single pass on the first access and only the values that are read are decoded.
+ * The nested objects and arrays are skipped by the index and read with other readers on the same bytes.
+ * Use readType() to get only the type of a message for dispatching.
+ */
+public class JSONReader {
+
+	private static final long NO_TYPE = -1;
+	private static final byte[] TYPE_KEY = Messages.serialize(Messages.TYPE);
+
+	private byte[] data;
+	private int start;
+	private int end;
+	private int count = -1;
+	private int[] keyStarts = new int[8];
+	private int[] keyEnds = new int[8];
+	private int[] valueStarts = new int[8];
+	private int[] valueEnds = new int[8];
+
+	/**
+	 * Constructor.
+	 * @param data The UTF-8 bytes of the JSON object.
+	 */
+	public JSONReader(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Constructor.
+	 * @param data The bytes.
+	 * @param offset The offset of the JSON object.
+	 * @param length The length of the JSON object.
+	 */
+	public JSONReader(byte[] data, int offset, int length) {
+		this.data = data;
+		this.start = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * Reads the type of a message. Only the members before the type are scanned.
+	 * @param data The UTF-8 bytes of the JSON object.
+	 * @return The type or -1 if there is no type.
+	 */
+	public static long readType(byte[] data) {
+
+		int position = skipSpaces(data, 0, data.length);
+		position = expect(data, position, data.length, '{');
+		position = skipSpaces(data, position, data.length);
+
+		if (position < data.length && data[position] == '}') {
+			return NO_TYPE;
+		}
+
+		while (true) {
+			int keyStart = position + 1;
+			position = skipString(data, position, data.length);
+			int keyEnd = position - 1;
+
+			position = skipSpaces(data, position, data.length);
+			position = expect(data, position, data.length, ':');
+			position = skipSpaces(data, position, data.length);
+
+			if (keyEquals(data, keyStart, keyEnd, TYPE_KEY)) {
+				return parseLong(data, position, skipValue(data, position, data.length));
+			}
+
+			position = skipValue(data, position, data.length);
+			position = skipSpaces(data, position, data.length);
+
+			if (position < data.length && data[position] == ',') {
+				position = skipSpaces(data, position + 1, data.length);
+			}
+			else {
+				expect(data, position, data.length, '}');
+				return NO_TYPE;
+			}
+		}
+	}
+
+	private static IllegalArgumentException error(String message, int position) {
+		return new IllegalArgumentException(message + " at position " + position);
+	}
+
+	private static int skipSpaces(byte[] data, int position, int end) {
+		while (position < end) {
+			byte b = data[position];
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+				break;
+			}
+			position++;
+		}
+		return position;
+	}
+
+	private static int expect(byte[] data, int position, int end, char c) {
+		if (position >= end || data[position] != c) {
+			throw error("Expected '" + c + "'", position);
+		}
+		return position + 1;
+	}
+
+	/**
+	 * Skips a string starting at the quote.
+	 * @return The position after the closing quote.
+	 */
+	private static int skipString(byte[] data, int position, int end) {
+
+		position = expect(data, position, end, '"');
+
+		while (position < end) {
+			byte b = data[position];
+			if (b == '"') {
+				return position + 1;
+			}
+			if (b == '\\') {
+				position++;
+			}
+			position++;
+		}
+
+		throw error("Unterminated string", position);
+	}
+
+	/**
+	 * Skips a value of any type.
+	 * @return The position after the value.
+	 */
+	private static int skipValue(byte[] data, int position, int end) {
+
+		if (position >= end) {
+			throw error("Missing value", position);
+		}
+
+		byte b = data[position];
+
+		if (b == '"') {
+			return skipString(data, position, end);
+		}
+
+		if (b == '{' || b == '[') {
+			// Count the nested objects and arrays, the strings can contain brackets.
+			int depth = 0;
+			while (position < end) {
+				b = data[position];
+				if (b == '"') {
+					position = skipString(data, position, end);
+					continue;
+				}
+				if (b == '{' || b == '[') {
+					depth++;
+				}
+				else if (b == '}' || b == ']') {
+					depth--;
+					if (depth == 0) {
+						return position + 1;
+					}
+				}
+				position++;
+			}
+			throw error("Unterminated value", position);
+		}
+
+		// Number, boolean or null.
+		int valueStart = position;
+		while (position < end) {
+			b = data[position];
+			if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+				break;
+			}
+			position++;
+		}
+
+		if (position == valueStart) {
+			throw error("Missing value", position);
+		}
+		return position;
+	}
+
+	private static boolean keyEquals(byte[] data, int keyStart, int keyEnd, byte[] key) {
+
+		if (keyEnd - keyStart != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (data[keyStart + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean keyEquals(byte[] data, int keyStart, int keyEnd, String key) {
+
+		// The keys of the messages are ASCII and not escaped.
+		if (keyEnd - keyStart != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (data[keyStart + i] != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseLong(byte[] data, int valueStart, int valueEnd) {
+
+		long value = 0;
+		boolean negative = false;
+		int position = valueStart;
+
+		if (position < valueEnd && data[position] == '-') {
+			negative = true;
+			position++;
+		}
+
+		if (position == valueEnd) {
+			throw error("Bad number", valueStart);
+		}
+
+		while (position < valueEnd) {
+			byte b = data[position];
+			if (b < '0' || b > '9') {
+				// Fraction or exponent.
+				try {
+					return (long)Double.parseDouble(new String(data, valueStart, valueEnd - valueStart, Messages.CHARSET));
+				}
+				catch (NumberFormatException e) {
+					throw error("Bad number", valueStart);
+				}
+			}
+			value = value * 10 + (b - '0');
+			position++;
+		}
+
+		return (negative ? -value : value);
+	}
+
+	private void add(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+
+		if (count == keyStarts.length) {
+			int length = count * 2;
+			keyStarts = Arrays.copyOf(keyStarts, length);
+			keyEnds = Arrays.copyOf(keyEnds, length);
+			valueStarts = Arrays.copyOf(valueStarts, length);
+			valueEnds = Arrays.copyOf(valueEnds, length);
+		}
+
+		keyStarts[count] = keyStart;
+		keyEnds[count] = keyEnd;
+		valueStarts[count] = valueStart;
+		valueEnds[count] = valueEnd;
+		count++;
+	}
+
+	private void index() {
+
+		if (count != -1) {
+			return;
+		}
+		count = 0;
+
+		int position = skipSpaces(data, start, end);
+		position = expect(data, position, end, '{');
+		position = skipSpaces(data, position, end);
+
+		if (position < end && data[position] == '}') {
+			return;
+		}
+
+		while (true) {
+			int keyStart = position + 1;
+			position = skipString(data, position, end);
+			int keyEnd = position - 1;
+
+			position = skipSpaces(data, position, end);
+			position = expect(data, position, end, ':');
+			position = skipSpaces(data, position, end);
+
+			int valueStart = position;
+			position = skipValue(data, position, end);
+			add(keyStart, keyEnd, valueStart, position);
+
+			position = skipSpaces(data, position, end);
+
+			if (position < end && data[position] == ',') {
+				position = skipSpaces(data, position + 1, end);
+			}
+			else {
+				expect(data, position, end, '}');
+				return;
+			}
+		}
+	}
+
+	private int find(String key) {
+
+		index();
+
+		for (int i = 0; i < count; i++) {
+			if (keyEquals(data, keyStarts[i], keyEnds[i], key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int get(String key) {
+
+		int i = find(key);
+		if (i == -1 || isNull(i)) {
+			throw new IllegalArgumentException("Missing key " + key);
+		}
+		return i;
+	}
+
+	private boolean isNull(int i) {
+		return (data[valueStarts[i]] == 'n');
+	}
+
+	/**
+	 * Returns true if the key exists with a non null value.
+	 * @param key The key.
+	 * @return True if the key exists.
+	 */
+	public boolean hasKey(String key) {
+		int i = find(key);
+		return (i != -1 && !isNull(i));
+	}
+
+	public long getLong(String key) {
+		int i = get(key);
+		return parseLong(data, valueStarts[i], valueEnds[i]);
+	}
+
+	public int getInt(String key) {
+		return (int)getLong(key);
+	}
+
+	public boolean getBoolean(String key) {
+		int i = get(key);
+		return (data[valueStarts[i]] == 't');
+	}
+
+	public String getString(String key) {
+
+		int i = get(key);
+		int valueStart = valueStarts[i];
+		int valueEnd = valueEnds[i];
+
+		if (data[valueStart] != '"') {
+			throw error("Expected string", valueStart);
+		}
+
+		return decodeString(data, valueStart + 1, valueEnd - 1);
+	}
+
+	public JSONReader getObject(String key) {
+		int i = get(key);
+		return new JSONReader(data, valueStarts[i], valueEnds[i] - valueStarts[i]);
+	}
+
+	/**
+	 * Gets the objects of an array.
+	 * @param key The key.
+	 * @return The readers of the objects.
+	 */
+	public ArrayList<JSONReader> getObjectArray(String key) {
+
+		int i = get(key);
+		int arrayEnd = valueEnds[i];
+		int position = expect(data, valueStarts[i], arrayEnd, '[');
+		ArrayList<JSONReader> result = new ArrayList<JSONReader>();
+
+		position = skipSpaces(data, position, arrayEnd);
+
+		if (position < arrayEnd && data[position] == ']') {
+			return result;
+		}
+
+		while (true) {
+			int valueStart = position;
+			position = skipValue(data, position, arrayEnd);
+			result.add(new JSONReader(data, valueStart, position - valueStart));
+
+			position = skipSpaces(data, position, arrayEnd);
+
+			if (position < arrayEnd && data[position] == ',') {
+				position = skipSpaces(data, position + 1, arrayEnd);
+			}
+			else {
+				expect(data, position, arrayEnd, ']');
+				return result;
+			}
+		}
+	}
+
+	private static int hexDigit(byte b, int position) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		throw error("Bad unicode escape", position);
+	}
+
+	private static String decodeString(byte[] data, int stringStart, int stringEnd) {
+
+		// Decode directly if there is no escape.
+		int position = stringStart;
+		while (position < stringEnd && data[position] != '\\') {
+			position++;
+		}
+
+		if (position == stringEnd) {
+			return new String(data, stringStart, stringEnd - stringStart, Messages.CHARSET);
+		}
+
+		StringBuilder builder = new StringBuilder(stringEnd - stringStart);
+		builder.append(new String(data, stringStart, position - stringStart, Messages.CHARSET));
+
+		while (position < stringEnd) {
+
+			// Copy the unescaped bytes.
+			int chunkStart = position;
+			while (position < stringEnd && data[position] != '\\') {
+				position++;
+			}
+			if (position > chunkStart) {
+				builder.append(new String(data, chunkStart, position - chunkStart, Messages.CHARSET));
+			}
+			if (position == stringEnd) {
+				break;
+			}
+
+			// Decode the escape.
+			if (position + 1 >= stringEnd) {
+				throw error("Bad escape", position);
+			}
+			byte b = data[position + 1];
+			position += 2;
+
+			switch (b) {
+			case '"': builder.append('"'); break;
+			case '\\': builder.append('\\'); break;
+			case '/': builder.append('/'); break;
+			case 'b': builder.append('\b'); break;
+			case 'f': builder.append('\f'); break;
+			case 'n': builder.append('\n'); break;
+			case 'r': builder.append('\r'); break;
+			case 't': builder.append('\t'); break;
+			case 'u':
+				if (position + 4 > stringEnd) {
+					throw error("Bad unicode escape", position);
+				}
+				int c = 0;
+				for (int i = 0; i < 4; i++) {
+					c = (c << 4) | hexDigit(data[position + i], position + i);
+				}
+				builder.append((char)c);
+				position += 4;
+				break;
+			default:
+				throw error("Bad escape", position - 1);
+			}
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.common.messages;
+
+import java.util.Arrays;
+
+/**
+ * Class writing a JSON object directly into a UTF-8 buffer without building a JSONObject.
+ * The strings are escaped as json-simple does so that the messages are the same, except for the order of the members.
+ * The buffer is pre-sized and can be reused with reset().
+ */
+public class JSONWriter {
+
+	private static final byte[] HEX = Messages.serialize("0123456789ABCDEF");
+	private static final byte[] TRUE = Messages.serialize("true");
+	private static final byte[] FALSE = Messages.serialize("false");
+	private static final byte[] NULL = Messages.serialize("null");
+
+	private byte[] buffer;
+	private int size = 0;
+	private boolean needsComma = false;
+
+	/**
+	 * Constructor.
+	 * @param capacity The initial capacity of the buffer.
+	 */
+	public JSONWriter(int capacity) {
+		buffer = new byte[Math.max(capacity, 16)];
+	}
+
+	/**
+	 * Constructor with a default capacity.
+	 */
+	public JSONWriter() {
+		this(128);
+	}
+
+	/**
+	 * Resets the writer so that the buffer is reused.
+	 * @return The writer.
+	 */
+	public JSONWriter reset() {
+		size = 0;
+		needsComma = false;
+		return this;
+	}
+
+	/**
+	 * Gets the size of the written bytes.
+	 * @return The size.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the written bytes.
+	 * @return The bytes.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	private void ensure(int length) {
+		if (size + length > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+		}
+	}
+
+	private void write(byte b) {
+		ensure(1);
+		buffer[size++] = b;
+	}
+
+	private void write(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, size, bytes.length);
+		size += bytes.length;
+	}
+
+	private void separate() {
+		if (needsComma) {
+			write((byte)',');
+		}
+	}
+
+	public JSONWriter beginObject() {
+		separate();
+		write((byte)'{');
+		needsComma = false;
+		return this;
+	}
+
+	public JSONWriter endObject() {
+		write((byte)'}');
+		needsComma = true;
+		return this;
+	}
+
+	public JSONWriter beginArray() {
+		separate();
+		write((byte)'[');
+		needsComma = false;
+		return this;
+	}
+
+	public JSONWriter endArray() {
+		write((byte)']');
+		needsComma = true;
+		return this;
+	}
+
+	public JSONWriter key(String key) {
+		separate();
+		writeString(key);
+		write((byte)':');
+		needsComma = false;
+		return this;
+	}
+
+	public JSONWriter value(long value) {
+		separate();
+
+		if (value == Long.MIN_VALUE) {
+			write(Messages.serialize(Long.toString(value)));
+		}
+		else {
+			if (value < 0) {
+				write((byte)'-');
+				value = -value;
+			}
+
+			// Write the digits from the end.
+			int digits = 1;
+			for (long v = value / 10; v != 0; v /= 10) {
+				digits++;
+			}
+			ensure(digits);
+			for (int i = size + digits - 1; i >= size; i--) {
+				buffer[i] = (byte)('0' + value % 10);
+				value /= 10;
+			}
+			size += digits;
+		}
+
+		needsComma = true;
+		return this;
+	}
+
+	public JSONWriter value(boolean value) {
+		separate();
+		write(value ? TRUE : FALSE);
+		needsComma = true;
+		return this;
+	}
+
+	public JSONWriter value(String value) {
+		separate();
+		if (value == null) {
+			write(NULL);
+		}
+		else {
+			writeString(value);
+		}
+		needsComma = true;
+		return this;
+	}
+
+	public JSONWriter field(String key, long value) {
+		return key(key).value(value);
+	}
+
+	public JSONWriter field(String key, boolean value) {
+		return key(key).value(value);
+	}
+
+	public JSONWriter field(String key, String value) {
+		return key(key).value(value);
+	}
+
+	private void writeEscape(char c) {
+		ensure(6);
+		buffer[size++] = '\\';
+		buffer[size++] = 'u';
+		buffer[size++] = HEX[(c >> 12) & 0xF];
+		buffer[size++] = HEX[(c >> 8) & 0xF];
+		buffer[size++] = HEX[(c >> 4) & 0xF];
+		buffer[size++] = HEX[c & 0xF];
+	}
+
+	private void writeString(String value) {
+
+		// At most 3 bytes per char for UTF-8 or 6 bytes for an escape.
+		ensure(value.length() * 3 + 2);
+		write((byte)'"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"': write((byte)'\\'); write((byte)'"'); continue;
+			case '\\': write((byte)'\\'); write((byte)'\\'); continue;
+			case '/': write((byte)'\\'); write((byte)'/'); continue;
+			case '\b': write((byte)'\\'); write((byte)'b'); continue;
+			case '\f': write((byte)'\\'); write((byte)'f'); continue;
+			case '\n': write((byte)'\\'); write((byte)'n'); continue;
+			case '\r': write((byte)'\\'); write((byte)'r'); continue;
+			case '\t': write((byte)'\\'); write((byte)'t'); continue;
+			default:
+				break;
+			}
+
+			// Same escaped ranges as json-simple.
+			if (c <= 0x1F || (c >= 0x7F && c <= 0x9F) || (c >= 0x2000 && c <= 0x20FF)) {
+				writeEscape(c);
+			}
+			else if (c < 0x80) {
+				write((byte)c);
+			}
+			else if (c < 0x800) {
+				ensure(2);
+				buffer[size++] = (byte)(0xC0 | (c >> 6));
+				buffer[size++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+				i++;
+				ensure(4);
+				buffer[size++] = (byte)(0xF0 | (codePoint >> 18));
+				buffer[size++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[size++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[size++] = (byte)(0x80 | (codePoint & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				// Unpaired surrogate replaced as String.getBytes() does.
+				write((byte)'?');
+			}
+			else {
+				ensure(3);
+				buffer[size++] = (byte)(0xE0 | (c >> 12));
+				buffer[size++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buffer[size++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+
+		write((byte)'"');
+	}
+}
@@ -62,6 +62,13 @@ public class Messages {
 	public static final long STREAM_END = 35;
 	public static final long PING = 36;
 	public static final long PONG = 37;
+	public static final long STREAM_BATCH = 38;
+	public static final long OUTPUT_BACKLOG = 39;
+	public static final long STREAM_CHUNK = 40;
+	public static final long RESPONSE_CHUNK = 41;
+	public static final long STREAM_COMPRESSED = 42;
+	public static final long REQUEST_COMPRESSED = 43;
+	public static final long RESPONSE_COMPRESSED = 44;
 
 	public static class Event {
 		public static final String CANCEL = "cancel";
@@ -70,6 +77,31 @@ public class Messages {
 		public static final String RESULT = "result";
 		public static final String KEYVALUE = "keyvalue";
 		public static final String PING = "ping";
+		public static final String APPLICATION = "app";
+		
+		/**
+		 * Gets the topic of the events of an application instance.
+		 * The topic does not start with a wildcard topic so that the subscribers to the wildcard topics do not receive the event twice.
+		 * It ends with a separator as ZeroMQ filters on the prefix, so that the topic of the id 1 does not match the id 10.
+		 * Subscribing to the topic returned by applicationPrefix() receives the events of all the instances of the application.
+		 * @param event The event.
+		 * @param name The application name.
+		 * @param id The application id.
+		 * @return The topic.
+		 */
+		public static String applicationTopic(String event, String name, int id) {
+			return applicationPrefix(event, name) + id + ":";
+		}
+		
+		/**
+		 * Gets the prefix of the topics of the events of an application.
+		 * @param event The event.
+		 * @param name The application name.
+		 * @return The prefix.
+		 */
+		public static String applicationPrefix(String event, String name) {
+			return APPLICATION + ":" + event + ":" + name + ":";
+		}
 	}
 
 	public static class ApplicationIdentity {
@@ -144,12 +176,14 @@ public class Messages {
 		public static final String PAST_APPLICATION_STATES = "pastApplicationStates"; // required int32
 																						// pastApplicationStates = 4;
 		public static final String EXIT_CODE = "exitCode"; // optional
+		public static final String SEQUENCE = "sequence"; // int64, optional
 	}
 
 	public static class ResultEvent {
 		public static final String ID = "id"; // required int32 id = 1;
 		public static final String NAME = "name"; // required string name = 2;
 		public static final String DATA = "data"; // required bytes data = 3;
+		public static final String SEQUENCE = "sequence"; // int64, optional
 	}
 
 	public static class ApplicationInfo {
@@ -160,11 +194,13 @@ public class Messages {
 																						// pastApplicationStates = 4;
 		public static final String ARGS = "args"; // required string args = 5;
 		public static final String PID = "pid"; // optional int64 pid = 6;
+		public static final String OUTPUT_BUFFER = "outputBuffer"; // boolean, optional
 	}
 
 	public static class ApplicationInfoListResponse {
 		public static final String APPLICATION_INFO = "applicationInfo"; // repeated ApplicationInfo applicationInfo =
 																			// 1;
+		public static final String SEQUENCE = "sequence"; // int64, optional
 	}
 
 	public static class OutputPortWithIdRequest {
@@ -187,6 +223,17 @@ public class Messages {
 		public static final String ID = "id"; // required int32 id = 1;
 		public static final String MESSAGE = "message"; // required string message = 2;
 		public static final String EOL = "eol"; // boolean
+		public static final String MESSAGES = "messages"; // array of {message, eol}
+		public static final String SEQUENCE = "seq"; // int64, sequence number of the (first) line, only if the output is kept
+	}
+
+	public static class OutputBacklogRequest {
+		public static final String ID = "id"; // int32
+	}
+
+	public static class OutputBacklogResponse {
+		public static final String SEQUENCE = "seq"; // int64, sequence number of the last line or -1
+		public static final String MESSAGES = "messages"; // array of {message, eol}
 	}
 
 	public static class WriteInputRequest {
@@ -218,6 +265,17 @@ public class Messages {
 		public static final String SERVER_ENDPOINT = "serverEndpoint";
 		public static final String SERVER_PROXY_PORT = "serverProxyPort";
 		public static final String REQUESTER_PORT = "requesterPort"; // required int32 requesterPort = 7;
+		public static final String CORRELATION_ID = "correlationId"; // int64, optional
+	}
+
+	public static class Response {
+		public static final String CORRELATION_ID = "correlationId"; // int64, optional
+	}
+
+	public static class Chunk {
+		public static final String TRANSFER_ID = "transferId"; // int64, unique for the sender
+		public static final String OFFSET = "offset"; // int64, offset of the chunk in the message
+		public static final String SIZE = "size"; // int64, size of the whole message
 	}
 
 	public static class AttachUnregisteredRequest {
@@ -233,6 +291,12 @@ public class Messages {
 		public static final String MAJOR = "major";
 		public static final String MINOR = "minor";
 		public static final String REVISION = "revision";
+		public static final String BINARY_HEADER = "binaryHeader"; // int32, optional
+		public static final String APPLICATION_TOPICS = "applicationTopics"; // boolean, optional
+		public static final String OUTPUT_BACKLOG = "outputBacklog"; // boolean, optional
+		public static final String PORT_RANGES = "portRanges"; // boolean, optional
+		public static final String CORRELATION = "correlation"; // boolean, optional
+		public static final String COMPRESSION = "compression"; // boolean, optional
 	}
 
 	public static class StoreKeyValueRequest {
@@ -257,10 +321,12 @@ public class Messages {
 		public static final String STATUS = "status"; // long STORE_KEY_VALUE or REMOVE_KEY
 		public static final String KEY = "key"; // string
 		public static final String VALUE = "value"; // string
+		public static final String SEQUENCE = "sequence"; // int64, optional
 	}
 
 	public static class RequestPortRequest {
 		public static final String ID = "id"; // int32
+		public static final String COUNT = "count"; // int32, optional
 	}
 
 	public static class PortUnavailableRequest {
@@ -295,6 +361,60 @@ public class Messages {
 		return serialize(object.toJSONString());
 	}
 
+	/**
+	 * Serializes a header containing only the type without creating a JSONObject.
+	 * @param type The type.
+	 * @return The serialized header.
+	 */
+	public static byte[] serializeType(long type) {
+		return serialize("{\"" + TYPE + "\":" + type + "}");
+	}
+
+	/**
+	 * Serializes a RESPONSE header echoing the correlation id of the request.
+	 * @param correlationId The correlation id.
+	 * @return The serialized header.
+	 */
+	public static byte[] serializeResponse(long correlationId) {
+		return serializeResponse(RESPONSE, correlationId);
+	}
+	
+	/**
+	 * Serializes a response header echoing the correlation id of the request.
+	 * @param type RESPONSE or RESPONSE_COMPRESSED.
+	 * @param correlationId The correlation id.
+	 * @return The serialized header.
+	 */
+	public static byte[] serializeResponse(long type, long correlationId) {
+		return serialize("{\"" + TYPE + "\":" + type + ",\"" + Response.CORRELATION_ID + "\":" + correlationId + "}");
+	}
+
+	/**
+	 * Serializes the header of a chunk of a large message.
+	 * @param type STREAM_CHUNK or RESPONSE_CHUNK.
+	 * @param transferId The transfer id.
+	 * @param offset The offset of the chunk.
+	 * @param size The size of the whole message.
+	 * @param correlationId The correlation id of the request or -1.
+	 * @return The header.
+	 */
+	public static byte[] serializeChunk(long type, long transferId, long offset, long size, long correlationId) {
+		
+		JSONWriter writer = new JSONWriter(96);
+		writer.beginObject();
+		writer.field(TYPE, type);
+		writer.field(Chunk.TRANSFER_ID, transferId);
+		writer.field(Chunk.OFFSET, offset);
+		writer.field(Chunk.SIZE, size);
+		
+		if (correlationId != -1) {
+			writer.field(Response.CORRELATION_ID, correlationId);
+		}
+		writer.endObject();
+		
+		return writer.toByteArray();
+	}
+
 	public static JSONObject createSyncRequest() {
 
 		JSONObject request = new JSONObject();
@@ -580,6 +700,15 @@ public class Messages {
 		return request;
 	}
 
+	public static JSONObject createOutputBacklogRequest(int applicationId) {
+
+		JSONObject request = new JSONObject();
+		request.put(Messages.TYPE, Messages.OUTPUT_BACKLOG);
+		request.put(Messages.OutputBacklogRequest.ID, applicationId);
+
+		return request;
+	}
+
 	public static JSONObject createRequestResponse(int value, String message) {
 
 		JSONObject request = new JSONObject();
@@ -631,6 +760,14 @@ public class Messages {
 		return request;
 	}
 
+	public static JSONObject createRequestPortRequest(int applicationId, int count) {
+
+		JSONObject request = createRequestPortRequest(applicationId);
+		request.put(Messages.RequestPortRequest.COUNT, count);
+
+		return request;
+	}
+
 	public static JSONObject createPortUnavailableRequest(int applicationId, int port) {
 
 		JSONObject request = new JSONObject();
@@ -686,6 +823,15 @@ public class Messages {
 		return request;
 	}
 
+	public static JSONObject createSyncResponse() {
+
+		JSONObject response = createRequestResponse(0, "OK");
+		response.put(Messages.VersionResponse.BINARY_HEADER, BinaryHeader.VERSION);
+		response.put(Messages.VersionResponse.CORRELATION, true);
+
+		return response;
+	}
+
 	public static JSONObject createPongResponse() {
 
 		JSONObject request = new JSONObject();
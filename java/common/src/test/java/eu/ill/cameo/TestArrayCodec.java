@@ -0,0 +1,140 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.ill.cameo.common.messages.ArrayCodec;
+import eu.ill.cameo.common.messages.Messages;
+
+public class TestArrayCodec {
+
+	@Test
+	public void testRoundTrip() {
+
+		double[] doubles = {1.5, -2.25, Double.MAX_VALUE, Double.NaN, 0.0, 6.0};
+		ArrayCodec.Array array = ArrayCodec.decode(ArrayCodec.encode(doubles, 2, 3));
+
+		assertEquals(ArrayCodec.FLOAT, array.getKind());
+		assertEquals(8, array.getItemSize());
+		assertArrayEquals(new long[] {2, 3}, array.getShape());
+		assertArrayEquals(doubles, array.toDoubles(), 0.0);
+
+		float[] floats = {1.5f, -3.0f, Float.MIN_VALUE};
+		assertArrayEquals(floats, ArrayCodec.decode(ArrayCodec.encode(floats)).toFloats(), 0.0f);
+
+		long[] longs = {Long.MIN_VALUE, -1, 0, Long.MAX_VALUE};
+		assertArrayEquals(longs, ArrayCodec.decode(ArrayCodec.encode(longs, 4, 1)).toLongs());
+
+		int[] ints = {Integer.MIN_VALUE, 7, Integer.MAX_VALUE};
+		assertArrayEquals(ints, ArrayCodec.decode(ArrayCodec.encode(ints)).toInts());
+
+		short[] shorts = {Short.MIN_VALUE, 3, Short.MAX_VALUE};
+		assertArrayEquals(shorts, ArrayCodec.decode(ArrayCodec.encode(shorts)).toShorts());
+
+		// Empty array.
+		ArrayCodec.Array empty = ArrayCodec.decode(ArrayCodec.encode(new int[0], 0, 5));
+		assertEquals(0, empty.getLength());
+		assertArrayEquals(new long[] {0, 5}, empty.getShape());
+	}
+
+	@Test
+	public void testLayout() {
+
+		byte[] message = ArrayCodec.encode(new float[] {1.0f, 2.0f, 3.0f, 4.0f, 5.0f, 6.0f}, 3, 2);
+		boolean little = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+
+		assertTrue(ArrayCodec.isArray(message));
+		assertEquals(ArrayCodec.MAGIC, message[0]);
+		assertEquals(ArrayCodec.VERSION, message[1]);
+
+		// The dtype of numpy.
+		assertEquals((little ? "<" : ">") + "f4", new String(new char[] {(char)message[4], (char)message[2], (char)('0' + message[3])}));
+		assertEquals(2, message[5]);
+
+		// The data is aligned on 8 bytes after the shape.
+		assertEquals(8 + 2 * 8 + 6 * 4, message.length);
+		ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.nativeOrder());
+		assertEquals(3, buffer.getLong(8));
+		assertEquals(2, buffer.getLong(16));
+		assertEquals(1.0f, buffer.getFloat(24), 0.0f);
+		assertEquals(6.0f, buffer.getFloat(44), 0.0f);
+
+		// The JSON and binary headers are not arrays.
+		assertFalse(ArrayCodec.isArray(Messages.serializeType(Messages.STREAM)));
+	}
+
+	@Test
+	public void testForeignByteOrder() {
+
+		// A big endian array of two ints encoded by hand.
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 8).order(ByteOrder.BIG_ENDIAN);
+		buffer.put(ArrayCodec.MAGIC).put((byte)1).put(ArrayCodec.INT).put((byte)4).put((byte)'>').put((byte)1).putShort((short)0);
+		buffer.putLong(2);
+		buffer.putInt(0x01020304).putInt(-5);
+
+		assertArrayEquals(new int[] {0x01020304, -5}, ArrayCodec.decode(buffer.array()).toInts());
+	}
+
+	@Test
+	public void testErrors() {
+
+		try {
+			ArrayCodec.encode(new double[5], 2, 3);
+			fail("Bad shape not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		try {
+			ArrayCodec.decode(ArrayCodec.encode(new int[4])).toDoubles();
+			fail("Bad type not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		byte[] message = ArrayCodec.encode(new long[3]);
+		try {
+			ArrayCodec.decode(Arrays.copyOf(message, message.length - 1));
+			fail("Truncated array not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		try {
+			ArrayCodec.decode(Messages.serialize("not an array"));
+			fail("Bad message not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+		
+		// The product of the dimensions wraps to zero and must not match the empty data.
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 16).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(ArrayCodec.MAGIC).put((byte)1).put(ArrayCodec.FLOAT).put((byte)8).put((byte)'<').put((byte)2).putShort((short)0);
+		buffer.putLong(1L << 32).putLong(1L << 32);
+		try {
+			ArrayCodec.decode(buffer.array());
+			fail("Overflowing shape not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+import eu.ill.cameo.common.messages.BinaryHeader;
+import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.Messages;
+
+public class TestBinaryHeader {
+
+	@Test
+	public void testType() throws ParseException {
+		
+		byte[] header = BinaryHeader.encodeType(Messages.STREAM);
+		
+		assertTrue(BinaryHeader.isBinary(header));
+		assertEquals(3, header.length);
+		assertEquals(Messages.STREAM, new BinaryHeader.Reader(header).getType());
+		
+		// The JSON headers are not binary.
+		byte[] jsonHeader = Messages.serializeType(Messages.STREAM);
+		assertFalse(BinaryHeader.isBinary(jsonHeader));
+		assertFalse(BinaryHeader.isBinary(new byte[0]));
+		
+		JSONObject object = JSON.parse(Messages.parseString(jsonHeader));
+		assertEquals(Messages.STREAM, JSON.getLong(object, Messages.TYPE));
+	}
+	
+	@Test
+	public void testRequest() {
+		
+		byte[] header = BinaryHeader.encodeRequest("requester-é", 123456, "tcp://gamma75:7000", 7002);
+		
+		BinaryHeader.Reader reader = new BinaryHeader.Reader(header);
+		assertEquals(Messages.REQUEST, reader.getType());
+		assertEquals("requester-é", reader.readString());
+		assertEquals(123456, reader.readInt());
+		assertEquals("tcp://gamma75:7000", reader.readString());
+		assertEquals(7002, reader.readInt());
+		assertFalse(reader.hasMore());
+		
+		// An appended field is read after the fixed fields.
+		reader = new BinaryHeader.Reader(BinaryHeader.append(header, Long.MAX_VALUE));
+		reader.readString();
+		reader.readInt();
+		reader.readString();
+		reader.readInt();
+		assertTrue(reader.hasMore());
+		assertEquals(Long.MAX_VALUE, reader.readLong());
+		assertFalse(reader.hasMore());
+	}
+	
+	@Test
+	public void testValues() {
+		
+		BinaryHeader.Writer writer = new BinaryHeader.Writer(300);
+		writer.writeInt(-1).writeInt(Integer.MAX_VALUE).writeInt(Integer.MIN_VALUE).writeLong(Long.MIN_VALUE).writeString("");
+		
+		BinaryHeader.Reader reader = new BinaryHeader.Reader(writer.toByteArray());
+		assertEquals(300, reader.getType());
+		assertEquals(-1, reader.readInt());
+		assertEquals(Integer.MAX_VALUE, reader.readInt());
+		assertEquals(Integer.MIN_VALUE, reader.readInt());
+		assertEquals(Long.MIN_VALUE, reader.readLong());
+		assertEquals("", reader.readString());
+	}
+	
+	@Test
+	public void testTruncated() {
+		
+		byte[] header = BinaryHeader.encodeRequest("app", 1, "tcp://gamma75:7000", 7002);
+		
+		try {
+			BinaryHeader.Reader reader = new BinaryHeader.Reader(Arrays.copyOf(header, header.length - 5));
+			reader.readString();
+			reader.readInt();
+			reader.readString();
+			fail("Truncated header read");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+}
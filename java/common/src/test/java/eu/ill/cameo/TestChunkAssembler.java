@@ -0,0 +1,137 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.ill.cameo.common.messages.ChunkAssembler;
+import eu.ill.cameo.common.messages.JSONReader;
+import eu.ill.cameo.common.messages.Messages;
+
+public class TestChunkAssembler {
+
+	private static byte[] message(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; ++i) {
+			data[i] = (byte)(i * 31);
+		}
+		return data;
+	}
+
+	@Test
+	public void testInterleaved() {
+
+		ChunkAssembler assembler = new ChunkAssembler(4);
+		byte[] first = message(10);
+		byte[] second = message(7);
+
+		assertNull(assembler.add(1, 0, 10, Arrays.copyOfRange(first, 0, 4)));
+		assertNull(assembler.add(2, 0, 7, Arrays.copyOfRange(second, 0, 4)));
+		assertNull(assembler.add(1, 4, 10, Arrays.copyOfRange(first, 4, 8)));
+		assertEquals(2, assembler.getPendingTransfers());
+
+		assertArrayEquals(second, assembler.add(2, 4, 7, Arrays.copyOfRange(second, 4, 7)));
+		assertArrayEquals(first, assembler.add(1, 8, 10, Arrays.copyOfRange(first, 8, 10)));
+		assertEquals(0, assembler.getPendingTransfers());
+
+		// Empty message.
+		assertArrayEquals(new byte[0], assembler.add(3, 0, 0, new byte[0]));
+	}
+
+	@Test
+	public void testLostChunks() {
+
+		ChunkAssembler assembler = new ChunkAssembler(2);
+		byte[] data = message(9);
+
+		// The second chunk is lost so that the transfer is dropped.
+		assertNull(assembler.add(1, 0, 9, Arrays.copyOfRange(data, 0, 3)));
+		assertNull(assembler.add(1, 6, 9, Arrays.copyOfRange(data, 6, 9)));
+		assertEquals(0, assembler.getPendingTransfers());
+		assertEquals(1, assembler.getDroppedTransfers());
+
+		// The first chunk is lost.
+		assertNull(assembler.add(2, 3, 9, Arrays.copyOfRange(data, 3, 6)));
+		assertEquals(0, assembler.getPendingTransfers());
+
+		// The oldest transfer is dropped.
+		assembler.add(3, 0, 9, new byte[1]);
+		assembler.add(4, 0, 9, new byte[1]);
+		assembler.add(5, 0, 9, new byte[1]);
+		assertEquals(2, assembler.getPendingTransfers());
+		assertEquals(2, assembler.getDroppedTransfers());
+		assertNull(assembler.add(3, 1, 9, new byte[8]));
+
+		try {
+			assembler.add(6, 0, ChunkAssembler.MAX_SIZE + 1, new byte[1]);
+			fail("Too large message not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testPendingSize() {
+
+		// The buffer grows with the received chunks and not with the declared size.
+		ChunkAssembler assembler = new ChunkAssembler(4);
+		assertNull(assembler.add(1, 0, ChunkAssembler.MAX_SIZE, new byte[10]));
+		assertTrue(assembler.getPendingSize() < ChunkAssembler.MAX_SIZE / 1000);
+		assembler.clear();
+		assertEquals(0, assembler.getPendingSize());
+
+		// The oldest transfer is dropped to make room for the chunks of the newest one.
+		assembler = new ChunkAssembler(4, 100);
+		byte[] data = message(60);
+
+		assertNull(assembler.add(1, 0, 60, Arrays.copyOfRange(data, 0, 50)));
+		assertEquals(60, assembler.getPendingSize());
+		assertNull(assembler.add(2, 0, 60, Arrays.copyOfRange(data, 0, 50)));
+		assertEquals(1, assembler.getPendingTransfers());
+		assertEquals(1, assembler.getDroppedTransfers());
+		assertEquals(60, assembler.getPendingSize());
+
+		assertNull(assembler.add(1, 50, 60, Arrays.copyOfRange(data, 50, 60)));
+		assertArrayEquals(data, assembler.add(2, 50, 60, Arrays.copyOfRange(data, 50, 60)));
+		assertEquals(0, assembler.getPendingSize());
+
+		try {
+			assembler.add(3, 0, 101, new byte[1]);
+			fail("Too large message not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testHeader() {
+
+		JSONReader header = new JSONReader(Messages.serializeChunk(Messages.STREAM_CHUNK, 12, 1 << 20, 500L << 20, -1));
+
+		assertEquals(Messages.STREAM_CHUNK, header.getLong(Messages.TYPE));
+		assertEquals(12, header.getLong(Messages.Chunk.TRANSFER_ID));
+		assertEquals(1 << 20, header.getLong(Messages.Chunk.OFFSET));
+		assertEquals(500L << 20, header.getLong(Messages.Chunk.SIZE));
+		assertFalse(header.hasKey(Messages.Response.CORRELATION_ID));
+
+		header = new JSONReader(Messages.serializeChunk(Messages.RESPONSE_CHUNK, 0, 0, 5, 77));
+		assertEquals(77, header.getLong(Messages.Response.CORRELATION_ID));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.ill.cameo.common.messages.Compression;
+
+public class TestCompression {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		Compression compression = new Compression(-1, 100);
+
+		// A sparse image is very compressible.
+		byte[] image = new byte[1 << 20];
+		for (int i = 0; i < image.length; i += 997) {
+			image[i] = (byte)i;
+		}
+
+		byte[] payload = compression.compress(image);
+		assertNotNull(payload);
+		assertEquals(Compression.DEFLATE, payload[0]);
+		assertTrue(payload.length < image.length / 10);
+		assertArrayEquals(image, Compression.decompress(payload));
+
+		// The deflater of the thread is reused.
+		assertArrayEquals(image, Compression.decompress(compression.compress(image)));
+
+		// The deflaters of the other threads are independent.
+		byte[][] result = new byte[1][];
+		Thread thread = new Thread(() -> result[0] = Compression.decompress(compression.compress(image)));
+		thread.start();
+		thread.join();
+		assertArrayEquals(image, result[0]);
+	}
+
+	@Test
+	public void testSkipped() {
+
+		Compression compression = new Compression(9, 100);
+
+		// Under the threshold.
+		byte[] small = new byte[99];
+		assertNull(compression.compress(small));
+
+		byte[] payload = compression.encode(small);
+		assertEquals(Compression.STORED, payload[0]);
+		assertArrayEquals(small, Compression.decompress(payload));
+
+		// Random data is not compressible.
+		byte[] random = new byte[4096];
+		new Random(7).nextBytes(random);
+		assertNull(compression.compress(random));
+		assertArrayEquals(random, Compression.decompress(compression.encode(random)));
+
+		// Empty data.
+		assertArrayEquals(new byte[0], Compression.decompress(Compression.store(new byte[0])));
+	}
+
+	@Test
+	public void testErrors() {
+
+		try {
+			new Compression(10, 0);
+			fail("Bad level not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		byte[] payload = new Compression(1, 0).compress(new byte[1000]);
+
+		try {
+			Compression.decompress(Arrays.copyOf(payload, payload.length - 2));
+			fail("Truncated payload not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		payload[0] = 7;
+		try {
+			Compression.decompress(payload);
+			fail("Unknown codec not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+
+		// A small payload declaring a huge size is rejected without allocating the declared size.
+		payload = new Compression(1, 0).compress(new byte[1000]);
+		payload[1] = (byte)(Compression.MAX_SIZE >>> 24);
+		payload[2] = (byte)(Compression.MAX_SIZE >>> 16);
+		payload[3] = (byte)(Compression.MAX_SIZE >>> 8);
+		payload[4] = (byte)Compression.MAX_SIZE;
+		try {
+			Compression.decompress(payload);
+			fail("Bad size not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.JSONReader;
+import eu.ill.cameo.common.messages.JSONWriter;
+import eu.ill.cameo.common.messages.Messages;
+
+public class TestJSONCodec {
+
+	private static final String[] STRINGS = {
+		"",
+		"simple line",
+		"quote \" backslash \\ slash /",
+		"controls \b\f\n\r\t \u0001 \u001F \u007F \u0085",
+		"accents \u00E9\u00E8 \u20AC \u2028 \u4E2D",
+		"emoji \uD83D\uDE00"
+	};
+
+	@Test
+	public void testEscape() {
+
+		// The strings are written as json-simple writes them.
+		for (String value : STRINGS) {
+			JSONWriter writer = new JSONWriter(4);
+			writer.value(value);
+
+			assertArrayEquals(value, Messages.serialize("\"" + JSONValue.escape(value) + "\""), writer.toByteArray());
+		}
+	}
+
+	@Test
+	public void testWriter() throws ParseException {
+
+		JSONWriter writer = new JSONWriter();
+		writer.beginObject();
+		writer.field(Messages.TYPE, Messages.STREAM_BATCH);
+		writer.field("negative", Long.MIN_VALUE);
+		writer.field("zero", 0);
+		writer.field("null", (String)null);
+		writer.key("messages").beginArray();
+
+		for (String value : STRINGS) {
+			writer.beginObject().field("message", value).field("eol", true).endObject();
+		}
+
+		writer.endArray();
+		writer.field("eol", false);
+		writer.endObject();
+
+		JSON.Parser parser = new JSON.Parser();
+		JSONObject object = parser.parse(Messages.parseString(writer.toByteArray()));
+
+		assertEquals(Messages.STREAM_BATCH, JSON.getLong(object, Messages.TYPE));
+		assertEquals(Long.MIN_VALUE, JSON.getLong(object, "negative"));
+		assertEquals(0, JSON.getLong(object, "zero"));
+		assertFalse(JSON.getBoolean(object, "eol"));
+		assertTrue(object.containsKey("null"));
+		assertNull(object.get("null"));
+
+		JSONArray messages = JSON.getArray(object, "messages");
+		assertEquals(STRINGS.length, messages.size());
+
+		for (int i = 0; i < STRINGS.length; ++i) {
+			assertEquals(STRINGS[i], JSON.getString((JSONObject)messages.get(i), "message"));
+		}
+
+		// The writer is reused.
+		writer.reset().beginObject().field(Messages.TYPE, Messages.STREAM).endObject();
+		assertArrayEquals(Messages.serializeType(Messages.STREAM), writer.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testReader() {
+
+		JSONArray messages = new JSONArray();
+		for (String value : STRINGS) {
+			JSONObject output = new JSONObject();
+			output.put("message", value);
+			output.put("eol", true);
+			messages.add(output);
+		}
+
+		JSONObject object = new JSONObject();
+		object.put(Messages.TYPE, Messages.STREAM_BATCH);
+		object.put("id", 12);
+		object.put("sequence", -5L);
+		object.put("messages", messages);
+		object.put("empty", new JSONArray());
+		object.put("nothing", null);
+
+		byte[] data = Messages.serialize(object);
+		JSONReader reader = new JSONReader(data);
+
+		assertEquals(Messages.STREAM_BATCH, JSONReader.readType(data));
+		assertEquals(Messages.STREAM_BATCH, reader.getLong(Messages.TYPE));
+		assertEquals(12, reader.getInt("id"));
+		assertEquals(-5, reader.getLong("sequence"));
+		assertTrue(reader.hasKey("messages"));
+		assertFalse(reader.hasKey("nothing"));
+		assertFalse(reader.hasKey("unknown"));
+		assertEquals(0, reader.getObjectArray("empty").size());
+
+		ArrayList<JSONReader> outputs = reader.getObjectArray("messages");
+		assertEquals(STRINGS.length, outputs.size());
+
+		for (int i = 0; i < STRINGS.length; ++i) {
+			assertEquals(STRINGS[i], outputs.get(i).getString("message"));
+			assertTrue(outputs.get(i).getBoolean("eol"));
+		}
+
+		try {
+			reader.getString("unknown");
+			fail("Missing key not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testReadType() {
+
+		// The type of a nested object is not the type of the message.
+		assertEquals(7, JSONReader.readType(Messages.serialize("{\"a\":{\"type\":3},\"s\":\"}\\\"type\",\"type\":7}")));
+		assertEquals(-1, JSONReader.readType(Messages.serialize("{\"a\":[{\"type\":3}]}")));
+		assertEquals(-1, JSONReader.readType(Messages.serialize(" { } ")));
+		assertEquals(Messages.SYNC, JSONReader.readType(Messages.serializeType(Messages.SYNC)));
+
+		try {
+			JSONReader.readType(Messages.serialize("[1]"));
+			fail("Bad object not detected");
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -49,6 +49,10 @@ public class ProcessHandlerImpl {
 		processHandle.destroyForcibly();
 	}
 	
+	public CompletableFuture<?> onExit() {
+		return processHandle.onExit();
+	}
+	
 	public void waitFor() {
 		
 		CompletableFuture<ProcessHandle> onProcessExit = processHandle.onExit();
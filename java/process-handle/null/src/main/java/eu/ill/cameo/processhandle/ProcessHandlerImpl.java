@@ -10,6 +10,8 @@
 
 package eu.ill.cameo.processhandle;
 
+import java.util.concurrent.CompletableFuture;
+
 public class ProcessHandlerImpl {
 
 	public ProcessHandlerImpl(Process process) {
@@ -38,6 +40,10 @@ public class ProcessHandlerImpl {
 	public void destroyForcibly() {
 	}
 	
+	public CompletableFuture<?> onExit() {
+		return CompletableFuture.completedFuture(null);
+	}
+	
 	public void waitFor() {
 	}
 }
\ No newline at end of file
@@ -174,6 +174,8 @@ public class RequestProcessor {
 		
 		Log.logger().finest("Received Apps request " + request);
 		
+		// Get the sequence of the events before the infos so that the infos contain the changes of all the events up to it.
+		long sequence = manager.getEventSequence();
 		LinkedList<ApplicationInfo> list = manager.getApplicationInfos();
 		
 		JSONObject response = new JSONObject();
@@ -194,6 +196,7 @@ public class RequestProcessor {
 			array.add(applicationInfo);
 		}
 		response.put(Messages.ApplicationInfoListResponse.APPLICATION_INFO, array);
+		response.put(Messages.ApplicationInfoListResponse.SEQUENCE, sequence);
 	
 		reply.add(Messages.serialize(response));
 	}
@@ -319,6 +322,11 @@ public class RequestProcessor {
 				applicationInfo.put(Messages.ApplicationInfo.PAST_APPLICATION_STATES, application.getPastApplicationStates());
 				applicationInfo.put(Messages.ApplicationInfo.PID, application.getPid());
 				
+				// The clients request the backlog only if the output is kept.
+				if (application.hasOutputBuffer()) {
+					applicationInfo.put(Messages.ApplicationInfo.OUTPUT_BUFFER, true);
+				}
+				
 				array.add(applicationInfo);
 			}
 		}
@@ -353,6 +361,11 @@ public class RequestProcessor {
 				applicationInfo.put(Messages.ApplicationInfo.PAST_APPLICATION_STATES, application.getPastApplicationStates());
 				applicationInfo.put(Messages.ApplicationInfo.PID, application.getPid());
 				
+				// The clients request the backlog only if the output is kept.
+				if (application.hasOutputBuffer()) {
+					applicationInfo.put(Messages.ApplicationInfo.OUTPUT_BUFFER, true);
+				}
+				
 				array.add(applicationInfo);
 			}
 		}
@@ -706,6 +719,17 @@ public class RequestProcessor {
 		response.put(Messages.VersionResponse.MINOR, version.minor);
 		response.put(Messages.VersionResponse.REVISION, version.revision);
 		
+		// The old servers do not publish the application topics.
+		if (ConfigManager.getInstance().hasApplicationTopics()) {
+			response.put(Messages.VersionResponse.APPLICATION_TOPICS, true);
+		}
+		
+		// The old servers do not process the OutputBacklog requests.
+		response.put(Messages.VersionResponse.OUTPUT_BACKLOG, true);
+		
+		// The old servers ignore the count of the RequestPort requests and reserve one port.
+		response.put(Messages.VersionResponse.PORT_RANGES, true);
+		
 		reply.add(Messages.serialize(response));
 	}
 
@@ -782,6 +806,35 @@ public class RequestProcessor {
 		}
 	}
 
+	public void processOutputBacklogRequest(JSONObject request, Msg reply, Manager manager) {
+
+		Log.logger().finest("Received OutputBacklog request " + request);
+		
+		int applicationId = JSON.getInt(request, Messages.OutputBacklogRequest.ID);
+		
+		try {
+			JSONArray messages = new JSONArray();
+			long sequence = manager.getOutputBacklog(applicationId, messages);
+			
+			// Return the reply.
+			JSONObject response = new JSONObject();
+			response.put(Messages.RequestResponse.VALUE, 0);
+			response.put(Messages.RequestResponse.MESSAGE, "OK");
+			response.put(Messages.OutputBacklogResponse.SEQUENCE, sequence);
+			response.put(Messages.OutputBacklogResponse.MESSAGES, messages);
+			
+			reply.add(Messages.serialize(response));
+		}
+		catch (IdNotFoundException e) {
+			// Return the reply.
+			JSONObject response = new JSONObject();
+			response.put(Messages.RequestResponse.VALUE, -1);
+			response.put(Messages.RequestResponse.MESSAGE, e.getMessage());
+			
+			reply.add(Messages.serialize(response));
+		}
+	}
+	
 	public void processRemoveKeyValue(JSONObject request, Msg reply, Manager manager) {
 		
 		Log.logger().finest("Received RemoveKey request " + request);
@@ -825,14 +878,36 @@ public class RequestProcessor {
 		
 		int applicationId = JSON.getInt(request, Messages.RequestPortRequest.ID);
 		
+		// The count is not sent by the old clients.
+		int count = 1;
+		if (request.containsKey(Messages.RequestPortRequest.COUNT)) {
+			count = JSON.getInt(request, Messages.RequestPortRequest.COUNT);
+		}
+		
+		if (count < 1) {
+			// Return the reply.
+			JSONObject response = new JSONObject();
+			response.put(Messages.RequestResponse.VALUE, -1);
+			response.put(Messages.RequestResponse.MESSAGE, "Invalid port count " + count);
+			
+			reply.add(Messages.serialize(response));
+			return;
+		}
+		
 		try {
-			// Request a port.
-			int port = manager.requestPort(applicationId);
+			// Request the ports.
+			int port = manager.requestPorts(applicationId, count);
 
-			// Return the reply.
+			// Return the reply. The value -2 distinguishes the exhausted ports from an unknown id for the clients sending the count.
 			JSONObject response = new JSONObject();
-			response.put(Messages.RequestResponse.VALUE, port);
-			response.put(Messages.RequestResponse.MESSAGE, "OK");
+			if (port != -1) {
+				response.put(Messages.RequestResponse.VALUE, port);
+				response.put(Messages.RequestResponse.MESSAGE, "OK");
+			}
+			else {
+				response.put(Messages.RequestResponse.VALUE, request.containsKey(Messages.RequestPortRequest.COUNT) ? -2 : -1);
+				response.put(Messages.RequestResponse.MESSAGE, "No range of " + count + " ports available");
+			}
 			
 			reply.add(Messages.serialize(response));
 		}
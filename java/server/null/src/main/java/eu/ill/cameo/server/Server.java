@@ -23,7 +23,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import eu.ill.cameo.com.Zmq;
-import eu.ill.cameo.common.messages.JSON;
+import eu.ill.cameo.common.messages.JSONReader;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.common.strings.StringId;
@@ -45,6 +45,7 @@ public class Server {
 	
 	private final static String CAMEO_REP_PROXY = "cameo-rep-proxy";
 	private final static String CAMEO_PUB_PROXY = "cameo-pub-proxy";
+	private final static String WORKERS_ENDPOINT = "inproc://cameo-server-workers";
 	
 	/**
 	 * Class storing the version in the major, minor, revision format.
@@ -63,6 +64,42 @@ public class Server {
 	
 	private static Version version = new Version();
 
+	/**
+	 * Thread processing the requests distributed by the dealer socket.
+	 */
+	private class Worker extends Thread {
+		
+		private Manager manager;
+		private Zmq.Socket workerSocket;
+		
+		Worker(Manager manager) {
+			this.manager = manager;
+			
+			// Connect the worker to the dealer.
+			workerSocket = context.createSocket(Zmq.DEALER);
+			workerSocket.connect(WORKERS_ENDPOINT);
+			
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			
+			// The parser and the processor are not shared between the workers.
+			JSONParser parser = new JSONParser();
+			RequestProcessor process = new RequestProcessor();
+			
+			try {
+				// No sleep is necessary as the requests are queued in the dealer socket.
+				while (processRequest(workerSocket, parser, process, manager)) {
+				}
+			}
+			finally {
+				context.destroySocket(workerSocket);
+			}
+		}
+	}
+	
 	public Server(String configFileName) {
 		this.configFileName = configFileName;
 	}
@@ -165,6 +202,277 @@ public class Server {
 		}
 	}
 
+	/**
+	 * Receives a request on the socket, processes it and sends the reply on the same socket.
+	 * @param socket The socket.
+	 * @param parser The JSON parser.
+	 * @param process The request processor.
+	 * @param manager The manager.
+	 * @return False if no message can be received.
+	 */
+	private boolean processRequest(Zmq.Socket socket, JSONParser parser, RequestProcessor process, Manager manager) {
+		
+		Zmq.Msg reply = new Zmq.Msg();
+
+		try {
+			// Receive the multi-part message.
+			Zmq.Msg message = Zmq.Msg.recvMsg(socket);
+			
+			if (message == null) {
+				return false;
+			}
+
+			// Get all the parts. 
+			byte[][] data = message.getAllData();
+			
+			// Get the identity of the router.
+			byte[] proxyIdentity = data[0];
+	
+			// Get the identity of the requester.
+			byte[] requesterIdentity = data[2];
+			
+			// Add the necessary parts.
+			reply.add(proxyIdentity);
+			reply.add(new byte[0]);
+			reply.add(requesterIdentity);
+			reply.add(new byte[0]);
+			
+			// Process the request, first get the type without parsing the whole request.
+			long type = JSONReader.readType(data[4]);
+			
+			// Get the JSON request object only if the request has fields.
+			JSONObject request = null;
+			if (type != Messages.SYNC && type != Messages.STATUS && type != Messages.IMPL_VERSION) {
+				request = (JSONObject)parser.parse(Messages.parseString(data[4]));
+			}
+			
+			// Process on the type.
+			if (type == Messages.SYNC) {
+				process.processSync(reply, manager);
+			}
+			else if (type == Messages.SYNC_STREAM) {
+				process.processSyncStream(request, reply, manager);
+			}
+			else if (type == Messages.START) {
+				process.processStartRequest(request, reply, manager);
+			}
+			else if (type == Messages.STOP) {
+				process.processStopRequest(request, reply, manager);
+			}
+			else if (type == Messages.KILL) {
+				process.processKillRequest(request, reply, manager);
+			}
+			else if (type == Messages.CONNECT) {
+				process.processConnectRequest(request, reply, manager);
+			}
+			else if (type == Messages.CONNECT_WITH_ID) {
+				process.processConnectWithIdRequest(request, reply, manager);
+			}
+			else if (type == Messages.OUTPUT_PORT) {
+				process.processOutputPortRequest(request, reply, manager);
+			}
+			else if (type == Messages.RESPONDER_PROXY_PORT) {
+				process.processResponderProxyPortRequest(request, reply, manager);
+			}
+			else if (type == Messages.PUBLISHER_PROXY_PORT) {
+				process.processPublisherProxyPortRequest(request, reply, manager);
+			}
+			else if (type == Messages.SUBSCRIBER_PROXY_PORT) {
+				process.processSubscriberProxyPortRequest(request, reply, manager);
+			}
+			else if (type == Messages.OUTPUT_PORT_WITH_ID) {
+				process.processOutputPortWithIdRequest(request, reply, manager);
+			}
+			else if (type == Messages.IS_ALIVE) {
+				process.processIsAliveRequest(request, reply, manager);
+			}
+			else if (type == Messages.WRITE_INPUT) {
+				process.processWriteInputRequest(request, reply, manager);
+			}
+			else if (type == Messages.STATUS) {
+				process.processStatusRequest(reply);
+			}
+			else if (type == Messages.APPS) {
+				process.processAppsRequest(request, reply, manager);
+			}
+			else if (type == Messages.LIST) {
+				process.processListRequest(request, reply, manager);
+			}
+			else if (type == Messages.SET_STATUS) {
+				process.processSetStatusRequest(request, reply, manager);
+			}
+			else if (type == Messages.GET_STATUS) {
+				process.processGetStatusRequest(request, reply, manager);
+			}
+			else if (type == Messages.SET_RESULT) {
+				// The result data is in the next frame.
+				process.processSetResultRequest(request, data[5], reply, manager);
+			}
+			else if (type == Messages.ATTACH_UNREGISTERED) {
+				process.processAttachUnregisteredRequest(request, reply, manager);
+			}
+			else if (type == Messages.DETACH_UNREGISTERED) {
+				process.processDetachUnregisteredRequest(request, reply, manager);
+			}
+			else if (type == Messages.IMPL_VERSION) {
+				process.processVersion(version, reply);
+			}
+			else if (type == Messages.STORE_KEY_VALUE) {
+				process.processStoreKeyValue(request, reply, manager);
+			}
+			else if (type == Messages.GET_KEY_VALUE) {
+				process.processGetKeyValue(request, reply, manager);
+			}
+			else if (type == Messages.REMOVE_KEY) {
+				process.processRemoveKeyValue(request, reply, manager);
+			}
+			else if (type == Messages.REQUEST_PORT) {
+				process.processRequestPortRequest(request, reply, manager);
+			}
+			else if (type == Messages.PORT_UNAVAILABLE) {
+				process.processPortUnavailableRequest(request, reply, manager);
+			}
+			else if (type == Messages.RELEASE_PORT) {
+				process.processReleasePortRequest(request, reply, manager);
+			}
+			else if (type == Messages.PORTS) {
+				process.processPortsRequest(request, reply, manager);
+			}
+			else if (type == Messages.SET_STOP_HANDLER) {
+				process.processSetStopHandlerRequest(request, reply, manager);
+			}
+			else if (type == Messages.PING) {
+				process.processPingRequest(request, reply, manager);
+			}
+			else if (type == Messages.OUTPUT_BACKLOG) {
+				process.processOutputBacklogRequest(request, reply, manager);
+			}
+			else {
+				Log.logger().info("Unknown request type " + type);
+			}
+
+			// Send reply to the client.
+			reply.send(socket);
+		}
+		catch (Throwable e) {
+			Log.logger().info("Cannot process request");
+			reply.send(socket);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Processes the requests in the calling thread.
+	 * @param manager The manager.
+	 */
+	private void runSingle(Manager manager) {
+		
+		// Create the JSON parser.
+		JSONParser parser = new JSONParser();
+		
+		// Create the request processor.
+		RequestProcessor process = new RequestProcessor();
+		
+		// Wait for the requests.
+		while (true) {
+			
+			try {
+				if (!processRequest(socket, parser, process, manager)) {
+					break;
+				}
+			}
+			finally {
+				// Do not use the garbage collector since Java 9 because it is causing a memory leak.
+				// A sleep is used to avoid to have too many requests that "block" the zeromq queue.
+				try {
+					Thread.sleep(ConfigManager.getInstance().getSleepTime());
+				}
+				catch (InterruptedException e) {
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Forwards the requests to a pool of worker threads and forwards their replies back to the requesters.
+	 * The replies are routed by the router socket with the identity frames that the workers keep unchanged.
+	 * @param manager The manager.
+	 * @param workers The number of workers.
+	 */
+	private void runWorkers(Manager manager, int workers) {
+		
+		// Create the dealer socket that distributes the requests to the workers.
+		Zmq.Socket dealer = context.createSocket(Zmq.DEALER);
+		dealer.bind(WORKERS_ENDPOINT);
+		
+		// Start the workers once the dealer is bound.
+		for (int i = 0; i < workers; ++i) {
+			new Worker(manager).start();
+		}
+		
+		Log.logger().fine("Started " + workers + " request workers");
+		
+		Zmq.Poller poller = context.createPoller(2);
+		poller.register(socket);
+		poller.register(dealer);
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+	
+				poller.poll(-1);
+				
+				boolean request = poller.pollin(0);
+				boolean reply = poller.pollin(1);
+				
+				// The infinite poll only returns without event if the context is terminated.
+				if (!request && !reply) {
+					break;
+				}
+	
+				if (request && !forward(socket, dealer)) {
+					break;
+				}
+	
+				if (reply && !forward(dealer, socket)) {
+					break;
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			// The sockets throw an exception when the context is terminated.
+			Log.logger().fine("Request loop terminated: " + e.getMessage());
+		}
+		finally {
+			context.destroySocket(dealer);
+		}
+	}
+	
+	/**
+	 * Forwards all the parts of a message.
+	 * @param from The socket receiving the message.
+	 * @param to The socket sending the message.
+	 * @return False if no message is received because the context is terminated.
+	 */
+	private static boolean forward(Zmq.Socket from, Zmq.Socket to) {
+		
+		while (true) {
+			byte[] message = from.recv();
+			
+			if (message == null) {
+				return false;
+			}
+
+			if (from.hasMore()) {
+				to.sendMore(message);
+			}
+			else {
+				to.send(message, 0);
+				return true;
+			}
+		}
+	}
+	
 	public void run() {
 
 		// Start the manager.
@@ -209,174 +517,29 @@ public class Server {
 					pubProxyProcess.destroyForcibly();
 				}
 				
+				// Stop the timers of the application lifecycles.
+				manager.terminateLifecycleEngine();
+				
 				// Terminate the heartbeat.
 				manager.terminateHeartbeat();
 				
+				// Write the remaining lines of the stream log files.
+				manager.terminateStreamLogWriter();
+				
 				Log.logger().fine("Exited");
 			}
 		}));
 
-		// Create the JSON parser.
-		JSONParser parser = new JSONParser();
-		
-		// Create the request processor.
-		RequestProcessor process = new RequestProcessor();
-		
-		// Wait for the requests.
-		while (true) {
-
-			Zmq.Msg reply = new Zmq.Msg();
-
-			try {
-				// Receive the multi-part message.
-				Zmq.Msg message = Zmq.Msg.recvMsg(socket);
-				
-				if (message == null) {
-					break;
-				}
-
-				// Get all the parts. 
-				byte[][] data = message.getAllData();
-				
-				// Get the identity of the router.
-				byte[] proxyIdentity = data[0];
+		// Run the worker threads or process the requests in this thread.
+		int workers = ConfigManager.getInstance().getWorkers();
 		
-				// Get the identity of the requester.
-				byte[] requesterIdentity = data[2];
-				
-				// Add the necessary parts.
-				reply.add(proxyIdentity);
-				reply.add(new byte[0]);
-				reply.add(requesterIdentity);
-				reply.add(new byte[0]);
-				
-				// Get the JSON request object.
-				JSONObject request = (JSONObject)parser.parse(Messages.parseString(data[4]));
-				
-				// Process the request, first get the type.
-				long type = JSON.getLong(request, Messages.TYPE);
-				
-				// Process on the type.
-				if (type == Messages.SYNC) {
-					process.processSync(reply, manager);
-				}
-				else if (type == Messages.SYNC_STREAM) {
-					process.processSyncStream(request, reply, manager);
-				}
-				else if (type == Messages.START) {
-					process.processStartRequest(request, reply, manager);
-				}
-				else if (type == Messages.STOP) {
-					process.processStopRequest(request, reply, manager);
-				}
-				else if (type == Messages.KILL) {
-					process.processKillRequest(request, reply, manager);
-				}
-				else if (type == Messages.CONNECT) {
-					process.processConnectRequest(request, reply, manager);
-				}
-				else if (type == Messages.CONNECT_WITH_ID) {
-					process.processConnectWithIdRequest(request, reply, manager);
-				}
-				else if (type == Messages.OUTPUT_PORT) {
-					process.processOutputPortRequest(request, reply, manager);
-				}
-				else if (type == Messages.RESPONDER_PROXY_PORT) {
-					process.processResponderProxyPortRequest(request, reply, manager);
-				}
-				else if (type == Messages.PUBLISHER_PROXY_PORT) {
-					process.processPublisherProxyPortRequest(request, reply, manager);
-				}
-				else if (type == Messages.SUBSCRIBER_PROXY_PORT) {
-					process.processSubscriberProxyPortRequest(request, reply, manager);
-				}
-				else if (type == Messages.OUTPUT_PORT_WITH_ID) {
-					process.processOutputPortWithIdRequest(request, reply, manager);
-				}
-				else if (type == Messages.IS_ALIVE) {
-					process.processIsAliveRequest(request, reply, manager);
-				}
-				else if (type == Messages.WRITE_INPUT) {
-					process.processWriteInputRequest(request, reply, manager);
-				}
-				else if (type == Messages.STATUS) {
-					process.processStatusRequest(reply);
-				}
-				else if (type == Messages.APPS) {
-					process.processAppsRequest(request, reply, manager);
-				}
-				else if (type == Messages.LIST) {
-					process.processListRequest(request, reply, manager);
-				}
-				else if (type == Messages.SET_STATUS) {
-					process.processSetStatusRequest(request, reply, manager);
-				}
-				else if (type == Messages.GET_STATUS) {
-					process.processGetStatusRequest(request, reply, manager);
-				}
-				else if (type == Messages.SET_RESULT) {
-					// The result data is in the next frame.
-					process.processSetResultRequest(request, data[5], reply, manager);
-				}
-				else if (type == Messages.ATTACH_UNREGISTERED) {
-					process.processAttachUnregisteredRequest(request, reply, manager);
-				}
-				else if (type == Messages.DETACH_UNREGISTERED) {
-					process.processDetachUnregisteredRequest(request, reply, manager);
-				}
-				else if (type == Messages.IMPL_VERSION) {
-					process.processVersion(version, reply);
-				}
-				else if (type == Messages.STORE_KEY_VALUE) {
-					process.processStoreKeyValue(request, reply, manager);
-				}
-				else if (type == Messages.GET_KEY_VALUE) {
-					process.processGetKeyValue(request, reply, manager);
-				}
-				else if (type == Messages.REMOVE_KEY) {
-					process.processRemoveKeyValue(request, reply, manager);
-				}
-				else if (type == Messages.REQUEST_PORT) {
-					process.processRequestPortRequest(request, reply, manager);
-				}
-				else if (type == Messages.PORT_UNAVAILABLE) {
-					process.processPortUnavailableRequest(request, reply, manager);
-				}
-				else if (type == Messages.RELEASE_PORT) {
-					process.processReleasePortRequest(request, reply, manager);
-				}
-				else if (type == Messages.PORTS) {
-					process.processPortsRequest(request, reply, manager);
-				}
-				else if (type == Messages.SET_STOP_HANDLER) {
-					process.processSetStopHandlerRequest(request, reply, manager);
-				}
-				else if (type == Messages.PING) {
-					process.processPingRequest(request, reply, manager);
-				}
-				else {
-					Log.logger().info("Unknown request type " + type);
-				}
-
-				// Send reply to the client.
-				reply.send(socket);
-			}
-			catch (Throwable e) {
-				Log.logger().info("Cannot process request");
-				reply.send(socket);
-			}
-			finally {
-				// Do not use the garbage collector since Java 9 because it is causing a memory leak.
-				// A sleep is used to avoid to have too many requests that "block" the zeromq queue.
-				try {
-					Thread.sleep(ConfigManager.getInstance().getSleepTime());
-				}
-				catch (InterruptedException e) {
-				}
-			}
-
+		if (workers > 0) {
+			runWorkers(manager, workers);
 		}
-
+		else {
+			runSingle(manager);
+		}
+		
 		if (Thread.currentThread().isInterrupted()) {
 			System.out.printf("interrupted\n");
 		}
@@ -15,10 +15,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.processhandle.ProcessHandlerImpl;
 import eu.ill.cameo.server.Converter;
+import eu.ill.cameo.server.threads.ApplicationLifecycle;
 import eu.ill.cameo.server.threads.StreamApplicationThread;
 
 /**
@@ -39,6 +41,8 @@ public abstract class Application extends ApplicationConfig {
 	protected boolean hasToStopDueToLink = false;
 	protected StreamApplicationThread streamThread = null;
 	protected boolean streamThreadStarted = false;
+	protected ApplicationLifecycle lifecycle = null;
+	protected OutputBuffer outputBuffer = null;
 	private HashMap<String, String> keyValues = new HashMap<String, String>();
 	
 	public Application(Endpoint endpoint, int id) {
@@ -77,6 +81,12 @@ public abstract class Application extends ApplicationConfig {
 	abstract public Process getProcess();
 	abstract public boolean isAlive();
 	
+	/**
+	 * Returns a future completed when the process terminates.
+	 * @return The future.
+	 */
+	abstract public CompletableFuture<?> onExit();
+	
 	/**
 	 * Returns true if duration 
 	 * @param duration
@@ -123,11 +133,23 @@ public abstract class Application extends ApplicationConfig {
 	synchronized public StreamApplicationThread getStreamThread() {
 		return this.streamThread;
 	}
+	
+	synchronized public ApplicationLifecycle getLifecycle() {
+		return this.lifecycle;
+	}
+	
+	/**
+	 * Gets the buffer of the recent output.
+	 * @return The buffer or null if the output is not kept.
+	 */
+	public OutputBuffer getOutputBuffer() {
+		return this.outputBuffer;
+	}
 
 	///////////////////////////////////////////////////////////////////////////////////////////////
-	// Storage methods
+	// Synchronized storage methods
 	
-	public boolean storeKeyValue(String key, String value) {
+	synchronized public boolean storeKeyValue(String key, String value) {
 		
 		if (keyValues.containsKey(key)) {
 			return false;
@@ -137,12 +159,17 @@ public abstract class Application extends ApplicationConfig {
 		return true;
 	}
 	
-	public String getKeyValue(String key) {
+	synchronized public String getKeyValue(String key) {
 		return keyValues.get(key);
 	}
 	
-	public boolean removeKey(String key) {
-		return (keyValues.remove(key) != null);
+	/**
+	 * Removes the key.
+	 * @param key The key.
+	 * @return The removed value or null if the key does not exist.
+	 */
+	synchronized public String removeKey(String key) {
+		return keyValues.remove(key);
 	}
 	
 	///////////////////////////////////////////////////////////////////////////////////////////////
@@ -184,6 +211,10 @@ public abstract class Application extends ApplicationConfig {
 		this.streamThreadStarted = false;
 	}
 	
+	synchronized public void setLifecycle(ApplicationLifecycle lifecycle) {
+		this.lifecycle = lifecycle;
+	}
+	
 	synchronized public void startStreamThread() {
 		if (streamThread != null && !streamThreadStarted) {
 			streamThreadStarted = true;
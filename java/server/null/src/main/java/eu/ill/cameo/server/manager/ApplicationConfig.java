@@ -27,6 +27,10 @@ public class ApplicationConfig {
 	protected String logPath;
 	protected boolean outputStream = true;
 	protected int outputStreamPort = -1;
+	protected int streamBatchSize = 0; // No batch by default
+	protected int streamBatchLatency = 100; // Default value is 100ms
+	protected int streamBufferLines = 0; // No buffer by default
+	protected int streamBufferSize = 0; // Indicates no limit in bytes
 	protected int stoppingTime = 10; // Default value is 10s
 	protected boolean runSingle = false;
 	protected int runMaxApplications = -1; // Indicates infinity
@@ -211,6 +215,98 @@ public class ApplicationConfig {
 		this.outputStreamPort = port;
 	}
 	
+	public int getStreamBatchSize() {
+		return streamBatchSize;
+	}
+	
+	public void setStreamBatchSize(int size) {
+		this.streamBatchSize = size;
+	}
+	
+	public void setStreamBatchSize(String size) {
+		try {
+			if (size == null) {
+				this.streamBatchSize = 0;
+			}
+			else {
+				this.streamBatchSize = Integer.parseInt(size);
+			}
+		}
+		catch (java.lang.NumberFormatException e) {
+			System.err.println("Error with attribute 'stream_batch_size' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public int getStreamBatchLatency() {
+		return streamBatchLatency;
+	}
+	
+	public void setStreamBatchLatency(int latency) {
+		this.streamBatchLatency = latency;
+	}
+	
+	public void setStreamBatchLatency(String latency) {
+		try {
+			if (latency == null) {
+				this.streamBatchLatency = 100;
+			}
+			else {
+				this.streamBatchLatency = Integer.parseInt(latency);
+			}
+		}
+		catch (java.lang.NumberFormatException e) {
+			System.err.println("Error with attribute 'stream_batch_latency' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public int getStreamBufferLines() {
+		return streamBufferLines;
+	}
+	
+	public void setStreamBufferLines(int lines) {
+		this.streamBufferLines = lines;
+	}
+	
+	public void setStreamBufferLines(String lines) {
+		try {
+			if (lines == null) {
+				this.streamBufferLines = 0;
+			}
+			else {
+				this.streamBufferLines = Integer.parseInt(lines);
+			}
+		}
+		catch (java.lang.NumberFormatException e) {
+			System.err.println("Error with attribute 'stream_buffer_lines' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public int getStreamBufferSize() {
+		return streamBufferSize;
+	}
+	
+	public void setStreamBufferSize(int size) {
+		this.streamBufferSize = size;
+	}
+	
+	public void setStreamBufferSize(String size) {
+		try {
+			if (size == null) {
+				this.streamBufferSize = 0;
+			}
+			else {
+				this.streamBufferSize = Integer.parseInt(size);
+			}
+		}
+		catch (java.lang.NumberFormatException e) {
+			System.err.println("Error with attribute 'stream_buffer_size' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
 	public void setStartingTime(int startingTime) {
 		this.startingTime = startingTime;
 	}
@@ -449,6 +545,10 @@ public class ApplicationConfig {
 		object.put("logDirectory", logPath);
 		object.put("outputStream", outputStream);
 		object.put("outputStreamPort", outputStreamPort);
+		object.put("streamBatchSize", streamBatchSize);
+		object.put("streamBatchLatency", streamBatchLatency);
+		object.put("streamBufferLines", streamBufferLines);
+		object.put("streamBufferSize", streamBufferSize);
 		
 		object.put("startExecutable", startExecutable);
 		object.put("startArgs", startArgsString);
@@ -30,6 +30,7 @@ public class ApplicationInfo {
 	private String outputPath;
 	private int stopTimeout;
 	private String stopCommand;
+	private boolean outputBuffer = false;
 
 	public ApplicationInfo(int id, long pid, int applicationState, int pastApplicationStates,
 			String args, boolean hasToStop,
@@ -128,6 +129,14 @@ public class ApplicationInfo {
 	public void setStopCommand(String stopCommand) {
 		this.stopCommand = stopCommand;
 	}
+	
+	public boolean hasOutputBuffer() {
+		return outputBuffer;
+	}
+
+	public void setOutputBuffer(boolean outputBuffer) {
+		this.outputBuffer = outputBuffer;
+	}
 
 	@Override
 	public String toString() {
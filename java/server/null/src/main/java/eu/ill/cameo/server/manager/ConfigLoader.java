@@ -39,6 +39,15 @@ public abstract class ConfigLoader {
 	public final static String LOG_LEVEL = "log_level";
 	public final static String SLEEP_TIME = "sleep_time";
 	public final static String POLLING_TIME = "polling_time";
+	public final static String WORKERS = "workers";
+	public final static String VIRTUAL_THREADS = "virtual_threads";
+	public final static String APPLICATION_TOPICS = "application_topics";
+	public final static String LOG_QUEUE_SIZE = "log_queue_size";
+	public final static String LOG_OVERFLOW = "log_overflow";
+	public final static String LOG_ROTATION_SIZE = "log_rotation_size";
+	public final static String LOG_ROTATION_TIME = "log_rotation_time";
+	public final static String LOG_ROTATION_FILES = "log_rotation_files";
+	public final static String LOG_COMPRESSION = "log_compression";
 	public final static String APPLICATIONS = "applications";
 	public final static String APPLICATION = "application";
 	public final static String NAME = "name";
@@ -50,6 +59,10 @@ public abstract class ConfigLoader {
 	public final static String MULTIPLE = "multiple";
 	public final static String STREAM = "stream";
 	public final static String OUTPUT_STREAM = "output_stream";
+	public final static String STREAM_BATCH_SIZE = "stream_batch_size";
+	public final static String STREAM_BATCH_LATENCY = "stream_batch_latency";
+	public final static String STREAM_BUFFER_LINES = "stream_buffer_lines";
+	public final static String STREAM_BUFFER_SIZE = "stream_buffer_size";
 	public final static String PASS_INFO = "pass_info";
 	public final static String INFO_ARG = "info_arg";
 	public final static String RESTART = "restart";
@@ -270,6 +283,63 @@ public abstract class ConfigLoader {
 		}
 		
 		ConfigManager.getInstance().setPollingTime(pollingTime);
+		
+		// Workers.
+		int workers = 0;
+		String workersString = getElementAttribute(root, WORKERS);
+		try {
+			workers = Integer.parseInt(workersString);
+		}
+		catch (NumberFormatException e) {
+			// Set default value.
+		}
+		
+		ConfigManager.getInstance().setWorkers(workers);
+		ConfigManager.getInstance().setVirtualThreads(getElementAttribute(root, VIRTUAL_THREADS));
+		ConfigManager.getInstance().setApplicationTopics(getElementAttribute(root, APPLICATION_TOPICS));
+		
+		// Stream log files.
+		int logQueueSize = 16;
+		try {
+			logQueueSize = Integer.parseInt(getElementAttribute(root, LOG_QUEUE_SIZE));
+		}
+		catch (NumberFormatException e) {
+			// Set default value.
+		}
+		
+		ConfigManager.getInstance().setLogQueueSize(logQueueSize);
+		ConfigManager.getInstance().setLogOverflow(getElementAttribute(root, LOG_OVERFLOW));
+		
+		int logRotationSize = 0;
+		try {
+			logRotationSize = Integer.parseInt(getElementAttribute(root, LOG_ROTATION_SIZE));
+		}
+		catch (NumberFormatException e) {
+			// Set default value.
+		}
+		
+		ConfigManager.getInstance().setLogRotationSize(logRotationSize);
+		
+		int logRotationTime = 0;
+		try {
+			logRotationTime = Integer.parseInt(getElementAttribute(root, LOG_ROTATION_TIME));
+		}
+		catch (NumberFormatException e) {
+			// Set default value.
+		}
+		
+		ConfigManager.getInstance().setLogRotationTime(logRotationTime);
+		
+		int logRotationFiles = 0;
+		try {
+			logRotationFiles = Integer.parseInt(getElementAttribute(root, LOG_ROTATION_FILES));
+		}
+		catch (NumberFormatException e) {
+			// Set default value.
+		}
+		
+		ConfigManager.getInstance().setLogRotationFiles(logRotationFiles);
+		ConfigManager.getInstance().setLogCompression(getElementAttribute(root, LOG_COMPRESSION));
 				
 		// Heartbeat.
 		int heartbeatPeriod = 0;
@@ -338,6 +408,11 @@ public abstract class ConfigLoader {
 				application.setOutputStream(outputStreamValue);
 			}
 			
+			application.setStreamBatchSize(getElementAttribute(item, STREAM_BATCH_SIZE));
+			application.setStreamBatchLatency(getElementAttribute(item, STREAM_BATCH_LATENCY));
+			application.setStreamBufferLines(getElementAttribute(item, STREAM_BUFFER_LINES));
+			application.setStreamBufferSize(getElementAttribute(item, STREAM_BUFFER_SIZE));
+			
 			// Both attributes are accepted: info_arg or pass_info.
 			String infoArg = getElementAttribute(item, INFO_ARG);
 			String passInfo = getElementAttribute(item, PASS_INFO);
@@ -26,6 +26,15 @@ public final class ConfigManager {
 	private int streamPort;
 	private int sleepTime;
 	private int pollingTime;
+	private int workers;
+	private boolean virtualThreads = false;
+	private boolean applicationTopics = false;
+	private int logQueueSize;
+	private boolean logDropOnOverflow = false;
+	private int logRotationSize;
+	private int logRotationTime;
+	private int logRotationFiles;
+	private boolean logCompression = false;
 	private String logPath;
 	private String proxyPorts;
 	private int responderProxyPort = 0;
@@ -95,6 +104,126 @@ public final class ConfigManager {
 		this.pollingTime = pollingTime;
 	}
 	
+	public int getWorkers() {
+		return workers;		
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+	
+	public boolean hasVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	public void setVirtualThreads(String value) {
+		if (value == null) {
+			virtualThreads = false;
+		}
+		else if (value.equalsIgnoreCase("yes")) {
+			virtualThreads = true;
+		}
+		else if (value.equalsIgnoreCase("no")) {
+			virtualThreads = false;
+		}
+		else {
+			System.err.println("Error with attribute 'virtual_threads' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public boolean hasApplicationTopics() {
+		return applicationTopics;
+	}
+	
+	public void setApplicationTopics(String value) {
+		if (value == null) {
+			applicationTopics = false;
+		}
+		else if (value.equalsIgnoreCase("yes")) {
+			applicationTopics = true;
+		}
+		else if (value.equalsIgnoreCase("no")) {
+			applicationTopics = false;
+		}
+		else {
+			System.err.println("Error with attribute 'application_topics' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public int getLogQueueSize() {
+		return logQueueSize;
+	}
+
+	public void setLogQueueSize(int size) {
+		this.logQueueSize = size;
+	}
+	
+	public boolean isLogDropOnOverflow() {
+		return logDropOnOverflow;
+	}
+	
+	public void setLogOverflow(String value) {
+		if (value == null) {
+			logDropOnOverflow = false;
+		}
+		else if (value.equalsIgnoreCase("block")) {
+			logDropOnOverflow = false;
+		}
+		else if (value.equalsIgnoreCase("drop")) {
+			logDropOnOverflow = true;
+		}
+		else {
+			System.err.println("Error with attribute 'log_overflow' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
+	public int getLogRotationSize() {
+		return logRotationSize;
+	}
+
+	public void setLogRotationSize(int size) {
+		this.logRotationSize = size;
+	}
+	
+	public int getLogRotationTime() {
+		return logRotationTime;
+	}
+
+	public void setLogRotationTime(int time) {
+		this.logRotationTime = time;
+	}
+	
+	public int getLogRotationFiles() {
+		return logRotationFiles;
+	}
+
+	public void setLogRotationFiles(int files) {
+		this.logRotationFiles = files;
+	}
+	
+	public boolean isLogCompression() {
+		return logCompression;
+	}
+	
+	public void setLogCompression(String value) {
+		if (value == null) {
+			logCompression = false;
+		}
+		else if (value.equalsIgnoreCase("yes")) {
+			logCompression = true;
+		}
+		else if (value.equalsIgnoreCase("no")) {
+			logCompression = false;
+		}
+		else {
+			System.err.println("Error with attribute 'log_compression' in configuration file");
+			System.exit(-1);
+		}
+	}
+	
 	public int getPort() {
 		return endpoint.getPort();
 	}
@@ -0,0 +1,89 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.manager;
+
+import java.util.BitSet;
+
+/**
+ * Class allocating the application ids in [1, maxId].
+ * The used ids are stored in a bitset and a cursor rotates on the last allocated id so that a released id is not reused immediately.
+ * An allocation scans the bitset by words of 64 ids from the cursor.
+ */
+public class IdAllocator {
+
+	private int maxId;
+	private BitSet usedIds;
+	private int lastId = 0;
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 * @param maxId The maximum id.
+	 */
+	public IdAllocator(int maxId) {
+		this.maxId = maxId;
+		this.usedIds = new BitSet(maxId + 1);
+	}
+
+	/**
+	 * Allocates the first free id after the last allocated id.
+	 * @return The id or -1 if there is no free id.
+	 */
+	public synchronized int allocate() {
+
+		if (size == maxId) {
+			return -1;
+		}
+
+		// Search after the last id then from the beginning.
+		int id = usedIds.nextClearBit(lastId + 1);
+		if (id > maxId) {
+			id = usedIds.nextClearBit(1);
+		}
+
+		usedIds.set(id);
+		lastId = id;
+		size++;
+
+		return id;
+	}
+
+	/**
+	 * Releases the id.
+	 * @param id The id.
+	 */
+	public synchronized void release(int id) {
+
+		if (id < 1 || id > maxId || !usedIds.get(id)) {
+			return;
+		}
+
+		usedIds.clear(id);
+		size--;
+	}
+
+	/**
+	 * Returns true if the id is allocated.
+	 * @param id The id.
+	 * @return True if the id is allocated.
+	 */
+	public synchronized boolean isAllocated(int id) {
+		return (id >= 1 && id <= maxId && usedIds.get(id));
+	}
+
+	/**
+	 * Gets the number of allocated ids.
+	 * @return The number of ids.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -15,16 +15,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.json.simple.JSONObject;
+import org.json.simple.JSONArray;
 
 import eu.ill.cameo.com.Zmq;
 import eu.ill.cameo.com.Zmq.Context;
+import eu.ill.cameo.common.messages.JSONWriter;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.ApplicationIdentity;
 import eu.ill.cameo.common.strings.Endpoint;
@@ -36,16 +36,21 @@ import eu.ill.cameo.server.exception.MaxNumberOfApplicationsReached;
 import eu.ill.cameo.server.exception.StreamNotPublishedException;
 import eu.ill.cameo.server.exception.UnknownApplicationException;
 import eu.ill.cameo.server.exception.UnregisteredApplicationException;
-import eu.ill.cameo.server.threads.LifecycleApplicationThread;
+import eu.ill.cameo.server.threads.LifecycleEngine;
 import eu.ill.cameo.server.threads.StreamApplicationThread;
+import eu.ill.cameo.server.threads.StreamLogWriter;
 
 public class Manager extends ConfigLoader {
 
 	private ConcurrentHashMap<Integer, Application> applicationMap;
 	private static int MAX_ID = 65536; 
-	private int maxId = 0;
+	private IdAllocator idAllocator;
+	private Object idLock = new Object();
 	private Zmq.Socket eventPublisher;
+	private long eventSequence = 0;
 	private HashMap<String, Zmq.Socket> streamPublishers = new HashMap<String, Zmq.Socket>();
+	private LifecycleEngine lifecycleEngine;
+	private StreamLogWriter streamLogWriter;
 	
 	private class ThisHeartbeat extends Heartbeat {
 		
@@ -74,12 +79,21 @@ public class Manager extends ConfigLoader {
 		
 		applicationMap = new ConcurrentHashMap<Integer, Application>();
 		
+		// The lifecycle engine is created once the log is initialized as it logs the thread mode.
+		lifecycleEngine = new LifecycleEngine(this);
+		
+		// Start the writer of the stream log files.
+		streamLogWriter = new StreamLogWriter();
+		streamLogWriter.start();
+		
 		// Security test.
 		if (ConfigManager.getInstance().getMaxNumberOfApplications() > MAX_ID) {
 			MAX_ID = ConfigManager.getInstance().getMaxNumberOfApplications();
 		}
 		
 		Log.logger().fine("Max Id is " + MAX_ID);
+		
+		idAllocator = new IdAllocator(MAX_ID);
 	}
 
 	public Manager(InputStream configStream) {
@@ -91,12 +105,21 @@ public class Manager extends ConfigLoader {
 		
 		applicationMap = new ConcurrentHashMap<Integer, Application>();
 		
+		// The lifecycle engine is created once the log is initialized as it logs the thread mode.
+		lifecycleEngine = new LifecycleEngine(this);
+		
+		// Start the writer of the stream log files.
+		streamLogWriter = new StreamLogWriter();
+		streamLogWriter.start();
+		
 		// Security test.
 		if (ConfigManager.getInstance().getMaxNumberOfApplications() > MAX_ID) {
 			MAX_ID = ConfigManager.getInstance().getMaxNumberOfApplications();
 		}
 		
 		Log.logger().fine("Max Id is " + MAX_ID);
+		
+		idAllocator = new IdAllocator(MAX_ID);
 	}
 
 	private synchronized int initPublisher(Zmq.Socket socket, String applicationName) {
@@ -124,6 +147,12 @@ public class Manager extends ConfigLoader {
 			// Request a new port.
 			int port = PortManager.getInstance().requestPort(applicationName, null);
 			
+			// All the ports are reserved or unavailable.
+			if (port == -1) {
+				Log.logger().severe("Cannot bind publisher " + applicationName + ": no port available");
+				System.exit(1);
+			}
+			
 			// Try to bind the port.
 			try {
 				socket.bind("tcp://*:" + port);
@@ -176,6 +205,18 @@ public class Manager extends ConfigLoader {
 		}
 	}
 
+	public void terminateLifecycleEngine() {
+		lifecycleEngine.terminate();
+	}
+
+	public void terminateStreamLogWriter() {
+		streamLogWriter.terminate();
+	}
+	
+	public StreamLogWriter getStreamLogWriter() {
+		return streamLogWriter;
+	}
+	
 	public Zmq.Socket getStreamPublisher(String name) {
 		return streamPublishers.get(name);
 	}
@@ -188,6 +229,55 @@ public class Manager extends ConfigLoader {
 		}
 	}
 	
+	/**
+	 * Publishes an event on the wildcard topic and on the topic of the application if the application topics are configured.
+	 * The synchronization events have no application and are only published on the wildcard topic.
+	 * The events are numbered in the order of publication so that the subscribers can detect the lost events.
+	 * @param event The event topic.
+	 * @param id The application id.
+	 * @param name The application name.
+	 * @param writer The writer of the event without the end of the object.
+	 * @param data The data following the event or null.
+	 */
+	private void publishEvent(String event, int id, String name, JSONWriter writer, byte[] data) {
+		
+		synchronized (eventPublisher) {
+			eventSequence++;
+			
+			byte[] header = writer.field(Messages.StatusEvent.SEQUENCE, eventSequence).endObject().toByteArray();
+			
+			publishParts(event, header, data);
+			
+			if (id != -1 && ConfigManager.getInstance().hasApplicationTopics()) {
+				publishParts(Messages.Event.applicationTopic(event, name, id), header, data);
+			}
+		}
+	}
+	
+	private void publishParts(String topic, byte[] header, byte[] data) {
+		
+		eventPublisher.sendMore(topic);
+		
+		if (data == null) {
+			eventPublisher.send(header, 0);
+		}
+		else {
+			eventPublisher.sendMore(header);
+			eventPublisher.send(data, 0);
+		}
+	}
+	
+	/**
+	 * Gets the sequence number of the last published event.
+	 * @return The sequence number.
+	 */
+	public long getEventSequence() {
+		
+		synchronized (eventPublisher) {
+			return eventSequence;
+		}
+	}
+	
 	public static void publishPing(Zmq.Socket publisher) {
 		
 		synchronized (publisher) {
@@ -195,91 +285,69 @@ public class Manager extends ConfigLoader {
 		}
 	}
 
-	public synchronized void sendStatus(int id, String name, int state, int pastStates, int exitCode) {
+	public void sendStatus(int id, String name, int state, int pastStates, int exitCode) {
 		
-		JSONObject event = new JSONObject();
-		event.put(Messages.StatusEvent.ID, id);
-		event.put(Messages.StatusEvent.NAME, name);
-		event.put(Messages.StatusEvent.APPLICATION_STATE, state);
-		event.put(Messages.StatusEvent.PAST_APPLICATION_STATES, pastStates);
+		JSONWriter event = new JSONWriter().beginObject();
+		event.field(Messages.StatusEvent.ID, id);
+		event.field(Messages.StatusEvent.NAME, name);
+		event.field(Messages.StatusEvent.APPLICATION_STATE, state);
+		event.field(Messages.StatusEvent.PAST_APPLICATION_STATES, pastStates);
 		
 		if (exitCode != -1) {
-			event.put(Messages.StatusEvent.EXIT_CODE, exitCode);
+			event.field(Messages.StatusEvent.EXIT_CODE, exitCode);
 		}
 		
-		eventPublisher.sendMore(Messages.Event.STATUS);
-		eventPublisher.send(Messages.serialize(event), 0);
+		publishEvent(Messages.Event.STATUS, id, name, event, null);
 	}
 
-	public synchronized void sendResult(int id, String name, byte[] data) {
+	public void sendResult(int id, String name, byte[] data) {
 		
-		JSONObject event = new JSONObject();
-		event.put(Messages.ResultEvent.ID, id);
-		event.put(Messages.ResultEvent.NAME, name);
+		JSONWriter event = new JSONWriter().beginObject();
+		event.field(Messages.ResultEvent.ID, id);
+		event.field(Messages.ResultEvent.NAME, name);
 
 		// The result has 3 parts.
-		eventPublisher.sendMore(Messages.Event.RESULT);
-		eventPublisher.sendMore(Messages.serialize(event));
-		eventPublisher.send(data, 0);
+		publishEvent(Messages.Event.RESULT, id, name, event, data);
 	}
 	
-	public synchronized void sendStoreKeyValue(int id, String name, String key, String value) {
+	public void sendStoreKeyValue(int id, String name, String key, String value) {
 		
-		JSONObject event = new JSONObject();
-		event.put(Messages.KeyEvent.ID, id);
-		event.put(Messages.KeyEvent.NAME, name);
-		event.put(Messages.KeyEvent.STATUS, Messages.STORE_KEY_VALUE);
-		event.put(Messages.KeyEvent.KEY, key);
-		event.put(Messages.KeyEvent.VALUE, value);
+		JSONWriter event = new JSONWriter().beginObject();
+		event.field(Messages.KeyEvent.ID, id);
+		event.field(Messages.KeyEvent.NAME, name);
+		event.field(Messages.KeyEvent.STATUS, Messages.STORE_KEY_VALUE);
+		event.field(Messages.KeyEvent.KEY, key);
+		event.field(Messages.KeyEvent.VALUE, value);
 		
-		eventPublisher.sendMore(Messages.Event.KEYVALUE);
-		eventPublisher.send(Messages.serialize(event), 0);
+		publishEvent(Messages.Event.KEYVALUE, id, name, event, null);
 	}
 	
-	public synchronized void sendRemoveKeyValue(int id, String name, String key, String value) {
+	public void sendRemoveKeyValue(int id, String name, String key, String value) {
 		
-		JSONObject event = new JSONObject();
-		event.put(Messages.KeyEvent.ID, id);
-		event.put(Messages.KeyEvent.NAME, name);
-		event.put(Messages.KeyEvent.STATUS, Messages.REMOVE_KEY);
-		event.put(Messages.KeyEvent.KEY, key);
-		event.put(Messages.KeyEvent.VALUE, value);
+		JSONWriter event = new JSONWriter().beginObject();
+		event.field(Messages.KeyEvent.ID, id);
+		event.field(Messages.KeyEvent.NAME, name);
+		event.field(Messages.KeyEvent.STATUS, Messages.REMOVE_KEY);
+		event.field(Messages.KeyEvent.KEY, key);
+		event.field(Messages.KeyEvent.VALUE, value);
 		
-		eventPublisher.sendMore(Messages.Event.KEYVALUE);
-		eventPublisher.send(Messages.serialize(event), 0);
+		publishEvent(Messages.Event.KEYVALUE, id, name, event, null);
 	}
 	
-	public synchronized void sendEventPing() {
-		eventPublisher.send(Messages.Event.PING);
+	public void sendEventPing() {
+		publishPing(eventPublisher);
 	}
 	
-	private int findFreeId(int begin, int end) {
-		
-		for (int i = begin; i < end; i++) {
-			if (!applicationMap.containsKey(i)) {
-				return i;
-			}
-		}
-		
-		return -1;
-	}
-
+	/**
+	 * Finds a free id. Must be called with the id lock held.
+	 * @param name The name of the application.
+	 * @return The id.
+	 * @throws MaxGlobalNumberOfApplicationsReached
+	 */
 	private int findId(String name) throws MaxGlobalNumberOfApplicationsReached {
 
-		// First iteration.
-		int id = findFreeId(maxId + 1, MAX_ID + 1);
-		if (id != -1) {
-			// Found an id.
-			maxId = id;
-		}
-		else {
-			// Found no id, iterate from the beginning to maxId.
-			id = findFreeId(1, maxId + 1);
-			if (id != -1) {
-				// Found an id.
-				maxId = id;
-			}
-		}
+		// The id following the last allocated id is preferred so that an id is not immediately reused.
+		int id = idAllocator.allocate();
 		
 		if (id == -1) {
 			Log.logger().info("Max number of applications reached");
@@ -292,24 +360,26 @@ public class Manager extends ConfigLoader {
 	private void removeApplication(Application application) {
 		
 		// Remove the application from the port manager.
-		HashSet<Integer> ports = PortManager.getInstance().removeApplication(application.getId());
+		int[] ports = PortManager.getInstance().removeApplication(application.getId());
 		
 		// Iterate on the ports of the application.
 		String listOfPorts = "";
 		
-		for (Integer p : ports) {
+		for (int p : ports) {
 			listOfPorts += " " + p;
 		}
 		
-		if (!ports.isEmpty()) {
+		if (ports.length > 0) {
 			Log.logger().fine("Application " + application.getNameId() + " has released ports" + listOfPorts);
 		}
 		else {
 			Log.logger().fine("Application " + application.getNameId() + " has no ports to release");
 		}
 		
-		// Remove the application from the map.
-		applicationMap.remove(application.getId());
+		// Remove the application from the map and release its id only once.
+		if (applicationMap.remove(application.getId(), application)) {
+			idAllocator.release(application.getId());
+		}
 	}
 	
 	/**
@@ -326,25 +396,26 @@ public class Manager extends ConfigLoader {
 	 * @throws MaxNumberOfApplicationsReached
 	 * @throws ApplicationAlreadyExecuting
 	 */
-	public synchronized Application startApplication(String name, String[] args, ApplicationIdentity starter, int starterProxyPort, boolean starterLinked) throws UnknownApplicationException, MaxNumberOfApplicationsReached, MaxGlobalNumberOfApplicationsReached {
+	public Application startApplication(String name, String[] args, ApplicationIdentity starter, int starterProxyPort, boolean starterLinked) throws UnknownApplicationException, MaxNumberOfApplicationsReached, MaxGlobalNumberOfApplicationsReached {
 		
 		ApplicationConfig config = this.verifyApplicationExistence(name);
 		Log.logger().fine("Trying to start " + name);
 
-		// Verify if the application is already running.
-		verifyNumberOfInstances(config.getName(), config.runMaxApplications());
-
-		// Find an id, throws an exception if there is no id available.
-		int id = findId(name);
+		Application application;
 		
-		// Create the application. The proxy host endpoint is passed.
-		Application application = new RegisteredApplication(ConfigManager.getInstance().getHostEndpoint(), id, config, args, starter, starterProxyPort, starterLinked);
-		applicationMap.put(id, application);
+		// Only the verification of the instances and the id allocation are serialized.
+		synchronized (idLock) {
 		
-		// Threads.
-		// Create the lifecyle application thread.
-		LifecycleApplicationThread lifecycleThread = new LifecycleApplicationThread(application, this, Log.logger());
-		lifecycleThread.start();
+			// Verify if the application is already running.
+			verifyNumberOfInstances(config.getName(), config.runMaxApplications());
+	
+			// Find an id, throws an exception if there is no id available.
+			int id = findId(name);
+			
+			// Create the application. The proxy host endpoint is passed.
+			application = new RegisteredApplication(ConfigManager.getInstance().getHostEndpoint(), id, config, args, starter, starterProxyPort, starterLinked);
+			applicationMap.put(id, application);
+		}
 		
 		// Create the stream thread.
 		if (application.isWritingStream() || application.hasOutputStream()) {
@@ -360,17 +431,21 @@ public class Manager extends ConfigLoader {
 			application.setStreamThread(streamThread);
 		}
 		
+		// Start the lifecycle once the stream thread is set as it is started by the lifecycle.
+		lifecycleEngine.start(application);
+		
 		return application;
 	}
 
 
-	public synchronized void setApplicationStopHandler(int id, int stoppingTime) throws IdNotFoundException {
+	public void setApplicationStopHandler(int id, int stoppingTime) throws IdNotFoundException {
+		
+		Application application = applicationMap.get(id);
 		
-		if (!applicationMap.containsKey(id)) {
+		if (application == null) {
 			throw new IdNotFoundException();
 		}
 		
-		Application application = applicationMap.get(id);
 		application.setStopHandler(stoppingTime);
 	}
 
@@ -382,7 +457,7 @@ public class Manager extends ConfigLoader {
 	 * @param i 
 	 * @throws IdNotFoundException
 	 */
-	public synchronized String stopApplication(int id, boolean link) throws IdNotFoundException {
+	public String stopApplication(int id, boolean link) throws IdNotFoundException {
 		
 		Application application = applicationMap.get(id);
 		
@@ -390,13 +465,16 @@ public class Manager extends ConfigLoader {
 			
 			String name = application.getName();
 			
-			// If the process is dead, there is no thread.
-			if (application.getProcessState().equals(ProcessState.DEAD)) {
-				removeApplication(application);
-			}
-			else {
-				// The following call will have no effect if it was already called.
-				application.setHasToStop(true, false, link);
+			synchronized (application) {
+				// If the process is dead, there is no thread.
+				if (application.getProcessState().equals(ProcessState.DEAD)) {
+					removeApplication(application);
+				}
+				else {
+					// The following call will have no effect if it was already called.
+					application.setHasToStop(true, false, link);
+					lifecycleEngine.stop(application);
+				}
 			}
 			return name;
 		}
@@ -411,7 +489,7 @@ public class Manager extends ConfigLoader {
 	 * @param id
 	 * @throws IdNotFoundException
 	 */
-	public synchronized String killApplication(int id) throws IdNotFoundException {
+	public String killApplication(int id) throws IdNotFoundException {
 
 		Application application = applicationMap.get(id);
 		
@@ -419,12 +497,15 @@ public class Manager extends ConfigLoader {
 			
 			String name = application.getName();
 			
-			// If process is dead, remove the application.
-			if (application.getProcessState().equals(ProcessState.DEAD)) {
-				removeApplication(application);
-			}
-			else {
-				application.setHasToStop(true, true, false);
+			synchronized (application) {
+				// If process is dead, remove the application.
+				if (application.getProcessState().equals(ProcessState.DEAD)) {
+					removeApplication(application);
+				}
+				else {
+					application.setHasToStop(true, true, false);
+					lifecycleEngine.stop(application);
+				}
 			}
 			return name;
 		}
@@ -439,11 +520,11 @@ public class Manager extends ConfigLoader {
 	 * @param id
 	 * @throws IdNotFoundException
 	 */
-	public synchronized void killAllApplications() {
+	public void killAllApplications() {
 
 		for (Application application : applicationMap.values()) {
 		
-			if (application != null) {
+			synchronized (application) {
 				
 				// If process is dead, remove the application.
 				if (application.getProcessState().equals(ProcessState.DEAD)) {
@@ -462,7 +543,7 @@ public class Manager extends ConfigLoader {
 	 * 
 	 * @return reply with running appli
 	 */
-	public synchronized LinkedList<ApplicationInfo> getApplicationInfos() {
+	public LinkedList<ApplicationInfo> getApplicationInfos() {
 		
 		LinkedList<ApplicationInfo> list = new LinkedList<ApplicationInfo>();
 		
@@ -494,6 +575,7 @@ public class Manager extends ConfigLoader {
 												application.getLogPath(), 
 												application.getStoppingTime(), 
 												application.getStopExecutable());
+			applicationInfo.setOutputBuffer(application.getOutputBuffer() != null);
 			list.add(applicationInfo);
 		}
 		return list;
@@ -509,12 +591,12 @@ public class Manager extends ConfigLoader {
 	 * @throws UnknownApplicationException
 	 * @throws StreamNotPublishedException 
 	 */
-	public synchronized int getStreamPort(int id) throws IdNotFoundException, UnknownApplicationException, StreamNotPublishedException {
+	public int getStreamPort(int id) throws IdNotFoundException, UnknownApplicationException, StreamNotPublishedException {
 		
 		// Find the application.
-		if (applicationMap.containsKey(id)) {
-			Application application = applicationMap.get(id);
-						
+		Application application = applicationMap.get(id);
+		
+		if (application != null) {
 			Log.logger().fine("Application " + application.getNameId() + " has stream port " + application.getOutputStreamPort());
 			
 			return application.getOutputStreamPort();
@@ -576,10 +658,11 @@ public class Manager extends ConfigLoader {
 	 * @param id
 	 * @return
 	 */
-	public synchronized boolean isAlive(int id) {
+	public boolean isAlive(int id) {
+		
+		Application application = applicationMap.get(id);
 		
-		if (applicationMap.containsKey(id)) {
-			Application application = applicationMap.get(id);
+		if (application != null) {
 			int state = application.getApplicationState();
 			
 			if (state == ApplicationState.STARTING
@@ -602,10 +685,11 @@ public class Manager extends ConfigLoader {
 	 * @throws IdNotFoundException
 	 * @throws UnregisteredApplicationException 
 	 */
-	public synchronized void writeToInputStream(int id, String[] inputs) throws IdNotFoundException, UnregisteredApplicationException {
+	public void writeToInputStream(int id, String[] inputs) throws IdNotFoundException, UnregisteredApplicationException {
+		
+		Application application = applicationMap.get(id);
 		
-		if (applicationMap.containsKey(id)) {
-			Application application = applicationMap.get(id);
+		if (application != null) {
 			
 			// The process can be null in case it is an unregistered application.
 			if (application.getProcess() == null) {
@@ -613,8 +697,6 @@ public class Manager extends ConfigLoader {
 				throw new UnregisteredApplicationException();
 			}
 			
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(application.getProcess().getOutputStream()));
-			
 			// Build simple string from parameters.
 			String inputString = "";
 			for (int i = 0; i < inputs.length - 1; i++) {
@@ -622,18 +704,23 @@ public class Manager extends ConfigLoader {
 			}
 			inputString += inputs[inputs.length - 1];
 			
-			// Send the parameters string.
-			try {
-				writer.write(inputString);
-				writer.flush();
-			}
-			catch (IOException e) {
-				Log.logger().severe("Unable to write to input for application " + application.getNameId());
+			// Only the writers of the same application are serialized.
+			synchronized (application) {
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(application.getProcess().getOutputStream()));
+				
+				// Send the parameters string.
 				try {
-					writer.close();
+					writer.write(inputString);
+					writer.flush();
 				}
-				catch (IOException ec) {
-					// Do nothing.
+				catch (IOException e) {
+					Log.logger().severe("Unable to write to input for application " + application.getNameId());
+					try {
+						writer.close();
+					}
+					catch (IOException ec) {
+						// Do nothing.
+					}
 				}
 			}
 		}
@@ -642,65 +729,74 @@ public class Manager extends ConfigLoader {
 		}
 	}
 	
-	public synchronized void setApplicationState(Application application, int applicationState, int exitValue) {
+	public void setApplicationState(Application application, int applicationState, int exitValue) {
 		
-		// States are : NIL, STARTING, RUNNING, STOPPING, KILLING, PROCESSING_FAILURE, FAILURE, SUCCESS, STOPPED, KILLED.
-		// Set the status of the application
-		application.setState(applicationState);
+		// The application is locked so that the status events of an application are published in order.
+		synchronized (application) {
 		
-		// Send the status.
-		sendStatus(application.getId(), application.getName(), applicationState, application.getPastApplicationStates(), exitValue);
-				
-		// Remove the application for terminal states.
-		if (applicationState == ApplicationState.FAILURE
-			|| applicationState == ApplicationState.STOPPED
-			|| applicationState == ApplicationState.KILLED
-			|| applicationState == ApplicationState.SUCCESS) {
+			// States are : NIL, STARTING, RUNNING, STOPPING, KILLING, PROCESSING_FAILURE, FAILURE, SUCCESS, STOPPED, KILLED.
+			// Set the status of the application
+			application.setState(applicationState);
 			
-			removeApplication(application);
+			// Send the status.
+			sendStatus(application.getId(), application.getName(), applicationState, application.getPastApplicationStates(), exitValue);
+					
+			// Remove the application for terminal states.
+			if (applicationState == ApplicationState.FAILURE
+				|| applicationState == ApplicationState.STOPPED
+				|| applicationState == ApplicationState.KILLED
+				|| applicationState == ApplicationState.SUCCESS) {
+				
+				removeApplication(application);
+			}
 		}
 	}
 	
-	public synchronized void setApplicationState(Application application, int applicationState) {
+	public void setApplicationState(Application application, int applicationState) {
 		setApplicationState(application, applicationState, -1);
 	}
 
-	public synchronized void setApplicationProcessState(Application application, ProcessState processState) {
+	public void setApplicationProcessState(Application application, ProcessState processState) {
 		application.setProcessState(processState);
 	}
 			
-	public synchronized void startApplicationStreamThread(Application application) {
+	public void startApplicationStreamThread(Application application) {
 		// Process is alive.
 		application.startStreamThread();			
 	}
 
-	public synchronized void resetApplicationStreamThread(Application application) {
+	public void resetApplicationStreamThread(Application application) {
 		application.setStreamThread(null);
 	}
 
-	public synchronized boolean setApplicationStateFromClient(int id, int state) throws IdNotFoundException {
+	public boolean setApplicationStateFromClient(int id, int state) throws IdNotFoundException {
 
-		if (!applicationMap.containsKey(id)) {
+		Application application = applicationMap.get(id);
+		
+		if (application == null) {
 			throw new IdNotFoundException();
 		}
 		
-		Application application = applicationMap.get(id);
-		int currentState = application.getApplicationState();
-		
-		// States are: NIL, STARTING, RUNNING, STOPPING, KILLING, PROCESSING_FAILURE, FAILURE, SUCCESS, STOPPED, KILLED.
-		// State that can be set by the client : RUNNING
-		if (state == ApplicationState.RUNNING) {
-			// current state can only be STARTING
-			if (currentState == ApplicationState.STARTING) {
-				setApplicationState(application, state);
-				return true;
-			}
-			else if (currentState == ApplicationState.RUNNING) {
-				// Do not change the state, but it is ok.
-				return true;
-			}
-			else {
-				return false;
+		// The current state must not change before the new state is set.
+		synchronized (application) {
+		
+			int currentState = application.getApplicationState();
+			
+			// States are: NIL, STARTING, RUNNING, STOPPING, KILLING, PROCESSING_FAILURE, FAILURE, SUCCESS, STOPPED, KILLED.
+			// State that can be set by the client : RUNNING
+			if (state == ApplicationState.RUNNING) {
+				// current state can only be STARTING
+				if (currentState == ApplicationState.STARTING) {
+					setApplicationState(application, state);
+					return true;
+				}
+				else if (currentState == ApplicationState.RUNNING) {
+					// Do not change the state, but it is ok.
+					return true;
+				}
+				else {
+					return false;
+				}
 			}
 		}
 		
@@ -708,13 +804,13 @@ public class Manager extends ConfigLoader {
 	}
 	
 
-	public synchronized boolean setApplicationResult(int id, byte[] data) throws IdNotFoundException {
+	public boolean setApplicationResult(int id, byte[] data) throws IdNotFoundException {
 	
-		if (!applicationMap.containsKey(id)) {
+		Application application = applicationMap.get(id);
+		
+		if (application == null) {
 			throw new IdNotFoundException();
 		}
-		
-		Application application = applicationMap.get(id);
 
 		// Send the result that is not stored.
 		sendResult(application.getId(), application.getName(), data);
@@ -722,47 +818,55 @@ public class Manager extends ConfigLoader {
 		return true;
 	}
 	
-	public synchronized StatusInfo getApplicationState(int id) {
+	public StatusInfo getApplicationState(int id) {
 		
 		StatusInfo status = new StatusInfo();
 		status.setId(id);
 		
-		if (!applicationMap.containsKey(id)) {
+		Application application = applicationMap.get(id);
+		
+		if (application == null) {
 			status.setName("?");
 			status.setApplicationState(ApplicationState.NIL);
 			status.setPastApplicationStates(0);
 		}
 		else {
-			Application application = applicationMap.get(id);
-			status.setName(application.getName());
-			status.setApplicationState(application.getApplicationState());
-			status.setPastApplicationStates(application.getPastApplicationStates());
+			// Read the state and the past states consistently.
+			synchronized (application) {
+				status.setName(application.getName());
+				status.setApplicationState(application.getApplicationState());
+				status.setPastApplicationStates(application.getPastApplicationStates());
+			}
 		}
 		
 		return status;
 	}
 	
-	public synchronized void sendEndOfStream(Application application) {
+	public void sendEndOfStream(Application application) {
 		application.sendEndOfStream();
 	}
 
 	public int newStartedUnregisteredApplication(String name, long pid) throws MaxNumberOfApplicationsReached, MaxGlobalNumberOfApplicationsReached {
 		
-		// Verify if the application is already running.
-		verifyNumberOfInstances(name, -1);
+		int id;
+		Application application;
 		
-		// Find an id, throws an exception if there is no id available.
-		int id = findId(name);
+		synchronized (idLock) {
 		
-		// Create the application.
-		//Application application = new UnregisteredApplication(ConfigManager.getInstance().getResponderProxyHostEndpoint(), id, name, pid);
-		Application application = new UnregisteredApplication(ConfigManager.getInstance().getHostEndpoint(), id, name, pid);
-		applicationMap.put(id, application);
+			// Verify if the application is already running.
+			verifyNumberOfInstances(name, -1);
+			
+			// Find an id, throws an exception if there is no id available.
+			id = findId(name);
+			
+			// Create the application.
+			//Application application = new UnregisteredApplication(ConfigManager.getInstance().getResponderProxyHostEndpoint(), id, name, pid);
+			application = new UnregisteredApplication(ConfigManager.getInstance().getHostEndpoint(), id, name, pid);
+			applicationMap.put(id, application);
+		}
 		
-		// Threads.
-		// Create the lifecycle application thread.
-		LifecycleApplicationThread verifyThread = new LifecycleApplicationThread(application, this, Log.logger());
-		verifyThread.start();
+		// Start the lifecycle.
+		lifecycleEngine.start(application);
 		
 		Log.logger().fine("Application " + application.getNameId() + " is started");
 		
@@ -826,20 +930,44 @@ public class Manager extends ConfigLoader {
 		}
 	}
 
+	/**
+	 * Copies the recent output of the application.
+	 * @param id The application id.
+	 * @param messages The array receiving the lines.
+	 * @return The sequence number of the last line or -1 if the output is not kept.
+	 * @throws IdNotFoundException
+	 */
+	public long getOutputBacklog(int id, JSONArray messages) throws IdNotFoundException {
+		
+		Application application = applicationMap.get(id);
+		
+		if (application == null) {
+			throw new IdNotFoundException();
+		}
+		
+		OutputBuffer buffer = application.getOutputBuffer();
+		
+		if (buffer == null) {
+			return -1;
+		}
+		
+		return buffer.copy(messages);
+	}
+	
 	public boolean removeKey(int id, String key) throws IdNotFoundException {
 
 		Application application = applicationMap.get(id);
 		
 		if (application != null) {
-			String value = application.getKeyValue(key);
-			boolean removed = application.removeKey(key);
+			// Get and remove the value atomically so that the event contains the removed value.
+			String value = application.removeKey(key);
 			
-			if (removed) {
+			if (value != null) {
 				// Send the event.
 				sendRemoveKeyValue(id, application.getName(), key, value);
 			}
 			
-			return removed;
+			return (value != null);
 		}
 		else {
 			throw new IdNotFoundException();
@@ -847,13 +975,32 @@ public class Manager extends ConfigLoader {
 	}
 
 	public int requestPort(int id) throws IdNotFoundException {
+		return requestPorts(id, 1);
+	}
+	
+	/**
+	 * Requests a range of consecutive ports.
+	 * @param id The application id.
+	 * @param count The number of ports.
+	 * @return The first port of the range or -1 if no range is available.
+	 * @throws IdNotFoundException
+	 */
+	public int requestPorts(int id, int count) throws IdNotFoundException {
 		
 		Application application = applicationMap.get(id);
 		
 		if (application != null) {
-			int port = PortManager.getInstance().requestPort(application.getName(), id);
+			int port = PortManager.getInstance().requestPorts(application.getName(), id, count);
 
-			Log.logger().fine("Application " + application.getNameId() + " has port " + port);
+			if (port == -1) {
+				Log.logger().warning("Application " + application.getNameId() + " cannot have " + count + " ports");
+			}
+			else if (count == 1) {
+				Log.logger().fine("Application " + application.getNameId() + " has port " + port);
+			}
+			else {
+				Log.logger().fine("Application " + application.getNameId() + " has ports " + port + " to " + (port + count - 1));
+			}
 			
 			return port;
 		}
@@ -0,0 +1,95 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.manager;
+
+import java.util.ArrayDeque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import eu.ill.cameo.common.messages.Messages;
+
+/**
+ * Class keeping the recent output lines of an application so that a late subscriber can retrieve them.
+ * The buffer is bounded by a number of lines and a number of bytes, the oldest lines are removed first.
+ * Each line has a sequence number that is also published with the stream so that the subscriber can detect the lines it already has.
+ */
+public class OutputBuffer {
+
+	private static class Line {
+
+		private String message;
+		private boolean endOfLine;
+		private int size;
+
+		Line(String message, boolean endOfLine, int size) {
+			this.message = message;
+			this.endOfLine = endOfLine;
+			this.size = size;
+		}
+	}
+
+	private int maxLines;
+	private int maxSize;
+	private ArrayDeque<Line> lines = new ArrayDeque<Line>();
+	private long size = 0;
+	private long lastSequence = -1;
+
+	/**
+	 * Constructor.
+	 * @param maxLines The maximum number of lines or 0 for no limit.
+	 * @param maxSize The maximum number of bytes or 0 for no limit.
+	 */
+	public OutputBuffer(int maxLines, int maxSize) {
+		this.maxLines = maxLines;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Adds a line.
+	 * @param message The line.
+	 * @param endOfLine True if the line is complete.
+	 * @param size The size of the line in bytes.
+	 * @return The sequence number of the line.
+	 */
+	public synchronized long add(String message, boolean endOfLine, int size) {
+
+		lines.add(new Line(message, endOfLine, size));
+		this.size += size;
+		lastSequence++;
+
+		// Remove the oldest lines.
+		while ((maxLines > 0 && lines.size() > maxLines)
+				|| (maxSize > 0 && this.size > maxSize && lines.size() > 1)) {
+			this.size -= lines.poll().size;
+		}
+
+		return lastSequence;
+	}
+
+	/**
+	 * Copies the lines into the array.
+	 * @param messages The array receiving the lines.
+	 * @return The sequence number of the last line or -1 if there is no line.
+	 */
+	public synchronized long copy(JSONArray messages) {
+
+		for (Line line : lines) {
+			JSONObject output = new JSONObject();
+			output.put(Messages.ApplicationStream.MESSAGE, line.message);
+			output.put(Messages.ApplicationStream.EOL, line.endOfLine);
+
+			messages.add(output);
+		}
+
+		return lastSequence;
+	}
+}
@@ -10,12 +10,19 @@
 
 package eu.ill.cameo.server.manager;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 
+/**
+ * Class managing the ports reserved from the base port.
+ * The reserved ports are stored in a bitset indexed from the base port so that the first free port or range of ports is found by words of 64 ports.
+ * The ports of an application are also stored in a bitset. The methods are synchronized as they are called by the request threads.
+ */
 public final class PortManager {
 
 	private final static PortManager instance = new PortManager();
+	private final static int MAX_PORT = 65535;
 	private int basePort;
 	
 	/**
@@ -39,14 +46,24 @@ public final class PortManager {
 	}
 	
 	/**
-	 * Map of the reserved ports.
+	 * Reserved ports indexed from the base port.
+	 */
+	private BitSet reservedPorts = new BitSet();
+	
+	/**
+	 * States of the reserved ports indexed from the base port.
 	 */
-	private HashMap<Integer, State> reservedPorts = new HashMap<Integer, State>();
+	private State[] states = new State[64];
 	
 	/**
-	 * Map of the application ports.
+	 * Index of the first free port. All the ports before are reserved.
 	 */
-	private HashMap<Integer, HashSet<Integer>> applicationPorts = new HashMap<Integer, HashSet<Integer>>();
+	private int firstFreeIndex = 0;
+	
+	/**
+	 * Map of the application ports indexed from the base port.
+	 */
+	private HashMap<Integer, BitSet> applicationPorts = new HashMap<Integer, BitSet>();
 	
 	/**
 	 * Constructor.
@@ -64,62 +81,127 @@ public final class PortManager {
 	}
 	
 	/**
-	 * Set the base port.
+	 * Set the base port. It must be set before any port is reserved.
 	 * @param port the base port
 	 */
-	public void setBasePort(int port) {
+	public synchronized void setBasePort(int port) {
 		basePort = port;
 	}
 	
 	/**
-	 * Get the reserved ports.
+	 * Get a copy of the reserved ports.
 	 * @return the reserved ports.
 	 */
-	public HashMap<Integer, State> getReservedPorts() {
-		return reservedPorts;
+	public synchronized HashMap<Integer, State> getReservedPorts() {
+		
+		HashMap<Integer, State> result = new HashMap<Integer, State>();
+		
+		for (int i = reservedPorts.nextSetBit(0); i >= 0; i = reservedPorts.nextSetBit(i + 1)) {
+			result.put(basePort + i, states[i]);
+		}
+		
+		return result;
 	}
 
+	/**
+	 * Get the index of the port or -1 if it is not reserved.
+	 * @param port the port
+	 * @return the index
+	 */
+	private int getReservedIndex(int port) {
+		
+		int index = port - basePort;
+		
+		if (index < 0 || !reservedPorts.get(index)) {
+			return -1;
+		}
+		return index;
+	}
+	
 	/**
 	 * Get the application ports. Create the entry if it does not exist.
 	 * @param applicationId the application id
 	 * @return the application ports
 	 */
-	private HashSet<Integer> getApplicationPorts(int applicationId) {
+	private BitSet getApplicationPorts(int applicationId) {
+		return applicationPorts.computeIfAbsent(applicationId, id -> new BitSet());
+	}
+	
+	/**
+	 * Reserve the port at index.
+	 */
+	private void reserve(int index, String applicationName, Integer applicationId) {
 		
-		if (!applicationPorts.containsKey(applicationId)) {
-			applicationPorts.put(applicationId, new HashSet<Integer>());
+		if (index >= states.length) {
+			states = Arrays.copyOf(states, Math.max(states.length * 2, index + 1));
+		}
+		
+		reservedPorts.set(index);
+		states[index] = new State(applicationName, applicationId);
+		
+		// Add the port in the application ports if the id exists.
+		if (applicationId != null) {
+			getApplicationPorts(applicationId).set(index);
+		}
+	}
+	
+	/**
+	 * Free the port at index.
+	 */
+	private void free(int index) {
+		
+		reservedPorts.clear(index);
+		states[index] = null;
+		
+		if (index < firstFreeIndex) {
+			firstFreeIndex = index;
 		}
-		return applicationPorts.get(applicationId);
 	}
 	
 	/**
 	 * Request a non-reserved port. However the port can be unavailable because another application opened it.
 	 * @return a port
 	 */
-	public int requestPort(String applicationName, Integer applicationId) {
-
-		// Loop from the base port.
-		int port = basePort;
-		while (true) {
-			
-			// Continue to iterate if the port is already reserved.
-			if (reservedPorts.containsKey(port)) {
-				port++;
-			}
-			else {
-				// Found a port. Add it in the reserved ports and application ports.
-				reservedPorts.put(port, new State(applicationName, applicationId));
-				
-				// Add the port in the application map if the id exists.
-				if (applicationId != null) {
-					getApplicationPorts(applicationId).add(port);
+	public synchronized int requestPort(String applicationName, Integer applicationId) {
+		return requestPorts(applicationName, applicationId, 1);
+	}
+	
+	/**
+	 * Request a range of consecutive non-reserved ports. However some ports can be unavailable because another application opened them.
+	 * @param count the number of ports
+	 * @return the first port of the range or -1 if the count is not valid or if the range exceeds the last port
+	 */
+	public synchronized int requestPorts(String applicationName, Integer applicationId, int count) {
+		
+		if (count < 1) {
+			return -1;
+		}
+		
+		// Find the first range of free ports.
+		int index = reservedPorts.nextClearBit(firstFreeIndex);
+		
+		if (count > 1) {
+			while (true) {
+				int nextReserved = reservedPorts.nextSetBit(index);
+				if (nextReserved == -1 || nextReserved - index >= count) {
+					break;
 				}
-				
-				break;
+				index = reservedPorts.nextClearBit(nextReserved);
 			}
 		}
+		
+		// The range must end at the last port at most.
+		if ((long)basePort + index + count - 1 > MAX_PORT) {
+			return -1;
+		}
+		
+		for (int i = index; i < index + count; i++) {
+			reserve(i, applicationName, applicationId);
+		}
+		
+		firstFreeIndex = reservedPorts.nextClearBit(firstFreeIndex);
 				
-		return port;
+		return basePort + index;
 	}
 			
 	/**
@@ -127,16 +209,21 @@ public final class PortManager {
 	 * @param port the port to remove
 	 * @return true if removed
 	 */
-	public boolean removePort(int port) {
+	public synchronized boolean removePort(int port) {
+		
+		int index = getReservedIndex(port);
+		if (index == -1) {
+			return false;
+		}
 		
 		// Remove the port from the reserved list.
-		State state = reservedPorts.remove(port);
+		State state = states[index];
+		free(index);
 		
 		// Remove the state from application.
-		if (state != null 
-				&& state.status == Status.ASSIGNED
+		if (state.status == Status.ASSIGNED
 				&& state.applicationId != null) {
-			getApplicationPorts(state.applicationId).remove(port);
+			getApplicationPorts(state.applicationId).clear(index);
 			
 			return true;
 		}
@@ -147,37 +234,46 @@ public final class PortManager {
 	/**
 	 * Remove the ports of the application. 
 	 * @param applicationId the application id
+	 * @return the removed ports
 	 */
-	public HashSet<Integer> removeApplication(int applicationId) {
+	public synchronized int[] removeApplication(int applicationId) {
 		
-		// Remove the ports of the application.
-		HashSet<Integer> ports = getApplicationPorts(applicationId);
+		// Remove the application.
+		BitSet ports = applicationPorts.remove(applicationId);
 		
-		for (Integer port : ports) {
-			reservedPorts.remove(port);
+		if (ports == null) {
+			return new int[0];
 		}
 		
-		// Remove the application.
-		applicationPorts.remove(applicationId);
+		// Remove the ports of the application.
+		int[] result = new int[ports.cardinality()];
+		int n = 0;
 		
-		return ports;
+		for (int i = ports.nextSetBit(0); i >= 0; i = ports.nextSetBit(i + 1)) {
+			free(i);
+			result[n++] = basePort + i;
+		}
+		
+		return result;
 	}
 	
 	/**
 	 * Set the port unavailable.
 	 * @param port the port to set unavailable
 	 */
-	public void setPortUnavailable(int port) {
+	public synchronized void setPortUnavailable(int port) {
+		
+		int index = getReservedIndex(port);
 		
-		if (reservedPorts.containsKey(port)) {
-			State state = reservedPorts.get(port);
+		if (index != -1) {
+			State state = states[index];
 			
 			// Set it unavailable.
 			state.status = Status.UNAVAILABLE;
 						
 			// Remove from the application.
 			if (state.applicationId != null) {
-				getApplicationPorts(state.applicationId).remove(port);
+				getApplicationPorts(state.applicationId).clear(index);
 			}
 			
 			// Do not set the application id and name to null, so that we can memorize the application which set the port unavailable;
@@ -13,6 +13,7 @@ package eu.ill.cameo.server.manager;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import eu.ill.cameo.common.strings.ApplicationIdentity;
 import eu.ill.cameo.common.strings.ApplicationWithStarterIdentity;
@@ -39,6 +40,10 @@ public class RegisteredApplication extends Application {
 		this.setLogPath(config.getLogPath());
 		this.setOutputStream(config.hasOutputStream());
 		this.setOutputStreamPort(config.getOutputStreamPort());
+		this.setStreamBatchSize(config.getStreamBatchSize());
+		this.setStreamBatchLatency(config.getStreamBatchLatency());
+		this.setStreamBufferLines(config.getStreamBufferLines());
+		this.setStreamBufferSize(config.getStreamBufferSize());
 		this.setStoppingTime(config.getStoppingTime());
 		this.setRunMultiple(config.runSingle());
 		this.setRunMaxApplications(config.runMaxApplications());
@@ -60,6 +65,11 @@ public class RegisteredApplication extends Application {
 		// A stop executable is a stop handler.
 		this.hasStopHandler = (this.stopExecutable != null);
 		
+		// Keep the recent output if a limit is defined.
+		if (this.outputStream && (this.streamBufferLines > 0 || this.streamBufferSize > 0)) {
+			this.outputBuffer = new OutputBuffer(this.streamBufferLines, this.streamBufferSize);
+		}
+		
 		this.args = args;
 		this.starter = starter;
 		this.starterProxyPort = starterProxyPort;
@@ -89,6 +99,15 @@ public class RegisteredApplication extends Application {
 		return false;
 	}
 	
+	@Override
+	synchronized public CompletableFuture<?> onExit() {
+		// The process is null if it was impossible to launch the executable.
+		if (process != null) {
+			return process.onExit();
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
 	@Override
 	public synchronized void start() {
 		
@@ -10,12 +10,15 @@
 
 package eu.ill.cameo.server.manager;
 
+import java.util.concurrent.CompletableFuture;
+
 import eu.ill.cameo.common.strings.Endpoint;
 import eu.ill.cameo.processhandle.ProcessHandlerImpl;
 
 public class UnregisteredApplication extends Application {
 
 	private boolean alive = true;
+	private CompletableFuture<Void> terminated = new CompletableFuture<Void>();
 	
 	public UnregisteredApplication(Endpoint endpoint, int id, String name, long pid) {
 		super(endpoint, id);
@@ -41,6 +44,7 @@ public class UnregisteredApplication extends Application {
 	
 	synchronized void terminate() {
 		alive = false;
+		terminated.complete(null);
 	}
 	
 	@Override
@@ -63,6 +67,17 @@ public class UnregisteredApplication extends Application {
 		return alive;
 	}
 	
+	@Override
+	synchronized public CompletableFuture<?> onExit() {
+		
+		if (processHandle != null) {
+			return processHandle.onExit();
+		}
+		
+		// Without process handle, the application terminates when it is detached.
+		return terminated;
+	}
+	
 	@Override
 	public synchronized void start() {
 		// Should never be called.		
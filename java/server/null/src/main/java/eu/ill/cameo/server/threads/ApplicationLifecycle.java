@@ -0,0 +1,353 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.threads;
+
+import java.util.concurrent.ScheduledFuture;
+
+import eu.ill.cameo.server.manager.Application;
+import eu.ill.cameo.server.manager.ApplicationState;
+import eu.ill.cameo.server.manager.Log;
+import eu.ill.cameo.server.manager.Manager;
+import eu.ill.cameo.server.manager.ProcessState;
+
+/**
+ * Class following the execution of the application.
+ * It is a state machine driven by the start, the starting and stopping timeouts, the stop requests and the termination of the process.
+ * The transitions are synchronized on this object, the blocking calls are made outside.
+ *
+ */
+public class ApplicationLifecycle {
+
+	private enum Phase {STARTING, RUNNING, STOPPING, TERMINATED};
+
+	private Application application;
+	private Manager manager;
+	private LifecycleEngine engine;
+	private Phase phase = Phase.STARTING;
+	private boolean started = false;
+	private ScheduledFuture<?> timeout;
+	private int exitValue = 0;
+
+	/**
+	 * Constructor.
+	 * @param application
+	 * @param manager
+	 * @param engine
+	 */
+	ApplicationLifecycle(Application application, Manager manager, LifecycleEngine engine) {
+		this.application = application;
+		this.manager = manager;
+		this.engine = engine;
+	}
+
+	private void terminateStreamThread() {
+
+		// Terminate the stream thread.
+		if (application.getStreamThread() != null) {
+
+			try {
+				application.getStreamThread().waitForTermination();
+			}
+			catch (InterruptedException e) {
+			}
+		}
+
+		manager.resetApplicationStreamThread(application);
+	}
+
+	/**
+	 * Method called when the application is terminating.
+	 * @return
+	 */
+	private boolean onTermination() {
+
+		// If the application is unregistered.
+		if (!application.isRegistered()) {
+
+			// Wait for the termination.
+			application.waitFor();
+
+			// We consider that there is no error (it is not possible to know).
+			return true;
+		}
+
+		// The process can be null if it was impossible to launch the executable.
+		if (application.getProcess() == null) {
+			return false;
+		}
+
+		// Get result of the last execution.
+		try {
+			exitValue = application.getProcess().waitFor();
+
+			// An exit value different from 0 indicates the process terminated with an error.
+			// If the cameo app was killed i.e. destroyForcibly() was called (RegisteredApplication.kill() or UnregisteredApplication.kill()) the exit value is 0.
+			// Thus we do not have to filter these cases.
+			// However for a manual kill using a system call, the exit value is not 0 but we can consider as an error.
+			if (exitValue != 0) {
+				Log.logger().info("Application " + application.getNameId() + " returned error code " + exitValue);
+
+				// Execute the error callback.
+				if (application.getErrorExecutable() != null) {
+					int currentState = application.getApplicationState();
+					manager.setApplicationState(application, ApplicationState.PROCESSING_FAILURE, exitValue);
+					application.executeError(exitValue, currentState);
+				}
+				return false;
+			}
+			return true;
+		}
+		catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	private void cancelTimeout() {
+		if (timeout != null) {
+			timeout.cancel(false);
+			timeout = null;
+		}
+	}
+
+	/**
+	 * Starts the application. Called by the engine.
+	 */
+	void start() {
+
+		manager.setApplicationProcessState(application, ProcessState.RUNNING);
+		manager.setApplicationState(application, ApplicationState.STARTING);
+		application.start();
+		manager.startApplicationStreamThread(application);
+
+		synchronized (this) {
+			started = true;
+
+			int startingTime = application.getStartingTime();
+
+			// Wait starting time if starting time > 0.
+			if (startingTime > 0) {
+				Log.logger().fine("Application " + application.getNameId() + " is waiting end of starting time");
+
+				timeout = engine.schedule(this::endStarting, startingTime * 1000L);
+			}
+			else if (startingTime == 0) {
+				endStarting();
+			}
+
+			// The stop can have been requested while the process was launched.
+			if (application.hasToStop()) {
+				stop();
+			}
+		}
+
+		// Process the termination in the executor as it can block.
+		application.onExit().thenRunAsync(this::onExit, engine.getExecutor());
+	}
+
+	/**
+	 * Ends the starting phase.
+	 */
+	private synchronized void endStarting() {
+
+		if (phase != Phase.STARTING) {
+			return;
+		}
+
+		cancelTimeout();
+		phase = Phase.RUNNING;
+
+		// Application is running only if starting time >= 0.
+		// Negative values indicate that the application is responsible to send the RUNNING state.
+		// The client application can also have changed its state before the starting time expired.
+		if (application.getStartingTime() >= 0
+			&& application.getApplicationState() == ApplicationState.STARTING) {
+			manager.setApplicationState(application, ApplicationState.RUNNING);
+		}
+	}
+
+	/**
+	 * Sets the stopping states.
+	 * @return True if the application has to be killed.
+	 */
+	private boolean enterStopping() {
+
+		phase = Phase.STOPPING;
+
+		if (application.hasToStopDueToLink()) {
+			Log.logger().info("Application " + application.getNameId() + " has to stop because it is linked to its starter");
+		}
+		else {
+			Log.logger().info("Application " + application.getNameId() + " has to stop");
+		}
+
+		manager.setApplicationProcessState(application, ProcessState.ZOMBIE);
+
+		// Test if application is stopped nicely.
+		if (application.hasToBeKilled()) {
+			manager.setApplicationState(application, ApplicationState.KILLING);
+
+			Log.logger().info("Application " + application.getNameId() + " is being killed");
+
+			return true;
+		}
+
+		manager.setApplicationState(application, ApplicationState.STOPPING);
+
+		return false;
+	}
+
+	/**
+	 * Kills the application if it is still alive.
+	 */
+	private void kill() {
+
+		// If the process is dead, the termination is processed by onExit().
+		if (!application.isAlive()) {
+			return;
+		}
+
+		cancelTimeout();
+		application.kill();
+		manager.setApplicationState(application, ApplicationState.KILLED);
+		phase = Phase.TERMINATED;
+	}
+
+	/**
+	 * Stops or kills the application. Called by the engine when a stop or kill is requested.
+	 */
+	synchronized void stop() {
+
+		// The stop is processed at the end of start() if the process is not launched yet.
+		if (!started || phase == Phase.TERMINATED) {
+			return;
+		}
+
+		// A kill can be requested while the application is stopping.
+		if (phase == Phase.STOPPING) {
+			if (application.hasToBeKilled()) {
+				kill();
+			}
+			return;
+		}
+
+		if (phase == Phase.STARTING) {
+			endStarting();
+		}
+
+		if (enterStopping()) {
+			kill();
+			return;
+		}
+
+		// Execute stop if it exists.
+		application.executeStop();
+
+		int stoppingTime = application.getStoppingTime();
+
+		// In case stopping time is -1, we wait indefinitely.
+		if (stoppingTime > 0) {
+			Log.logger().info("Application " + application.getNameId() + " is expected to stop before " + stoppingTime + "s");
+
+			timeout = engine.schedule(this::endStopping, stoppingTime * 1000L);
+		}
+		else {
+			Log.logger().info("Application " + application.getNameId() + " is expected to stop");
+		}
+	}
+
+	/**
+	 * Kills the application at the end of the stopping time.
+	 */
+	private synchronized void endStopping() {
+
+		if (phase != Phase.STOPPING) {
+			return;
+		}
+
+		Log.logger().fine("Application " + application.getNameId() + " must be killed due to stop timeout");
+		kill();
+	}
+
+	/**
+	 * Processes the termination of the process.
+	 */
+	private void onExit() {
+
+		Phase exitPhase;
+
+		synchronized (this) {
+			cancelTimeout();
+
+			// If the application stopped while starting.
+			if (phase == Phase.STARTING) {
+				if (application.getStartingTime() > 0) {
+					Log.logger().fine("Application " + application.getNameId() + " stopped executing while starting time");
+				}
+				endStarting();
+			}
+
+			// The stop request can have been set but not yet processed.
+			if (phase == Phase.RUNNING && application.hasToStop()) {
+				enterStopping();
+			}
+
+			exitPhase = phase;
+			phase = Phase.TERMINATED;
+		}
+
+		// The application has been killed and its state is already set.
+		if (exitPhase == Phase.TERMINATED) {
+			terminateStreamThread();
+		}
+		// If the application has stopped.
+		else if (exitPhase == Phase.STOPPING) {
+
+			if (!onTermination()) {
+				manager.setApplicationState(application, ApplicationState.FAILURE);
+			}
+			else {
+				manager.setApplicationState(application, ApplicationState.STOPPED);
+			}
+
+			terminateStreamThread();
+		}
+		// If application died with state RUNNING.
+		// In case the application can restart.
+		else if (application.getApplicationState() == ApplicationState.RUNNING && application.isRestart()) {
+			Log.logger().fine("Application " + application.getNameId() + " died, restarting it");
+
+			onTermination();
+
+			// Only terminate the stream thread so that the application is not removed from the list.
+			terminateStreamThread();
+
+			// Launch a new lifecycle here.
+			engine.start(application);
+		}
+		else {
+			Log.logger().info("Application " + application.getNameId() + " has terminated");
+
+			if (!onTermination()) {
+				manager.setApplicationState(application, ApplicationState.FAILURE, exitValue);
+			}
+			else {
+				if (application.hasToStop()) {
+					manager.setApplicationState(application, ApplicationState.STOPPED, exitValue);
+				}
+				else {
+					manager.setApplicationState(application, ApplicationState.SUCCESS, exitValue);
+				}
+			}
+
+			terminateStreamThread();
+		}
+	}
+}
@@ -10,27 +10,86 @@
 
 package eu.ill.cameo.server.threads;
 
+import java.util.concurrent.ThreadFactory;
+
 import eu.ill.cameo.server.manager.Application;
 import eu.ill.cameo.server.manager.ConfigManager;
 
 /**
- * Base class for the application thread: LifecycleApplicationThread and StreamApplicationThread.  
+ * Base class for the application thread: StreamApplicationThread.
+ * The thread is a platform or a virtual thread depending on the configuration.
  *
  */
-public class ApplicationThread extends Thread {
+public abstract class ApplicationThread implements Runnable {
 
+	private static ThreadFactory factory = null;
+	
 	protected Application application;
+	private String name;
+	private Thread thread;
 	
-	public ApplicationThread(Application application) {
+	public ApplicationThread(Application application, String name) {
 		this.application = application;
+		this.name = name;
+	}
+	
+	private static synchronized ThreadFactory getFactory() {
+		if (factory == null) {
+			factory = ThreadFactories.create("cameo-application");
+		}
+		return factory;
+	}
+	
+	/**
+	 * Starts the thread.
+	 */
+	public void start() {
+		thread = getFactory().newThread(this);
+		thread.setName(name);
+		thread.start();
+	}
+	
+	/**
+	 * Waits for the termination of the thread.
+	 * @throws InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		if (thread != null) {
+			thread.join();
+		}
+	}
+	
+	/**
+	 * Waits for the termination of the thread at most the time.
+	 * @param millis The time in milliseconds.
+	 * @return True if the thread is terminated.
+	 * @throws InterruptedException
+	 */
+	public boolean join(long millis) throws InterruptedException {
+		if (thread != null) {
+			thread.join(millis);
+			return !thread.isAlive();
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the thread is virtual. In that case, blocking calls are preferred to polling.
+	 * @return True if the thread is virtual.
+	 */
+	boolean isVirtual() {
+		return ThreadFactories.isVirtual();
 	}
 	
 	void sleep() {
+		sleepFor(ConfigManager.getInstance().getPollingTime());
+	}
+	
+	void sleepFor(long time) {
 		try {
-			Thread.sleep(ConfigManager.getInstance().getPollingTime());
+			Thread.sleep(time);
 		}
 		catch (InterruptedException e) {
 		}
-
 	}
-}
\ No newline at end of file
+}
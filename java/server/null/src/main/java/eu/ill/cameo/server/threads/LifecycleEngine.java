@@ -0,0 +1,87 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.threads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import eu.ill.cameo.server.manager.Application;
+import eu.ill.cameo.server.manager.Manager;
+
+/**
+ * Class driving the lifecycle of all the applications.
+ * The termination of a process is notified by its onExit() future and the starting and stopping timeouts are scheduled in a shared executor.
+ * Thus no thread is polling the applications.
+ *
+ */
+public class LifecycleEngine {
+
+	private Manager manager;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 * @param manager
+	 */
+	public LifecycleEngine(Manager manager) {
+		this.manager = manager;
+
+		// The scheduler only executes short tasks, the blocking tasks are executed by the executor.
+		scheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactories.create("cameo-lifecycle-timer"));
+		executor = Executors.newCachedThreadPool(ThreadFactories.create("cameo-lifecycle"));
+	}
+
+	/**
+	 * Starts the lifecycle of the application.
+	 * @param application
+	 */
+	public void start(Application application) {
+
+		ApplicationLifecycle lifecycle = new ApplicationLifecycle(application, manager, this);
+		application.setLifecycle(lifecycle);
+
+		executor.execute(lifecycle::start);
+	}
+
+	/**
+	 * Notifies the lifecycle of the application that it has to stop.
+	 * The stop or kill request must have been set in the application before.
+	 * @param application
+	 */
+	public void stop(Application application) {
+
+		ApplicationLifecycle lifecycle = application.getLifecycle();
+
+		if (lifecycle != null) {
+			executor.execute(lifecycle::stop);
+		}
+	}
+
+	/**
+	 * Terminates the executors.
+	 */
+	public void terminate() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+		return scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	ExecutorService getExecutor() {
+		return executor;
+	}
+}
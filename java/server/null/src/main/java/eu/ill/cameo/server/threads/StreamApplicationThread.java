@@ -10,20 +10,21 @@
 
 package eu.ill.cameo.server.threads;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-
-import org.json.simple.JSONObject;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import eu.ill.cameo.com.Zmq;
+import eu.ill.cameo.common.messages.JSONWriter;
 import eu.ill.cameo.common.messages.Messages;
 import eu.ill.cameo.common.strings.StringId;
 import eu.ill.cameo.server.manager.Application;
+import eu.ill.cameo.server.manager.ConfigManager;
 import eu.ill.cameo.server.manager.Log;
 import eu.ill.cameo.server.manager.Manager;
+import eu.ill.cameo.server.manager.OutputBuffer;
 
 /**
  * Class getting the stream from the process input stream.
@@ -32,14 +33,26 @@ import eu.ill.cameo.server.manager.Manager;
  */
 public class StreamApplicationThread extends ApplicationThread {
 
-	private BufferedReader reader;
-	private char lastChar = ' ';
-	private StringBuffer characters = new StringBuffer(1024);
-	private boolean send = false;
-	private boolean eol;
+	private final static int BUFFER_SIZE = 65536;
+	private final static long MIN_SLEEP_TIME = 1;
+	private final static long END_OF_STREAM_TIMEOUT = 1000;
+	
+	private InputStream inputStream;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int pending = 0;
+	private boolean lastCarriageReturn = false;
+	private boolean utf8 = Charset.defaultCharset().equals(StandardCharsets.UTF_8);
 	private Zmq.Socket publisher;
 	private String topicId;
-	private FileOutputStream fileOutputStream;
+	private StreamLogWriter logWriter;
+	private StreamLogWriter.LogFile logFile;
+	private JSONWriter writer = new JSONWriter();
+	private JSONWriter batch = new JSONWriter();
+	private int batchLines = 0;
+	private long batchTime;
+	private long batchSequence;
+	private long idleSleepTime = MIN_SLEEP_TIME;
+	private AtomicBoolean endOfStreamSent = new AtomicBoolean(false);
 	
 	/**
 	 * Constructor. 
@@ -48,10 +61,11 @@ public class StreamApplicationThread extends ApplicationThread {
 	 * @param streamName
 	 */
 	public StreamApplicationThread(Application application, Manager manager) {
-		super(application);
+		super(application, "cameo-stream-" + application.getNameId());
 		
 		// We get the application by the name as the publisher is shared among the different instances.
 		publisher = manager.getStreamPublisher(application.getName());
+		logWriter = manager.getStreamLogWriter();
 		
 		// Memorize the string id.
 		// The topic name starts with the "stream" string rather than the application name.
@@ -59,91 +73,231 @@ public class StreamApplicationThread extends ApplicationThread {
 		topicId = StringId.from(Messages.Event.STREAM, application.getName());
 	}
 	
-	private void sendMessage(String line, boolean endOfLine) {
+	private void sendMessage(byte[] data, int offset, int length, boolean endOfLine) {
 		
-		// Prepare the file if the log is written.
-		if (application.isWritingStream()) {
-			if (fileOutputStream == null) { 
-				// Create the log file if it has not been created.
-				createFile(application.getLogPath());
+		// Queue the line if the log is written.
+		if (logFile != null) {
+			logFile.write(data, offset, length, endOfLine);
+		}
+
+		// Do not send lines after the end of stream.
+		if (application.hasOutputStream() && !endOfStreamSent.get()) {
+			
+			String line = new String(data, offset, length);
+			
+			// Keep the line if the recent output is kept.
+			long sequence = -1;
+			OutputBuffer buffer = application.getOutputBuffer();
+			if (buffer != null) {
+				sequence = buffer.add(line, endOfLine, length);
 			}
-			try {
-				if (fileOutputStream != null) {
-					fileOutputStream.write(line.getBytes());
+			
+			// Add the line to the batch if batches are configured.
+			if (application.getStreamBatchSize() > 1) {
+				
+				// Start the message with the first line as the sequence of the batch is the sequence of the first line.
+				if (batchLines == 0) {
+					batchTime = System.currentTimeMillis();
+					batchSequence = sequence;
+					
+					batch.reset().beginObject();
+					batch.field(Messages.TYPE, Messages.STREAM_BATCH);
+					batch.field(Messages.ApplicationStream.ID, application.getId());
 					
-					// Finish the line.
-					if (endOfLine) {
-						fileOutputStream.write("\n".getBytes());
+					if (batchSequence != -1) {
+						batch.field(Messages.ApplicationStream.SEQUENCE, batchSequence);
 					}
+					
+					batch.key(Messages.ApplicationStream.MESSAGES).beginArray();
 				}
+				
+				batch.beginObject();
+				batch.field(Messages.ApplicationStream.MESSAGE, line);
+				batch.field(Messages.ApplicationStream.EOL, endOfLine);
+				batch.endObject();
+				batchLines++;
+				
+				if (batchLines >= application.getStreamBatchSize()) {
+					sendBatch();
+				}
+				return;
 			}
-			catch (IOException e) {
-				Log.logger().severe("Application " + application.getNameId() + " cannot write stream to file: " + e.getMessage());
-			}
-		}
-
-		if (application.hasOutputStream()) {
+			
 			// Send the stream.
-			JSONObject event = new JSONObject();
-			event.put(Messages.TYPE, Messages.STREAM);
-			event.put(Messages.ApplicationStream.ID, application.getId());
-			event.put(Messages.ApplicationStream.MESSAGE, line);
-			event.put(Messages.ApplicationStream.EOL, endOfLine);
+			writer.reset().beginObject();
+			writer.field(Messages.TYPE, Messages.STREAM);
+			writer.field(Messages.ApplicationStream.ID, application.getId());
+			writer.field(Messages.ApplicationStream.MESSAGE, line);
+			writer.field(Messages.ApplicationStream.EOL, endOfLine);
+			
+			if (sequence != -1) {
+				writer.field(Messages.ApplicationStream.SEQUENCE, sequence);
+			}
+			
+			writer.endObject();
 			
 			// Synchronize the publisher as it can be accessed from another thread.
-			Manager.publishSynchronized(publisher, topicId, Messages.serialize(event));
+			Manager.publishSynchronized(publisher, topicId, writer.toByteArray());
 		}
 	}
 	
 	/**
-	 * Reads characters from the buffered reader.
+	 * Sends the lines of the batch in a single message.
+	 */
+	private void sendBatch() {
+		
+		if (batchLines == 0) {
+			return;
+		}
+		
+		batch.endArray().endObject();
+		
+		// Synchronize the publisher as it can be accessed from another thread.
+		Manager.publishSynchronized(publisher, topicId, batch.toByteArray());
+		
+		batchLines = 0;
+	}
+	
+	/**
+	 * Sends the batch if its latency is reached.
+	 */
+	private void sendExpiredBatch() {
+		
+		if (batchLines > 0 
+			&& System.currentTimeMillis() - batchTime >= application.getStreamBatchLatency()) {
+			sendBatch();
+		}
+	}
+	
+	/**
+	 * Gets the time to sleep when no byte is available. 
+	 * The time is short after bytes were read as more bytes are likely to come and doubles up to the polling time. 
+	 * @return The time or less if a batch is waiting.
+	 */
+	private long getSleepTime() {
+		
+		long time = idleSleepTime;
+		idleSleepTime = Math.min(idleSleepTime * 2, ConfigManager.getInstance().getPollingTime());
+		
+		if (batchLines > 0) {
+			long remainingTime = application.getStreamBatchLatency() - (System.currentTimeMillis() - batchTime);
+			time = Math.max(0, Math.min(time, remainingTime));
+		}
+		
+		return time;
+	}
+	
+	/**
+	 * Returns the number of bytes at the end of the pending bytes that start a character not yet complete.
+	 * It is only computed for UTF-8 as it is the only multi-byte encoding expected.
+	 * @return The number of bytes.
+	 */
+	private int incompleteCharacterLength() {
+		
+		if (!utf8) {
+			return 0;
+		}
+		
+		// Look for the lead byte of the last character.
+		for (int i = pending - 1, n = 1; i >= 0 && n <= 3; --i, ++n) {
+			int b = buffer[i] & 0xFF;
+			
+			// Continuation byte.
+			if ((b & 0xC0) == 0x80) {
+				continue;
+			}
+			
+			int expected = (b >= 0xF0) ? 4 : (b >= 0xE0) ? 3 : (b >= 0xC0) ? 2 : 1;
+			
+			return (expected > n) ? n : 0;
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Sends the pending bytes as a partial line i.e. without end of line.
+	 * @param all True if the incomplete character at the end must also be sent.
+	 */
+	private void sendPartialLine(boolean all) {
+		
+		int length = pending;
+		if (!all) {
+			length -= incompleteCharacterLength();
+		}
+		
+		if (length == 0) {
+			return;
+		}
+		
+		sendMessage(buffer, 0, length, false);
+		
+		pending -= length;
+		System.arraycopy(buffer, length, buffer, 0, pending);
+	}
+	
+	/**
+	 * Reads a chunk of bytes from the input stream and sends all the lines it contains.
 	 * We implement our read method since the reader.readLine() is not able to manage the sequences when an input is requested.
-	 * The implementation takes more CPU than with the reader.readLine() call.
-	 * @return
+	 * A line is considered to be terminated by any one of a line feed ('\n') [1], a carriage return ('\r') [2], a carriage return followed immediately by a line feed [3].
+	 * The remaining bytes are sent as a partial line if no more bytes are available, so that an input request is visible.
+	 * @return False if the end of the stream is reached.
+	 * @throws IOException
 	 */
-	private void readCharacters() {
-
-		// A line is considered to be terminated by any one of a line feed ('\n') [1], a carriage return ('\r') [2], a carriage return followed immediately by a line feed [3].
+	private boolean readBytes() throws IOException {
+		
+		int length = inputStream.read(buffer, pending, buffer.length - pending);
+		if (length == -1) {
+			return false;
+		}
 		
-		characters.setLength(0);
-		send = false;
-		eol = false;
-		// Do not reset lastChar because it is used for case [3].
+		int end = pending + length;
+		int lineStart = 0;
 		
-		try {
-			while (reader.ready()) {
+		// Start after the pending bytes that do not contain any end of line.
+		for (int i = pending; i < end; ++i) {
+			
+			byte b = buffer[i];
+			
+			if (b == '\n' || b == '\r') {
 				
-				int c = reader.read();
-				if (c == -1) {
-					return;
+				if (b == '\n' && lastCarriageReturn) {
+					// Case [3], the line has already been finished by '\r'.
+					lastCarriageReturn = false;
+					lineStart = i + 1;
+					continue;
 				}
-				else {
-					// Converting back to char (in fact the implementation of reader.read() in the current JRE converts a char to int).
-					// TODO Is it always true? Use Character.toChars​(int) ?
-					char cc = (char)c;
 
-					if (lastChar == '\r' && cc == '\n') {
-						// Case [3], the line has already been finished by '\r'
-						lastChar = ' ';
-						return;
-					}
-					
-					lastChar = cc;
-					
-					if (cc == '\n' || cc == '\r') {
-						// Cases [1] and [2].
-						send = true;
-						eol = true;
-						return;
-					}
-														
-					characters.append(cc);
-					send = true;
-				}
+				// Cases [1] and [2].
+				sendMessage(buffer, lineStart, i - lineStart, true);
+				
+				lastCarriageReturn = (b == '\r');
+				lineStart = i + 1;
+			}
+			else {
+				lastCarriageReturn = false;
 			}
 		}
-		catch (IOException e) {
-			Log.logger().severe("Application " + application.getNameId() + " cannot read stream: " + e.getMessage());
+		
+		// Move the beginning of the next line at the beginning of the buffer.
+		pending = end - lineStart;
+		System.arraycopy(buffer, lineStart, buffer, 0, pending);
+		
+		// Send the partial line if no more bytes are available or if the buffer is full.
+		if (pending > 0 
+			&& (pending == buffer.length || inputStream.available() == 0)) {
+			sendPartialLine(false);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Queues the lines written in the log file.
+	 */
+	private void flushLog() {
+		if (logFile != null) {
+			logFile.flush();
 		}
 	}
 	
@@ -156,14 +310,11 @@ public class StreamApplicationThread extends ApplicationThread {
 		}
 		
 		// The process is now accessible and cannot be null.
-		InputStreamReader is = new InputStreamReader(application.getProcess().getInputStream());
-		reader = new BufferedReader(is);
+		inputStream = application.getProcess().getInputStream();
 				
-		if (application.isWritingStream()) {
-			createFile(application.getLogPath());
-			if (fileOutputStream == null) {
-				return;
-			}
+		// Do not write the log if the path is empty.
+		if (application.isWritingStream() && !application.getLogPath().isEmpty()) {
+			logFile = logWriter.open(application.getLogPath(), application.getNameId());
 		}
 		
 		Log.logger().fine("Application " + application.getNameId() + " started listening stream");
@@ -172,25 +323,36 @@ public class StreamApplicationThread extends ApplicationThread {
 			try {
 				while (application.isAlive() && (application.isWritingStream() || application.hasOutputStream())) {
 					
-					// Polling because the standard Java API does not allow to do it differently. 
-					// Indeed when the process is killed, it is impossible to unblock the reader.readLine() call (and any other underlying calls). 
-					if (reader.ready()) {
-						readCharacters();
-						if (send) {
-							sendMessage(characters.toString(), eol);
+					// A virtual thread blocks on read() until the end of the stream as a blocked virtual thread is cheap.
+					// If a detached child process keeps the output open, the end of stream is sent by waitForTermination() instead.
+					// The polling is kept while a batch is waiting so that it is sent after its latency.
+					if (isVirtual() && batchLines == 0) {
+						if (!readBytes()) {
+							break;
 						}
+						flushLog();
+						idleSleepTime = MIN_SLEEP_TIME;
+					}
+					// Polling because the standard Java API does not allow to do it differently. 
+					// Indeed when the process is killed, it is impossible to unblock the read() call (and any other underlying calls).
+					// However the bytes are read by chunks as long as they are available. 
+					else if (inputStream.available() > 0) {
+						readBytes();
+						flushLog();
+						idleSleepTime = MIN_SLEEP_TIME;
 					}							
 					else {
-						sleep();
+						sleepFor(getSleepTime());
 					}
+					
+					sendExpiredBatch();
 				}
 				
-				while (reader.ready()) {
-					readCharacters();
-					if (send) {
-						sendMessage(characters.toString(), eol);
-					}
+				// Read the remaining bytes.
+				while (inputStream.available() > 0 && readBytes()) {
 				}
+				
+				sendPartialLine(true);
 			}
 			catch (IOException e) {
 				Log.logger().severe("Application " + application.getNameId() + " has stream reader error");
@@ -198,60 +360,53 @@ public class StreamApplicationThread extends ApplicationThread {
 		}
 		finally {
 
-			sendEndOfStream();
-			
-			// Close the file properly.
-			try {
-				if (fileOutputStream != null) {
-					fileOutputStream.flush();
-					fileOutputStream.close();
-					fileOutputStream = null;
-				}
-			}
-			catch (IOException e) {
-				Log.logger().severe("Application " + application.getNameId() + " cannot close log file: " + e.getMessage());
+			// Send the remaining lines before the end of stream if it was not already sent by waitForTermination().
+			if (!endOfStreamSent.get()) {
+				sendBatch();
+				sendEndOfStream();
 			}
 			
+			// Close the file once the remaining lines are written.
+			if (logFile != null) {
+				logFile.close();
+				logFile = null;
+			}
 		}
 		
 		Log.logger().fine("Application " + application.getNameId() + " finished listening stream");
 	}
 
-	public void sendEndOfStream() {
-		// Send the end of stream.
-		// The message was originally done in manager when the application was terminated but not the stream thread because they are not synchronized.
-		if (application.hasOutputStream()) {
-			// Send the stream.
-			JSONObject event = new JSONObject();
-			event.put(Messages.TYPE, Messages.STREAM_END);
-			event.put(Messages.ApplicationStream.ID, application.getId());
-
-			// Synchronize the publisher as it can be accessed from another thread.
-			Manager.publishSynchronized(publisher, topicId, Messages.serialize(event));
-		}
-	}
-	
 	/**
-	 * Create the log file.
-	 * @param path
+	 * Waits for the termination of the thread once the process is terminated.
+	 * A virtual thread blocked on read() cannot be unblocked and stays blocked as long as a detached child process keeps the output open.
+	 * In that case, the end of stream is sent after a timeout and the thread is left until the output is closed.
+	 * @throws InterruptedException
 	 */
-	private void createFile(String path) {
+	public void waitForTermination() throws InterruptedException {
 		
-		// Do not create if the path is empty.
-		if (path.isEmpty()) {
+		if (!isVirtual()) {
+			join();
 			return;
 		}
 		
-		File file = null;
-		
-		// Create the file.
-		try {
-			file = new java.io.File(path + "/" + application.getNameId() + ".log");
-			file.createNewFile();
-			fileOutputStream = new FileOutputStream(file);
+		if (!join(END_OF_STREAM_TIMEOUT)) {
+			Log.logger().warning("Application " + application.getNameId() + " has its output kept open by another process, sending end of stream");
+			sendEndOfStream();
 		}
-		catch (IOException e) {
-			Log.logger().severe("Application " + application.getNameId() + " cannot create file " + file.getAbsolutePath() + ": " + e.getMessage());
+	}
+	
+	public void sendEndOfStream() {
+		// Send the end of stream only once.
+		// The message was originally done in manager when the application was terminated but not the stream thread because they are not synchronized.
+		if (application.hasOutputStream() && endOfStreamSent.compareAndSet(false, true)) {
+			// Send the stream.
+			JSONWriter event = new JSONWriter(32).beginObject();
+			event.field(Messages.TYPE, Messages.STREAM_END);
+			event.field(Messages.ApplicationStream.ID, application.getId());
+			event.endObject();
+
+			// Synchronize the publisher as it can be accessed from another thread.
+			Manager.publishSynchronized(publisher, topicId, event.toByteArray());
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,499 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.threads;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import eu.ill.cameo.server.manager.ConfigManager;
+import eu.ill.cameo.server.manager.Log;
+
+/**
+ * Class writing the stream log files of the applications in a dedicated thread.
+ * The lines are gathered into blocks by the stream threads and the blocks are queued in a queue bounded in memory.
+ * They are written by batches into buffered files so that a slow disk does not stall the stream threads.
+ * When the queue is full, the stream thread is blocked or the block is dropped depending on the configuration.
+ * The files are rotated when they reach a size or an age and the rotated files can be compressed.
+ * The numbering of the rotated files continues after the files already present so that the files of a previous application with the same name id are not overwritten.
+ */
+public class StreamLogWriter extends Thread {
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final int BLOCK_SIZE = 65536;
+	private static final int MAX_BATCH = 1024;
+	private static final long TERMINATE_TIMEOUT = 1000;
+
+	/**
+	 * Class representing a log file.
+	 * The methods are called by the stream thread, the file itself is only accessed by the writer thread.
+	 */
+	public class LogFile {
+
+		private File file;
+		private String nameId;
+		private OutputStream stream;
+		private boolean failed = false;
+		private long size = 0;
+		private long openTime;
+		private int rotations = 0;
+		private AtomicLong writtenLines = new AtomicLong(0);
+		private AtomicLong droppedLines = new AtomicLong(0);
+		private byte[] block = new byte[BLOCK_SIZE];
+		private int blockLength = 0;
+		private int blockLines = 0;
+
+		LogFile(File file, String nameId) {
+			this.file = file;
+			this.nameId = nameId;
+		}
+
+		/**
+		 * Adds a line to the current block. The block is queued when it is full.
+		 * @param data The bytes.
+		 * @param offset The offset of the line.
+		 * @param length The length of the line.
+		 * @param endOfLine True if a new line character has to be added.
+		 */
+		public void write(byte[] data, int offset, int length, boolean endOfLine) {
+
+			int size = (endOfLine ? length + 1 : length);
+
+			if (blockLength + size > BLOCK_SIZE) {
+				flush();
+			}
+
+			// Queue the line alone if it does not fit in a block.
+			if (size > BLOCK_SIZE) {
+				byte[] line = new byte[size];
+				System.arraycopy(data, offset, line, 0, length);
+				if (endOfLine) {
+					line[length] = '\n';
+				}
+
+				queue(new Entry(this, line, size, 1), dropOnOverflow);
+				return;
+			}
+
+			// Copy the line and the new line character so that they are written at once.
+			System.arraycopy(data, offset, block, blockLength, length);
+			blockLength += length;
+
+			if (endOfLine) {
+				block[blockLength] = '\n';
+				blockLength++;
+			}
+
+			blockLines++;
+		}
+
+		/**
+		 * Queues the current block.
+		 */
+		public void flush() {
+
+			if (blockLength == 0) {
+				return;
+			}
+
+			// A full block is handed over, otherwise only its content is copied so that the short flushes do not allocate a whole block.
+			if (blockLength > BLOCK_SIZE / 2) {
+				queue(new Entry(this, block, blockLength, blockLines), dropOnOverflow);
+				block = new byte[BLOCK_SIZE];
+			}
+			else {
+				queue(new Entry(this, Arrays.copyOf(block, blockLength), blockLength, blockLines), dropOnOverflow);
+			}
+
+			blockLength = 0;
+			blockLines = 0;
+		}
+
+		/**
+		 * Queues the closing of the file. The remaining lines are written before.
+		 */
+		public void close() {
+			flush();
+			queue(new Entry(this, null, 0, 0), false);
+		}
+
+		/**
+		 * Gets the number of lines written.
+		 * @return The number of lines.
+		 */
+		public long getWrittenLines() {
+			return writtenLines.get();
+		}
+
+		/**
+		 * Gets the number of lines dropped because the queue was full.
+		 * @return The number of lines.
+		 */
+		public long getDroppedLines() {
+			return droppedLines.get();
+		}
+	}
+
+	private static class Entry {
+
+		private LogFile logFile;
+		private byte[] data;
+		private int length;
+		private int lines;
+
+		Entry(LogFile logFile, byte[] data, int length, int lines) {
+			this.logFile = logFile;
+			this.data = data;
+			this.length = length;
+			this.lines = lines;
+		}
+	}
+
+	private BlockingQueue<Entry> queue;
+	private boolean dropOnOverflow;
+	private long rotationSize;
+	private long rotationTime;
+	private int rotationFiles;
+	private ExecutorService compressor;
+
+	/**
+	 * Constructor.
+	 */
+	public StreamLogWriter() {
+		super("cameo-stream-log");
+		setDaemon(true);
+
+		ConfigManager config = ConfigManager.getInstance();
+
+		// The size of the queue is defined in megabytes.
+		queue = new ArrayBlockingQueue<Entry>(Math.max(1, config.getLogQueueSize() * 1024 * 1024 / BLOCK_SIZE));
+		dropOnOverflow = config.isLogDropOnOverflow();
+		rotationSize = config.getLogRotationSize() * 1024L * 1024L;
+		rotationTime = config.getLogRotationTime() * 1000L;
+		rotationFiles = config.getLogRotationFiles();
+
+		if (config.isLogCompression()) {
+			compressor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "cameo-stream-log-compression");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Opens a log file. It is created by the writer thread.
+	 * @param directory The directory.
+	 * @param nameId The name id of the application.
+	 * @return The log file.
+	 */
+	public LogFile open(String directory, String nameId) {
+
+		LogFile logFile = new LogFile(new File(directory, nameId + ".log"), nameId);
+
+		// Queue an empty line so that the file is created even if the application does not print anything.
+		queue(new Entry(logFile, new byte[0], 0, 0), false);
+
+		return logFile;
+	}
+
+	private void queue(Entry entry, boolean drop) {
+
+		if (drop) {
+			if (!queue.offer(entry)) {
+				entry.logFile.droppedLines.addAndGet(entry.lines);
+			}
+			return;
+		}
+
+		try {
+			queue.put(entry);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void createFile(LogFile logFile, boolean append) {
+
+		try {
+			logFile.stream = new BufferedOutputStream(new FileOutputStream(logFile.file, append), BUFFER_SIZE);
+			logFile.size = 0;
+			logFile.openTime = System.currentTimeMillis();
+		}
+		catch (IOException e) {
+			logFile.failed = true;
+			Log.logger().severe("Application " + logFile.nameId + " cannot create file " + logFile.file.getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+
+	private boolean hasToRotate(LogFile logFile, int length) {
+
+		if (logFile.size == 0) {
+			return false;
+		}
+
+		return (rotationSize > 0 && logFile.size + length > rotationSize)
+			|| (rotationTime > 0 && System.currentTimeMillis() - logFile.openTime >= rotationTime);
+	}
+
+	private File getRotatedFile(LogFile logFile, int index) {
+		return new File(logFile.file.getPath() + "." + index);
+	}
+
+	private static int getRotationIndex(String name, String prefix) {
+
+		if (!name.startsWith(prefix)) {
+			return -1;
+		}
+
+		String index = name.substring(prefix.length());
+		if (index.endsWith(".gz")) {
+			index = index.substring(0, index.length() - 3);
+		}
+
+		try {
+			return Integer.parseInt(index);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void deleteRotatedFile(File file) {
+
+		// The file is compressed or not depending on the configuration when it was rotated and on the completion of its compression.
+		Runnable deletion = () -> {
+			file.delete();
+			new File(file.getPath() + ".gz").delete();
+		};
+
+		// The deletion follows the compression of the file.
+		if (compressor != null) {
+			compressor.execute(deletion);
+		}
+		else {
+			deletion.run();
+		}
+	}
+
+	private void scanRotatedFiles(LogFile logFile) {
+
+		File directory = logFile.file.getAbsoluteFile().getParentFile();
+		String[] names = (directory != null ? directory.list() : null);
+		if (names == null) {
+			return;
+		}
+
+		String prefix = logFile.file.getName() + ".";
+		ArrayList<Integer> indexes = new ArrayList<Integer>();
+
+		for (String name : names) {
+			int index = getRotationIndex(name, prefix);
+			if (index > 0) {
+				indexes.add(index);
+				logFile.rotations = Math.max(logFile.rotations, index);
+			}
+		}
+
+		// Remove the files that are out of the retention.
+		if (rotationFiles > 0) {
+			for (int index : indexes) {
+				if (index <= logFile.rotations - rotationFiles) {
+					deleteRotatedFile(getRotatedFile(logFile, index));
+				}
+			}
+		}
+	}
+
+	private void rotate(LogFile logFile) throws IOException {
+
+		logFile.stream.close();
+		logFile.stream = null;
+
+		File rotatedFile = getRotatedFile(logFile, logFile.rotations + 1);
+		
+		try {
+			Files.move(logFile.file.toPath(), rotatedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException e) {
+			Log.logger().severe("Application " + logFile.nameId + " cannot rotate file " + logFile.file.getAbsolutePath() + ": " + e.getMessage());
+			
+			// Continue writing at the end of the file. The rotation is tried again when the file has grown by the rotation size or age.
+			createFile(logFile, true);
+			return;
+		}
+		
+		logFile.rotations++;
+
+		if (compressor != null) {
+			compressor.execute(() -> compress(rotatedFile));
+		}
+
+		// Remove the oldest rotated file.
+		if (rotationFiles > 0 && logFile.rotations > rotationFiles) {
+			deleteRotatedFile(getRotatedFile(logFile, logFile.rotations - rotationFiles));
+		}
+
+		createFile(logFile, false);
+	}
+
+	private static void compress(File file) {
+
+		File compressedFile = new File(file.getPath() + ".gz");
+
+		try (InputStream input = new FileInputStream(file);
+			OutputStream output = new GZIPOutputStream(new FileOutputStream(compressedFile), BUFFER_SIZE)) {
+			input.transferTo(output);
+		}
+		catch (IOException e) {
+			Log.logger().severe("Cannot compress log file " + file.getAbsolutePath() + ": " + e.getMessage());
+			return;
+		}
+
+		file.delete();
+	}
+
+	private void write(LogFile logFile, Entry entry) throws IOException {
+
+		if (logFile.stream == null) {
+			if (logFile.failed) {
+				return;
+			}
+
+			scanRotatedFiles(logFile);
+			createFile(logFile, false);
+			if (logFile.stream == null) {
+				return;
+			}
+		}
+
+		if (entry.length == 0) {
+			return;
+		}
+
+		if (hasToRotate(logFile, entry.length)) {
+			rotate(logFile);
+			if (logFile.stream == null) {
+				return;
+			}
+		}
+
+		logFile.stream.write(entry.data, 0, entry.length);
+		logFile.size += entry.length;
+		logFile.writtenLines.addAndGet(entry.lines);
+	}
+
+	private void close(LogFile logFile) throws IOException {
+
+		if (logFile.stream != null) {
+			logFile.stream.close();
+			logFile.stream = null;
+		}
+
+		// Do not write anymore in the file.
+		logFile.failed = true;
+
+		if (logFile.droppedLines.get() > 0) {
+			Log.logger().warning("Application " + logFile.nameId + " dropped " + logFile.droppedLines.get() + " lines of its log file");
+		}
+	}
+
+	public void run() {
+
+		ArrayList<Entry> entries = new ArrayList<Entry>(MAX_BATCH);
+		LinkedHashSet<LogFile> writtenFiles = new LinkedHashSet<LogFile>();
+		boolean running = true;
+
+		try {
+			while (running) {
+				// Wait for the first entry and take the others that are available.
+				entries.add(queue.take());
+				queue.drainTo(entries, MAX_BATCH - 1);
+
+				for (Entry entry : entries) {
+					LogFile logFile = entry.logFile;
+
+					// The writer is terminating.
+					if (logFile == null) {
+						running = false;
+						continue;
+					}
+
+					try {
+						if (entry.data == null) {
+							writtenFiles.remove(logFile);
+							close(logFile);
+						}
+						else {
+							write(logFile, entry);
+							writtenFiles.add(logFile);
+						}
+					}
+					catch (IOException e) {
+						Log.logger().severe("Application " + logFile.nameId + " cannot write stream to file: " + e.getMessage());
+					}
+				}
+
+				entries.clear();
+
+				// Flush the files once per batch.
+				for (LogFile logFile : writtenFiles) {
+					try {
+						if (logFile.stream != null) {
+							logFile.stream.flush();
+						}
+					}
+					catch (IOException e) {
+						Log.logger().severe("Application " + logFile.nameId + " cannot write stream to file: " + e.getMessage());
+					}
+				}
+
+				writtenFiles.clear();
+			}
+		}
+		catch (InterruptedException e) {
+			// The server is terminating.
+		}
+	}
+
+	/**
+	 * Terminates the thread after the lines already queued are written.
+	 */
+	public void terminate() {
+		queue(new Entry(null, null, 0, 0), false);
+
+		try {
+			join(TERMINATE_TIMEOUT);
+		}
+		catch (InterruptedException e) {
+		}
+
+		if (compressor != null) {
+			compressor.shutdown();
+		}
+	}
+}
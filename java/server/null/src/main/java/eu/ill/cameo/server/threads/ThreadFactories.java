@@ -0,0 +1,98 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.server.threads;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.ill.cameo.server.manager.ConfigManager;
+import eu.ill.cameo.server.manager.Log;
+
+/**
+ * Class creating the threads of the applications.
+ * Virtual threads are created if they are enabled in the configuration and if they are provided by the Java runtime (Java 21+).
+ * As the server is compiled for older versions, they are accessed by reflection.
+ */
+public class ThreadFactories {
+
+	private static Object virtualBuilder = null;
+	private static Method builderName = null;
+	private static Method builderFactory = null;
+	private static boolean initialized = false;
+
+	private static synchronized boolean initVirtualThreads() {
+
+		if (initialized) {
+			return (virtualBuilder != null);
+		}
+
+		initialized = true;
+
+		if (!ConfigManager.getInstance().hasVirtualThreads()) {
+			return false;
+		}
+
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builderName = builderClass.getMethod("name", String.class, long.class);
+			builderFactory = builderClass.getMethod("factory");
+
+			Log.logger().info("Applications use virtual threads");
+		}
+		catch (ReflectiveOperationException e) {
+			virtualBuilder = null;
+			Log.logger().warning("Virtual threads are not available with Java " + System.getProperty("java.version") + ", applications use platform threads");
+		}
+
+		return (virtualBuilder != null);
+	}
+
+	/**
+	 * Returns true if the threads are virtual.
+	 * @return True if the threads are virtual.
+	 */
+	public static boolean isVirtual() {
+		return initVirtualThreads();
+	}
+
+	/**
+	 * Creates a thread factory. The platform threads are daemon threads.
+	 * @param name The prefix of the thread names.
+	 * @return The factory.
+	 */
+	public static ThreadFactory create(String name) {
+
+		if (initVirtualThreads()) {
+			try {
+				synchronized (ThreadFactories.class) {
+					// The builder is not thread-safe.
+					return (ThreadFactory)builderFactory.invoke(builderName.invoke(virtualBuilder, name + "-", 1L));
+				}
+			}
+			catch (ReflectiveOperationException e) {
+				Log.logger().warning("Cannot create virtual thread factory: " + e.getMessage());
+			}
+		}
+
+		AtomicInteger counter = new AtomicInteger(0);
+
+		return new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
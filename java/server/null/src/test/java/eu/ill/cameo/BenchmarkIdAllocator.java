@@ -0,0 +1,118 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import eu.ill.cameo.server.manager.IdAllocator;
+
+/**
+ * Microbenchmark comparing the id allocator to the previous linear search in the map of applications.
+ * A fixed number of ids is used and a random one is released before each allocation so that the free ids are spread in the id space.
+ * It is not run by the tests, run it with its main method.
+ */
+public class BenchmarkIdAllocator {
+
+	private static final int MAX_ID = 65536;
+
+	private static class LinearSearch {
+
+		private HashMap<Integer, Object> map = new HashMap<Integer, Object>();
+		private int maxId = 0;
+
+		private int findFreeId(int begin, int end) {
+			for (int i = begin; i < end; i++) {
+				if (!map.containsKey(i)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		int allocate() {
+			int id = findFreeId(maxId + 1, MAX_ID + 1);
+			if (id == -1) {
+				id = findFreeId(1, maxId + 1);
+			}
+			if (id != -1) {
+				maxId = id;
+				map.put(id, this);
+			}
+			return id;
+		}
+
+		void release(int id) {
+			map.remove(id);
+		}
+	}
+
+	private static long runLinearSearch(int used, int iterations) {
+
+		LinearSearch allocator = new LinearSearch();
+		Random random = new Random(0);
+		int[] ids = new int[used];
+
+		for (int i = 0; i < used; i++) {
+			ids[i] = allocator.allocate();
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			int index = random.nextInt(used);
+			allocator.release(ids[index]);
+			ids[index] = allocator.allocate();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static long runIdAllocator(int used, int iterations) {
+
+		IdAllocator allocator = new IdAllocator(MAX_ID);
+		Random random = new Random(0);
+		int[] ids = new int[used];
+
+		for (int i = 0; i < used; i++) {
+			ids[i] = allocator.allocate();
+		}
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			int index = random.nextInt(used);
+			allocator.release(ids[index]);
+			ids[index] = allocator.allocate();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	public static void main(String[] args) {
+
+		int iterations = 20000;
+
+		for (int used : new int[] {100, 32768, 65000, 65535}) {
+
+			// Warm up.
+			runLinearSearch(used, iterations);
+			runIdAllocator(used, iterations);
+
+			long linearTime = runLinearSearch(used, iterations);
+			long allocatorTime = runIdAllocator(used, iterations);
+
+			System.out.println("used ids " + used
+					+ ": linear search " + (linearTime / iterations) + " ns/allocation"
+					+ ", id allocator " + (allocatorTime / iterations) + " ns/allocation");
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eu.ill.cameo.server.manager.IdAllocator;
+
+public class TestIdAllocator {
+
+	@Test
+	public void testAllocate() {
+
+		IdAllocator allocator = new IdAllocator(5);
+
+		assertEquals(1, allocator.allocate());
+		assertEquals(2, allocator.allocate());
+		assertEquals(3, allocator.allocate());
+		assertEquals(3, allocator.size());
+		assertTrue(allocator.isAllocated(2));
+		assertFalse(allocator.isAllocated(4));
+		assertFalse(allocator.isAllocated(0));
+		assertFalse(allocator.isAllocated(6));
+	}
+
+	@Test
+	public void testNoImmediateReuse() {
+
+		IdAllocator allocator = new IdAllocator(5);
+
+		assertEquals(1, allocator.allocate());
+		assertEquals(2, allocator.allocate());
+
+		// The released id is not reused before the end of the range.
+		allocator.release(2);
+		assertFalse(allocator.isAllocated(2));
+		assertEquals(3, allocator.allocate());
+
+		allocator.release(1);
+		assertEquals(4, allocator.allocate());
+		assertEquals(5, allocator.allocate());
+
+		// The allocation wraps around.
+		assertEquals(1, allocator.allocate());
+		assertEquals(2, allocator.allocate());
+	}
+
+	@Test
+	public void testFull() {
+
+		IdAllocator allocator = new IdAllocator(3);
+
+		assertEquals(1, allocator.allocate());
+		assertEquals(2, allocator.allocate());
+		assertEquals(3, allocator.allocate());
+		assertEquals(-1, allocator.allocate());
+
+		allocator.release(2);
+		assertEquals(2, allocator.allocate());
+		assertEquals(-1, allocator.allocate());
+	}
+
+	@Test
+	public void testRelease() {
+
+		IdAllocator allocator = new IdAllocator(3);
+
+		assertEquals(1, allocator.allocate());
+
+		// Releasing an unknown or already released id has no effect.
+		allocator.release(2);
+		allocator.release(7);
+		allocator.release(1);
+		allocator.release(1);
+		assertEquals(0, allocator.size());
+
+		assertEquals(2, allocator.allocate());
+		assertEquals(1, allocator.size());
+	}
+
+	@Test
+	public void testDense() {
+
+		int maxId = 65536;
+		IdAllocator allocator = new IdAllocator(maxId);
+
+		for (int i = 1; i <= maxId; i++) {
+			assertEquals(i, allocator.allocate());
+		}
+
+		// Only one id is free in the middle of a full range.
+		allocator.release(40000);
+		assertEquals(40000, allocator.allocate());
+
+		allocator.release(10);
+		allocator.release(50000);
+		assertEquals(50000, allocator.allocate());
+		assertEquals(10, allocator.allocate());
+		assertEquals(maxId, allocator.size());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.ill.cameo.server.manager.PortManager;
+
+public class TestPortManager {
+
+	private static final int BASE_PORT = 20000;
+	
+	private PortManager manager = PortManager.getInstance();
+	
+	@Before
+	public void setUp() {
+		manager.setBasePort(BASE_PORT);
+	}
+	
+	@After
+	public void tearDown() {
+		// Release the ports of the test applications.
+		for (int id = 1; id <= 3; id++) {
+			manager.removeApplication(id);
+		}
+		for (int port : manager.getReservedPorts().keySet()) {
+			manager.removePort(port);
+		}
+		assertTrue(manager.getReservedPorts().isEmpty());
+	}
+	
+	@Test
+	public void testRequestPort() {
+		
+		assertEquals(BASE_PORT, manager.requestPort("app", 1));
+		assertEquals(BASE_PORT + 1, manager.requestPort("app", 1));
+		assertEquals(BASE_PORT + 2, manager.requestPort("server", null));
+		
+		// The first free port is reused.
+		assertTrue(manager.removePort(BASE_PORT));
+		assertEquals(BASE_PORT, manager.requestPort("app", 2));
+		
+		assertEquals(3, manager.getReservedPorts().size());
+	}
+	
+	@Test
+	public void testRequestPorts() {
+		
+		assertEquals(BASE_PORT, manager.requestPorts("app", 1, 3));
+		assertEquals(BASE_PORT + 3, manager.requestPort("app", 2));
+		assertEquals(BASE_PORT + 4, manager.requestPort("app", 1));
+		
+		// The hole of one port is too small for a range of two ports.
+		assertTrue(manager.removePort(BASE_PORT + 1));
+		assertEquals(BASE_PORT + 5, manager.requestPorts("app", 3, 2));
+		assertEquals(BASE_PORT + 1, manager.requestPort("app", 3));
+		
+		assertEquals(-1, manager.requestPorts("app", 3, 0));
+		
+		// The range cannot exceed the last port.
+		assertEquals(-1, manager.requestPorts("app", 3, 65536 - BASE_PORT));
+		assertEquals(-1, manager.requestPorts("app", 3, Integer.MAX_VALUE));
+		assertEquals(BASE_PORT + 7, manager.requestPorts("app", 3, 65536 - BASE_PORT - 7));
+	}
+	
+	@Test
+	public void testRemoveApplication() {
+		
+		manager.requestPorts("app", 1, 2);
+		manager.requestPort("app", 2);
+		manager.requestPort("app", 1);
+		
+		assertArrayEquals(new int[] {BASE_PORT, BASE_PORT + 1, BASE_PORT + 3}, manager.removeApplication(1));
+		assertEquals(0, manager.removeApplication(1).length);
+		assertEquals(BASE_PORT, manager.requestPorts("app", 3, 2));
+	}
+	
+	@Test
+	public void testPortUnavailable() {
+		
+		manager.requestPort("app", 1);
+		manager.requestPort("app", 1);
+		
+		// The unavailable port stays reserved when the application is removed.
+		manager.setPortUnavailable(BASE_PORT);
+		assertArrayEquals(new int[] {BASE_PORT + 1}, manager.removeApplication(1));
+		assertTrue(manager.getReservedPorts().containsKey(BASE_PORT));
+		assertEquals(BASE_PORT + 1, manager.requestPort("app", 2));
+		
+		// Unknown ports are ignored.
+		manager.setPortUnavailable(BASE_PORT - 1);
+		assertFalse(manager.removePort(BASE_PORT + 10));
+	}
+}
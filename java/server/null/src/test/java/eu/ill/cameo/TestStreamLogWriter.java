@@ -0,0 +1,167 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.ill.cameo.server.manager.ConfigManager;
+import eu.ill.cameo.server.threads.StreamLogWriter;
+
+public class TestStreamLogWriter {
+
+	// A line larger than half the rotation size of 1 MB so that each line is written in a new file.
+	private static final byte[] LINE = new byte[600 * 1024];
+	
+	private ConfigManager config = ConfigManager.getInstance();
+	private File directory;
+	
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("cameo-log").toFile();
+		
+		config.setLogQueueSize(16);
+		config.setLogOverflow("block");
+		config.setLogRotationSize(1);
+		config.setLogRotationTime(0);
+		config.setLogRotationFiles(2);
+		config.setLogCompression("no");
+	}
+	
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+	
+	private TreeSet<String> getFiles() {
+		return new TreeSet<String>(Arrays.asList(directory.list()));
+	}
+	
+	private TreeSet<String> files(String... names) {
+		return new TreeSet<String>(Arrays.asList(names));
+	}
+	
+	private void create(String name) throws IOException {
+		new File(directory, name).createNewFile();
+	}
+	
+	private StreamLogWriter.LogFile writeLines(StreamLogWriter writer, int lines) {
+		
+		StreamLogWriter.LogFile logFile = writer.open(directory.getPath(), "app.1");
+		for (int i = 0; i < lines; ++i) {
+			logFile.write(LINE, 0, LINE.length, true);
+		}
+		logFile.close();
+		
+		return logFile;
+	}
+	
+	private void waitForFiles(TreeSet<String> expected) {
+		
+		// The compression and the deletions are done by another thread.
+		for (int i = 0; i < 50 && !expected.equals(getFiles()); ++i) {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+			}
+		}
+		assertEquals(expected, getFiles());
+	}
+	
+	@Test
+	public void testRotation() {
+		
+		StreamLogWriter writer = new StreamLogWriter();
+		writer.start();
+		
+		StreamLogWriter.LogFile logFile = writeLines(writer, 5);
+		writer.terminate();
+		
+		// Four rotations and the two last rotated files are kept.
+		assertEquals(5, logFile.getWrittenLines());
+		assertEquals(0, logFile.getDroppedLines());
+		assertEquals(files("app.1.log", "app.1.log.3", "app.1.log.4"), getFiles());
+	}
+	
+	@Test
+	public void testReusedNameId() throws IOException {
+		
+		// Files of a previous application with the same name id.
+		create("app.1.log.3.gz");
+		create("app.1.log.7");
+		create("app.10.log.1");
+		
+		StreamLogWriter writer = new StreamLogWriter();
+		writer.start();
+		
+		writeLines(writer, 2);
+		writer.terminate();
+		
+		// The numbering continues after the existing files and the files out of the retention are removed.
+		assertEquals(files("app.1.log", "app.1.log.7", "app.1.log.8", "app.10.log.1"), getFiles());
+	}
+	
+	@Test
+	public void testCompressedRetention() throws IOException {
+		
+		config.setLogCompression("yes");
+		config.setLogRotationFiles(1);
+		
+		// A file rotated without compression and a compressed one.
+		create("app.1.log.1");
+		create("app.1.log.2.gz");
+		
+		StreamLogWriter writer = new StreamLogWriter();
+		writer.start();
+		
+		writeLines(writer, 3);
+		
+		// Both the plain and the compressed files out of the retention are removed.
+		waitForFiles(files("app.1.log", "app.1.log.4.gz"));
+		writer.terminate();
+	}
+	
+	@Test
+	public void testDroppedLines() {
+		
+		// The queue of one block is filled by the opening of the file because the writer thread is not started.
+		config.setLogQueueSize(0);
+		config.setLogOverflow("drop");
+		
+		StreamLogWriter writer = new StreamLogWriter();
+		StreamLogWriter.LogFile logFile = writer.open(directory.getPath(), "app.1");
+		
+		for (int i = 0; i < 3; ++i) {
+			logFile.write(LINE, 0, LINE.length, true);
+		}
+		assertEquals(3, logFile.getDroppedLines());
+		
+		writer.start();
+		logFile.close();
+		writer.terminate();
+		
+		assertEquals(0, logFile.getWrittenLines());
+		assertEquals(files("app.1.log"), getFiles());
+	}
+}
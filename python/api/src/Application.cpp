@@ -289,6 +289,50 @@ PYBIND11_MODULE(cameopy, m) {
 	// coms
 	py::module cm = m.def_submodule("coms", "Communication patterns module");
 
+	// The arrays are numpy arrays. numpy is imported only when the functions are called.
+	cm.def("encodeArray", [](py::object array) {
+
+			py::module numpy = py::module::import("numpy");
+
+			// The data is encoded in row-major and native order.
+			py::object contiguous = numpy.attr("ascontiguousarray")(array);
+			py::object dtype = contiguous.attr("dtype").attr("newbyteorder")("=");
+			contiguous = contiguous.attr("astype")(dtype, "copy"_a = false);
+
+			std::string kind = dtype.attr("kind").cast<std::string>();
+			if (kind != "i" && kind != "f") {
+				throw InvalidArgumentException("Only the signed integers and the floating point numbers are encoded");
+			}
+
+			std::string message = ArrayCodec::encodeHeader(kind[0],
+					dtype.attr("itemsize").cast<int>(),
+					contiguous.attr("size").cast<int64_t>(),
+					contiguous.attr("shape").cast<std::vector<int64_t>>());
+
+			message.append(contiguous.attr("tobytes")().cast<std::string>());
+
+			return py::bytes(message);
+		},
+		"array"_a,
+		"Function encoding a numpy array");
+
+	cm.def("decodeArray", [](py::bytes message) {
+
+			// Decode the header to check the message.
+			std::string data = message;
+			ArrayCodec::Array array = ArrayCodec::decode(data);
+
+			std::string dtype = std::string(1, array.getByteOrder()) + array.getKind() + std::to_string(array.getItemSize());
+
+			// The numpy array is a read-only view of the message.
+			py::module numpy = py::module::import("numpy");
+			py::object result = numpy.attr("frombuffer")(message, "dtype"_a = dtype, "count"_a = array.getLength(), "offset"_a = array.getDataOffset());
+
+			return result.attr("reshape")(py::tuple(py::cast(array.getShape())));
+		},
+		"message"_a,
+		"Function decoding a numpy array without copy");
+
 	py::class_<Publisher>(cm, "Publisher")
 	    .def_static("create", &Publisher::create,
 	    		"name"_a,
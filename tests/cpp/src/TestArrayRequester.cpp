@@ -0,0 +1,92 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+#include <cameo/api/cameo.h>
+#include <iostream>
+
+using namespace std;
+using namespace cameo;
+
+int main(int argc, char *argv[]) {
+
+	This::init(argc, argv);
+
+	bool success = true;
+	{
+		string applicationName;
+
+		if (argc > 2) {
+			applicationName = argv[1];
+			cout << "Responder application is " + applicationName << endl;
+		}
+		else {
+			cerr << "Arguments: [application name]" << endl;
+			return -1;
+		}
+
+		unique_ptr<Server> server = Server::create("tcp://localhost:11000");
+		server->init();
+
+		// Start the application.
+		unique_ptr<App> responderApplication = server->start(applicationName);
+
+		cout << "Started application " << *responderApplication << endl;
+
+		unique_ptr<coms::Requester> requester = coms::Requester::create(*responderApplication, "responder");
+		requester->init();
+
+		// Send an array of doubles and receive the doubled values with the same shape.
+		vector<double> doubles {0.0, 1.0, 2.0, 3.0, 4.0, 5.0};
+		optional<string> response = requester->request(coms::ArrayCodec::encode(doubles, {2, 3}));
+
+		coms::ArrayCodec::Array array = coms::ArrayCodec::decode(response.value());
+		vector<double> doubleResult = array.toVector<double>();
+
+		cout << "Received array of " << array.getLength() << " doubles" << endl;
+
+		if (array.getShape() != vector<int64_t>{2, 3}) {
+			success = false;
+		}
+		for (size_t i = 0; i < doubles.size(); ++i) {
+			if (doubleResult[i] != 2 * doubles[i]) {
+				success = false;
+			}
+		}
+
+		// Send an array of ints and receive the incremented values with the same shape.
+		vector<int32_t> ints {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+		response = requester->request(coms::ArrayCodec::encode(ints, {3, 4}));
+
+		array = coms::ArrayCodec::decode(response.value());
+		vector<int32_t> intResult = array.toVector<int32_t>();
+
+		cout << "Received array of " << array.getLength() << " ints" << endl;
+
+		if (array.getShape() != vector<int64_t>{3, 4}) {
+			success = false;
+		}
+		for (size_t i = 0; i < ints.size(); ++i) {
+			if (intResult[i] != ints[i] + 1) {
+				success = false;
+			}
+		}
+
+		// Wait for the end of the application.
+		state::Value state = responderApplication->waitFor();
+
+		cout << "Responder application terminated with state " << toString(state) << endl;
+	}
+
+	This::terminate();
+
+	cout << "Finished the application" << endl;
+
+	return (success ? 0 : -1);
+}
@@ -0,0 +1,95 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+#include <cameo/api/cameo.h>
+#include <iostream>
+
+using namespace std;
+using namespace cameo;
+
+int main(int argc, char *argv[]) {
+
+	This::init(argc, argv);
+
+	string applicationName;
+
+	int numberOfTimes = 1;
+
+	if (argc > 2) {
+		applicationName = argv[1];
+		cout << "Requester application is " + applicationName << endl;
+
+		if (argc > 3) {
+			numberOfTimes = stoi(argv[2]);
+		}
+	}
+	else {
+		cerr << "Arguments: [application name] <number of times>" << endl;
+		return -1;
+	}
+
+	int options = 0;
+	bool useProxy = false;
+	string endpoint = "tcp://localhost:11000";
+	if (argc > 4) {
+		useProxy = (string(argv[3]) == "true");
+	}
+	if (useProxy) {
+		options |= option::USE_PROXY;
+		endpoint = "tcp://localhost:12000";
+	}
+
+	unique_ptr<Server> server = Server::create(endpoint, options);
+	server->init();
+
+	This::setRunning();
+
+	// The requester application sends 10 asynchronous requests and a synchronous one.
+	int R = 10;
+
+	bool success = true;
+
+	// loop the number of times.
+	for (int i = 0; i < numberOfTimes; ++i) {
+
+		// This responder does not echo the correlation ids so that the requester sends the requests one by one.
+		unique_ptr<coms::basic::Responder> responder = coms::basic::Responder::create("responder");
+		responder->init();
+
+		// Start the requester application.
+		vector<string> args{(useProxy ? "true" : "false")};
+		unique_ptr<App> requesterApp = server->start(applicationName, args);
+		cout << "Started application " << *requesterApp << endl;
+
+		// Reply to the requests in their order.
+		for (int j = 0; j < R + 1; ++j) {
+			unique_ptr<coms::basic::Request> request = responder->receive();
+			request->reply("response to " + request->get());
+
+			cout << "Processed " << *request << endl;
+		}
+
+		// The requester application checks that each response is the one of its request.
+		optional<string> result = requesterApp->getResult();
+		if (result.has_value()) {
+			cout << "Requester application returned " << result.value() << endl;
+		}
+
+		if (!result.has_value() || result.value() != "OK") {
+			success = false;
+		}
+	}
+
+	cout << "Finished the application" << endl;
+
+	This::terminate();
+
+	return (success ? 0 : -1);
+}
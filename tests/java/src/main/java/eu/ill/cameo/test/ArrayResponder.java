@@ -0,0 +1,75 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.test;
+
+import eu.ill.cameo.api.base.This;
+import eu.ill.cameo.api.coms.basic.Request;
+import eu.ill.cameo.api.coms.basic.Responder;
+import eu.ill.cameo.common.messages.ArrayCodec;
+
+
+public class ArrayResponder {
+
+	private static int[] toShape(long[] shape) {
+		int[] result = new int[shape.length];
+		for (int i = 0; i < shape.length; ++i) {
+			result[i] = (int)shape[i];
+		}
+		return result;
+	}
+	
+	public static void main(String[] args) {
+
+		This.init(args);
+		
+		try {
+			System.out.println("Creating responder");
+			
+			// Create the responder.
+			Responder responder = Responder.create("responder");
+			responder.init();
+			
+			// Set the state.
+			This.setRunning();
+			
+			// Receive an array of doubles and reply the doubled values with the same shape.
+			Request request = responder.receive();
+			ArrayCodec.Array array = request.getArray();
+			System.out.println("Received array of " + array.getLength() + " doubles");
+			
+			double[] doubles = array.toDoubles();
+			for (int i = 0; i < doubles.length; ++i) {
+				doubles[i] *= 2;
+			}
+			request.replyDoubles(doubles, toShape(array.getShape()));
+			
+			// Receive an array of ints and reply the incremented values with the same shape.
+			request = responder.receive();
+			array = request.getArray();
+			System.out.println("Received array of " + array.getLength() + " ints");
+			
+			int[] ints = array.toInts();
+			for (int i = 0; i < ints.length; ++i) {
+				ints[i] += 1;
+			}
+			request.replyInts(ints, toShape(array.getShape()));
+			
+			// Terminate the responder.
+			responder.terminate();
+		}
+		finally {
+			This.terminate();			
+		}
+		
+		System.out.println("Finished the application");
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import eu.ill.cameo.api.base.Option;
+import eu.ill.cameo.api.base.ServerAndApp;
+import eu.ill.cameo.api.base.This;
+import eu.ill.cameo.api.coms.Requester;
+
+
+public class PipelinedRequester {
+
+	public static void main(String[] args) {
+
+		This.init(args);
+
+		boolean useProxy = false;
+		if (args.length > 1) {
+			useProxy = Boolean.parseBoolean(args[0]);
+		}
+
+		try {
+			System.out.println("Creating requester");
+
+			// Get the starter app.
+			ServerAndApp starter = This.connectToStarter((useProxy ? Option.USE_PROXY : 0));
+
+			// Create the requester.
+			Requester requester = Requester.create(starter.getApp(), "responder");
+			requester.init();
+
+			// Set the state.
+			This.setRunning();
+
+			// Send 10 requests without waiting for the responses.
+			int R = 10;
+			ArrayList<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < R; ++i) {
+				futures.add(requester.requestAsync("request " + i));
+			}
+
+			// Each response must be the one of its request whatever the order of the replies.
+			int mismatches = 0;
+			for (int i = 0; i < R; ++i) {
+				String result = futures.get(i).join();
+				System.out.println("Received " + result);
+
+				if (!("response to request " + i).equals(result)) {
+					++mismatches;
+				}
+			}
+
+			// A synchronous request after the asynchronous requests.
+			String result = requester.request("request " + R);
+			System.out.println("Received " + result);
+
+			if (!("response to request " + R).equals(result)) {
+				++mismatches;
+			}
+
+			This.setStringResult(mismatches == 0 ? "OK" : mismatches + " mismatches");
+
+			// Terminate the requester.
+			requester.terminate();
+			starter.terminate();
+		}
+		finally {
+			This.terminate();
+		}
+
+		System.out.println("Finished the application");
+	}
+
+}
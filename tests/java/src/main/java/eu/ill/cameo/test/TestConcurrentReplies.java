@@ -0,0 +1,136 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.test;
+
+import java.util.ArrayList;
+
+import eu.ill.cameo.api.base.App;
+import eu.ill.cameo.api.base.Option;
+import eu.ill.cameo.api.base.Server;
+import eu.ill.cameo.api.base.This;
+import eu.ill.cameo.api.coms.basic.Request;
+import eu.ill.cameo.api.coms.basic.Responder;
+
+
+public class TestConcurrentReplies {
+
+	public static void main(String[] args) {
+
+		This.init(args);
+
+		String applicationName = null;
+		int numberOfTimes = 1;
+
+		if (args.length > 1) {
+			applicationName = args[0];
+			System.out.println("Requester application is " + applicationName);
+
+			if (args.length > 2) {
+				numberOfTimes = Integer.parseInt(args[1]);
+			}
+		}
+		else {
+			System.err.println("Arguments: [application name]");
+			System.exit(-1);
+		}
+
+		boolean useProxy = false;
+		String endpoint = "tcp://localhost:11000";
+		if (args.length > 3) {
+			useProxy = Boolean.parseBoolean(args[2]);
+		}
+		if (useProxy) {
+			endpoint = "tcp://localhost:12000";
+		}
+
+		Server server = Server.create(endpoint, (useProxy ? Option.USE_PROXY : 0));
+		server.init();
+
+		boolean success = true;
+
+		try {
+			// Set the state.
+			This.setRunning();
+
+			// The requester application sends 10 asynchronous requests and a synchronous one.
+			int R = 10;
+
+			// Loop the number of times.
+			for (int i = 0; i < numberOfTimes; ++i) {
+
+				// Create the responder.
+				Responder responder = Responder.create("responder");
+				responder.init();
+
+				// Start the requester application.
+				App requesterApp = server.start(applicationName, new String[] {Boolean.toString(useProxy)});
+				System.out.println("Started application " + requesterApp);
+
+				// Each asynchronous request is replied by its own thread after a delay so that the replies are sent while the main thread is blocked in receive().
+				ArrayList<Thread> threads = new ArrayList<Thread>();
+
+				for (int j = 0; j < R; ++j) {
+					Request request = responder.receive();
+					System.out.println("Received " + request.getString());
+
+					int delay = 100 + 20 * (R - j);
+
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							try {
+								Thread.sleep(delay);
+							}
+							catch (InterruptedException e) {
+							}
+							request.replyString("response to " + request.getString());
+						}
+					});
+
+					thread.start();
+					threads.add(thread);
+				}
+
+				// The synchronous request is received once the asynchronous requests are replied.
+				Request request = responder.receive();
+				request.replyString("response to " + request.getString());
+
+				for (Thread thread : threads) {
+					try {
+						thread.join();
+					}
+					catch (InterruptedException e) {
+					}
+				}
+
+				// The requester application checks that each response is the one of its request.
+				String result = requesterApp.getStringResult();
+				System.out.println("Requester application returned " + result);
+
+				if (!"OK".equals(result)) {
+					success = false;
+				}
+
+				responder.terminate();
+			}
+		}
+		finally {
+			server.terminate();
+			This.terminate();
+		}
+
+		System.out.println("Finished the application");
+
+		if (!success) {
+			System.exit(-1);
+		}
+	}
+
+}
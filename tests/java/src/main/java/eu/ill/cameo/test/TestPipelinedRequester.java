@@ -0,0 +1,114 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.test;
+
+import eu.ill.cameo.api.base.App;
+import eu.ill.cameo.api.base.Option;
+import eu.ill.cameo.api.base.Server;
+import eu.ill.cameo.api.base.This;
+import eu.ill.cameo.api.coms.basic.Request;
+import eu.ill.cameo.api.coms.basic.Responder;
+
+
+public class TestPipelinedRequester {
+
+	public static void main(String[] args) {
+
+		This.init(args);
+
+		String applicationName = null;
+		int numberOfTimes = 1;
+
+		if (args.length > 1) {
+			applicationName = args[0];
+			System.out.println("Requester application is " + applicationName);
+
+			if (args.length > 2) {
+				numberOfTimes = Integer.parseInt(args[1]);
+			}
+		}
+		else {
+			System.err.println("Arguments: [application name]");
+			System.exit(-1);
+		}
+
+		boolean useProxy = false;
+		String endpoint = "tcp://localhost:11000";
+		if (args.length > 3) {
+			useProxy = Boolean.parseBoolean(args[2]);
+		}
+		if (useProxy) {
+			endpoint = "tcp://localhost:12000";
+		}
+
+		Server server = Server.create(endpoint, (useProxy ? Option.USE_PROXY : 0));
+		server.init();
+
+		boolean success = true;
+
+		try {
+			// Set the state.
+			This.setRunning();
+
+			// The requester application sends 10 asynchronous requests and a synchronous one.
+			int R = 10;
+
+			// Loop the number of times.
+			for (int i = 0; i < numberOfTimes; ++i) {
+
+				// Create the responder.
+				Responder responder = Responder.create("responder");
+				responder.init();
+
+				// Start the requester application.
+				App requesterApp = server.start(applicationName, new String[] {Boolean.toString(useProxy)});
+				System.out.println("Started application " + requesterApp);
+
+				// Receive all the asynchronous requests as they are in flight together.
+				Request[] requests = new Request[R];
+				for (int j = 0; j < R; ++j) {
+					requests[j] = responder.receive();
+					System.out.println("Received " + requests[j].getString());
+				}
+
+				// Reply in the reverse order.
+				for (int j = R - 1; j >= 0; --j) {
+					requests[j].replyString("response to " + requests[j].getString());
+				}
+
+				// Reply to the synchronous request.
+				Request request = responder.receive();
+				request.replyString("response to " + request.getString());
+
+				// The requester application checks that each response is the one of its request.
+				String result = requesterApp.getStringResult();
+				System.out.println("Requester application returned " + result);
+
+				if (!"OK".equals(result)) {
+					success = false;
+				}
+
+				responder.terminate();
+			}
+		}
+		finally {
+			server.terminate();
+			This.terminate();
+		}
+
+		System.out.println("Finished the application");
+
+		if (!success) {
+			System.exit(-1);
+		}
+	}
+
+}
@@ -156,12 +156,15 @@ public class TestSelector {
 		apps.add("testsimplejava");
 		apps.add("testveryfastjava");
 		apps.add("teststopjava");
+		apps.add("teststatemirrorjava");
 		apps.add("testresultjava");
 		apps.add("testerrorjava");
 		apps.add("teststoragejava");
 		apps.add("testwaitstoragejava");
 		apps.add("testbasicresponderjava");
 		apps.add("testbasicrequesterjava");
+		apps.add("testpipelinedrequesterjava");
+		apps.add("testconcurrentrepliesjava");
 		//apps.add("testmultiresponderjava");
 		//apps.add("testmultirespondersjava");
 		apps.add("testpublisherjava");
@@ -194,6 +197,8 @@ public class TestSelector {
 		apps.add("testwaitstoragecpp");
 		apps.add("testbasicrespondercpp");
 		apps.add("testbasicrequestercpp");
+		apps.add("testarrayrequestercpp");
+		apps.add("testpipelinedrequestercpp");
 		//apps.add("testmultirespondercpp");
 		//apps.add("testmultiresponderscpp");		
 		apps.add("testpublishercpp");
@@ -225,6 +230,7 @@ public class TestSelector {
 		apps.add("testsubscriberpy");
 		apps.add("testbasicresponderpy");
 		apps.add("testbasicrequesterpy");
+		apps.add("testarrayrequesterpy");
 		//apps.add("testmultiresponderpy");
 		//apps.add("testmultiresponderspy");
 		apps.add("testcancelpy");
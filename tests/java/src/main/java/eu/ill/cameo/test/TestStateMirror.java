@@ -0,0 +1,119 @@
+/*
+ * CAMEO
+ *
+ * Copyright 2015 Institut Laue-Langevin
+ *
+ * Licensed under BSD 3-Clause and GPL-v3 as described in license files.
+ * You may not use this work except in compliance with the Licences.
+ *
+ */
+
+package eu.ill.cameo.test;
+
+import eu.ill.cameo.api.base.App;
+import eu.ill.cameo.api.base.Option;
+import eu.ill.cameo.api.base.Server;
+import eu.ill.cameo.api.base.State;
+import eu.ill.cameo.api.base.This;
+
+
+public class TestStateMirror {
+
+	private static boolean hasApplication(Server server, int id) {
+		for (App.Info info : server.getApplicationInfos()) {
+			if (info.getId() == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public static void main(String[] args) {
+
+		This.init(args);
+		
+		int numberOfTimes = 1;
+		
+		if (args.length > 1) {
+			numberOfTimes = Integer.parseInt(args[0]);
+		}
+		
+		boolean useProxy = false;
+		String endpoint = "tcp://localhost:11000";
+		if (args.length > 2) {
+			useProxy = Boolean.parseBoolean(args[1]);
+		}
+		if (useProxy) {
+			endpoint = "tcp://localhost:12000";
+		}
+		
+		int options = (useProxy ? Option.USE_PROXY : 0);
+		
+		// The states are read from the local copy with the first server and requested with the second one.
+		Server mirrorServer = Server.create(endpoint, options | Option.MIRROR_STATES);
+		mirrorServer.init();
+		
+		Server server = Server.create(endpoint, options);
+		server.init();
+		
+		boolean success = true;
+		
+		try {
+			// Loop the number of times.
+			for (int i = 0; i < numberOfTimes; ++i) {
+				
+				// Start the application.
+				App app = mirrorServer.start("stopjava");
+				app.waitFor(State.RUNNING);
+				
+				int id = app.getId();
+				
+				int mirrorState = mirrorServer.getState(id);
+				int state = server.getState(id);
+				System.out.println("Running application has state " + State.toString(mirrorState) + " and " + State.toString(state));
+				
+				if (mirrorState != state || !mirrorServer.getPastStates(id).equals(server.getPastStates(id))) {
+					success = false;
+				}
+				if (!hasApplication(mirrorServer, id) || !hasApplication(server, id)) {
+					success = false;
+				}
+				
+				app.stop();
+				app.waitFor();
+				
+				// The server removes the application after its terminal state.
+				for (int j = 0; j < 50 && server.getState(id) != State.NIL; ++j) {
+					try {
+						Thread.sleep(100);
+					}
+					catch (InterruptedException e) {
+					}
+				}
+				
+				mirrorState = mirrorServer.getState(id);
+				state = server.getState(id);
+				System.out.println("Terminated application has state " + State.toString(mirrorState) + " and " + State.toString(state));
+				
+				if (mirrorState != State.NIL || state != State.NIL || !mirrorServer.getPastStates(id).equals(server.getPastStates(id))) {
+					success = false;
+				}
+				if (hasApplication(mirrorServer, id) || hasApplication(server, id)) {
+					success = false;
+				}
+			}
+		}
+		finally {
+			server.terminate();
+			mirrorServer.terminate();
+			This.terminate();
+		}
+		
+		System.out.println("Finished the application");
+		
+		if (!success) {
+			System.exit(-1);
+		}
+	}
+
+}
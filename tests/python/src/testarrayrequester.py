@@ -0,0 +1,51 @@
+import sys
+import numpy
+import cameopy
+
+this = cameopy.This
+this.init(sys.argv)
+
+applicationName = ""
+
+if len(sys.argv) >= 3:
+    applicationName = sys.argv[1]
+
+server = cameopy.Server.create("tcp://localhost:11000")
+server.init()
+
+print("Responder application is", applicationName)
+
+app = server.start(applicationName)
+print("Started application", applicationName)
+
+requester = cameopy.coms.Requester.create(app, "responder")
+requester.init()
+
+success = True
+
+# Send an array of doubles and receive the doubled values with the same shape.
+doubles = numpy.arange(6.0).reshape(2, 3)
+response = cameopy.coms.decodeArray(requester.request(cameopy.coms.encodeArray(doubles)))
+print("Response is", response)
+
+if response.shape != (2, 3) or not numpy.array_equal(response, doubles * 2):
+    success = False
+
+# Send an array of ints and receive the incremented values with the same shape.
+ints = numpy.arange(12, dtype=numpy.int32).reshape(3, 4)
+response = cameopy.coms.decodeArray(requester.request(cameopy.coms.encodeArray(ints)))
+print("Response is", response)
+
+if response.shape != (3, 4) or response.dtype.kind != "i" or not numpy.array_equal(response, ints + 1):
+    success = False
+
+app.waitFor()
+
+requester.terminate()
+server.terminate()
+this.terminate()
+
+print("Finished the application")
+
+if not success:
+    sys.exit(1)